@@ -0,0 +1,45 @@
+package hirondelle.movies;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ The main class of the benchmarks jar. The same as JMH's own, except that the garbage
+ collection profiler is always added : each benchmark also reports the bytes allocated per
+ operation, and the number and time of the collections.
+
+ <P>Takes the usual JMH options. Those which only list or explain things are passed straight
+ to JMH.
+*/
+public final class Benchmarks {
+
+  public static void main(String... aArgs) throws Exception {
+    CommandLineOptions options = new CommandLineOptions(aArgs);
+    if ( options.shouldHelp() || options.shouldList() || options.shouldListWithParams() ||
+      options.shouldListProfilers() || options.shouldListResultFormats() || hasGcProfiler(options) ) {
+      Main.main(aArgs);
+      return;
+    }
+    Options withGc = new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build();
+    new Runner(withGc).run();
+  }
+
+  // PRIVATE
+
+  private static final String GC = "gc";
+
+  /** True only if the profiler was already asked for, with <tt>-prof gc</tt>. */
+  private static boolean hasGcProfiler(Options aOptions){
+    for(ProfilerConfig profiler : aOptions.getProfilers()){
+      if ( GC.equals(profiler.getKlass()) || GCProfiler.class.getName().equals(profiler.getKlass()) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
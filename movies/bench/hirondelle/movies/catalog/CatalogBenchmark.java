@@ -0,0 +1,112 @@
+package hirondelle.movies.catalog;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ Measure the time taken to build a {@link Catalog}, and by {@link Catalog#startingWith(String, int)}.
+
+ <P>Writes a tab-separated file of synthetic titles, whose words follow a Zipf-like 
+ distribution, builds a catalog from it, and then times lookups of the first few letters 
+ of randomly chosen titles, as typed by a user. Run with :
+ <PRE>java -Xmx512m -cp bin hirondelle.movies.catalog.CatalogBenchmark [number of titles]</PRE>
+ The default is 5,000,000 titles. The small heap is deliberate : the catalog is never loaded 
+ onto it.
+*/
+public final class CatalogBenchmark {
+
+  /** Run the benchmark. */
+  public static void main(String... aArgs) throws Exception {
+    int numTitles = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : 5000000;
+    Random random = new Random(SEED);
+    Path dir = Files.createTempDirectory("catalog-benchmark");
+    Path titles = dir.resolve("titles.tsv");
+    Path index = dir.resolve("catalog.idx");
+    try {
+      String[] samples = writeTitles(titles, numTitles, random);
+      long start = System.nanoTime();
+      int numIndexed = CatalogBuilder.build(titles, null, index);
+      log(
+        "Built a catalog of " + numIndexed + " titles in " + millis(System.nanoTime() - start) + " ms: " + 
+        Files.size(index) + " bytes, from " + Files.size(titles) + " bytes of titles"
+      );
+      Catalog catalog = Catalog.open(index);
+      //warm up, so the JIT compiler has done its work before measuring
+      for(int idx = 0; idx < NUM_QUERIES; ++idx){
+        catalog.startingWith(prefix(samples, random), MAX_SUGGESTIONS);
+      }
+      long[] nanos = new long[NUM_QUERIES];
+      int found = 0;
+      for(int idx = 0; idx < NUM_QUERIES; ++idx){
+        String prefix = prefix(samples, random);
+        long queryStart = System.nanoTime();
+        found = found + catalog.startingWith(prefix, MAX_SUGGESTIONS).size();
+        nanos[idx] = System.nanoTime() - queryStart;
+      }
+      Arrays.sort(nanos);
+      log(
+        "Lookups (ms): median " + millis(nanos[NUM_QUERIES / 2]) +
+        ", 99th percentile " + millis(nanos[NUM_QUERIES * 99 / 100]) +
+        ", max " + millis(nanos[NUM_QUERIES - 1]) + ". Titles found: " + found
+      );
+    }
+    finally {
+      Files.deleteIfExists(titles);
+      Files.deleteIfExists(index);
+      Files.delete(dir);
+    }
+  }
+
+  // PRIVATE
+  private static final long SEED = 42L;
+  private static final int VOCABULARY_SIZE = 50000;
+  private static final int NUM_QUERIES = 10000;
+  private static final int NUM_SAMPLES = 1000;
+  private static final int MAX_SUGGESTIONS = 10;
+
+  /** Write the titles, in the layout of a film database dump. Return a sample of them. */
+  private static String[] writeTitles(Path aFile, int aNumTitles, Random aRandom) throws Exception {
+    String[] vocabulary = new String[VOCABULARY_SIZE];
+    for(int idx = 0; idx < vocabulary.length; ++idx){
+      String word = Integer.toString(idx * 7919 % 1679616 + 46656, 36);
+      vocabulary[idx] = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+    String[] result = new String[NUM_SAMPLES];
+    try (BufferedWriter writer = Files.newBufferedWriter(aFile, StandardCharsets.UTF_8)){
+      writer.write("tconst\ttitleType\tprimaryTitle\toriginalTitle\tstartYear\n");
+      StringBuilder title = new StringBuilder();
+      for(int id = 0; id < aNumTitles; ++id){
+        title.setLength(0);
+        int numWords = 1 + aRandom.nextInt(4);
+        for(int idx = 0; idx < numWords; ++idx){
+          if ( idx > 0 ) title.append(' ');
+          int rank = (int)Math.pow(vocabulary.length, aRandom.nextDouble()) - 1;
+          title.append(vocabulary[rank]);
+        }
+        if ( id < NUM_SAMPLES ) {
+          result[id] = title.toString();
+        }
+        writer.write("tt" + id + "\tmovie\t" + title + "\t" + title + "\t" + (1900 + aRandom.nextInt(125)) + "\n");
+      }
+    }
+    return result;
+  }
+
+  /** The first 2 to 8 letters of a title. */
+  private static String prefix(String[] aSamples, Random aRandom){
+    String title = aSamples[aRandom.nextInt(aSamples.length)];
+    return title.substring(0, Math.min(title.length(), 2 + aRandom.nextInt(7)));
+  }
+
+  private static String millis(long aNanos){
+    return String.format("%.3f", aNanos / 1000000.0);
+  }
+
+  private static void log(String aMessage){
+    System.out.println(aMessage);
+  }
+}
@@ -0,0 +1,300 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.util.CurrentUser;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+/**
+ Drive a whole session through the real {@link MovieDAO} and {@link MovieTableModel},
+ without a display, and report the time and peak heap of each phase.
+
+ <P>Run with :
+ <PRE>java -cp bin hirondelle.movies.edit.HeadlessWorkload [number of movies] [heap size] [encrypt]</PRE>
+ The defaults are 10000 movies and <tt>4g</tt>. With <tt>encrypt</tt>, the movies are saved
+ encrypted (see {@link MovieEncryption}), and each JVM first derives the key, in a phase of 
+ its own.
+
+ <P>A movies file is written by {@link MovieFileGenerator} to a new temporary directory.
+ A new JVM is then started in that directory, which :
+ <ol>
+  <li>loads the file, as the app does when the user logs in
+  <li>builds the table model
+  <li>edits one movie in 10, one at a time; deletes one movie in 100, in a single step;
+  adds as many new movies as were deleted, in a single step; and then refreshes the table
+  <li>sorts the table by each of its columns
+  <li>saves the file (moving it into a file for each year)
+ </ol>
+ The movies are held in static fields, read in only once per JVM. So a second JVM then
+ reloads the saved files, first the most recent years, as at startup, and then all the others.
+ It checks that all the edits were saved.
+
+ <P>For each phase, the report shows the elapsed time, the peak heap used during the phase
+ (the total of the peaks of each heap memory pool), and the heap used at its end.
+*/
+public final class HeadlessWorkload {
+
+  /** Run the workload. */
+  public static void main(String... aArgs) throws Exception {
+    if ( aArgs.length == 2 && SESSION.equals(aArgs[0]) ) {
+      runSession(Integer.parseInt(aArgs[1]));
+    }
+    else if ( aArgs.length == 2 && RELOAD.equals(aArgs[0]) ) {
+      runReload(Integer.parseInt(aArgs[1]));
+    }
+    else {
+      int numMovies = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : DEFAULT_NUM_MOVIES;
+      String heap = aArgs.length > 1 ? aArgs[1] : DEFAULT_HEAP;
+      boolean encrypt = aArgs.length > 2 && ENCRYPT.equals(aArgs[2]);
+      runAll(numMovies, heap, encrypt);
+    }
+  }
+
+  // PRIVATE
+  private static final String SESSION = "--session";
+  private static final String RELOAD = "--reload";
+  private static final String ENCRYPT = "encrypt";
+  private static final String PASSWORD = "workload password";
+  private static final int DEFAULT_NUM_MOVIES = 10000;
+  private static final String DEFAULT_HEAP = "4g";
+  private static final String USER_NAME = "workload";
+  private static final String MOVIES_DIRECTORY = "movie_list_for_" + USER_NAME;
+  private static final String MOVIES_FILE = MOVIES_DIRECTORY + ".txt";
+
+  /** Every movie at an index in the natural order which is a multiple of this is edited. */
+  private static final int EDIT_EVERY = 10;
+  /** Every movie at this index, modulo DELETE_EVERY, is deleted. Never an edited movie. */
+  private static final int DELETE_EVERY = 100;
+  private static final int DELETE_AT = 55;
+  private static final String EDIT_MARKER = " (seen again)";
+  private static final BigDecimal EDITED_RATING = new BigDecimal("8.5");
+  private static final long MEGABYTE = 1024 * 1024;
+
+  private static long fPhaseStart;
+
+  private static void runAll(int aNumMovies, String aHeap, boolean aEncrypt) throws Exception {
+    Path dir = Files.createTempDirectory("movie-workload");
+    try {
+      log(String.format("%-14s %10s %10s %15s %15s", "Phase", "Rows", "ms", "peak heap MB", "heap after MB"));
+      startPhase();
+      MovieFileGenerator.write(dir.resolve(MOVIES_FILE), aNumMovies, MovieFileGenerator.DEFAULT_SEED);
+      endPhase("generate", aNumMovies);
+      fork(dir, aHeap, aEncrypt, SESSION, aNumMovies);
+      fork(dir, aHeap, aEncrypt, RELOAD, aNumMovies);
+      log("Movies files: " + sizeOf(dir.resolve(MOVIES_DIRECTORY).toFile()) / 1024 + " KB");
+    }
+    finally {
+      deleteAll(dir.toFile());
+    }
+  }
+
+  private static void runSession(int aNumMovies) throws Exception {
+    CurrentUser.set(USER_NAME);
+    unlock();
+
+    startPhase();
+    final MovieDAO dao = new MovieDAO();
+    //the first load moves the file into a file for each year, so all the movies are read in
+    List<Movie> movies = dao.list();
+    endPhase("load", movies.size());
+    check(movies.size() == aNumMovies, "Expected " + aNumMovies + " movies, but read " + movies.size());
+
+    startPhase();
+    final MovieTableModel[] model = new MovieTableModel[1];
+    final Semaphore rebuilt = new Semaphore(0);
+    SwingUtilities.invokeAndWait(new Runnable(){
+      @Override public void run() {
+        model[0] = new MovieTableModel();
+        model[0].addTableModelListener(new TableModelListener(){
+          @Override public void tableChanged(TableModelEvent aEvent) {
+            rebuilt.release();
+          }
+        });
+      }
+    });
+    //the model reads the movies on a worker thread
+    rebuilt.acquire();
+    endPhase("table model", model[0].getRowCount());
+
+    startPhase();
+    List<String> deleted = new ArrayList<>();
+    List<Movie> added = new ArrayList<>();
+    for(int idx = 0; idx < movies.size(); ++idx){
+      Movie movie = movies.get(idx);
+      if ( idx % EDIT_EVERY == 0 ) {
+        String comment = movie.getComment() == null ? EDIT_MARKER : movie.getComment() + EDIT_MARKER;
+        dao.change(
+          new Movie(movie.getId(), movie.getTitle(), movie.getDateViewed(), EDITED_RATING, comment)
+        );
+      }
+      else if ( idx % DELETE_EVERY == DELETE_AT ) {
+        deleted.add(movie.getId());
+        added.add(new Movie(null, movie.getTitle() + " 2", (Date)null, null, null));
+      }
+    }
+    dao.deleteAll(deleted);
+    dao.addAll(added);
+    refresh(model[0], rebuilt);
+    endPhase("bulk edit", movies.size());
+    check(model[0].getRowCount() == aNumMovies, "The table has " + model[0].getRowCount() + " rows");
+
+    startPhase();
+    for(int column = 0; column < model[0].getColumnCount(); ++column){
+      sort(model[0], column, rebuilt);
+    }
+    endPhase("sort x " + model[0].getColumnCount(), model[0].getRowCount());
+
+    startPhase();
+    dao.shutdown();
+    endPhase("save", aNumMovies);
+    check(! dao.hasUnsavedEdits(), "The movies were not saved.");
+    //the EDT would otherwise keep the JVM alive
+    System.exit(0);
+  }
+
+  private static void runReload(int aNumMovies) throws Exception {
+    CurrentUser.set(USER_NAME);
+    unlock();
+    startPhase();
+    MovieDAO dao = new MovieDAO();
+    List<Movie> recent = dao.list();
+    endPhase("reload recent", recent.size());
+    check(dao.hasOlderMovies() || recent.size() == aNumMovies, "Only " + recent.size() + " movies, but no older ones");
+
+    startPhase();
+    dao.loadAll();
+    List<Movie> movies = dao.list();
+    endPhase("reload all", movies.size());
+    check(movies.size() == aNumMovies, "Expected " + aNumMovies + " movies, but reloaded " + movies.size());
+    int edited = 0;
+    for(Movie movie : movies){
+      if ( movie.getComment() != null && movie.getComment().endsWith(EDIT_MARKER) ) ++edited;
+    }
+    int expected = (aNumMovies + EDIT_EVERY - 1) / EDIT_EVERY;
+    check(edited == expected, "Expected " + expected + " edited movies, but reloaded " + edited);
+  }
+
+  private static void refresh(final MovieTableModel aModel, Semaphore aRebuilt) throws Exception {
+    SwingUtilities.invokeAndWait(new Runnable(){
+      @Override public void run() {
+        aModel.refreshView();
+      }
+    });
+    aRebuilt.acquire();
+  }
+
+  private static void sort(final MovieTableModel aModel, final int aColumn, Semaphore aRebuilt) throws Exception {
+    SwingUtilities.invokeAndWait(new Runnable(){
+      @Override public void run() {
+        aModel.sortByColumn(aColumn);
+      }
+    });
+    aRebuilt.acquire();
+  }
+
+  /** Derive the key, as the login screen does, if the movies are encrypted. */
+  private static void unlock() throws Exception {
+    if ( MovieEncryption.isOnFor(USER_NAME) ) {
+      startPhase();
+      MovieEncryption.unlock(USER_NAME, PASSWORD.toCharArray());
+      endPhase("unlock", 0);
+    }
+  }
+
+  /** Run a step of the workload in a new JVM, in the given directory, and wait for it. */
+  private static void fork(Path aDir, String aHeap, boolean aEncrypt, String aStep, int aNumMovies) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-Xmx" + aHeap);
+    command.add("-Djava.awt.headless=true");
+    if ( aEncrypt ) {
+      command.add("-D" + MovieEncryption.PROPERTY);
+    }
+    command.add("-cp");
+    command.add(absoluteClassPath());
+    command.add(HeadlessWorkload.class.getName());
+    command.add(aStep);
+    command.add(String.valueOf(aNumMovies));
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.directory(aDir.toFile());
+    builder.inheritIO();
+    int exitCode = builder.start().waitFor();
+    if ( exitCode != 0 ) {
+      throw new IllegalStateException("Workload step " + aStep + " failed: " + exitCode);
+    }
+  }
+
+  /** The forked JVM runs in another directory, so relative entries won't do. */
+  private static String absoluteClassPath(){
+    StringBuilder result = new StringBuilder();
+    for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)){
+      if ( result.length() > 0 ) result.append(File.pathSeparator);
+      result.append(new File(entry).getAbsolutePath());
+    }
+    return result.toString();
+  }
+
+  private static void startPhase(){
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+      if ( pool.getType() == MemoryType.HEAP ) pool.resetPeakUsage();
+    }
+    fPhaseStart = System.nanoTime();
+  }
+
+  private static void endPhase(String aName, int aRows){
+    long millis = (System.nanoTime() - fPhaseStart) / 1000000;
+    long peak = 0;
+    long used = 0;
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+      if ( pool.getType() == MemoryType.HEAP ) {
+        peak = peak + pool.getPeakUsage().getUsed();
+        used = used + pool.getUsage().getUsed();
+      }
+    }
+    log(String.format("%-14s %10d %10d %15d %15d", aName, aRows, millis, peak / MEGABYTE, used / MEGABYTE));
+  }
+
+  private static void check(boolean aCondition, String aMessage){
+    if ( ! aCondition ) {
+      throw new IllegalStateException(aMessage);
+    }
+  }
+
+  private static void log(String aMessage){
+    System.out.println(aMessage);
+  }
+
+  private static long sizeOf(File aDir){
+    long result = 0;
+    for(File file : aDir.listFiles()){
+      result = result + (file.isDirectory() ? sizeOf(file) : file.length());
+    }
+    return result;
+  }
+
+  private static void deleteAll(File aDir) throws IOException {
+    for(File file : aDir.listFiles()){
+      if ( file.isDirectory() ) {
+        deleteAll(file);
+      }
+      else {
+        Files.delete(file.toPath());
+      }
+    }
+    Files.delete(aDir.toPath());
+  }
+}
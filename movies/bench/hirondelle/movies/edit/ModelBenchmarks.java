@@ -0,0 +1,208 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.util.CurrentUser;
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ JMH benchmarks for the hot paths of the model : reading and writing the movies file,
+ listing, comparing, constructing and validating movies, parsing and formatting dates,
+ and the table model.
+
+ <P>Run with :
+ <PRE>java -jar target/bench/benchmarks.jar ModelBenchmarks [-p numMovies=1000,1000000]</PRE>
+ The allocations per operation are reported as well (see {@link hirondelle.movies.Benchmarks}).
+ The default sizes are <tt>1000,10000,100000,1000000,10000000</tt>. Each operation
+ processes all of the movies, so the time per movie is the score divided by the size.
+ Ten million movies need a heap of about 16g, which is the maximum given to each JVM.
+ Use <tt>-jvmArgsAppend -Xmx4g</tt> to lower it, along with smaller sizes.
+
+ <P>JMH runs each benchmark, for each size, in a new JVM. The JVM writes a movies file with
+ {@link MovieFileGenerator} to the current directory, loads it through {@link MovieDAO} in the
+ usual way (moving it into a file for each year), and then reads in all the years. The files
+ are deleted again at the end. The JIT compiler and the garbage collector are not affected by
+ the benchmarks run before.
+
+ <P>JMH generates a subclass of this class, so it can't be final.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g", "-Djava.awt.headless=true"})
+public class ModelBenchmarks {
+
+  /** The number of movies. */
+  @Param({"1000", "10000", "100000", "1000000", "10000000"})
+  public int numMovies;
+
+  /** Write the movies file, read it in, and build the table model. */
+  @Setup public void setUp() throws Exception {
+    CurrentUser.set(USER_NAME);
+    Path file = MovieFileGenerator.writeFor(USER_NAME, numMovies);
+    //the DAO moves the movies file into a file for each year, and renames it
+    fLines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    fDAO = new MovieDAO();
+    fDAO.loadAll();
+    fMovies = fDAO.list();
+    if ( fMovies.size() != numMovies ) {
+      throw new IllegalStateException("Expected " + numMovies + " movies, but read " + fMovies.size());
+    }
+    //the list is already in its natural order, which would flatter compareTo
+    fShuffled = new ArrayList<>(fMovies);
+    Collections.shuffle(fShuffled, new Random(SEED));
+    fFields = new String[numMovies][];
+    fDates = new ArrayList<>(numMovies);
+    for(int idx = 0; idx < numMovies; ++idx){
+      Movie movie = fMovies.get(idx);
+      fFields[idx] = new String[] {
+        movie.getTitle(), Util.format(movie.getDateViewed()),
+        Util.format(movie.getRating()), movie.getComment()
+      };
+      fDates.add(movie.getDateViewed());
+    }
+    buildTableModel();
+  }
+
+  /** Delete the files written by the set up, and by the DAO. */
+  @TearDown public void tearDown() throws IOException {
+    MovieFileGenerator.deleteFor(USER_NAME);
+  }
+
+  @Benchmark public void parseLine(Blackhole aBlackhole) throws Exception {
+    for(String line : fLines){
+      aBlackhole.consume(MovieDAO.parseLine(line));
+    }
+  }
+
+  @Benchmark public String buildFileContents() {
+    return MovieDAO.buildFileContents(fMovies);
+  }
+
+  @Benchmark public List<Movie> list() {
+    return fDAO.list();
+  }
+
+  /** The sort keys are built on first use, and reused after the warm up. */
+  @Benchmark public List<Movie> sortNatural() {
+    return sort(null);
+  }
+
+  @Benchmark public List<Movie> sortByTitle() {
+    return sort(Movie.TITLE_SORT);
+  }
+
+  @Benchmark public List<Movie> sortByRating() {
+    return sort(Movie.RATING_SORT);
+  }
+
+  @Benchmark public List<Movie> sortByComment() {
+    return sort(Movie.COMMENT_SORT);
+  }
+
+  /** Parse and validate the text fields, as the edit dialog does. */
+  @Benchmark public void newMovieFromText(Blackhole aBlackhole) throws Exception {
+    for(String[] field : fFields){
+      aBlackhole.consume(new Movie(null, field[0], field[1], field[2], field[3]));
+    }
+  }
+
+  @Benchmark public void parseDate(Blackhole aBlackhole) throws Exception {
+    for(String[] field : fFields){
+      aBlackhole.consume(Util.parseDate(field[1], "Date Viewed"));
+    }
+  }
+
+  @Benchmark public void formatDate(Blackhole aBlackhole) {
+    for(Date date : fDates){
+      aBlackhole.consume(Util.format(date));
+    }
+  }
+
+  @Benchmark public void tableModelGetValueAt(Blackhole aBlackhole) {
+    int columns = fModel.getColumnCount();
+    for(int row = 0; row < numMovies; ++row){
+      for(int column = 0; column < columns; ++column){
+        aBlackhole.consume(fModel.getValueAt(row, column));
+      }
+    }
+  }
+
+  /** Each call toggles the direction, which costs the same either way. */
+  @Benchmark public MovieTableModel tableModelSortByColumn() throws Exception {
+    SwingUtilities.invokeAndWait(new Runnable(){
+      @Override public void run() {
+        fModel.sortByColumn(TITLE_COLUMN);
+      }
+    });
+    fRebuilt.acquire();
+    return fModel;
+  }
+
+  // PRIVATE
+  private static final String USER_NAME = "benchmarks";
+  private static final long SEED = 42L;
+  private static final int TITLE_COLUMN = 0;
+
+  private List<String> fLines;
+  private MovieDAO fDAO;
+  private List<Movie> fMovies;
+  private List<Movie> fShuffled;
+  private String[][] fFields;
+  private List<Date> fDates;
+  private MovieTableModel fModel;
+  /** Released each time the table model has rebuilt its rows. */
+  private final Semaphore fRebuilt = new Semaphore(0);
+
+  /** Sort a copy of the shuffled movies. A null comparator means the natural order. */
+  private List<Movie> sort(Comparator<Movie> aOrder){
+    List<Movie> result = new ArrayList<>(fShuffled);
+    Collections.sort(result, aOrder);
+    return result;
+  }
+
+  /** The model reads the movies on a worker thread, and then tells its listeners. */
+  private void buildTableModel() throws Exception {
+    SwingUtilities.invokeAndWait(new Runnable(){
+      @Override public void run() {
+        fModel = new MovieTableModel();
+        fModel.addTableModelListener(new TableModelListener(){
+          @Override public void tableChanged(TableModelEvent aEvent) {
+            fRebuilt.release();
+          }
+        });
+      }
+    });
+    fRebuilt.acquire();
+  }
+}
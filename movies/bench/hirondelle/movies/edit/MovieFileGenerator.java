@@ -0,0 +1,252 @@
+package hirondelle.movies.edit;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ Write a synthetic movies file, in the same format as {@link MovieDAO}, for testing how
+ the app scales.
+
+ <P>Run with :
+ <PRE>java -cp bin hirondelle.movies.edit.MovieFileGenerator user-name number-of-movies [seed]</PRE>
+ The file <tt>movie_list_for_&lt;user name&gt;.txt</tt> is written to the current
+ directory, replacing any file of that name. The same seed always gives the same file.
+
+ <P>The data is meant to resemble a real list, rather than to be uniform :
+ <ul>
+  <li>most movies were viewed recently, and only a few many years ago
+  <li>titles have 1 to about 8 words, mostly short ones; comments are often missing,
+  usually a sentence or two, and occasionally a few paragraphs long
+  <li>ratings cluster around 7, and are sometimes missing
+  <li>about one title in ten, and some comments, have non-ASCII text : accented
+  letters, other scripts, and characters outside the Basic Multilingual Plane
+  <li>a few movies have no date viewed
+ </ul>
+ Missing fields are written as the <tt>NULL</tt> token, as {@link MovieDAO} does.
+*/
+public final class MovieFileGenerator {
+
+  /** Write a movies file. See the class comment. */
+  public static void main(String... aArgs) throws IOException {
+    if ( aArgs.length < 2 ) {
+      log("Usage: MovieFileGenerator <user name> <number of movies> [seed]");
+      return;
+    }
+    String fileName = "movie_list_for_" + aArgs[0].toLowerCase(Locale.ENGLISH) + ".txt";
+    int numMovies = Integer.parseInt(aArgs[1]);
+    long seed = aArgs.length > 2 ? Long.parseLong(aArgs[2]) : DEFAULT_SEED;
+    long start = System.nanoTime();
+    write(Paths.get(fileName), numMovies, seed);
+    log(
+      "Wrote " + numMovies + " movies to " + fileName + " in " +
+      (System.nanoTime() - start) / 1000000 + " ms"
+    );
+  }
+
+  /** The seed used when none is given. */
+  public static final long DEFAULT_SEED = 42L;
+
+  /**
+   Write the movies file of the given user to the current directory, as {@link #main} does,
+   after deleting any movies of the user already there (see {@link #deleteFor(String)}).
+   Return the file written.
+  */
+  public static Path writeFor(String aUserName, int aNumMovies) throws IOException {
+    deleteFor(aUserName);
+    Path result = Paths.get(MovieSegments.directoryNameOf(aUserName) + ".txt");
+    write(result, aNumMovies, DEFAULT_SEED);
+    return result;
+  }
+
+  /**
+   Delete the movies of the given user from the current directory : the movies file, the
+   directory into which {@link MovieDAO} moves it, and the old file which it renames.
+  */
+  public static void deleteFor(String aUserName) throws IOException {
+    String directory = MovieSegments.directoryNameOf(aUserName);
+    Files.deleteIfExists(Paths.get(directory + ".txt"));
+    Files.deleteIfExists(Paths.get(directory + ".txt" + MovieDAO.MIGRATED));
+    deleteAll(new File(directory));
+  }
+
+  /** Write a movies file with the given number of movies. The same seed gives the same file. */
+  public static void write(Path aPath, int aNumMovies, long aSeed) throws IOException {
+    MovieFileGenerator generator = new MovieFileGenerator(aSeed);
+    try (BufferedWriter writer = Files.newBufferedWriter(aPath, StandardCharsets.UTF_8)){
+      StringBuilder line = new StringBuilder();
+      for(int idx = 0; idx < aNumMovies; ++idx){
+        line.setLength(0);
+        generator.appendMovie(line);
+        writer.append(line).append(NEW_LINE);
+      }
+    }
+  }
+
+  // PRIVATE
+  private final Random fRandom;
+  private final Calendar fCalendar = Calendar.getInstance(TimeZone.getDefault(), Locale.ROOT);
+
+  private static final String NEW_LINE = System.getProperty("line.separator");
+  private static final String NULL = "NULL";
+  private static final char DELIMITER = '|';
+
+  /** Dates are counted back from a fixed day, so the file doesn't depend on when it's made. */
+  private static final int LATEST_YEAR = 2024;
+  private static final int MEAN_DAYS_AGO = 3 * 365;
+  private static final int MAX_DAYS_AGO = 40 * 365;
+
+  private static final double NO_DATE = 0.02;
+  private static final double NO_RATING = 0.10;
+  private static final double NO_COMMENT = 0.40;
+  private static final double UNICODE_TITLE = 0.10;
+  private static final double UNICODE_WORD = 0.03;
+
+  private static final String[] WORDS = {
+    "the", "of", "and", "a", "in", "night", "love", "man", "last", "day", "house", "return",
+    "dark", "story", "city", "life", "king", "girl", "war", "time", "dead", "blood", "world",
+    "black", "lost", "secret", "american", "little", "big", "star", "home", "summer", "white",
+    "road", "heart", "island", "game", "children", "river", "shadow", "fire", "dream", "red",
+    "song", "murder", "mountain", "empire", "wild", "seven", "stranger", "journey", "winter",
+    "brothers", "kingdom", "moon", "sea", "ghost", "revenge", "angel", "paradise", "silence",
+    "before", "after", "beyond", "under", "without", "forever", "tomorrow", "yesterday",
+    "extraordinary", "consequences", "unforgiven", "metropolis", "incredibles"
+  };
+
+  /** Words with non-ASCII text. Escaped, so this file compiles with any source encoding. */
+  private static final String[] UNICODE_WORDS = {
+    "Am\u00E9lie", "caf\u00E9", "Z\u00FCrich", "na\u00EFve", "\u00D4kami", "se\u00F1or",
+    "\u00C5sa", "L\u00E9on", "Fran\u00E7ois", "Stra\u00DFe", "Smo\u0142a",
+    "\u6771\u4EAC\u7269\u8A9E", "\u5343\u3068\u5343\u5C0B", "\u82B1\u6837\u5E74\u534E",
+    "\u0411\u0440\u0430\u0442", "\u0421\u0442\u0430\u043B\u043A\u0435\u0440",
+    "\u039B\u03CC\u03B3\u03BF\u03C2", "\u05E9\u05DC\u05D5\u05DD", "\u0633\u064A\u0646\u0645\u0627",
+    "\uD83C\uDFAC", "\uD83C\uDF7F", "\uD834\uDD1E"
+  };
+
+  private static final String[] ENDINGS = { ".", ".", ".", "!", "?", "..." };
+
+  private MovieFileGenerator(long aSeed){
+    fRandom = new Random(aSeed);
+  }
+
+  private void appendMovie(StringBuilder aLine){
+    appendTitle(aLine);
+    aLine.append(DELIMITER);
+    appendDate(aLine);
+    aLine.append(DELIMITER);
+    appendRating(aLine);
+    aLine.append(DELIMITER);
+    appendComment(aLine);
+  }
+
+  /** Mostly 1 to 4 words, with a long tail. */
+  private void appendTitle(StringBuilder aLine){
+    boolean unicode = fRandom.nextDouble() < UNICODE_TITLE;
+    int numWords = 1 + geometric(0.4, 8);
+    for(int idx = 0; idx < numWords; ++idx){
+      if ( idx > 0 ) aLine.append(' ');
+      String word = unicode && fRandom.nextInt(3) == 0 ? unicodeWord() : word();
+      aLine.append(idx == 0 || fRandom.nextInt(3) > 0 ? capitalize(word) : word);
+    }
+    if ( fRandom.nextInt(20) == 0 ) {
+      //sequels
+      aLine.append(' ').append(2 + fRandom.nextInt(5));
+    }
+  }
+
+  /** Days ago follow an exponential distribution, so recent dates are the most common. */
+  private void appendDate(StringBuilder aLine){
+    if ( fRandom.nextDouble() < NO_DATE ) {
+      aLine.append(NULL);
+      return;
+    }
+    int daysAgo = (int)Math.min(MAX_DAYS_AGO, -MEAN_DAYS_AGO * Math.log(1 - fRandom.nextDouble()));
+    fCalendar.clear();
+    fCalendar.set(LATEST_YEAR, Calendar.DECEMBER, 31);
+    fCalendar.add(Calendar.DAY_OF_YEAR, -daysAgo);
+    aLine.append(fCalendar.get(Calendar.YEAR)).append('-');
+    appendTwoDigits(aLine, fCalendar.get(Calendar.MONTH) + 1);
+    aLine.append('-');
+    appendTwoDigits(aLine, fCalendar.get(Calendar.DAY_OF_MONTH));
+  }
+
+  /** Normally distributed around 7, in tenths, from 0 to 10. */
+  private void appendRating(StringBuilder aLine){
+    if ( fRandom.nextDouble() < NO_RATING ) {
+      aLine.append(NULL);
+      return;
+    }
+    int tenths = (int)Math.round(70 + 15 * fRandom.nextGaussian());
+    tenths = Math.max(0, Math.min(100, tenths));
+    aLine.append(tenths / 10).append('.').append(tenths % 10);
+  }
+
+  /** Usually a sentence or two; sometimes much longer. */
+  private void appendComment(StringBuilder aLine){
+    if ( fRandom.nextDouble() < NO_COMMENT ) {
+      aLine.append(NULL);
+      return;
+    }
+    int numSentences = 1 + geometric(0.5, 30);
+    for(int sentence = 0; sentence < numSentences; ++sentence){
+      if ( sentence > 0 ) aLine.append(' ');
+      int numWords = 3 + fRandom.nextInt(12);
+      for(int idx = 0; idx < numWords; ++idx){
+        if ( idx > 0 ) aLine.append(' ');
+        String word = fRandom.nextDouble() < UNICODE_WORD ? unicodeWord() : word();
+        aLine.append(idx == 0 ? capitalize(word) : word);
+      }
+      aLine.append(ENDINGS[fRandom.nextInt(ENDINGS.length)]);
+    }
+  }
+
+  /** Common words are much more likely than rare ones. */
+  private String word(){
+    int rank = (int)Math.pow(WORDS.length, fRandom.nextDouble()) - 1;
+    return WORDS[rank];
+  }
+
+  private String unicodeWord(){
+    return UNICODE_WORDS[fRandom.nextInt(UNICODE_WORDS.length)];
+  }
+
+  /** The number of failures before the first success, up to the given maximum. */
+  private int geometric(double aSuccess, int aMax){
+    int result = 0;
+    while ( result < aMax && fRandom.nextDouble() >= aSuccess ) {
+      ++result;
+    }
+    return result;
+  }
+
+  private static String capitalize(String aWord){
+    return Character.toUpperCase(aWord.charAt(0)) + aWord.substring(1);
+  }
+
+  private static void appendTwoDigits(StringBuilder aLine, int aNumber){
+    if ( aNumber < 10 ) aLine.append('0');
+    aLine.append(aNumber);
+  }
+
+  private static void deleteAll(File aFile) throws IOException {
+    File[] children = aFile.listFiles();
+    if ( children != null ) {
+      for(File child : children){
+        deleteAll(child);
+      }
+    }
+    Files.deleteIfExists(aFile.toPath());
+  }
+
+  private static void log(String aMessage){
+    System.out.println(aMessage);
+  }
+}
@@ -0,0 +1,162 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.exception.ValidationResult;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ Compare the compiled filters of {@link MovieQuery} with an interpreter, which walks the 
+ parsed query for each movie, reading the fields through the public getters of {@link Movie}.
+
+ <P>For each query, three benchmarks are run over all the movies : the interpreter, the 
+ compiled query, and the compiled query after planning (which skips the movies outside the 
+ range of dates by a binary search). Run with :
+ <PRE>java -jar target/bench/benchmarks.jar QueryBenchmark [-p numMovies=1000000]</PRE>
+ The default sizes are 1,000,000 and 10,000,000 movies, written by {@link MovieFileGenerator}.
+ Each benchmark returns the number of movies matched.
+
+ <P>JMH generates a subclass of this class, so it can't be final.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g", "-Djava.awt.headless=true"})
+public class QueryBenchmark {
+
+  /** The number of movies. */
+  @Param({"1000000", "10000000"})
+  public int numMovies;
+
+  /** The query, as typed by the user. */
+  @Param({
+    "rating >= 8 and viewed in 2015..2018 and comment ~ \"director's cut\"",
+    "rating >= 8 and comment ~ night",
+    "title ~ love or title ~ war",
+    "not (rating < 5 or viewed < 2020) and title !~ the"
+  })
+  public String query;
+
+  @Setup public void setUp() throws Exception {
+    fMovies = readMovies(numMovies);
+    fQuery = MovieQuery.parse(query);
+  }
+
+  /** The baseline. */
+  @Benchmark public int interpreted() {
+    int result = 0;
+    for(Movie movie : fMovies){
+      if ( interpret(fQuery.getRoot(), movie) ) ++result;
+    }
+    return result;
+  }
+
+  @Benchmark public int compiled() {
+    int result = 0;
+    for(Movie movie : fMovies){
+      if ( fQuery.matches(movie) ) ++result;
+    }
+    return result;
+  }
+
+  @Benchmark public int compiledAndPlanned() {
+    MovieQuery.Plan plan = fQuery.plan(fMovies, null, null, false);
+    int result = 0;
+    for(int idx : plan.getRows()){
+      if ( plan.accepts(idx, fMovies.get(idx)) ) ++result;
+    }
+    return result;
+  }
+
+  // PRIVATE
+  private List<Movie> fMovies;
+  private MovieQuery fQuery;
+  private static final String NULL = "NULL";
+  private static final ZoneId ZONE = ZoneId.systemDefault();
+
+  /** The movies, in their natural order. */
+  private static List<Movie> readMovies(int aNumMovies) throws Exception {
+    Path file = Files.createTempFile("movie-query-benchmark", ".txt");
+    try {
+      MovieFileGenerator.write(file, aNumMovies, MovieFileGenerator.DEFAULT_SEED);
+      List<String[]> rows = new ArrayList<>();
+      int id = 0;
+      for(String line : Files.readAllLines(file, StandardCharsets.UTF_8)){
+        String[] fields = line.split("\\|", -1);
+        rows.add(new String[] {
+          String.valueOf(++id), fields[0], valueOf(fields[1]), valueOf(fields[2]), valueOf(fields[3])
+        });
+      }
+      List<Movie> result = Movie.validateAll(rows, new ValidationResult());
+      Collections.sort(result);
+      return result;
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+
+  private static String valueOf(String aField){
+    return NULL.equals(aField) ? null : aField;
+  }
+
+  /** The baseline : walk the tree, and convert the fields, for each movie. */
+  private static boolean interpret(MovieQuery.Node aNode, Movie aMovie){
+    if ( aNode.fKind == MovieQuery.Node.AND ) {
+      for(MovieQuery.Node child : aNode.fChildren){
+        if ( ! interpret(child, aMovie) ) return false;
+      }
+      return true;
+    }
+    if ( aNode.fKind == MovieQuery.Node.OR ) {
+      for(MovieQuery.Node child : aNode.fChildren){
+        if ( interpret(child, aMovie) ) return true;
+      }
+      return false;
+    }
+    if ( aNode.fKind == MovieQuery.Node.NOT ) {
+      return ! interpret(aNode.fChildren.get(0), aMovie);
+    }
+    if ( aNode.fKind == MovieQuery.Node.RANGE ) {
+      long value = 0;
+      if ( aNode.fField == MovieQuery.VIEWED ) {
+        Date viewed = aMovie.getDateViewed();
+        if ( viewed == null ) return false;
+        value = viewed.toInstant().atZone(ZONE).toLocalDate().toEpochDay();
+      }
+      else {
+        BigDecimal rating = aMovie.getRating();
+        if ( rating == null ) return false;
+        value = rating.movePointRight(1).intValue();
+      }
+      return value >= aNode.fLow && value <= aNode.fHigh;
+    }
+    String field = aNode.fField == MovieQuery.TITLE ? aMovie.getTitle() : aMovie.getComment();
+    if ( field == null ) return false;
+    if ( aNode.fKind == MovieQuery.Node.EQUALS ) return field.equalsIgnoreCase(aNode.fText);
+    return field.toLowerCase(Locale.ROOT).contains(aNode.fText.toLowerCase(Locale.ROOT));
+  }
+}
@@ -0,0 +1,130 @@
+package hirondelle.movies.main;
+
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.edit.MovieFileGenerator;
+import hirondelle.movies.edit.MovieTableModel;
+import hirondelle.movies.util.CurrentUser;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ The time from a keystroke in the {@link QuickFilter} box until the table shows the rows
+ which match. The target is 50 ms, for a million movies.
+
+ <P>The time includes the pause in typing which the filter waits for (30 ms), the filtering
+ on a worker thread, and the update of the table model on the Event Dispatch Thread.
+ It doesn't include painting the table. Two cases are measured :
+ <ul>
+  <li>typing the first letter, when every movie must be examined
+  <li>typing one more letter, when only the rows already shown must be examined again
+ </ul>
+
+ <P>Run with :
+ <PRE>java -jar target/bench/benchmarks.jar QuickFilterBenchmark [-p numMovies=1000000]</PRE>
+ The percentiles of the sampled times are reported. See {@link hirondelle.movies.edit.ModelBenchmarks}
+ for how the movies are written and read in.
+
+ <P>JMH generates a subclass of this class, so it can't be final.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+public class QuickFilterBenchmark {
+
+  /** The number of movies. */
+  @Param({"1000000"})
+  public int numMovies;
+
+  /** Write the movies file, read it all in, and build the table and the filter box. */
+  @Setup public void setUp() throws Exception {
+    CurrentUser.set(USER_NAME);
+    MovieFileGenerator.writeFor(USER_NAME, numMovies);
+    new MovieDAO().loadAll();
+    SwingUtilities.invokeAndWait(new Runnable(){
+      @Override public void run() {
+        fModel = new MovieTableModel();
+        fModel.addTableModelListener(new TableModelListener(){
+          @Override public void tableChanged(TableModelEvent aEvent) {
+            fShown.release();
+          }
+        });
+        fFilter = new QuickFilter(fModel);
+      }
+    });
+    fShown.acquire();
+  }
+
+  @TearDown public void tearDown() throws IOException {
+    MovieFileGenerator.deleteFor(USER_NAME);
+  }
+
+  /** Before each keystroke, the box is empty. */
+  @State(Scope.Thread)
+  public static class Empty {
+    @Setup(Level.Invocation) public void setUp(QuickFilterBenchmark aBenchmark) throws Exception {
+      aBenchmark.type("");
+    }
+  }
+
+  /** Before each keystroke, the box has a word typed but for its last letter. */
+  @State(Scope.Thread)
+  public static class WordBegun {
+    @Setup(Level.Invocation) public void setUp(QuickFilterBenchmark aBenchmark) throws Exception {
+      aBenchmark.type(WORD.substring(0, WORD.length() - 1));
+    }
+  }
+
+  @Benchmark public int typeFirstLetter(Empty aEmpty) throws Exception {
+    return type(WORD.substring(0, 1));
+  }
+
+  @Benchmark public int typeAnotherLetter(WordBegun aWordBegun) throws Exception {
+    return type(WORD);
+  }
+
+  // PRIVATE
+  private static final String USER_NAME = "benchmarks";
+  /** A common word in the generated titles. */
+  private static final String WORD = "night";
+
+  private MovieTableModel fModel;
+  private QuickFilter fFilter;
+  private String fText = "";
+  /** Released each time the table model shows new rows. */
+  private final Semaphore fShown = new Semaphore(0);
+
+  /** Replace the text in the filter box, and wait until the table shows it. Return the rows shown. */
+  private int type(final String aText) throws Exception {
+    if ( aText.equals(fText) ) return fModel.getRowCount();
+    fText = aText;
+    SwingUtilities.invokeAndWait(new Runnable(){
+      @Override public void run() {
+        fFilter.getTextField().setText(aText);
+      }
+    });
+    fShown.acquire();
+    return fModel.getRowCount();
+  }
+}
@@ -0,0 +1,196 @@
+package hirondelle.movies.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ Load test for a running movie service (see {@link hirondelle.movies.LaunchService}).
+
+ <P>Many clients, each on its own thread, send requests as fast as they can: mostly pages
+ of the sorted list, plus single movies, and the occasional add. After a warm up period,
+ the throughput and latency percentiles are measured. Run with :
+ <PRE>java -cp bin hirondelle.movies.LaunchService loadtest 8080
+java -cp bin hirondelle.movies.service.MovieServiceLoadTest [base URL] [clients] [seconds] [movies to add first]</PRE>
+ The defaults are <tt>http://localhost:8080 10000 30 10000</tt>.
+
+ <P>The service saves its movies when it shuts down, so use a user name
+ reserved for testing.
+*/
+public final class MovieServiceLoadTest {
+
+  /** Run the load test. */
+  public static void main(String... aArgs) throws Exception {
+    String base = aArgs.length > 0 ? aArgs[0] : "http://localhost:8080";
+    int numClients = aArgs.length > 1 ? Integer.parseInt(aArgs[1]) : 10000;
+    int seconds = aArgs.length > 2 ? Integer.parseInt(aArgs[2]) : 30;
+    int numToAdd = aArgs.length > 3 ? Integer.parseInt(aArgs[3]) : 10000;
+    //keep connections alive for reuse, one per client
+    System.setProperty("http.maxConnections", String.valueOf(numClients));
+
+    final MovieServiceLoadTest test = new MovieServiceLoadTest(base);
+    test.addMovies(numToAdd);
+    test.run(numClients, seconds);
+  }
+
+  // PRIVATE
+  private final String fBase;
+  private volatile boolean fIsMeasuring;
+  private volatile boolean fIsDone;
+  private final AtomicLong fNumRequests = new AtomicLong();
+  private final AtomicLong fNumErrors = new AtomicLong();
+  /** Latency histogram: bucket N counts latencies in [N, N+1) tenths of a millisecond; the last is overflow. */
+  private final AtomicLongArray fLatencies = new AtomicLongArray(NUM_BUCKETS);
+
+  private static final int NUM_BUCKETS = 100000;
+  private static final int WARM_UP_SECONDS = 5;
+  private static final int CLIENT_STACK_SIZE = 256 * 1024;
+
+  private MovieServiceLoadTest(String aBase){
+    fBase = aBase;
+  }
+
+  private void addMovies(int aCount) throws IOException {
+    Random random = new Random(42);
+    for(int idx = 0; idx < aCount; ++idx){
+      String json =
+        "{\"title\":\"Load test movie " + idx + "\",\"dateViewed\":\"20" +
+        (10 + random.nextInt(10)) + "-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10) +
+        "\",\"rating\":\"" + random.nextInt(11) + "\",\"comment\":\"comment " + idx + "\"}"
+      ;
+      request("POST", "/movies", json);
+    }
+    log("Added " + aCount + " movies.");
+  }
+
+  private void run(int aNumClients, int aSeconds) throws InterruptedException {
+    final CountDownLatch finished = new CountDownLatch(aNumClients);
+    for(int idx = 0; idx < aNumClients; ++idx){
+      final long seed = idx;
+      Thread client = new Thread(null, new Runnable(){
+        @Override public void run() {
+          try {
+            sendRequests(new Random(seed));
+          }
+          finally {
+            finished.countDown();
+          }
+        }
+      }, "Client " + idx, CLIENT_STACK_SIZE);
+      client.setDaemon(true);
+      client.start();
+    }
+    log("Started " + aNumClients + " clients. Warming up for " + WARM_UP_SECONDS + " seconds.");
+    Thread.sleep(WARM_UP_SECONDS * 1000L);
+    fIsMeasuring = true;
+    long start = System.nanoTime();
+    Thread.sleep(aSeconds * 1000L);
+    fIsMeasuring = false;
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    fIsDone = true;
+    finished.await();
+    report(elapsed, aNumClients);
+  }
+
+  private void sendRequests(Random aRandom){
+    String[] sorts = {"title", "viewed", "rating", "comment"};
+    while ( ! fIsDone ) {
+      int kind = aRandom.nextInt(100);
+      String path = null;
+      String method = "GET";
+      String body = null;
+      if ( kind < 80 ) {
+        path = "/movies?limit=20&offset=" + aRandom.nextInt(1000) + "&sort=" + sorts[aRandom.nextInt(4)];
+      }
+      else if ( kind < 99 ) {
+        path = "/movies/" + (1 + aRandom.nextInt(1000));
+      }
+      else {
+        method = "POST";
+        path = "/movies";
+        body = "{\"title\":\"Added under load\",\"rating\":\"5\"}";
+      }
+      long start = System.nanoTime();
+      boolean isOk = true;
+      try {
+        request(method, path, body);
+      }
+      catch (IOException ex) {
+        isOk = false;
+      }
+      long tenthsOfMillis = (System.nanoTime() - start) / 100000;
+      if ( fIsMeasuring ) {
+        fNumRequests.incrementAndGet();
+        if ( ! isOk ) fNumErrors.incrementAndGet();
+        fLatencies.incrementAndGet((int)Math.min(NUM_BUCKETS - 1, tenthsOfMillis));
+      }
+    }
+  }
+
+  /** Return the status code. Any error status is treated as an IOException. */
+  private int request(String aMethod, String aPath, String aBody) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection)new URL(fBase + aPath).openConnection();
+    connection.setRequestMethod(aMethod);
+    if ( aBody != null ) {
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/json");
+      try (OutputStream out = connection.getOutputStream()){
+        out.write(aBody.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    int result = connection.getResponseCode();
+    //the body must be read fully, for the connection to be reused
+    try (InputStream in = result < 400 ? connection.getInputStream() : connection.getErrorStream()){
+      drain(in);
+    }
+    if ( result >= 400 && result != 404 ) {
+      throw new IOException("Status " + result);
+    }
+    return result;
+  }
+
+  private void drain(InputStream aIn) throws IOException {
+    if ( aIn == null ) return;
+    byte[] buffer = new byte[8192];
+    ByteArrayOutputStream ignored = new ByteArrayOutputStream();
+    int count = 0;
+    while ( (count = aIn.read(buffer)) != -1 ) {
+      ignored.write(buffer, 0, count);
+    }
+  }
+
+  private void report(double aSeconds, int aNumClients){
+    long total = fNumRequests.get();
+    log("Clients: " + aNumClients);
+    log("Requests: " + total + " in " + String.format("%.1f", aSeconds) + " s");
+    log("Throughput: " + String.format("%.0f", total / aSeconds) + " requests/s");
+    log("Errors: " + fNumErrors.get());
+    log(
+      "Latency (ms): median " + percentile(total, 0.5) + ", 99th " + percentile(total, 0.99) +
+      ", 99.9th " + percentile(total, 0.999) + ", max " + percentile(total, 1.0)
+    );
+  }
+
+  private String percentile(long aTotal, double aFraction){
+    long target = (long)Math.ceil(aTotal * aFraction);
+    long seen = 0;
+    int bucket = 0;
+    for(; bucket < NUM_BUCKETS; ++bucket){
+      seen = seen + fLatencies.get(bucket);
+      if ( seen >= target && seen > 0 ) break;
+    }
+    return String.format("%.1f", Math.min(bucket, NUM_BUCKETS - 1) / 10.0);
+  }
+
+  private static void log(String aMessage){
+    System.out.println(aMessage);
+  }
+}
@@ -0,0 +1,95 @@
+package hirondelle.movies.similar;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ Measure the time taken by {@link SimilarMovies#mostSimilarTo(String, int)}.
+
+ <P>Indexes a synthetic list of movies, whose words follow a Zipf-like distribution
+ (a few very common words, and a long tail of rare ones), and then times queries
+ for randomly chosen movies. The word weights and vector lengths are calculated as queries
+ need them, and reused until the next edit. So the queries are timed twice : one after 
+ another, and each just after a movie has been changed (the worst case). Run with :
+ <PRE>java -Xmx4g -cp bin hirondelle.movies.similar.SimilarMoviesBenchmark [number of movies]</PRE>
+ The default is 1,000,000 movies.
+*/
+public final class SimilarMoviesBenchmark {
+
+  /** Run the benchmark. */
+  public static void main(String... aArgs){
+    int numMovies = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : 1000000;
+    Random random = new Random(SEED);
+    String[] vocabulary = buildVocabulary();
+    SimilarMovies index = SimilarMovies.getInstance();
+
+    long start = System.nanoTime();
+    for(int id = 1; id <= numMovies; ++id){
+      index.add(String.valueOf(id), words(vocabulary, random, 2, 5), words(vocabulary, random, 5, 20));
+    }
+    log("Indexed " + numMovies + " movies in " + millis(System.nanoTime() - start) + " ms");
+
+    //warm up, so the JIT compiler has done its work before measuring
+    for(int idx = 0; idx < NUM_QUERIES; ++idx){
+      index.mostSimilarTo(String.valueOf(1 + random.nextInt(numMovies)), TOP_K);
+    }
+    measure("", index, vocabulary, random, numMovies, false);
+    measure(", each after an edit", index, vocabulary, random, numMovies, true);
+  }
+
+  // PRIVATE
+  private static final long SEED = 42L;
+  private static final int VOCABULARY_SIZE = 50000;
+  private static final int NUM_QUERIES = 1000;
+  private static final int TOP_K = 10;
+
+  private static String[] buildVocabulary(){
+    String[] result = new String[VOCABULARY_SIZE];
+    for(int idx = 0; idx < result.length; ++idx){
+      result[idx] = "w" + Integer.toString(idx, 36);
+    }
+    return result;
+  }
+
+  /** Word rank follows a Zipf-like distribution: low ranks are the most common. */
+  private static String words(String[] aVocabulary, Random aRandom, int aMin, int aMax){
+    StringBuilder result = new StringBuilder();
+    int numWords = aMin + aRandom.nextInt(aMax - aMin + 1);
+    for(int idx = 0; idx < numWords; ++idx){
+      double uniform = aRandom.nextDouble();
+      int rank = (int)Math.pow(aVocabulary.length, uniform) - 1;
+      result.append(aVocabulary[rank]).append(' ');
+    }
+    return result.toString();
+  }
+
+  /** Time queries for random movies, optionally changing a random movie before each one. */
+  private static void measure(String aLabel, SimilarMovies aIndex, String[] aVocabulary, Random aRandom, int aNumMovies, boolean aEditFirst){
+    long[] nanos = new long[NUM_QUERIES];
+    for(int idx = 0; idx < NUM_QUERIES; ++idx){
+      if ( aEditFirst ) {
+        String changed = String.valueOf(1 + aRandom.nextInt(aNumMovies));
+        aIndex.remove(changed);
+        aIndex.add(changed, words(aVocabulary, aRandom, 2, 5), words(aVocabulary, aRandom, 5, 20));
+      }
+      String id = String.valueOf(1 + aRandom.nextInt(aNumMovies));
+      long queryStart = System.nanoTime();
+      aIndex.mostSimilarTo(id, TOP_K);
+      nanos[idx] = System.nanoTime() - queryStart;
+    }
+    Arrays.sort(nanos);
+    log(
+      "Top " + TOP_K + " queries" + aLabel + " (ms): median " + millis(nanos[NUM_QUERIES / 2]) +
+      ", 99th percentile " + millis(nanos[NUM_QUERIES * 99 / 100]) +
+      ", max " + millis(nanos[NUM_QUERIES - 1])
+    );
+  }
+
+  private static String millis(long aNanos){
+    return String.format("%.3f", aNanos / 1000000.0);
+  }
+
+  private static void log(String aMessage){
+    System.out.println(aMessage);
+  }
+}
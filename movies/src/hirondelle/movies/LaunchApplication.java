@@ -2,12 +2,18 @@ package hirondelle.movies;
 
 import hirondelle.movies.exception.ExceptionHandler;
 import hirondelle.movies.login.LoginController;
+import hirondelle.movies.main.MainWindow;
+import hirondelle.movies.recording.FlightRecording;
+import hirondelle.movies.util.AsyncLogHandler;
+import hirondelle.movies.util.StartupTrace;
 import hirondelle.movies.util.Util;
 
 import java.awt.Font;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Enumeration;
-import java.util.logging.FileHandler;
+import java.util.Locale;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -27,13 +33,21 @@ public final class LaunchApplication {
    <P>Performs the following :
    <ul>
     <li>configure JDK logging : log at <tt>FINEST</tt> level to a file named <tt>log.txt</tt> in the application's home 
-    directory. Overwrite the log file each time the application is launched. (Many apps would prefer to make the log level 
+    directory. The log file is written on a background thread, and is compressed and replaced by a new one each time 
+    the application is launched, every day, and whenever it reaches 5 MB. The 10 most recent old files are kept. 
+    See {@link AsyncLogHandler}. (Many apps would prefer to make the log level 
     sensitive to an environment property, or a user preference.)
+    <li>if launched with <tt>-record</tt>, start a flight recording, written to a file 
+    when the app exits. See {@link FlightRecording}.
     <li>configure a custom {@link ExceptionHandler} for uncaught exceptions
     <li>use the native look and feel, natural to the runtime operating system    <li>sets the font for the application (12-point Verdana)
+    <li>start preparing the main window in the background. See {@link MainWindow#prepareInBackground()}.
     <li>show the login screen (no real authentication is actually performed)
    </ul>
    
+   <P>When launched with <tt>-Dmovies.startupTrace</tt>, the time taken by each step, and
+   the time until the main window can be used, are printed. See {@link StartupTrace}.
+   
    <P>Some apps might also do these tasks upon startup :
    <ul>
     <li>display a temporary 'splash' screen
@@ -53,18 +67,37 @@ javax.swing.SwingUtilities.invokeLater(new Runnable() {
    with it. 
   */
   public static void main(String... aArgs){  
+    StartupTrace.phase("logging");
     configureJDKLogging();
+    StartupTrace.phase("flight recording");
+    FlightRecording.startIfRequested(aArgs);
     
     fLogger.config("Launching application...");
-    fLogger.config("Operating System : " + System.getProperty("os.name")  + " " +  System.getProperty("os.version"));
-    fLogger.config("Java Version: " + System.getProperty("java.version"));
-    fLogger.config("Java Home: " + System.getProperty("java.home"));
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Operating System : " + System.getProperty("os.name")  + " " +  System.getProperty("os.version");
+      }
+    });
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Java Version: " + System.getProperty("java.version");
+      }
+    });
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Java Home: " + System.getProperty("java.home");
+      }
+    });
 
     useCustomExceptionHandler();
+    StartupTrace.phase("look and feel");
     useNativeLookAndFeel();
+    StartupTrace.phase("application font");
     setApplicationFont();
+    MainWindow.prepareInBackground();
     
     fLogger.config("Showing user login screen.");
+    StartupTrace.phase("login screen");
     userLogin();
     
     fLogger.config("Launch thread now ending.");
@@ -93,11 +126,14 @@ javax.swing.SwingUtilities.invokeLater(new Runnable() {
    installation directory. The file name is log.txt.  */
   private static void configureJDKLogging() {
     fLogger.setLevel(Level.FINE);
-    boolean OVERWRITE = false;
-    int SINGLE_FILE = 1;
-    int UNLIMITED_SIZE = 0;
+    int BUFFERED_RECORDS = 10000;
+    long MAX_BYTES = 5 * 1024 * 1024;
+    long ONE_DAY = 24 * 60 * 60 * 1000L;
+    int OLD_FILES_KEPT = 10;
     try {
-      FileHandler fileHandler = new FileHandler("log.txt",  UNLIMITED_SIZE, SINGLE_FILE, OVERWRITE);
+      AsyncLogHandler fileHandler = new AsyncLogHandler(
+        Paths.get("log.txt"), BUFFERED_RECORDS, MAX_BYTES, ONE_DAY, OLD_FILES_KEPT
+      );
       fileHandler.setLevel(Level.FINEST);
       fileHandler.setFormatter(new SimpleFormatter());
       fLogger.addHandler(fileHandler);
@@ -131,11 +167,17 @@ javax.swing.SwingUtilities.invokeLater(new Runnable() {
     }
   }
 
+  /**
+   Only keys naming a font are looked up. Looking up a key creates its value, if the look 
+   and feel defers that until first use, and most values are icons, borders and so on, 
+   which may never be used. 
+  */
   private static void setApplicationFont() {
     FontUIResource fontResource = new FontUIResource("Verdana",Font.PLAIN,12);
     Enumeration keys = UIManager.getDefaults().keys();
     while (keys.hasMoreElements()) {
       Object key = keys.nextElement();
+      if ( ! isFontKey(key) ) continue;
       Object value = UIManager.get (key);
       if (value instanceof FontUIResource) {
         UIManager.put (key, fontResource);
@@ -143,6 +185,11 @@ javax.swing.SwingUtilities.invokeLater(new Runnable() {
     }
   }
   
+  /** Keys such as <tt>Button.font</tt> and <tt>InternalFrame.titleFont</tt>. */
+  private static boolean isFontKey(Object aKey){
+    return aKey instanceof String && ((String)aKey).toLowerCase(Locale.ENGLISH).endsWith("font");
+  }
+  
   /**
     Show the login screen. 
     
@@ -0,0 +1,79 @@
+package hirondelle.movies;
+
+import hirondelle.movies.backup.BackupRepository;
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/** <b>Back up the saved movies of all users, and restore them.</b>
+ 
+ <P>Backups are incremental and deduplicated : each one stores only what changed since the
+ last. See {@link BackupRepository}.
+ 
+ <P>Usage, from the directory the app is run in:
+ <PRE>
+java -cp bin hirondelle.movies.LaunchBackup backup &lt;repository&gt;
+java -cp bin hirondelle.movies.LaunchBackup list &lt;repository&gt;
+java -cp bin hirondelle.movies.LaunchBackup restore &lt;repository&gt; &lt;backup&gt; &lt;target directory&gt;
+java -cp bin hirondelle.movies.LaunchBackup prune &lt;repository&gt; &lt;number of backups to keep&gt;
+ </PRE>
+ A backup may be made while the app is running. A restore never overwrites files : restore 
+ into an empty directory, and move the files into place while the app isn't running.
+*/
+public final class LaunchBackup {
+
+  /** Run one command against a backup repository. */
+  public static void main(String... aArgs) throws IOException {
+    String command = aArgs.length > 0 ? aArgs[0] : "";
+    int numArgs = NUM_ARGS.containsKey(command) ? NUM_ARGS.get(command) : -1;
+    if ( aArgs.length != numArgs ) {
+      System.err.println(
+        "Usage: LaunchBackup backup <repository> | list <repository> | " +
+        "restore <repository> <backup> <target directory> | prune <repository> <number to keep>"
+      );
+      System.exit(1);
+    }
+    System.setProperty("java.awt.headless", "true");
+    fLogger.config("Launching backup...");
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Java Version: " + System.getProperty("java.version");
+      }
+    });
+    BackupRepository repository = new BackupRepository(Paths.get(aArgs[1]));
+    if ( "backup".equals(command) ) {
+      System.out.println(repository.backup(Paths.get("")));
+    }
+    else if ( "list".equals(command) ) {
+      for(String backup : repository.list()){
+        System.out.println(backup);
+      }
+    }
+    else if ( "restore".equals(command) ) {
+      repository.restore(aArgs[2], Paths.get(aArgs[3]));
+    }
+    else {
+      System.out.println("Chunks deleted: " + repository.prune(Integer.parseInt(aArgs[2])));
+    }
+  }
+  
+  // PRIVATE
+  
+  /** The number of arguments taken by each command, including the command itself. */
+  private static final Map<String, Integer> NUM_ARGS = new HashMap<>();
+  static {
+    NUM_ARGS.put("backup", 2);
+    NUM_ARGS.put("list", 2);
+    NUM_ARGS.put("restore", 4);
+    NUM_ARGS.put("prune", 3);
+  }
+  private static final Logger fLogger = Util.getLogger(LaunchBackup.class);
+
+  /** It makes no sense to call this class's constructor, so it's made private. */
+  private LaunchBackup(){ }
+}
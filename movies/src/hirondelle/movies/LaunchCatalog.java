@@ -0,0 +1,55 @@
+package hirondelle.movies;
+
+import hirondelle.movies.catalog.Catalog;
+import hirondelle.movies.catalog.CatalogBuilder;
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/** <b>Build the catalog of film titles, used to suggest titles as the user types.</b>
+ 
+ <P>Usage, from the directory the app is run in:
+ <PRE>
+java -cp bin hirondelle.movies.LaunchCatalog &lt;file of titles&gt; [column]
+ </PRE>
+ The file of titles is tab-separated, with a header line, such as a dump of a film database. 
+ The titles are read from the named column (by default, <tt>primaryTitle</tt>, if there is 
+ one, else the first column). The catalog is written to the file named by the 
+ <tt>movies.catalog</tt> system property, by default <tt>movie_catalog.idx</tt>. 
+ It's built once, and replaced only when built again. See {@link CatalogBuilder}.
+*/
+public final class LaunchCatalog {
+
+  /** Build the catalog. */
+  public static void main(String... aArgs) throws IOException {
+    if ( aArgs.length < 1 || aArgs.length > 2 ) {
+      System.err.println("Usage: LaunchCatalog <file of titles> [column]");
+      System.exit(1);
+    }
+    System.setProperty("java.awt.headless", "true");
+    fLogger.config("Launching catalog build...");
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Java Version: " + System.getProperty("java.version");
+      }
+    });
+    Path catalog = Catalog.getFile();
+    long start = System.nanoTime();
+    int numTitles = CatalogBuilder.build(Paths.get(aArgs[0]), aArgs.length > 1 ? aArgs[1] : null, catalog);
+    System.out.println(
+      "Catalog " + catalog.toAbsolutePath() + ": " + numTitles + " titles, " + 
+      Files.size(catalog) + " bytes, built in " + (System.nanoTime() - start) / 1000000 + " ms."
+    );
+  }
+  
+  // PRIVATE
+  private static final Logger fLogger = Util.getLogger(LaunchCatalog.class);
+
+  /** It makes no sense to call this class's constructor, so it's made private. */
+  private LaunchCatalog(){ }
+}
@@ -0,0 +1,58 @@
+package hirondelle.movies;
+
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.service.MovieServer;
+import hirondelle.movies.util.CurrentUser;
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/** <b>Launch the movie list as a headless HTTP service.</b>
+ 
+ <P>Other tools can read and edit a user's movies over HTTP, without the Swing user interface. 
+ The same data file is used as by {@link LaunchApplication}, so the two should not be run 
+ at the same time for the same user.
+ 
+ <P>Usage:
+ <PRE>java -cp bin hirondelle.movies.LaunchService &lt;user name&gt; [port]</PRE>
+ The default port is 8080. Edits are saved when the JVM shuts down (for example, with Ctrl+C).
+*/
+public final class LaunchService {
+
+  /** Run the service. */
+  public static void main(String... aArgs) throws IOException {
+    if ( aArgs.length < 1 || aArgs.length > 2 ) {
+      System.err.println("Usage: LaunchService <user name> [port]");
+      System.exit(1);
+    }
+    System.setProperty("java.awt.headless", "true");
+    fLogger.config("Launching service...");
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Java Version: " + System.getProperty("java.version");
+      }
+    });
+    CurrentUser.set(aArgs[0]);
+    int port = aArgs.length == 2 ? Integer.parseInt(aArgs[1]) : DEFAULT_PORT;
+    
+    final MovieServer server = new MovieServer(port);
+    server.start();
+    MovieDAO.saveUponJvmShutdown();
+    Runtime.getRuntime().addShutdownHook(new Thread("Stop movie service"){
+      @Override public void run() {
+        server.stop(STOP_WAIT_SECONDS);
+      }
+    });
+  }
+  
+  // PRIVATE
+  
+  private static final int DEFAULT_PORT = 8080;
+  private static final int STOP_WAIT_SECONDS = 1;
+  private static final Logger fLogger = Util.getLogger(LaunchService.class);
+
+  /** It makes no sense to call this class's constructor, so it's made private. */
+  private LaunchService(){ }
+}
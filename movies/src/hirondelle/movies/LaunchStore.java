@@ -0,0 +1,68 @@
+package hirondelle.movies;
+
+import hirondelle.movies.store.StoreClient;
+import hirondelle.movies.store.StoreDaemon;
+import hirondelle.movies.util.CurrentUser;
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/** <b>Launch the movie store daemon for a user.</b>
+ 
+ <P>While the daemon is running, all instances of the app (and of {@link LaunchService}) 
+ started for the same user share the daemon's movies, instead of each reading and writing 
+ the movies file on its own. 
+ 
+ <P>Usage:
+ <PRE>java -cp bin hirondelle.movies.LaunchStore &lt;user name&gt;</PRE>
+ Edits are saved periodically, and when the JVM shuts down (for example, with Ctrl+C).
+*/
+public final class LaunchStore {
+
+  /** Run the daemon, until the JVM is shut down. */
+  public static void main(String... aArgs) throws IOException {
+    if ( aArgs.length != 1 ) {
+      System.err.println("Usage: LaunchStore <user name>");
+      System.exit(1);
+    }
+    System.setProperty("java.awt.headless", "true");
+    fLogger.config("Launching store daemon...");
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Java Version: " + System.getProperty("java.version");
+      }
+    });
+    CurrentUser.set(aArgs[0]);
+    StoreClient running = StoreClient.connect(aArgs[0]);
+    if ( running != null ) {
+      running.close();
+      System.err.println("A store daemon is already running for " + aArgs[0]);
+      System.exit(1);
+    }
+    
+    final StoreDaemon daemon = new StoreDaemon(aArgs[0]);
+    final Thread main = Thread.currentThread();
+    Runtime.getRuntime().addShutdownHook(new Thread("Stop movie store"){
+      @Override public void run() {
+        daemon.stop();
+        try {
+          main.join(STOP_WAIT_MILLIS);
+        }
+        catch (InterruptedException ex) {
+          //exiting anyway
+        }
+      }
+    });
+    daemon.run();
+  }
+  
+  // PRIVATE
+  
+  private static final long STOP_WAIT_MILLIS = 5000;
+  private static final Logger fLogger = Util.getLogger(LaunchStore.class);
+
+  /** It makes no sense to call this class's constructor, so it's made private. */
+  private LaunchStore(){ }
+}
@@ -0,0 +1,81 @@
+package hirondelle.movies;
+
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.edit.MovieEncryption;
+import hirondelle.movies.exception.InvalidInputException;
+import hirondelle.movies.sync.MovieSync;
+import hirondelle.movies.util.CurrentUser;
+import hirondelle.movies.util.Util;
+
+import java.io.Console;
+import java.io.IOException;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/** <b>Sync a user's movies with another copy of the same list.</b>
+ 
+ <P>Run once on each side : one side listens, and the other connects. Afterwards, both 
+ have the same movies. See {@link MovieSync}.
+ 
+ <P>Usage:
+ <PRE>
+java -cp bin hirondelle.movies.LaunchSync &lt;user name&gt; listen &lt;port&gt;
+java -cp bin hirondelle.movies.LaunchSync &lt;user name&gt; connect &lt;port&gt;
+ </PRE>
+ Only local connections are accepted. To sync with another computer, forward the port, 
+ for example with <tt>ssh -L &lt;port&gt;:localhost:&lt;port&gt; &lt;other computer&gt;</tt>. 
+ If the movies are encrypted, the password is asked for.
+*/
+public final class LaunchSync {
+
+  /** Run a single sync. */
+  public static void main(String... aArgs) throws IOException {
+    if ( aArgs.length != 3 || ! (LISTEN.equals(aArgs[1]) || CONNECT.equals(aArgs[1])) ) {
+      System.err.println("Usage: LaunchSync <user name> listen|connect <port>");
+      System.exit(1);
+    }
+    System.setProperty("java.awt.headless", "true");
+    fLogger.config("Launching sync...");
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Java Version: " + System.getProperty("java.version");
+      }
+    });
+    CurrentUser.set(aArgs[0]);
+    if ( MovieEncryption.isOnFor(aArgs[0]) ) {
+      unlock(aArgs[0]);
+    }
+    int port = Integer.parseInt(aArgs[2]);
+    
+    MovieDAO dao = new MovieDAO();
+    dao.loadAll();
+    MovieSync sync = new MovieSync(dao);
+    int numChanged = LISTEN.equals(aArgs[1]) ? sync.listen(port) : sync.connect(port);
+    dao.shutdown();
+    System.out.println("Movies changed: " + numChanged);
+  }
+  
+  // PRIVATE
+  
+  private static final String LISTEN = "listen";
+  private static final String CONNECT = "connect";
+  private static final Logger fLogger = Util.getLogger(LaunchSync.class);
+
+  private static void unlock(String aUserName) throws IOException {
+    Console console = System.console();
+    if ( console == null ) {
+      System.err.println("The movies are encrypted, and there is no console to ask for the password.");
+      System.exit(1);
+    }
+    try {
+      MovieEncryption.unlock(aUserName, console.readPassword("Password: "));
+    }
+    catch (InvalidInputException ex) {
+      System.err.println(ex.getErrorMessages().get(0));
+      System.exit(1);
+    }
+  }
+
+  /** It makes no sense to call this class's constructor, so it's made private. */
+  private LaunchSync(){ }
+}
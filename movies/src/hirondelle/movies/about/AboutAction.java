@@ -9,6 +9,7 @@ import java.awt.event.KeyEvent;
 import java.util.logging.Logger;
 
 import javax.swing.AbstractAction;
+import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 
@@ -16,6 +17,7 @@ import javax.swing.JOptionPane;
   Show a simple 'About' box, displaying the application name and version.
 
   <P>This implementation is very simple and plain, and uses a {@link javax.swing.JOptionPane}.
+  The dialog is built when first shown, and then reused.
 */
 public final class AboutAction extends AbstractAction {
 
@@ -30,12 +32,19 @@ public final class AboutAction extends AbstractAction {
   /** Show an 'about' box. */
   @Override public void actionPerformed(ActionEvent aActionEvent) {
     fLogger.config("Showing About box.");
-    JOptionPane.showMessageDialog(fFrame, getMessageText(), "About",
-    JOptionPane.INFORMATION_MESSAGE);
+    if ( fDialog == null ) {
+      fPane = new JOptionPane(getMessageText(), JOptionPane.INFORMATION_MESSAGE);
+      fDialog = fPane.createDialog(fFrame, "About");
+    }
+    //the value is the button chosen the last time the dialog was shown
+    fPane.setValue(JOptionPane.UNINITIALIZED_VALUE);
+    fDialog.setVisible(true);
   }
 
   // PRIVATE 
   private final JFrame fFrame;
+  private JOptionPane fPane;
+  private JDialog fDialog;
   private static final Logger fLogger = Util.getLogger(AboutAction.class);
 
   private String getMessageText() {
@@ -0,0 +1,423 @@
+package hirondelle.movies.backup;
+
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ A local repository of backups of the saved movies.
+
+ <P>Each file backed up is split into chunks by {@link Chunker}. Each chunk is saved once,
+ under the name of its SHA-256 hash, no matter how many files or backups hold it. A backup
+ itself is only a {@link Manifest} : the list of its files, and of their chunks. An edit
+ to a list of movies changes only a few chunks, so a new backup adds only those chunks,
+ and a short manifest.
+
+ <P>A file whose size and time of last modification are the same as in the last backup
+ isn't even read : its chunks are taken from the last manifest. Since the movies are
+ saved in a file per year, and old years seldom change, the time taken by a backup also
+ grows with the amount of change, and not with the size of the lists.
+
+ <P>The repository is a directory, laid out as :
+ <PRE>
+ chunks/ab/abcdef...   (one file per chunk, in a directory for the first two hex digits)
+ backups/(name).txt    (one manifest per backup)
+ lock                  (locked while a backup is made, restored, or pruned)
+ </PRE>
+ Chunks and manifests are written to temporary files, and then renamed, so an interrupted
+ backup leaves at most some chunks which no manifest refers to. The next prune removes them.
+
+ <P>The app may save movies while a backup is made. The files of each user are read
+ together, and their sizes and times are checked again afterwards. If any of them
+ changed, they're read again.
+
+ <P>This class is not thread-safe. Different processes may share a repository.
+*/
+public final class BackupRepository {
+
+  /** The prefix of the names of the files and directories holding each user's movies. */
+  public static final String STORE_PREFIX = "movie_list_for_";
+
+  /** Use the repository in the given directory, which is created if needed. */
+  public BackupRepository(Path aDirectory) throws IOException {
+    fDirectory = aDirectory.toAbsolutePath();
+    Files.createDirectories(fDirectory.resolve(CHUNKS));
+    Files.createDirectories(fDirectory.resolve(BACKUPS));
+  }
+
+  /**
+   Back up the saved movies of all users, in the given directory (where the app is run).
+   Returns the name of the new backup.
+  */
+  public String backup(Path aStoresDirectory) throws IOException {
+    long start = System.nanoTime();
+    try (FileChannel lockFile = openLock()) {
+      lockFile.lock();
+      List<String> names = list();
+      Manifest last = names.isEmpty() ? null : readManifest(names.get(names.size() - 1));
+      Manifest manifest = new Manifest(newName(names));
+      Stats stats = new Stats();
+      for(Path store : storesIn(aStoresDirectory)){
+        backupStore(aStoresDirectory, store, last, manifest, stats);
+      }
+      Path file = manifestFile(manifest.getName());
+      Path temp = tempFileOf(file);
+      manifest.write(temp);
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+      logBackup(manifest.getName(), stats, start);
+      return manifest.getName();
+    }
+  }
+
+  /**
+   Restore the files of the given backup into the given directory. The hash of every chunk
+   is checked. Existing files are never overwritten : restore into an empty directory, and
+   move the files into place while the app isn't running.
+  */
+  public void restore(String aBackup, Path aTargetDirectory) throws IOException {
+    Path target = aTargetDirectory.toAbsolutePath().normalize();
+    try (FileChannel lockFile = openLock()) {
+      lockFile.lock(0, Long.MAX_VALUE, SHARED);
+      if ( ! Files.exists(manifestFile(aBackup)) ) throw new IOException("No such backup: " + aBackup);
+      for(Manifest.Entry entry : readManifest(aBackup).getEntries()){
+        restoreFile(entry, target);
+      }
+    }
+  }
+
+  /**
+   Delete all but the given number of the most recent backups, and then every chunk
+   which the remaining backups don't use. Returns the number of chunks deleted.
+  */
+  public int prune(int aNumToKeep) throws IOException {
+    if ( aNumToKeep < 1 ) throw new IllegalArgumentException("Must keep at least 1 backup: " + aNumToKeep);
+    try (FileChannel lockFile = openLock()) {
+      lockFile.lock();
+      List<String> names = list();
+      for(String name : names.subList(0, Math.max(0, names.size() - aNumToKeep))){
+        Files.delete(manifestFile(name));
+      }
+      Set<String> used = new HashSet<>();
+      for(String name : list()){
+        for(Manifest.Entry entry : readManifest(name).getEntries()){
+          used.addAll(entry.getChunks());
+        }
+      }
+      return sweep(used);
+    }
+  }
+
+  /** The names of all backups, oldest first. */
+  public List<String> list() throws IOException {
+    List<String> result = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(fDirectory.resolve(BACKUPS), "*" + MANIFEST_SUFFIX)) {
+      for(Path file : files){
+        String name = file.getFileName().toString();
+        result.add(name.substring(0, name.length() - MANIFEST_SUFFIX.length()));
+      }
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  // PRIVATE
+  private final Path fDirectory;
+
+  private static final String CHUNKS = "chunks";
+  private static final String BACKUPS = "backups";
+  private static final String LOCK_FILE = "lock";
+  private static final String MANIFEST_SUFFIX = ".txt";
+  private static final String TEMP_SUFFIX = ".tmp";
+  /** Never backed up : it's empty, and locked by running instances of the app. */
+  private static final String JOURNAL_LOCK_FILE = "journal.lck";
+  private static final boolean SHARED = true;
+  private static final int MAX_ATTEMPTS = 5;
+  /** Sorts in order of time. */
+  private static final String NAME_FORMAT = "yyyyMMdd-HHmmss-SSS";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final Logger fLogger = Util.getLogger(BackupRepository.class);
+
+  /** Counts reported at the end of a backup. */
+  private static final class Stats {
+    int files;
+    int filesUnread;
+    int newChunks;
+    long newBytes;
+    long totalBytes;
+  }
+
+  /** Closing the channel releases any lock taken on it. */
+  private FileChannel openLock() throws IOException {
+    return FileChannel.open(
+      fDirectory.resolve(LOCK_FILE), 
+      StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+    );
+  }
+
+  private Path manifestFile(String aName){
+    return fDirectory.resolve(BACKUPS).resolve(aName + MANIFEST_SUFFIX);
+  }
+
+  private Path chunkFile(String aHash){
+    return fDirectory.resolve(CHUNKS).resolve(aHash.substring(0, 2)).resolve(aHash);
+  }
+
+  private Manifest readManifest(String aName) throws IOException {
+    return Manifest.read(aName, manifestFile(aName));
+  }
+
+  private static String newName(List<String> aExisting){
+    SimpleDateFormat format = new SimpleDateFormat(NAME_FORMAT);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    String result = format.format(new Date());
+    String last = aExisting.isEmpty() ? null : aExisting.get(aExisting.size() - 1);
+    //the clock may have been set back
+    if ( last != null && result.compareTo(last) <= 0 ) {
+      result = last + "+";
+    }
+    return result;
+  }
+
+  private static Path tempFileOf(Path aFile){
+    return aFile.resolveSibling(aFile.getFileName() + TEMP_SUFFIX);
+  }
+
+  /** The files and directories holding the movies of each user. */
+  private static List<Path> storesIn(Path aDirectory) throws IOException {
+    List<Path> result = new ArrayList<>();
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(aDirectory, STORE_PREFIX + "*")) {
+      for(Path path : paths){
+        result.add(path);
+      }
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /** The files to back up in a store, which is either a directory or a single file. */
+  private static List<Path> filesOf(Path aStore) throws IOException {
+    final List<Path> result = new ArrayList<>();
+    if ( Files.isDirectory(aStore) ) {
+      Files.walkFileTree(aStore, new SimpleFileVisitor<Path>(){
+        @Override public FileVisitResult visitFile(Path aFile, BasicFileAttributes aAttrs) {
+          String name = aFile.getFileName().toString();
+          if ( aAttrs.isRegularFile() && ! name.endsWith(TEMP_SUFFIX) && ! name.equals(JOURNAL_LOCK_FILE) ) {
+            result.add(aFile);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    else if ( Files.isRegularFile(aStore) ) {
+      result.add(aStore);
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /** Size and time of last modification. Saving the movies replaces their files, which changes both. */
+  private static List<Long> stampsOf(List<Path> aFiles) throws IOException {
+    List<Long> result = new ArrayList<>();
+    for(Path file : aFiles){
+      if ( Files.exists(file) ) {
+        result.add(Files.size(file));
+        result.add(Files.getLastModifiedTime(file).toMillis());
+      }
+      else {
+        result.add(-1L);
+        result.add(-1L);
+      }
+    }
+    return result;
+  }
+
+  private void backupStore(Path aRoot, Path aStore, Manifest aLast, Manifest aManifest, Stats aStats) throws IOException {
+    for(int attempt = 1; attempt <= MAX_ATTEMPTS; ++attempt){
+      List<Path> files = filesOf(aStore);
+      List<Long> stamps = stampsOf(files);
+      List<Manifest.Entry> entries = new ArrayList<>();
+      Stats stats = new Stats();
+      for(int idx = 0; idx < files.size(); ++idx){
+        long size = stamps.get(2 * idx);
+        if ( size < 0 ) continue;
+        String path = relativePath(aRoot, files.get(idx));
+        entries.add(backupFile(files.get(idx), path, size, stamps.get(2 * idx + 1), aLast, stats));
+      }
+      if ( filesOf(aStore).equals(files) && stampsOf(files).equals(stamps) ) {
+        for(Manifest.Entry entry : entries){
+          aManifest.add(entry);
+        }
+        aStats.files += stats.files;
+        aStats.filesUnread += stats.filesUnread;
+        aStats.newChunks += stats.newChunks;
+        aStats.newBytes += stats.newBytes;
+        aStats.totalBytes += stats.totalBytes;
+        return;
+      }
+      fLogger.fine("Movies saved during backup. Reading them again: " + aStore);
+    }
+    throw new IOException("Movies kept changing during backup: " + aStore);
+  }
+
+  private static String relativePath(Path aRoot, Path aFile){
+    StringBuilder result = new StringBuilder();
+    for(Path part : aRoot.relativize(aFile)){
+      if ( result.length() > 0 ) {
+        result.append('/');
+      }
+      result.append(part.toString());
+    }
+    return result.toString();
+  }
+
+  private Manifest.Entry backupFile(Path aFile, String aPath, long aSize, long aLastModified, Manifest aLast, Stats aStats) throws IOException {
+    aStats.files++;
+    aStats.totalBytes += aSize;
+    Manifest.Entry last = aLast == null ? null : aLast.find(aPath);
+    if ( last != null && last.getSize() == aSize && last.getLastModified() == aLastModified ) {
+      aStats.filesUnread++;
+      return new Manifest.Entry(aPath, aSize, aLastModified, last.getChunks());
+    }
+    byte[] bytes = Files.readAllBytes(aFile);
+    MessageDigest digest = sha256();
+    List<String> chunks = new ArrayList<>();
+    int start = 0;
+    while ( start < bytes.length ) {
+      int end = Chunker.cut(bytes, start, bytes.length);
+      digest.update(bytes, start, end - start);
+      String hash = hex(digest.digest());
+      if ( saveChunk(hash, bytes, start, end) ) {
+        aStats.newChunks++;
+        aStats.newBytes += end - start;
+      }
+      chunks.add(hash);
+      start = end;
+    }
+    return new Manifest.Entry(aPath, bytes.length, aLastModified, chunks);
+  }
+
+  /** Return <tt>true</tt> only if the chunk wasn't already saved. */
+  private boolean saveChunk(String aHash, byte[] aBytes, int aStart, int aEnd) throws IOException {
+    Path file = chunkFile(aHash);
+    if ( Files.exists(file) ) return false;
+    Files.createDirectories(file.getParent());
+    Path temp = tempFileOf(file);
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.wrap(aBytes, aStart, aEnd - aStart);
+      while ( buffer.hasRemaining() ) {
+        channel.write(buffer);
+      }
+    }
+    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    return true;
+  }
+
+  private void restoreFile(Manifest.Entry aEntry, Path aTarget) throws IOException {
+    Path file = aTarget.resolve(aEntry.getPath()).normalize();
+    if ( ! file.startsWith(aTarget) ) throw new IOException("Backup has a path outside the target: " + aEntry.getPath());
+    if ( Files.exists(file) ) throw new FileAlreadyExistsException(file.toString(), null, "Not overwriting an existing file");
+    Files.createDirectories(file.getParent());
+    Path temp = tempFileOf(file);
+    try {
+      writeChunks(aEntry, temp);
+    }
+    catch (IOException ex) {
+      Files.deleteIfExists(temp);
+      throw ex;
+    }
+    //the app's journal identifies the saved movies by their time of last modification
+    Files.setLastModifiedTime(temp, FileTime.fromMillis(aEntry.getLastModified()));
+    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Write the chunks of the given file, checking the hash of each. */
+  private void writeChunks(Manifest.Entry aEntry, Path aFile) throws IOException {
+    MessageDigest digest = sha256();
+    long size = 0;
+    try (FileChannel channel = FileChannel.open(aFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      for(String hash : aEntry.getChunks()){
+        byte[] bytes = Files.readAllBytes(chunkFile(hash));
+        if ( ! hash.equals(hex(digest.digest(bytes))) ) throw new IOException("Chunk is corrupt: " + chunkFile(hash));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while ( buffer.hasRemaining() ) {
+          channel.write(buffer);
+        }
+        size = size + bytes.length;
+      }
+    }
+    if ( size != aEntry.getSize() ) throw new IOException("Restored file has the wrong size: " + aEntry.getPath());
+  }
+
+  /** Delete the chunks not in the given set. Returns the number deleted. */
+  private int sweep(Set<String> aUsed) throws IOException {
+    int result = 0;
+    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(fDirectory.resolve(CHUNKS))) {
+      for(Path dir : dirs){
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+          for(Path file : files){
+            if ( ! aUsed.contains(file.getFileName().toString()) ) {
+              Files.delete(file);
+              ++result;
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private static MessageDigest sha256(){
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException ex) {
+      //every Java platform is required to support it
+      throw new AssertionError(ex);
+    }
+  }
+
+  private static String hex(byte[] aBytes){
+    char[] result = new char[2 * aBytes.length];
+    for(int idx = 0; idx < aBytes.length; ++idx){
+      result[2 * idx] = HEX[(aBytes[idx] >> 4) & 0xF];
+      result[2 * idx + 1] = HEX[aBytes[idx] & 0xF];
+    }
+    return new String(result);
+  }
+
+  private static void logBackup(final String aName, final Stats aStats, final long aStart){
+    fLogger.info(new Supplier<String>(){
+      @Override public String get() {
+        return 
+          "Backup " + aName + ": " + aStats.files + " files (" + aStats.totalBytes + " bytes), " + 
+          aStats.filesUnread + " unchanged and not read, " + aStats.newChunks + " new chunks (" + 
+          aStats.newBytes + " bytes), in " + (System.nanoTime() - aStart) / 1000000 + " ms."
+        ;
+      }
+    });
+  }
+}
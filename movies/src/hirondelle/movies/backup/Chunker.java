@@ -0,0 +1,64 @@
+package hirondelle.movies.backup;
+
+import java.util.Random;
+
+/**
+ Splits bytes into chunks at points chosen by their content, not by their position.
+
+ <P>A rolling hash (a <em>gear</em> hash) of the last few dozen bytes is kept, and a chunk
+ ends wherever some of its bits are all zero. Inserting or removing text in a file then moves
+ only the nearby cut points : the chunks before and after the edit stay the same, and so
+ are stored only once. (With fixed-size chunks, every chunk after the edit would change.)
+
+ <P>As in FastCDC, the test is harder before the average size is reached, and easier after,
+ which keeps the sizes of chunks close to the average. No cut is made before the minimum
+ size, and one is always made at the maximum size.
+*/
+final class Chunker {
+
+  static final int MIN_SIZE = 2 * 1024;
+  static final int AVERAGE_SIZE = 8 * 1024;
+  static final int MAX_SIZE = 64 * 1024;
+
+  /**
+   Return the end (exclusive) of the chunk starting at <tt>aStart</tt>, among the bytes
+   up to <tt>aEnd</tt>.
+  */
+  static int cut(byte[] aBytes, int aStart, int aEnd){
+    int length = aEnd - aStart;
+    if ( length <= MIN_SIZE ) return aEnd;
+    int average = aStart + Math.min(AVERAGE_SIZE, length);
+    int max = aStart + Math.min(MAX_SIZE, length);
+    long hash = 0;
+    int idx = aStart + MIN_SIZE;
+    for( ; idx < average; ++idx){
+      hash = (hash << 1) + GEAR[aBytes[idx] & 0xFF];
+      if ( (hash & HARD_MASK) == 0 ) return idx + 1;
+    }
+    for( ; idx < max; ++idx){
+      hash = (hash << 1) + GEAR[aBytes[idx] & 0xFF];
+      if ( (hash & EASY_MASK) == 0 ) return idx + 1;
+    }
+    return max;
+  }
+
+  // PRIVATE
+
+  /** 15 bits, spread over the upper half of the hash, where it depends on the most bytes. */
+  private static final long HARD_MASK = 0x0003590703530000L;
+  /** 11 bits. */
+  private static final long EASY_MASK = 0x0000D90003530000L;
+  /** Random values for each byte. The seed is fixed, since cut points must never change. */
+  private static final long[] GEAR = new long[256];
+  static {
+    Random random = new Random(0x6D6F76696573L);
+    for(int idx = 0; idx < GEAR.length; ++idx){
+      GEAR[idx] = random.nextLong();
+    }
+  }
+
+  /** Prevent object construction. */
+  private Chunker(){
+    throw new AssertionError();
+  }
+}
@@ -0,0 +1,130 @@
+package hirondelle.movies.backup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ The list of the files in a backup, and of the chunks which make up each file.
+
+ <P>A manifest is a text file, with a header line, and then, for each file :
+ <PRE>
+ file|size|last modified|relative path
+ (the SHA-256 of each chunk, in order, one per line)
+ </PRE>
+ The path is last, since it may hold the delimiter. Paths always use '/'.
+
+ <P>This class is not thread-safe.
+*/
+final class Manifest {
+
+  /** A file in a backup. */
+  static final class Entry {
+    Entry(String aPath, long aSize, long aLastModified, List<String> aChunks){
+      fPath = aPath;
+      fSize = aSize;
+      fLastModified = aLastModified;
+      fChunks = aChunks;
+    }
+    String getPath() { return fPath; }
+    long getSize() { return fSize; }
+    long getLastModified() { return fLastModified; }
+    /** The hash of each chunk, in order. */
+    List<String> getChunks() { return fChunks; }
+    // PRIVATE
+    private final String fPath;
+    private final long fSize;
+    private final long fLastModified;
+    private final List<String> fChunks;
+  }
+
+  Manifest(String aName){
+    fName = aName;
+  }
+
+  String getName(){
+    return fName;
+  }
+
+  void add(Entry aEntry){
+    fEntries.put(aEntry.getPath(), aEntry);
+  }
+
+  /** Return the entry for the given path, or null if there is none. */
+  Entry find(String aPath){
+    return fEntries.get(aPath);
+  }
+
+  /** The entries, in the order they were added. */
+  List<Entry> getEntries(){
+    return Collections.unmodifiableList(new ArrayList<>(fEntries.values()));
+  }
+
+  /** Read the manifest saved in the given file. */
+  static Manifest read(String aName, Path aFile) throws IOException {
+    Manifest result = new Manifest(aName);
+    try (BufferedReader reader = Files.newBufferedReader(aFile, ENCODING)) {
+      String line = reader.readLine();
+      if ( ! HEADER.equals(line) ) throw notExpected(aFile);
+      List<String> chunks = null;
+      while ( (line = reader.readLine()) != null ) {
+        if ( line.startsWith(FILE) ) {
+          String[] fields = line.split("\\" + DELIMITER, 4);
+          if ( fields.length < 4 ) throw notExpected(aFile);
+          chunks = new ArrayList<>();
+          try {
+            result.add(new Entry(fields[3], Long.parseLong(fields[1]), Long.parseLong(fields[2]), chunks));
+          }
+          catch (NumberFormatException ex) {
+            throw notExpected(aFile);
+          }
+        }
+        else if ( chunks != null && line.length() > 0 ) {
+          chunks.add(line);
+        }
+        else {
+          throw notExpected(aFile);
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Save the manifest to the given file. */
+  void write(Path aFile) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(aFile, ENCODING)) {
+      writer.write(HEADER);
+      writer.newLine();
+      for(Entry entry : fEntries.values()){
+        writer.write(FILE + entry.getSize() + DELIMITER + entry.getLastModified() + DELIMITER + entry.getPath());
+        writer.newLine();
+        for(String chunk : entry.getChunks()){
+          writer.write(chunk);
+          writer.newLine();
+        }
+      }
+    }
+  }
+
+  // PRIVATE
+  private final String fName;
+  private final Map<String, Entry> fEntries = new LinkedHashMap<>();
+
+  private static final String HEADER = "#movies backup 1";
+  private static final char DELIMITER = '|';
+  private static final String FILE = "file" + DELIMITER;
+  private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+  private static IOException notExpected(Path aFile){
+    return new IOException("Backup manifest not in expected format: " + aFile);
+  }
+}
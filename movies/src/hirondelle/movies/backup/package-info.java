@@ -0,0 +1,6 @@
+/** 
+ Incremental, deduplicated backups of the saved movies of all users.
+ 
+ <P>See {@link hirondelle.movies.LaunchBackup}.
+*/
+package hirondelle.movies.backup;
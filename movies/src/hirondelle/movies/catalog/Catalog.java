@@ -0,0 +1,254 @@
+package hirondelle.movies.catalog;
+
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ A sorted index of film titles, memory-mapped, for finding the titles which start with 
+ some text. Built by {@link CatalogBuilder}.
+
+ <P>Each title has a <em>key</em> : the title in lower case. The titles are sorted by key, 
+ in the order of their UTF-8 bytes, and stored in blocks of {@link #BLOCK_SIZE}. Within a 
+ block, each key and title is <em>front-coded</em> : only the number of bytes it shares with 
+ the one before it is stored, followed by the rest of its bytes. So the long runs of titles 
+ with a common start (<tt>Star Trek...</tt>) take little space. The first entry of each 
+ block is stored in full, so any block can be read on its own.
+ <PRE>
+ file     := header block* directory
+ header   := magic version numTitles numBlocks directoryOffset  (int, int, int, int, long)
+ block    := entry{1..BLOCK_SIZE}
+ entry    := keyShared keyLength keyBytes titleShared titleLength titleBytes  (the numbers are varints)
+ directory := the offset of each block (long)
+ </PRE>
+ A lookup finds the block where the prefix would start by a binary search of the directory, 
+ reading only the first key of each block it visits, and then reads entries forward from there. 
+ It touches a few pages of the file, whatever the size of the catalog. The operating system 
+ caches those pages, not the Java heap.
+
+ <P>This class is immutable, and thread-safe.
+*/
+public final class Catalog {
+
+  /**
+   Return the catalog in the file named by the <tt>movies.catalog</tt> system property 
+   (by default, {@link #DEFAULT_FILE}, in the directory the app is run in), or 
+   <tt>null</tt> if there is no such file, or it cannot be read. The file is mapped only once.
+  */
+  public static Catalog getInstance(){
+    return Holder.INSTANCE;
+  }
+
+  /** The file name used when the <tt>movies.catalog</tt> system property is not set. */
+  public static final String DEFAULT_FILE = "movie_catalog.idx";
+
+  /** The catalog file used by {@link #getInstance()}. */
+  public static Path getFile(){
+    return Paths.get(System.getProperty("movies.catalog", DEFAULT_FILE));
+  }
+
+  /** Map the given catalog file. */
+  public static Catalog open(Path aFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(aFile, StandardOpenOption.READ)){
+      if ( channel.size() > Integer.MAX_VALUE ) {
+        throw new IOException("Catalog is too large: " + aFile);
+      }
+      //the mapping stays valid after the channel is closed
+      return new Catalog(aFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /** The number of titles in the catalog. */
+  public int size(){
+    return fNumTitles;
+  }
+
+  /**
+   Return the titles which start with the given text, ignoring case, in the order of the 
+   catalog.
+   @param aPrefix if it has no content, then no titles are returned
+   @param aMax the most titles to return
+  */
+  public List<String> startingWith(String aPrefix, int aMax){
+    if ( ! Util.textHasContent(aPrefix) || aMax <= 0 || fNumBlocks == 0 ) return Collections.emptyList();
+    byte[] prefix = keyOf(aPrefix).getBytes(StandardCharsets.UTF_8);
+    List<String> result = new ArrayList<>();
+    Entry entry = new Entry();
+    int block = blockBefore(prefix);
+    entry.fPosition = blockOffset(block);
+    for(int idx = block * BLOCK_SIZE; idx < fNumTitles && result.size() < aMax; ++idx){
+      entry.next(fData);
+      int comparison = comparePrefix(entry.fKey, entry.fKeyLength, prefix);
+      if ( comparison == 0 ) {
+        result.add(new String(entry.fTitle, 0, entry.fTitleLength, StandardCharsets.UTF_8));
+      }
+      else if ( comparison > 0 ) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  /** The file the catalog was mapped from. */
+  @Override public String toString(){
+    return "Catalog " + fFile + ": " + fNumTitles + " titles";
+  }
+
+  /** The number of entries in each block. */
+  static final int BLOCK_SIZE = 16;
+  static final int MAGIC = 0x4d4f4341; // "MOCA"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+
+  /** The key of a title. Titles are found by the start of their key. */
+  static String keyOf(String aTitle){
+    return aTitle.toLowerCase(Locale.ROOT);
+  }
+
+  // PRIVATE
+  private final Path fFile;
+  private final ByteBuffer fData;
+  private final int fNumTitles;
+  private final int fNumBlocks;
+  private final int fDirectory;
+  private static final Logger fLogger = Util.getLogger(Catalog.class);
+
+  /** Maps the default file when first needed. */
+  private static final class Holder {
+    static final Catalog INSTANCE = openDefault();
+  }
+
+  private Catalog(Path aFile, MappedByteBuffer aData) throws IOException {
+    fFile = aFile;
+    fData = aData;
+    if ( aData.capacity() < HEADER_SIZE || aData.getInt(0) != MAGIC || aData.getInt(4) != VERSION ) {
+      throw new IOException("Not a catalog, or made by another version: " + aFile);
+    }
+    fNumTitles = aData.getInt(8);
+    fNumBlocks = aData.getInt(12);
+    long directory = aData.getLong(16);
+    if ( directory + 8L * fNumBlocks != aData.capacity() ) {
+      throw new IOException("Catalog is incomplete: " + aFile);
+    }
+    fDirectory = (int)directory;
+  }
+
+  private static Catalog openDefault(){
+    final Path file = getFile();
+    if ( ! Files.exists(file) ) {
+      fLogger.config("No catalog of titles: " + file.toAbsolutePath());
+      return null;
+    }
+    try {
+      final Catalog result = open(file);
+      fLogger.config(new Supplier<String>(){
+        @Override public String get() {
+          return result.toString();
+        }
+      });
+      return result;
+    }
+    catch (IOException ex){
+      fLogger.severe("Cannot read the catalog of titles. " + ex);
+      return null;
+    }
+  }
+
+  private int blockOffset(int aBlock){
+    return (int)fData.getLong(fDirectory + 8 * aBlock);
+  }
+
+  /** The last block whose first key comes before the prefix, or the first block. */
+  private int blockBefore(byte[] aPrefix){
+    Entry first = new Entry();
+    int low = 0;
+    int high = fNumBlocks - 1;
+    while ( low < high ) {
+      int middle = (low + high + 1) >>> 1;
+      first.fPosition = blockOffset(middle);
+      first.next(fData);
+      if ( compare(first.fKey, first.fKeyLength, aPrefix) < 0 ) {
+        low = middle;
+      }
+      else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  /** Compare as unsigned bytes. */
+  private static int compare(byte[] aKey, int aLength, byte[] aPrefix){
+    int length = Math.min(aLength, aPrefix.length);
+    for(int idx = 0; idx < length; ++idx){
+      int comparison = (aKey[idx] & 0xff) - (aPrefix[idx] & 0xff);
+      if ( comparison != 0 ) return comparison;
+    }
+    return aLength - aPrefix.length;
+  }
+
+  /** 0 if the key starts with the prefix, else the sign of the comparison of the key and prefix. */
+  private static int comparePrefix(byte[] aKey, int aLength, byte[] aPrefix){
+    if ( aLength >= aPrefix.length && compare(aKey, aPrefix.length, aPrefix) == 0 ) return 0;
+    return compare(aKey, aLength, aPrefix);
+  }
+
+  /** Reads entries one after the other, each built on the one before it. */
+  private static final class Entry {
+    int fPosition;
+    byte[] fKey = new byte[64];
+    int fKeyLength;
+    byte[] fTitle = new byte[64];
+    int fTitleLength;
+
+    void next(ByteBuffer aData){
+      int shared = readVarint(aData);
+      int length = readVarint(aData);
+      fKey = ensureCapacity(fKey, shared + length);
+      read(aData, fKey, shared, length);
+      fKeyLength = shared + length;
+      shared = readVarint(aData);
+      length = readVarint(aData);
+      fTitle = ensureCapacity(fTitle, shared + length);
+      read(aData, fTitle, shared, length);
+      fTitleLength = shared + length;
+    }
+
+    private int readVarint(ByteBuffer aData){
+      int result = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = aData.get(fPosition++);
+        result = result | (b & 0x7f) << shift;
+        shift = shift + 7;
+      } while ( b < 0 );
+      return result;
+    }
+
+    private void read(ByteBuffer aData, byte[] aTarget, int aStart, int aLength){
+      for(int idx = 0; idx < aLength; ++idx){
+        aTarget[aStart + idx] = aData.get(fPosition++);
+      }
+    }
+
+    private static byte[] ensureCapacity(byte[] aBytes, int aLength){
+      return aBytes.length >= aLength ? aBytes : Arrays.copyOf(aBytes, Math.max(aLength, 2 * aBytes.length));
+    }
+  }
+}
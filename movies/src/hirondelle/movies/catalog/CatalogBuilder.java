@@ -0,0 +1,312 @@
+package hirondelle.movies.catalog;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ Build a {@link Catalog} from a file of titles.
+
+ <P>The file is tab-separated, with a header line naming its columns, as in the dumps of 
+ film databases. The titles are read from one of its columns. Empty values, and 
+ <tt>\N</tt> (for no value), are skipped, as are duplicate titles.
+
+ <P>There may be many millions of titles, so they are never all held in memory. They are 
+ sorted in runs of {@link #RUN_SIZE}, each written to a temporary file, and the runs are 
+ then merged, straight into the blocks of the catalog. The catalog is written to a 
+ temporary file, and moved into place only when it's complete.
+*/
+public final class CatalogBuilder {
+
+  /** The column read when no column is named, if the file has it. Else the first column is read. */
+  public static final String DEFAULT_COLUMN = "primaryTitle";
+
+  /**
+   Build a catalog of the titles in the given file. Return the number of titles in the catalog.
+   @param aTitles a tab-separated file of titles, with a header line
+   @param aColumn possibly-null; the name of the column holding the titles. Null means 
+   {@link #DEFAULT_COLUMN}.
+   @param aCatalog the catalog file to build; replaced if it exists
+  */
+  public static int build(Path aTitles, String aColumn, Path aCatalog) throws IOException {
+    Path directory = aCatalog.toAbsolutePath().getParent();
+    Path runs = Files.createTempDirectory(directory, "catalog-runs");
+    Path temp = Files.createTempFile(directory, "catalog", ".tmp");
+    try {
+      List<Path> sortedRuns = writeSortedRuns(aTitles, aColumn, runs);
+      int result = merge(sortedRuns, temp);
+      Files.move(temp, aCatalog, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return result;
+    }
+    finally {
+      Files.deleteIfExists(temp);
+      deleteAll(runs);
+    }
+  }
+
+  // PRIVATE
+
+  /** Large enough for few runs, small enough for a modest heap. */
+  private static final int RUN_SIZE = 1000000;
+  private static final char TAB = '\t';
+  private static final String NO_VALUE = "\\N";
+
+  /** 
+   Sort each run of titles, and write it to a file, one title per line, each preceded by 
+   its key and a tab. The tab sorts before any character of a title, so sorting the lines 
+   sorts by key, and then by title.
+  */
+  private static List<Path> writeSortedRuns(Path aTitles, String aColumn, Path aRuns) throws IOException {
+    List<Path> result = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(aTitles, StandardCharsets.UTF_8)){
+      String header = reader.readLine();
+      if ( header == null ) throw new IOException("File of titles is empty: " + aTitles);
+      int column = columnOf(header, aColumn, aTitles);
+      List<String> run = new ArrayList<>();
+      String line = null;
+      while ( (line = reader.readLine()) != null ) {
+        String title = field(line, column);
+        if ( title.length() > 0 && ! NO_VALUE.equals(title) ) {
+          run.add(Catalog.keyOf(title) + TAB + title);
+        }
+        if ( run.size() == RUN_SIZE ) {
+          result.add(writeRun(run, aRuns, result.size()));
+          run.clear();
+        }
+      }
+      if ( ! run.isEmpty() ) {
+        result.add(writeRun(run, aRuns, result.size()));
+      }
+    }
+    return result;
+  }
+
+  private static int columnOf(String aHeader, String aColumn, Path aTitles) throws IOException {
+    List<String> names = Arrays.asList(aHeader.split(String.valueOf(TAB), -1));
+    if ( aColumn == null ) {
+      return Math.max(0, names.indexOf(DEFAULT_COLUMN));
+    }
+    int result = names.indexOf(aColumn);
+    if ( result < 0 ) throw new IOException("No column named " + aColumn + " in " + aTitles);
+    return result;
+  }
+
+  /** The value in the given column, trimmed, or an empty string if the line is too short. */
+  private static String field(String aLine, int aColumn){
+    int start = 0;
+    for(int idx = 0; idx < aColumn; ++idx){
+      start = aLine.indexOf(TAB, start) + 1;
+      if ( start == 0 ) return "";
+    }
+    int end = aLine.indexOf(TAB, start);
+    return aLine.substring(start, end < 0 ? aLine.length() : end).trim();
+  }
+
+  private static Path writeRun(List<String> aRun, Path aRuns, int aIndex) throws IOException {
+    Collections.sort(aRun, CODE_POINT_ORDER);
+    Path result = aRuns.resolve("run" + aIndex + ".txt");
+    try (BufferedWriter writer = Files.newBufferedWriter(result, StandardCharsets.UTF_8)){
+      for(String line : aRun){
+        writer.write(line);
+        writer.write('\n');
+      }
+    }
+    return result;
+  }
+
+  /** One sorted run, being merged. */
+  private static final class Run {
+    Run(Path aFile) throws IOException {
+      fReader = Files.newBufferedReader(aFile, StandardCharsets.UTF_8);
+      fLine = fReader.readLine();
+    }
+    final BufferedReader fReader;
+    String fLine;
+  }
+
+  /** Merge the runs into the catalog. Return the number of titles. */
+  private static int merge(List<Path> aRuns, Path aCatalog) throws IOException {
+    PriorityQueue<Run> runs = new PriorityQueue<>(Math.max(1, aRuns.size()), new Comparator<Run>(){
+      @Override public int compare(Run aThis, Run aThat) {
+        return CODE_POINT_ORDER.compare(aThis.fLine, aThat.fLine);
+      }
+    });
+    try (BlockWriter writer = new BlockWriter(aCatalog)){
+      for(Path file : aRuns){
+        Run run = new Run(file);
+        if ( run.fLine == null ) {
+          run.fReader.close();
+        }
+        else {
+          runs.add(run);
+        }
+      }
+      String previous = null;
+      while ( ! runs.isEmpty() ) {
+        Run run = runs.poll();
+        if ( ! run.fLine.equals(previous) ) {
+          writer.add(run.fLine);
+          previous = run.fLine;
+        }
+        run.fLine = run.fReader.readLine();
+        if ( run.fLine == null ) {
+          run.fReader.close();
+        }
+        else {
+          runs.add(run);
+        }
+      }
+      return writer.finish();
+    }
+    finally {
+      for(Run run : runs){
+        run.fReader.close();
+      }
+    }
+  }
+
+  /** Writes the entries in front-coded blocks, and then the directory and header. */
+  private static final class BlockWriter implements AutoCloseable {
+    BlockWriter(Path aFile) throws IOException {
+      fFile = aFile;
+      fOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(aFile)));
+      //filled in by finish
+      fOut.write(new byte[Catalog.HEADER_SIZE]);
+    }
+
+    /** Add a line of a sorted run : a key, a tab, and a title. */
+    void add(String aLine) throws IOException {
+      int tab = aLine.indexOf(TAB);
+      byte[] key = aLine.substring(0, tab).getBytes(StandardCharsets.UTF_8);
+      byte[] title = aLine.substring(tab + 1).getBytes(StandardCharsets.UTF_8);
+      if ( fNumTitles % Catalog.BLOCK_SIZE == 0 ) {
+        if ( fBlocks.length == fNumBlocks ) {
+          fBlocks = Arrays.copyOf(fBlocks, 2 * fBlocks.length);
+        }
+        fBlocks[fNumBlocks++] = offset();
+        fKey = EMPTY;
+        fTitle = EMPTY;
+      }
+      writeFrontCoded(key, fKey);
+      writeFrontCoded(title, fTitle);
+      fKey = key;
+      fTitle = title;
+      ++fNumTitles;
+    }
+
+    /** Write the directory, and then the header. Return the number of titles. */
+    int finish() throws IOException {
+      long directory = offset();
+      for(int idx = 0; idx < fNumBlocks; ++idx){
+        fOut.writeLong(fBlocks[idx]);
+      }
+      fOut.close();
+      if ( directory + 8L * fNumBlocks > Integer.MAX_VALUE ) {
+        throw new IOException("Too many titles for a catalog: " + fNumTitles);
+      }
+      ByteBuffer header = ByteBuffer.allocate(Catalog.HEADER_SIZE);
+      header.putInt(Catalog.MAGIC).putInt(Catalog.VERSION).putInt(fNumTitles).putInt(fNumBlocks).putLong(directory);
+      header.flip();
+      try (FileChannel channel = FileChannel.open(fFile, StandardOpenOption.WRITE)){
+        channel.write(header, 0);
+        channel.force(true);
+      }
+      return fNumTitles;
+    }
+
+    @Override public void close() throws IOException {
+      fOut.close();
+    }
+
+    private final Path fFile;
+    private final DataOutputStream fOut;
+    private long[] fBlocks = new long[1024];
+    private int fNumBlocks;
+    private int fNumTitles;
+    private byte[] fKey = EMPTY;
+    private byte[] fTitle = EMPTY;
+    private static final byte[] EMPTY = new byte[0];
+
+    /** DataOutputStream counts bytes in an int, which stops at its largest value. */
+    private long offset(){
+      return fOut.size();
+    }
+
+    private void writeFrontCoded(byte[] aBytes, byte[] aPrevious) throws IOException {
+      int shared = 0;
+      int max = Math.min(aBytes.length, aPrevious.length);
+      while ( shared < max && aBytes[shared] == aPrevious[shared] ) {
+        ++shared;
+      }
+      writeVarint(shared);
+      writeVarint(aBytes.length - shared);
+      fOut.write(aBytes, shared, aBytes.length - shared);
+    }
+
+    private void writeVarint(int aValue) throws IOException {
+      int value = aValue;
+      while ( (value & ~0x7f) != 0 ) {
+        fOut.write((value & 0x7f) | 0x80);
+        value = value >>> 7;
+      }
+      fOut.write(value);
+    }
+  }
+
+  /** 
+   The order of code points, which is the order of UTF-8 bytes used by the catalog. 
+   <tt>String.compareTo</tt> differs : it puts surrogate pairs before some other characters.
+  */
+  private static final Comparator<String> CODE_POINT_ORDER = new Comparator<String>(){
+    @Override public int compare(String aThis, String aThat) {
+      int length = Math.min(aThis.length(), aThat.length());
+      for(int idx = 0; idx < length; ++idx){
+        char a = aThis.charAt(idx);
+        char b = aThat.charAt(idx);
+        if ( a != b ) return fixUp(a) - fixUp(b);
+      }
+      return aThis.length() - aThat.length();
+    }
+    /** Move the surrogates above the rest of the Basic Multilingual Plane. */
+    private int fixUp(char aChar){
+      if ( aChar < Character.MIN_SURROGATE ) return aChar;
+      return aChar <= Character.MAX_SURROGATE ? aChar + 0x2000 : aChar - 0x800;
+    }
+  };
+
+  private static void deleteAll(Path aDirectory) throws IOException {
+    Files.walkFileTree(aDirectory, new SimpleFileVisitor<Path>(){
+      @Override public FileVisitResult visitFile(Path aFile, BasicFileAttributes aAttributes) throws IOException {
+        Files.delete(aFile);
+        return FileVisitResult.CONTINUE;
+      }
+      @Override public FileVisitResult postVisitDirectory(Path aDir, IOException aEx) throws IOException {
+        Files.delete(aDir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /** It makes no sense to call this class's constructor, so it's made private. */
+  private CatalogBuilder(){
+    throw new AssertionError();
+  }
+}
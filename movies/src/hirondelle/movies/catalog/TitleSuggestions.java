@@ -0,0 +1,165 @@
+package hirondelle.movies.catalog;
+
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JList;
+import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ Suggest titles from the {@link Catalog} as the user types into a text field.
+
+ <P>The titles starting with the text typed so far are shown in a list below the field. 
+ The up and down arrow keys move through the list, Enter or a click puts the chosen title 
+ into the field, and Escape hides the list. The field keeps the focus throughout.
+
+ <P>A lookup in the catalog takes well under a millisecond, so it's simply done on the 
+ Event Dispatch Thread, on each keystroke. If there is no catalog, the field is left as it is.
+*/
+public final class TitleSuggestions {
+
+  /** Suggest titles for the given field, if there is a catalog. */
+  public static void attachTo(JTextField aField){
+    Catalog catalog = Catalog.getInstance();
+    if ( catalog != null ) {
+      new TitleSuggestions(aField, catalog);
+    }
+  }
+
+  // PRIVATE
+  private final JTextField fField;
+  private final Catalog fCatalog;
+  private final DefaultListModel<String> fModel = new DefaultListModel<>();
+  private final JList<String> fList = new JList<>(fModel);
+  private final JPopupMenu fPopup = new JPopupMenu();
+  /** The field is being changed by this class, not by the user. */
+  private boolean fIsChoosing;
+  private static final int MAX_SUGGESTIONS = 10;
+  /** A single letter matches too many titles to be of use. */
+  private static final int MIN_LENGTH = 2;
+
+  private TitleSuggestions(JTextField aField, Catalog aCatalog){
+    fField = aField;
+    fCatalog = aCatalog;
+    fList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    fList.setFocusable(false);
+    fList.setVisibleRowCount(MAX_SUGGESTIONS);
+    JScrollPane scroll = new JScrollPane(fList);
+    scroll.setFocusable(false);
+    fPopup.setFocusable(false);
+    fPopup.add(scroll);
+    fField.getDocument().addDocumentListener(new ShowSuggestions());
+    fField.addKeyListener(new ChooseByKeys());
+    fField.addFocusListener(new FocusAdapter() {
+      @Override public void focusLost(FocusEvent aEvent) {
+        fPopup.setVisible(false);
+      }
+    });
+    fList.addMouseListener(new MouseAdapter() {
+      @Override public void mouseClicked(MouseEvent aEvent) {
+        int index = fList.locationToIndex(aEvent.getPoint());
+        if ( index >= 0 ) {
+          choose(fModel.get(index));
+        }
+      }
+    });
+  }
+
+  private void showSuggestions(){
+    String text = fField.getText();
+    if ( fIsChoosing || ! fField.isShowing() || text.trim().length() < MIN_LENGTH ) {
+      fPopup.setVisible(false);
+      return;
+    }
+    List<String> titles = fCatalog.startingWith(text.trim(), MAX_SUGGESTIONS);
+    if ( titles.isEmpty() || (titles.size() == 1 && titles.get(0).equals(text)) ) {
+      fPopup.setVisible(false);
+      return;
+    }
+    fModel.clear();
+    for(String title : titles){
+      fModel.addElement(title);
+    }
+    fList.clearSelection();
+    fPopup.setPopupSize(Math.max(fField.getWidth(), fPopup.getPreferredSize().width), fPopup.getPreferredSize().height);
+    fPopup.show(fField, 0, fField.getHeight());
+    //showing a popup may take the focus
+    fField.requestFocusInWindow();
+  }
+
+  private void choose(String aTitle){
+    fIsChoosing = true;
+    try {
+      fField.setText(aTitle);
+    }
+    finally {
+      fIsChoosing = false;
+    }
+    fPopup.setVisible(false);
+  }
+
+  private void moveSelection(int aBy){
+    int index = fList.getSelectedIndex() + aBy;
+    if ( index >= 0 && index < fModel.size() ) {
+      fList.setSelectedIndex(index);
+      fList.ensureIndexIsVisible(index);
+    }
+  }
+
+  /** The listener can't change the field, so the work is done just after. */
+  private final class ShowSuggestions implements DocumentListener {
+    @Override public void insertUpdate(DocumentEvent aEvent) {
+      later();
+    }
+    @Override public void removeUpdate(DocumentEvent aEvent) {
+      later();
+    }
+    @Override public void changedUpdate(DocumentEvent aEvent) {
+      //attribute changes only - the text is the same
+    }
+    private void later(){
+      if ( fIsChoosing ) return;
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override public void run() {
+          showSuggestions();
+        }
+      });
+    }
+  }
+
+  /** Keys used on the list are consumed, so the dialog doesn't act on them too. */
+  private final class ChooseByKeys extends KeyAdapter {
+    @Override public void keyPressed(KeyEvent aEvent) {
+      if ( ! fPopup.isVisible() ) return;
+      int key = aEvent.getKeyCode();
+      if ( key == KeyEvent.VK_DOWN ) {
+        moveSelection(1);
+        aEvent.consume();
+      }
+      else if ( key == KeyEvent.VK_UP ) {
+        moveSelection(-1);
+        aEvent.consume();
+      }
+      else if ( key == KeyEvent.VK_ENTER && fList.getSelectedIndex() >= 0 ) {
+        choose(fList.getSelectedValue());
+        aEvent.consume();
+      }
+      else if ( key == KeyEvent.VK_ESCAPE ) {
+        fPopup.setVisible(false);
+        aEvent.consume();
+      }
+    }
+  }
+}
@@ -0,0 +1,10 @@
+/** 
+ A catalog of film titles, for suggesting titles as the user types them.
+ 
+ <P>The catalog is built once, from a large tab-separated file of titles, into a compact 
+ sorted index, which is then memory-mapped : looking up a prefix reads only a few pages of 
+ the file, and the titles are never loaded onto the heap.
+ 
+ <P>See {@link hirondelle.movies.LaunchCatalog}.
+*/
+package hirondelle.movies.catalog;
@@ -0,0 +1,98 @@
+package hirondelle.movies.edit;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ The version of the data store, and which movies changed in each version.
+
+ <P>Every edit (including an undo or a redo) increases the version by 1, and records the
+ ids of the movies it added, changed, or deleted. Readers who remember the version they
+ last saw can then ask for just the movies changed since then. The answer takes time
+ proportional to the number of changes, not to the number of movies.
+
+ <P>The log holds a fixed number of the most recent changes, in a ring buffer. Older
+ changes are forgotten, and readers who fall that far behind must read everything again.
+
+ <P>Versions start at the time the log was created, in microseconds, and not at 0. Versions
+ from an earlier run of the app are then older than any version of the current run, so a
+ reader can't mistake an old version for a current one.
+
+ <P>This class is not thread-safe. The caller must synchronize access, except for
+ {@link #getVersion()}.
+*/
+final class ChangeLog {
+
+  /** Constructor. */
+  ChangeLog(int aCapacity){
+    fVersions = new long[aCapacity];
+    fIds = new int[aCapacity];
+    fVersion = System.currentTimeMillis() * 1000;
+    fForgottenUpTo = fVersion;
+  }
+
+  /** The current version. May be called by any thread, without synchronizing. */
+  long getVersion(){
+    return fVersion;
+  }
+
+  /** Start a new version. Return the new version. */
+  long increment(){
+    fVersion = fVersion + 1;
+    return fVersion;
+  }
+
+  /** Record a change to the given movie, in the current version. */
+  void record(Integer aId){
+    if ( fSize == fIds.length ) {
+      fForgottenUpTo = fVersions[fStart];
+      fStart = (fStart + 1) % fIds.length;
+      --fSize;
+    }
+    int end = (fStart + fSize) % fIds.length;
+    fVersions[end] = fVersion;
+    fIds[end] = aId;
+    ++fSize;
+  }
+
+  /**
+   Return the ids of the movies changed after the given version, each one once, in the
+   order they were changed.
+
+   <P>Return <tt>null</tt> if changes after that version have already been forgotten, or if
+   the version is not one of this log's versions.
+  */
+  Set<Integer> idsChangedSince(long aVersion){
+    if ( aVersion < fForgottenUpTo || aVersion > fVersion ) return null;
+    Set<Integer> result = new LinkedHashSet<>();
+    for(int idx = firstAfter(aVersion); idx < fSize; ++idx){
+      result.add(fIds[(fStart + idx) % fIds.length]);
+    }
+    return result;
+  }
+
+  // PRIVATE
+  private volatile long fVersion;
+  /** Changes up to and including this version are no longer in the log. */
+  private long fForgottenUpTo;
+  private final long[] fVersions;
+  private final int[] fIds;
+  private int fStart;
+  private int fSize;
+
+  /** Binary search for the first change made after the given version. */
+  private int firstAfter(long aVersion){
+    int low = 0;
+    int high = fSize;
+    while ( low < high ) {
+      int middle = (low + high) >>> 1;
+      if ( fVersions[(fStart + middle) % fIds.length] <= aVersion ) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,99 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.util.PersistentMap;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ Unbounded undo and redo history for the edits made by {@link MovieDAO}.
+
+ <P>Each step records the versions of the data store before and after an edit.
+ The versions are {@link PersistentMap}s, which share all but <tt>O(log n)</tt> of their
+ nodes with each other, so a step costs very little memory, no matter how many movies
+ there are. A step also records the individual changes it made, so that the statistics and
+ other indexes can be updated when it's undone or redone, without rescanning all movies.
+
+ <P>A bulk operation (for example, deleting many movies at once) is a single step.
+
+ <P>This class is not thread-safe. The caller must synchronize access.
+*/
+final class EditHistory {
+
+  /** A single change to a single movie. */
+  static final class Change {
+    /**
+     @param aBefore null for an add
+     @param aAfter null for a delete
+    */
+    Change(Movie aBefore, Movie aAfter){
+      fBefore = aBefore;
+      fAfter = aAfter;
+    }
+    final Movie fBefore;
+    final Movie fAfter;
+  }
+
+  /** One undoable step: the data store before and after, and the changes in between. */
+  static final class Step {
+    Step(PersistentMap<Integer, Movie> aBefore, PersistentMap<Integer, Movie> aAfter, List<Change> aChanges){
+      fBefore = aBefore;
+      fAfter = aAfter;
+      fChanges = Collections.unmodifiableList(aChanges);
+    }
+    final PersistentMap<Integer, Movie> fBefore;
+    final PersistentMap<Integer, Movie> fAfter;
+    final List<Change> fChanges;
+  }
+
+  /** Record a new step. Any steps which had been undone can no longer be redone. */
+  void record(Step aStep){
+    if ( ! fIsEnabled ) return;
+    fUndo.push(aStep);
+    fRedo.clear();
+  }
+  
+  /** 
+   Stop recording steps, and forget any already recorded. For long-running processes 
+   without a user, an unbounded history would only grow.
+  */
+  void disable(){
+    fIsEnabled = false;
+    clear();
+  }
+
+  /** Forget all recorded steps. */
+  void clear(){
+    fUndo.clear();
+    fRedo.clear();
+  }
+
+  boolean canUndo(){
+    return ! fUndo.isEmpty();
+  }
+
+  boolean canRedo(){
+    return ! fRedo.isEmpty();
+  }
+
+  /** Return the step to be undone. */
+  Step undo(){
+    Step result = fUndo.pop();
+    fRedo.push(result);
+    return result;
+  }
+
+  /** Return the step to be redone. */
+  Step redo(){
+    Step result = fRedo.pop();
+    fUndo.push(result);
+    return result;
+  }
+
+  // PRIVATE
+  private final Deque<Step> fUndo = new ArrayDeque<>();
+  private final Deque<Step> fRedo = new ArrayDeque<>();
+  private boolean fIsEnabled = true;
+}
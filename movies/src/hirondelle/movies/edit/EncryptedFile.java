@@ -0,0 +1,297 @@
+package hirondelle.movies.edit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ The format of the files encrypted by {@link MovieEncryption}.
+
+ <P>A file is encrypted in independent chunks, using AES in GCM mode, which both hides
+ the text and detects any change to it. A file has :
+ <ul>
+  <li>the bytes of {@link #MAGIC}, so that an encrypted file can be told from a plain one
+  <li>8 random bytes, different for each file
+  <li>the chunks, each as its length (4 bytes), followed by the encrypted bytes of up to
+  {@link #CHUNK_SIZE} bytes of text, and the GCM tag
+ </ul>
+ The nonce of each chunk is the random bytes of the file, followed by the index of the chunk.
+ The last chunk is marked as such, in its additional authenticated data. So chunks can't be
+ reordered, moved between files, or dropped from the end, without the change being detected.
+
+ <P>Since the chunks are independent, they can be decrypted in parallel. They can also be
+ written one at a time, as the text is produced, so a file is never held in memory in full
+ when saving.
+
+ <P>Lines of the journal are encrypted one at a time, each with a random nonce, and written
+ in Base64, after {@link #ENCRYPTED_LINE}.
+*/
+final class EncryptedFile {
+
+  /** The first bytes of an encrypted file. */
+  static final byte[] MAGIC = "MVGCM001".getBytes(StandardCharsets.US_ASCII);
+
+  /** The most bytes of text in a chunk. */
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  /** The start of an encrypted line of the journal. Can't appear in Base64. */
+  static final String ENCRYPTED_LINE = "E|";
+
+  /** Return <tt>true</tt> only if the given file starts with {@link #MAGIC}. */
+  static boolean isEncrypted(Path aFile) throws IOException {
+    byte[] start = new byte[MAGIC.length];
+    try (InputStream input = Files.newInputStream(aFile)){
+      int length = 0;
+      int read = 0;
+      while ( length < start.length && (read = input.read(start, length, start.length - length)) > 0 ) {
+        length = length + read;
+      }
+      return length == start.length && Arrays.equals(start, MAGIC);
+    }
+  }
+
+  /**
+   Return a stream which encrypts all bytes written to it, and writes them to the given
+   stream. Closing the returned stream writes the last chunk, and closes the given stream.
+  */
+  static OutputStream encrypt(OutputStream aOut, SecretKey aKey) throws IOException {
+    return new ChunkedOutputStream(aOut, aKey);
+  }
+
+  /**
+   Read and decrypt all of the given file. Its chunks are decrypted in parallel.
+   @throws IOException if the file isn't in the expected format, or has been changed,
+   or was encrypted with a different key
+  */
+  static byte[] decrypt(final Path aFile, final SecretKey aKey) throws IOException {
+    final byte[] bytes = Files.readAllBytes(aFile);
+    if ( bytes.length < HEADER_SIZE || ! Arrays.equals(Arrays.copyOf(bytes, MAGIC.length), MAGIC) ) {
+      throw new IOException("Not an encrypted movies file: " + aFile);
+    }
+    final byte[] prefix = Arrays.copyOfRange(bytes, MAGIC.length, HEADER_SIZE);
+    //first find the chunks, and where the text of each goes in the result
+    List<Integer> starts = new ArrayList<>();
+    List<Integer> lengths = new ArrayList<>();
+    int textLength = 0;
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+    while ( buffer.hasRemaining() ) {
+      if ( buffer.remaining() < LENGTH_SIZE ) throw new IOException("Encrypted movies file is cut short: " + aFile);
+      int length = buffer.getInt();
+      if ( length < TAG_SIZE || length > buffer.remaining() ) throw new IOException("Encrypted movies file is cut short: " + aFile);
+      starts.add(buffer.position());
+      lengths.add(length);
+      textLength = textLength + length - TAG_SIZE;
+      buffer.position(buffer.position() + length);
+    }
+    if ( starts.isEmpty() ) throw new IOException("Encrypted movies file is cut short: " + aFile);
+    final byte[] result = new byte[textLength];
+    List<Callable<Void>> chunks = new ArrayList<>();
+    int textStart = 0;
+    for(int idx = 0; idx < starts.size(); ++idx){
+      final int index = idx;
+      final int start = starts.get(idx);
+      final int length = lengths.get(idx);
+      final int resultStart = textStart;
+      final boolean isLast = idx == starts.size() - 1;
+      chunks.add(new Callable<Void>(){
+        @Override public Void call() throws IOException {
+          crypt(Cipher.DECRYPT_MODE, aKey, nonce(prefix, index), isLast, bytes, start, length, result, resultStart, aFile);
+          return null;
+        }
+      });
+      textStart = textStart + length - TAG_SIZE;
+    }
+    decryptAll(chunks);
+    return result;
+  }
+
+  /** Encrypt a single line of text, with a random nonce. */
+  static String encryptLine(String aLine, SecretKey aKey) throws IOException {
+    byte[] nonce = new byte[NONCE_SIZE];
+    fRandom.nextBytes(nonce);
+    byte[] text = aLine.getBytes(StandardCharsets.UTF_8);
+    byte[] result = Arrays.copyOf(nonce, NONCE_SIZE + text.length + TAG_SIZE);
+    crypt(Cipher.ENCRYPT_MODE, aKey, nonce, true, text, 0, text.length, result, NONCE_SIZE, null);
+    return ENCRYPTED_LINE + Base64.getEncoder().encodeToString(result);
+  }
+
+  /** Decrypt a line returned by {@link #encryptLine(String, SecretKey)}. */
+  static String decryptLine(String aLine, SecretKey aKey) throws IOException {
+    byte[] bytes;
+    try {
+      bytes = Base64.getDecoder().decode(aLine.substring(ENCRYPTED_LINE.length()));
+    }
+    catch (IllegalArgumentException ex) {
+      throw new IOException("Encrypted line not in expected format.", ex);
+    }
+    if ( bytes.length < NONCE_SIZE + TAG_SIZE ) throw new IOException("Encrypted line is cut short.");
+    byte[] nonce = Arrays.copyOf(bytes, NONCE_SIZE);
+    byte[] text = new byte[bytes.length - NONCE_SIZE - TAG_SIZE];
+    crypt(Cipher.DECRYPT_MODE, aKey, nonce, true, bytes, NONCE_SIZE, bytes.length - NONCE_SIZE, text, 0, null);
+    return new String(text, StandardCharsets.UTF_8);
+  }
+
+  // PRIVATE
+  private static final int PREFIX_SIZE = 8;
+  private static final int HEADER_SIZE = MAGIC.length + PREFIX_SIZE;
+  private static final int NONCE_SIZE = 12;
+  private static final int TAG_SIZE = 16;
+  private static final int LENGTH_SIZE = 4;
+  private static final byte[] LAST_CHUNK = {1};
+  private static final byte[] NOT_LAST_CHUNK = {0};
+  private static final SecureRandom fRandom = new SecureRandom();
+
+  /** Ciphers are not thread-safe, and are costly to create. */
+  private static final ThreadLocal<Cipher> fCipher = new ThreadLocal<Cipher>(){
+    @Override protected Cipher initialValue() {
+      try {
+        return Cipher.getInstance("AES/GCM/NoPadding");
+      }
+      catch (GeneralSecurityException ex) {
+        throw new IllegalStateException("AES/GCM is not available.", ex);
+      }
+    }
+  };
+
+  private static byte[] nonce(byte[] aPrefix, int aChunkIndex){
+    return ByteBuffer.allocate(NONCE_SIZE).put(aPrefix).putInt(aChunkIndex).array();
+  }
+
+  /** 
+   Encrypt or decrypt the given bytes into <tt>aResult</tt>, starting at <tt>aResultStart</tt>.
+   @param aFile possibly-null, only for error messages 
+  */
+  private static void crypt(
+    int aMode, SecretKey aKey, byte[] aNonce, boolean aIsLast, byte[] aBytes, int aStart, int aLength, 
+    byte[] aResult, int aResultStart, Path aFile
+  ) throws IOException {
+    Cipher cipher = fCipher.get();
+    try {
+      cipher.init(aMode, aKey, new GCMParameterSpec(TAG_SIZE * 8, aNonce));
+      cipher.updateAAD(aIsLast ? LAST_CHUNK : NOT_LAST_CHUNK);
+      cipher.doFinal(aBytes, aStart, aLength, aResult, aResultStart);
+    }
+    catch (AEADBadTagException ex) {
+      throw new IOException(
+        "Encrypted movies " + (aFile == null ? "" : "file " + aFile + " ") +
+        "have been changed, or were encrypted with another password.", ex
+      );
+    }
+    catch (GeneralSecurityException ex) {
+      throw new IOException("Cannot encrypt or decrypt the movies.", ex);
+    }
+  }
+
+  /** Run the tasks in parallel, and wait for all of them. A single task runs on this thread. */
+  private static void decryptAll(List<Callable<Void>> aChunks) throws IOException {
+    try {
+      if ( aChunks.size() == 1 ) {
+        aChunks.get(0).call();
+        return;
+      }
+      for(Future<Void> chunk : ForkJoinPool.commonPool().invokeAll(aChunks)){
+        chunk.get();
+      }
+    }
+    catch (ExecutionException ex) {
+      //the pool wraps checked exceptions
+      Throwable cause = ex.getCause();
+      while ( cause != null && ! (cause instanceof IOException) ) {
+        cause = cause.getCause();
+      }
+      throw cause == null ? new IOException(ex.getCause()) : (IOException)cause;
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decrypting the movies.", ex);
+    }
+    catch (IOException | RuntimeException ex) {
+      throw ex;
+    }
+    catch (Exception ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   Holds back one chunk of text. A chunk is encrypted only when more text arrives, or the
+   stream is closed, since only then is it known whether it's the last chunk.
+  */
+  private static final class ChunkedOutputStream extends OutputStream {
+    ChunkedOutputStream(OutputStream aOut, SecretKey aKey) throws IOException {
+      fOut = aOut;
+      fKey = aKey;
+      fRandom.nextBytes(fPrefix);
+      fOut.write(MAGIC);
+      fOut.write(fPrefix);
+    }
+    @Override public void write(int aByte) throws IOException {
+      write(new byte[] {(byte)aByte}, 0, 1);
+    }
+    @Override public void write(byte[] aBytes, int aStart, int aLength) throws IOException {
+      int start = aStart;
+      int end = aStart + aLength;
+      while ( start < end ) {
+        if ( fLength == CHUNK_SIZE ) {
+          writeChunk(false);
+        }
+        int count = Math.min(end - start, CHUNK_SIZE - fLength);
+        System.arraycopy(aBytes, start, fChunk, fLength, count);
+        fLength = fLength + count;
+        start = start + count;
+      }
+    }
+    @Override public void close() throws IOException {
+      if ( fIsClosed ) return;
+      fIsClosed = true;
+      try {
+        writeChunk(true);
+      }
+      finally {
+        fOut.close();
+      }
+    }
+    private final OutputStream fOut;
+    private final SecretKey fKey;
+    private final byte[] fPrefix = new byte[PREFIX_SIZE];
+    private final byte[] fChunk = new byte[CHUNK_SIZE];
+    /** The length of the chunk, and then the chunk, encrypted. */
+    private final byte[] fEncrypted = new byte[LENGTH_SIZE + CHUNK_SIZE + TAG_SIZE];
+    private int fLength;
+    private int fIndex;
+    private boolean fIsClosed;
+
+    private void writeChunk(boolean aIsLast) throws IOException {
+      int length = fLength + TAG_SIZE;
+      crypt(Cipher.ENCRYPT_MODE, fKey, nonce(fPrefix, fIndex), aIsLast, fChunk, 0, fLength, fEncrypted, LENGTH_SIZE, null);
+      ByteBuffer.wrap(fEncrypted).putInt(length);
+      fOut.write(fEncrypted, 0, LENGTH_SIZE + length);
+      ++fIndex;
+      fLength = 0;
+    }
+  }
+
+  /** Prevent object construction. */
+  private EncryptedFile(){
+    throw new AssertionError();
+  }
+}
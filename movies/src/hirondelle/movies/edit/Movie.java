@@ -1,9 +1,13 @@
 package hirondelle.movies.edit;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
 
 import hirondelle.movies.exception.InvalidInputException;
+import hirondelle.movies.exception.ValidationResult;
 import hirondelle.movies.util.Util;
 
 /** Data-centric class encapsulating all fields related to movies (a 'model object'). 
@@ -12,6 +16,15 @@ import hirondelle.movies.util.Util;
   This class is used both to validate user input, and act as a 'transfer object' when 
   interacting with the database.
  
+  <P>Objects of this class are immutable. Many thousands of them are kept in memory, so 
+  their fields are stored compactly : the id as an <tt>int</tt>, the date viewed as a day 
+  (as in {@link LocalDate#toEpochDay()}), and the rating in tenths, as a <tt>short</tt>. 
+  A missing date or rating is stored as a sentinel value. The getters convert back to the 
+  regular Java objects. A rating has at most one decimal place, which is kept as entered, 
+  so "8" and "8.0" stay as they are. Saved ratings with more decimal places, from older 
+  versions of the app, are rounded to one when read (see {@link #fromSaved}). The hash code 
+  is computed once, when the movie is built.
+ 
   <P>Like most model objects, <b>this class would greatly benefit from a JUnit test class, 
   to test its data validation and sorting.</b>*/
 public final class Movie implements Comparable<Movie>{
@@ -22,101 +35,159 @@ public final class Movie implements Comparable<Movie>{
    {@link #Movie(String, String, String, String, String)}.
    
    @param aId optional, the database identifier for the movie. This item is optional since, 
-   for 'add' operations,  it has yet to be assigned by the database.
+   for 'add' operations,  it has yet to be assigned by the database. If present, it's a 
+   positive integer, with no leading zeros.
    @param aTitle has content, name of the movie   @param aDateViewed optional, date the movie was screened by the user
-   @param aRating optional, in range 0.0 to 10.0
+   @param aRating optional, in range 0.0 to 10.0, with at most one decimal place
    @param aComment optional, any comment on the movie
   */
   Movie(
     String aId, String aTitle, Date aDateViewed, BigDecimal aRating, String aComment
   ) throws InvalidInputException {
-    fId = aId;
-    fTitle = aTitle;
-    fDateViewed = aDateViewed;
-    fRating = aRating;
-    fComment = aComment;
-    validateState();
+    this(aId, aTitle, aDateViewed, aRating, aComment, startValidation());
+    fErrors.get().throwIfErrors();
   }
   
   /**   Constructor which takes all parameters as <em>text</em>.
    
    <P>Raw user input is usually in the form of <em>text</em>.
    This constructor <em>first</em> parses such text into the required 'base objects' - 
-   {@link Date}, {@link BigDecimal} and so on. If those parse operations <em>fail</em>, 
-   then the user is shown an error message. If N such errors are present in user input, 
-   then  N <em>separate</em> message will be presented for each failure, one by one.
+   {@link Date}, {@link BigDecimal} and so on. Then the same checks are made as in
+   {@link #Movie(String, String, Date, BigDecimal, String)}. All errors, whether in parsing 
+   or in the checks, are collected, and then shown to the user together.
    
-   <P>If all such parse operations <em>succeed</em>, then the "regular" constructor 
-   {@link #Movie(String, String, Date, BigDecimal, String)}
-   will then be called. It's important to note that this call to the second constructor 
-   can in turn result in <em>another</em> error message being shown to the 
-   user (just one this time).  */
-  Movie(
+   <P>Parsing and checking don't throw exceptions as they go. When the input is valid, no 
+   exception is ever created.
+ */
+  public Movie(
     String aId, String aTitle, String aDateViewed, String aRating, String aComment
   ) throws InvalidInputException {
+      //arguments are evaluated left to right, so the errors are cleared before parsing starts
       this(
-        aId, aTitle, Util.parseDate(aDateViewed, "Date Viewed"), 
-        Util.parseBigDecimal(aRating, "Rating"), aComment
+        aId, aTitle, Util.parseDate(aDateViewed, "Date Viewed", startValidation()), 
+        Util.parseBigDecimal(aRating, "Rating", fErrors.get()), aComment, fErrors.get()
       );
+      fErrors.get().throwIfErrors();
   }
   
-  String getId(){ return fId; }
+  /**
+   Build a movie from each row of text, as read by a loader or an import, without throwing. 
   
-  /**   This set method is rather artificial. It results from the toy persistence layer. 
-   It's dissatisfying to add this method since the class would otherwise be immutable,
-   and immutability is a highly desirable characteristic.  */
-  void setId(String aId){  fId = aId; }
+   <P>Each row is parsed and checked as in {@link #Movie(String, String, String, String, String)}. 
+   Rows with errors are skipped, and their error messages are added to <tt>aErrors</tt>, 
+   each starting with the index of the row. A single result is reused for all the rows, and 
+   no exception is created, so many rows can be checked at little cost.
   
-  String getTitle(){ return fTitle; }
-  Date getDateViewed(){ return fDateViewed; }
-  BigDecimal getRating(){ return fRating; }
-  String getComment(){ return fComment; }
+   @param aRows each row holds the id, title, date viewed, rating and comment, in that order
+   @param aErrors receives the error messages of the rows which are skipped
+   @return the movies built from the valid rows, in the same order
+  */
+  public static List<Movie> validateAll(List<String[]> aRows, ValidationResult aErrors){
+    List<Movie> result = new ArrayList<>(aRows.size());
+    ValidationResult rowErrors = new ValidationResult();
+    for(int idx = 0; idx < aRows.size(); ++idx){
+      String[] row = aRows.get(idx);
+      rowErrors.clear();
+      Movie movie = new Movie(
+        row[ID], row[TITLE], Util.parseDate(row[DATE_VIEWED], "Date Viewed", rowErrors), 
+        parseSavedRating(row[RATING], rowErrors), row[COMMENT], rowErrors
+      );
+      if ( rowErrors.hasErrors() ) {
+        for(String message : rowErrors.getErrorMessages()){
+          aErrors.add("Row " + idx + ": " + message);
+        }
+      }
+      else {
+        result.add(movie);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   As {@link #Movie(String, String, String, String, String)}, but for a movie which has 
+   already been saved, here or by another instance of the app. 
+   
+   <P>Ratings were once allowed more than one decimal place. A saved rating which has more 
+   is rounded (half up) to one, instead of being refused. The same is done for the rows 
+   passed to {@link #validateAll}. Only new input is held to one decimal place.
+  */
+  public static Movie fromSaved(
+    String aId, String aTitle, String aDateViewed, String aRating, String aComment
+  ) throws InvalidInputException {
+    ValidationResult errors = startValidation();
+    Movie result = new Movie(
+      aId, aTitle, Util.parseDate(aDateViewed, "Date Viewed", errors), 
+      parseSavedRating(aRating, errors), aComment, errors
+    );
+    errors.throwIfErrors();
+    return result;
+  }
+  
+  /** Return null if the id has yet to be assigned. */
+  public String getId(){ return fId == NO_ID ? null : String.valueOf(fId); }
+  
+  public String getTitle(){ return fTitle; }
+  
+  /** Return a new {@link Date} on each call, at the start of the day viewed. */
+  public Date getDateViewed(){ 
+    if ( fDayViewed == NO_DATE ) return null;
+    return Date.from(LocalDate.ofEpochDay(fDayViewed).atStartOfDay(ZoneId.systemDefault()).toInstant()); 
+  }
+  
+  /** Return a shared, immutable object, with as many decimal places as when it was entered. */
+  public BigDecimal getRating(){ 
+    if ( fRating == NO_RATING ) return null;
+    return fIsWholeRating ? WHOLE_RATINGS[fRating / 10] : RATINGS[fRating]; 
+  }
+  
+  public String getComment(){ return fComment; }
   
   @Override public boolean equals(Object aThat){
     if ( this == aThat ) return true;
     if ( !(aThat instanceof Movie) ) return false;
     Movie that = (Movie)aThat;
     return 
+      this.fHashCode == that.fHashCode &&
+      this.fDayViewed == that.fDayViewed && 
+      this.fRating == that.fRating && 
+      this.fIsWholeRating == that.fIsWholeRating && 
       areEqual(this.fTitle, that.fTitle) && 
-      areEqual(this.fDateViewed, that.fDateViewed) && 
-      areEqual(this.fRating, that.fRating) && 
       areEqual(this.fComment, that.fComment)
     ; 
   }
   
   @Override public int hashCode(){
-    int result = 17;
-    result = addHash(result, fTitle);
-    result = addHash(result, fDateViewed);
-    result = addHash(result, fRating);
-    result = addHash(result, fComment);
-    return result;
+    return fHashCode;
   }
   
   @Override public String toString(){
     return 
-      "Movie  Id:" + fId + " Title:" + fTitle + " Date Viewed:" + fDateViewed + 
-      " Rating:" + fRating + " Comment: " + fComment
+      "Movie  Id:" + getId() + " Title:" + fTitle + " Date Viewed:" + getDateViewed() + 
+      " Rating:" + getRating() + " Comment: " + fComment
     ; 
   }
   
   /** 
    Default sort by Date Viewed, then Title. 
    Dates have the most recent items listed first. 
+   
+   <P>Text is compared using the rules of the default locale, not by raw character code. 
+   See {@link MovieSortKey}.
  */
   @Override public int compareTo(Movie aThat) {
     if ( this == aThat ) return EQUAL;
    
-    int comparison = DESCENDING*comparePossiblyNull(this.fDateViewed, aThat.fDateViewed);
+    int comparison = DESCENDING*compareDateViewed(this, aThat);
     if ( comparison != EQUAL ) return comparison;
     
-    comparison = this.fTitle.compareTo(aThat.fTitle);
+    comparison = compareTitle(this, aThat);
     if ( comparison != EQUAL ) return comparison;
     
-    comparison = comparePossiblyNull(this.fRating, aThat.fRating);
+    comparison = compareRating(this, aThat);
     if ( comparison != EQUAL ) return comparison;
    
-    comparison = comparePossiblyNull(this.fComment, aThat.fComment);
+    comparison = compareComment(this, aThat);
     if ( comparison != EQUAL ) return comparison;
     
     return EQUAL;
@@ -127,16 +198,16 @@ public final class Movie implements Comparable<Movie>{
     @Override public int compare(Movie aThis, Movie aThat) {
       if ( aThis == aThat ) return EQUAL;
 
-      int comparison = aThis.fTitle.compareTo(aThat.fTitle);
+      int comparison = compareTitle(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
-      comparison = DESCENDING*comparePossiblyNull(aThis.fDateViewed, aThat.fDateViewed);
+      comparison = DESCENDING*compareDateViewed(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
-      comparison = comparePossiblyNull(aThis.fRating, aThat.fRating);
+      comparison = compareRating(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
      
-      comparison = comparePossiblyNull(aThis.fComment, aThat.fComment);
+      comparison = compareComment(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
       return EQUAL;
@@ -148,16 +219,16 @@ public final class Movie implements Comparable<Movie>{
     @Override public int compare(Movie aThis, Movie aThat) {
       if ( aThis == aThat ) return EQUAL;
 
-      int comparison = DESCENDING*comparePossiblyNull(aThis.fRating, aThat.fRating);
+      int comparison = DESCENDING*compareRating(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
 
-      comparison = DESCENDING*comparePossiblyNull(aThis.fDateViewed, aThat.fDateViewed);
+      comparison = DESCENDING*compareDateViewed(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
-      comparison = aThis.fTitle.compareTo(aThat.fTitle);
+      comparison = compareTitle(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
-      comparison = comparePossiblyNull(aThis.fComment, aThat.fComment);
+      comparison = compareComment(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
       return EQUAL;
@@ -169,49 +240,266 @@ public final class Movie implements Comparable<Movie>{
     @Override public int compare(Movie aThis, Movie aThat) {
       if ( aThis == aThat ) return EQUAL;
 
-      int comparison = comparePossiblyNull(aThis.fComment, aThat.fComment);
+      int comparison = compareComment(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
-      comparison = aThis.fTitle.compareTo(aThat.fTitle);
+      comparison = compareTitle(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
-      comparison = comparePossiblyNull(aThis.fRating, aThat.fRating);
+      comparison = compareRating(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
 
-      comparison = DESCENDING*comparePossiblyNull(aThis.fDateViewed, aThat.fDateViewed);
+      comparison = DESCENDING*compareDateViewed(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
       return EQUAL;
     };
   };
   
+  /** 
+   Return the sort key of the title (see {@link MovieSortKey}). 
+   The key is built on first use, and then reused for every later comparison.
+  */
+  byte[] getTitleKey(){
+    byte[] result = fTitleKey;
+    if ( result == null ) {
+      //benign race: at worst, two threads build equal keys
+      result = MovieSortKey.of(fTitle);
+      fTitleKey = result;
+    }
+    return result;
+  }
+  
+  /** Return the sort key of the comment, built on first use, as for {@link #getTitleKey()}. */
+  byte[] getCommentKey(){
+    byte[] result = fCommentKey;
+    if ( result == null ) {
+      //benign race, as in getTitleKey
+      result = MovieSortKey.of(fComment);
+      fCommentKey = result;
+    }
+    return result;
+  }
+  
+  /**
+   Return <tt>true</tt> only if the title or the comment contains the given text, ignoring case.
+   @param aLowerCaseText lower case, as returned by <tt>toLowerCase(Locale.ROOT)</tt>
+  */
+  boolean containsText(String aLowerCaseText){
+    String searchText = fSearchText;
+    if ( searchText == null ) {
+      //benign race, as in getTitleKey
+      StringBuilder text = new StringBuilder(fTitle);
+      if ( fComment != null ) {
+        text.append(SEARCH_TEXT_SEPARATOR).append(fComment);
+      }
+      searchText = text.toString().toLowerCase(Locale.ROOT);
+      fSearchText = searchText;
+    }
+    return searchText.contains(aLowerCaseText);
+  }
+  
+  /** 
+   Return a copy of this movie, with the given id. The store assigns ids to new movies 
+   this way, instead of changing them.
+  */
+  Movie withId(int aId){
+    return new Movie(aId, this);
+  }
+  
+  /** Return the id as a number, or {@link #NO_ID} if it has yet to be assigned. */
+  int getIdNumber(){
+    return fId;
+  }
+  
+  /** Stands for an id which has yet to be assigned. */
+  static final int NO_ID = 0;
+  
+  /** Return the day viewed, counted from 1970-01-01, or {@link #NO_DATE}. Builds no <tt>Date</tt>. */
+  int getDayViewed(){
+    return fDayViewed;
+  }
+  
+  /** Return the rating in tenths, or {@link #NO_RATING}. */
+  int getRatingTenths(){
+    return fRating;
+  }
+  
+  /** Stands for no date viewed. Sorts before all days. */
+  static final int NO_DATE = Integer.MIN_VALUE;
+  
+  /** Stands for no rating. Sorts before all ratings. */
+  static final short NO_RATING = -1;
+  
   // PRIVATE
-  private String fId;
+  private final int fId;
   private final String fTitle;
-  private final Date fDateViewed;
-  private final BigDecimal fRating;
+  /** The day viewed, counted from 1970-01-01, or {@link #NO_DATE}. */
+  private final int fDayViewed;
+  /** The rating in tenths, or {@link #NO_RATING}. */
+  private final short fRating;
+  /** True only if the rating was entered with no decimal places, as in "8" instead of "8.0". */
+  private final boolean fIsWholeRating;
   private final String fComment;
+  private final int fHashCode;
+  /** The sort keys of the title and comment, each built when first compared. */
+  private volatile byte[] fTitleKey;
+  private volatile byte[] fCommentKey;
+  /** The lower-case title and comment, built when first searched. */
+  private volatile String fSearchText;
+  /** Prevents a match spanning the end of the title and the start of the comment. */
+  private static final char SEARCH_TEXT_SEPARATOR = '\n';
   private static final BigDecimal TEN = new BigDecimal("10.0");
+  /** All possible ratings with one decimal place, indexed by the rating in tenths. */
+  private static final BigDecimal[] RATINGS = new BigDecimal[101];
+  /** All possible ratings with no decimal places, indexed by the rating. */
+  private static final BigDecimal[] WHOLE_RATINGS = new BigDecimal[11];
+  static {
+    for(int tenths = 0; tenths < RATINGS.length; ++tenths){
+      RATINGS[tenths] = BigDecimal.valueOf(tenths, 1);
+    }
+    for(int rating = 0; rating < WHOLE_RATINGS.length; ++rating){
+      WHOLE_RATINGS[rating] = BigDecimal.valueOf(rating);
+    }
+  }
+  /** Enough for any int. */
+  private static final int MAX_ID_DIGITS = 10;
   private static final int EQUAL = 0;
   private static final int DESCENDING = -1;
+  /** Positions in the rows passed to {@link #validateAll}. */
+  private static final int ID = 0;
+  private static final int TITLE = 1;
+  private static final int DATE_VIEWED = 2;
+  private static final int RATING = 3;
+  private static final int COMMENT = 4;
   
-  private void validateState() throws InvalidInputException {
-    InvalidInputException ex = new InvalidInputException();
+  /** Reused by every construction on the same thread. */
+  private static final ThreadLocal<ValidationResult> fErrors = new ThreadLocal<ValidationResult>(){
+    @Override protected ValidationResult initialValue() {
+      return new ValidationResult();
+    }
+  };
     
-    if( ! Util.textHasContent(fTitle) ) {
-      ex.add("Title must have content");
+  /** Assign the fields, and add any errors in them to <tt>aErrors</tt>. Never throws. */
+  private Movie(
+    String aId, String aTitle, Date aDateViewed, BigDecimal aRating, String aComment, ValidationResult aErrors
+  ) {
+    validateState(aTitle, aRating, aErrors);
+    fId = toId(aId, aErrors);
+    fTitle = aTitle;
+    fDayViewed = aDateViewed == null ? NO_DATE : toDay(aDateViewed);
+    fRating = isValidRating(aRating) ? toTenths(aRating) : NO_RATING;
+    fIsWholeRating = fRating != NO_RATING && aRating.scale() <= 0;
+    fComment = aComment;
+    fHashCode = computeHashCode();
+  }
+  
+  /** Copy the given movie, with a new id. */
+  private Movie(int aId, Movie aMovie){
+    fId = aId;
+    fTitle = aMovie.fTitle;
+    fDayViewed = aMovie.fDayViewed;
+    fRating = aMovie.fRating;
+    fIsWholeRating = aMovie.fIsWholeRating;
+    fComment = aMovie.fComment;
+    fHashCode = aMovie.fHashCode;
+    fTitleKey = aMovie.fTitleKey;
+    fCommentKey = aMovie.fCommentKey;
+    fSearchText = aMovie.fSearchText;
+  }
+  
+  /** Clear and return this thread's errors. */
+  private static ValidationResult startValidation(){
+    ValidationResult result = fErrors.get();
+    result.clear();
+    return result;
+  }
+  
+  private static void validateState(String aTitle, BigDecimal aRating, ValidationResult aErrors) {
+    if( ! Util.textHasContent(aTitle) ) {
+      aErrors.add("Title must have content");
     }
-    if ( fRating != null ){
-      if ( fRating.compareTo(BigDecimal.ZERO) < 0 ) {
-        ex.add("Rating cannot be less than 0.");
+    if ( aRating != null ){
+      if ( aRating.compareTo(BigDecimal.ZERO) < 0 ) {
+        aErrors.add("Rating cannot be less than 0.");
       }
-      if ( fRating.compareTo(TEN) > 0 ) {
-        ex.add("Rating cannot be greater than 10.");
+      if ( aRating.compareTo(TEN) > 0 ) {
+        aErrors.add("Rating cannot be greater than 10.");
+      }
+      if ( aRating.scale() > 1 ) {
+        aErrors.add("Rating cannot have more than one decimal place.");
       }
     }
-    if ( ex.hasErrors() ) {
-      throw ex;
+  }
+  
+  private static boolean isValidRating(BigDecimal aRating){
+    return 
+      aRating != null && aRating.compareTo(BigDecimal.ZERO) >= 0 && 
+      aRating.compareTo(TEN) <= 0 && aRating.scale() <= 1
+    ;
+  }
+  
+  /** Parse a saved rating, rounding it to one decimal place if it has more. */
+  private static BigDecimal parseSavedRating(String aRating, ValidationResult aErrors){
+    BigDecimal result = Util.parseBigDecimal(aRating, "Rating", aErrors);
+    if ( result != null && result.scale() > 1 ) {
+      result = result.setScale(1, RoundingMode.HALF_UP);
     }
+    return result;
+  }
+  
+  /** Exact, since a valid rating has at most one decimal place. */
+  private static short toTenths(BigDecimal aRating){
+    return aRating.movePointRight(1).shortValue();
+  }
+  
+  /** 
+   Return the id as a number, or {@link #NO_ID} if there is none. If the id isn't a positive 
+   integer with no leading zeros, add an error to <tt>aErrors</tt>, and return {@link #NO_ID}. 
+   (Zero is {@link #NO_ID} itself, so it's not a valid id.)
+  */
+  private static int toId(String aId, ValidationResult aErrors){
+    if ( aId == null ) return NO_ID;
+    boolean isValid = aId.length() > 0 && aId.length() <= MAX_ID_DIGITS && aId.charAt(0) != '0';
+    for(int idx = 0; isValid && idx < aId.length(); ++idx){
+      isValid = aId.charAt(idx) >= '0' && aId.charAt(idx) <= '9';
+    }
+    if ( isValid && Long.parseLong(aId) <= Integer.MAX_VALUE ) {
+      return Integer.parseInt(aId);
+    }
+    aErrors.add("Id must be a positive whole number.");
+    return NO_ID;
+  }
+  
+  private static int toDay(Date aDate){
+    return (int)aDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+  }
+  
+  private static int compareDateViewed(Movie aThis, Movie aThat){
+    return Integer.compare(aThis.fDayViewed, aThat.fDayViewed);
+  }
+  
+  private static int compareRating(Movie aThis, Movie aThat){
+    return Integer.compare(aThis.fRating, aThat.fRating);
+  }
+  
+  /** The sort keys are built only when needed. Comparisons settled by the date or rating never build them. */
+  private static int compareTitle(Movie aThis, Movie aThat){
+    return MovieSortKey.compare(aThis.getTitleKey(), aThat.getTitleKey());
+  }
+  
+  private static int compareComment(Movie aThis, Movie aThat){
+    return MovieSortKey.compare(aThis.getCommentKey(), aThat.getCommentKey());
+  }
+  
+  private int computeHashCode(){
+    int result = 17;
+    result = addHash(result, fTitle);
+    result = 37*result + fDayViewed;
+    result = 37*result + fRating;
+    result = 37*result + (fIsWholeRating ? 1 : 0);
+    result = addHash(result, fComment);
+    return result;
   }
   
   private boolean areEqual(Object aThis, Object aThat){
@@ -225,28 +513,4 @@ public final class Movie implements Comparable<Movie>{
     }
     return result;
   }
-  
-  /** Utility method.  */
-  private static <T extends Comparable<T>> int comparePossiblyNull(T aThis, T aThat){
-    int result = EQUAL;
-    int BEFORE = -1;
-    int AFTER = 1;
-    
-    if(aThis != null && aThat != null){ 
-      result = aThis.compareTo(aThat);
-    }
-    else {
-      //at least one reference is null - special handling
-      if(aThis == null && aThat == null) {
-        //do nothing - they are not distinct 
-      }
-      else if(aThis == null && aThat != null) {
-        result = BEFORE;
-      }
-      else if( aThis != null && aThat == null) {
-        result = AFTER;
-      }
-    }
-    return result;
-  }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package hirondelle.movies.edit;
 
+import hirondelle.movies.util.Edit;
 import hirondelle.movies.util.Util;
 
 import java.awt.event.ActionEvent;
@@ -22,10 +23,24 @@ public final class MovieActionAdd extends AbstractAction  {
   
   @Override public void actionPerformed(ActionEvent aActionEvent) {
     fLogger.config("Adding a new movie.");
-    MovieView view = new MovieView(fFrame);
+    getView().showAdd();
+  }
+  
+  /** Build the dialog ahead of time, so that it opens quickly when first used. */
+  public void prepareDialog(){
+    getView().prepare();
   }
   
   // PRIVATE
   private JFrame fFrame;
+  private MovieView fView;
   private static final Logger fLogger = Util.getLogger(MovieActionAdd.class);
+  
+  /** The dialog is built when first needed, and then reused. */
+  private MovieView getView(){
+    if ( fView == null ) {
+      fView = new MovieView(fFrame, Edit.ADD);
+    }
+    return fView;
+  }
 }
@@ -1,5 +1,6 @@
 package hirondelle.movies.edit;
 
+import hirondelle.movies.util.Edit;
 import hirondelle.movies.util.Util;
 
 import java.awt.event.ActionEvent;
@@ -29,12 +30,26 @@ public final class MovieActionChange extends AbstractAction  {
     setEnabled(false);
     int row = fTable.getSelectedRow();
     Movie selectedMovie = fMovieTableModel.getMovie(row);
-    MovieView view = new MovieView(fFrame, selectedMovie);
+    getView().showChange(selectedMovie);
+  }
+  
+  /** Build the dialog ahead of time, so that it opens quickly when first used. */
+  public void prepareDialog(){
+    getView().prepare();
   }
   
   // PRIVATE 
   private JFrame fFrame;
+  private MovieView fView;
   private JTable fTable;
   private MovieTableModel fMovieTableModel;
   private static final Logger fLogger = Util.getLogger(MovieActionAdd.class);
+  
+  /** The dialog is built when first needed, and then reused. */
+  private MovieView getView(){
+    if ( fView == null ) {
+      fView = new MovieView(fFrame, Edit.CHANGE);
+    }
+    return fView;
+  }
 }
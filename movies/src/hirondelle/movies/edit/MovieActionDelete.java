@@ -4,6 +4,9 @@ import hirondelle.movies.main.MainWindow;
 import hirondelle.movies.util.Util;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import javax.swing.AbstractAction;
 import javax.swing.JTable;
@@ -18,20 +21,27 @@ public class MovieActionDelete  extends AbstractAction {
   /** Constructor. */
   public MovieActionDelete(JTable aTable, MovieTableModel aMovieTableModel){
     super("Delete", null );
-    putValue(SHORT_DESCRIPTION, "Delete the selected movie"); 
+    putValue(SHORT_DESCRIPTION, "Delete the selected movies"); 
     putValue(MNEMONIC_KEY, new Integer(KeyEvent.VK_D) );
     fTable = aTable;
     fMovieTableModel = aMovieTableModel;
     setEnabled(false);
   }
   
-  /** Delete the {@link Movie} currently selected in the table. */
+  /** Delete the {@link Movie}s currently selected in the table. */
   @Override public void actionPerformed(ActionEvent aActionEvent) {
-    int row = fTable.getSelectedRow();
-    Movie selectedMovie = fMovieTableModel.getMovie(row);
-    fLogger.config("Deleting the selected movie: " + selectedMovie);
+    int[] rows = fTable.getSelectedRows();
+    List<String> ids = new ArrayList<>();
+    for(int row : rows){
+      ids.add(fMovieTableModel.getId(row));
+    }
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Deleting the selected movies: " + ids.size();
+      }
+    });
     MovieDAO dao = new MovieDAO();
-    dao.delete(selectedMovie.getId());
+    dao.deleteAll(ids);
     setEnabled(false); //this action is now over
     MainWindow.getInstance().refreshView();
   }
@@ -0,0 +1,40 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.util.Util;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.logging.Logger;
+
+import javax.swing.AbstractAction;
+import javax.swing.KeyStroke;
+
+/** 
+ Redo the most recently undone edit. See {@link MovieActionUndo}.
+*/
+public final class MovieActionRedo extends AbstractAction {
+
+  /** Constructor. */
+  public MovieActionRedo(){
+    super("Redo", null );
+    putValue(SHORT_DESCRIPTION, "Redo the last undone edit"); 
+    putValue(MNEMONIC_KEY, new Integer(KeyEvent.VK_R) );
+    putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_Y, ActionEvent.CTRL_MASK));
+    //nothing to redo yet; asking the DAO here would wait for the movies to be read in
+    setEnabled(false);
+  }
+  
+  /** Redo the most recently undone edit on a worker thread, and then refresh the main window. */
+  @Override public void actionPerformed(ActionEvent aActionEvent) {
+    fLogger.config("Redo the last undone edit.");
+    UndoRedoWorker.start(UndoRedoWorker.REDO);
+  }
+  
+  /** Enable this action only when there is something to redo. */
+  public void refreshEnabled(){
+    setEnabled(new MovieDAO().canRedo());
+  }
+  
+  // PRIVATE
+  private static final Logger fLogger = Util.getLogger(MovieActionRedo.class);
+}
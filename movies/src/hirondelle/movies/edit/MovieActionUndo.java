@@ -0,0 +1,43 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.util.Util;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.logging.Logger;
+
+import javax.swing.AbstractAction;
+import javax.swing.KeyStroke;
+
+/** 
+ Undo the most recent add, change, or delete. 
+ 
+ <P>A bulk operation, such as deleting many movies at once, is undone as a whole. 
+ See {@link EditHistory}.
+*/
+public final class MovieActionUndo extends AbstractAction {
+
+  /** Constructor. */
+  public MovieActionUndo(){
+    super("Undo", null );
+    putValue(SHORT_DESCRIPTION, "Undo the last edit"); 
+    putValue(MNEMONIC_KEY, new Integer(KeyEvent.VK_U) );
+    putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_Z, ActionEvent.CTRL_MASK));
+    //nothing to undo yet; asking the DAO here would wait for the movies to be read in
+    setEnabled(false);
+  }
+  
+  /** Undo the most recent edit on a worker thread, and then refresh the main window. */
+  @Override public void actionPerformed(ActionEvent aActionEvent) {
+    fLogger.config("Undo the last edit.");
+    UndoRedoWorker.start(UndoRedoWorker.UNDO);
+  }
+  
+  /** Enable this action only when there is something to undo. */
+  public void refreshEnabled(){
+    setEnabled(new MovieDAO().canUndo());
+  }
+  
+  // PRIVATE
+  private static final Logger fLogger = Util.getLogger(MovieActionUndo.class);
+}
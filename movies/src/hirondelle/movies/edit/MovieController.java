@@ -7,6 +7,7 @@ import hirondelle.movies.util.Util;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import javax.swing.JOptionPane;
@@ -38,7 +39,11 @@ final class MovieController implements ActionListener {
    and update the main window's display.  
   */
   @Override public void actionPerformed(ActionEvent aEvent){
-    fLogger.fine("Editing movie " + fView.getTitle());
+    fLogger.fine(new Supplier<String>(){
+      @Override public String get() {
+        return "Editing movie " + fView.getTitle();
+      }
+    });
     try {
       createValidMovieFromUserInput();
     }
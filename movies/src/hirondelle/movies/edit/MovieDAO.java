@@ -1,148 +1,912 @@
 package hirondelle.movies.edit;
 
 import hirondelle.movies.exception.InvalidInputException;
-import hirondelle.movies.main.MainWindow;
+import hirondelle.movies.exception.ValidationResult;
+import hirondelle.movies.recording.LoadEvent;
+import hirondelle.movies.recording.ParseEvent;
+import hirondelle.movies.recording.SaveEvent;
+import hirondelle.movies.similar.SimilarMovies;
+import hirondelle.movies.stats.MovieStats;
+import hirondelle.movies.store.StoreClient;
+import hirondelle.movies.util.CurrentUser;
+import hirondelle.movies.util.PersistentMap;
 import hirondelle.movies.util.Util;
 
-import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 /**
  Data Access Object (DAO) for {@link Movie} objects.
  
-  <P> Implements persistence for movie information. This class uses a simple text file called
-  <tt>movie_list_for_&lt;<em>user name</em>&gt;.txt</tt>, stored locally, in the application's
-  home directory.
+  <P> Implements persistence for movie information. This class uses simple text files, in a 
+  directory called <tt>movie_list_for_&lt;<em>user name</em>&gt;</tt>, stored locally, in the 
+  application's home directory. There is one file for each year in which movies were viewed 
+  (see {@link MovieSegments}).
   Each logged in user gets their own list. Each logged in user can see their own list, 
-  but they cannot see anyone else's list.
+  but they cannot see anyone else's list. A list saved by earlier versions of the app, in the 
+  single file <tt>movie_list_for_&lt;<em>user name</em>&gt;.txt</tt>, is copied into the 
+  directory the first time it's read. The old file is then kept, renamed with a 
+  <tt>.migrated</tt> suffix.
   
-  <P>The format of the file is specific to this application. The file should not be edited 
+  <P>The format of the files is specific to this application. The files should not be edited 
   directly by an end user, in case the format is violated.
    
-  <P>Upon startup, all records in the data-store are read into memory. Edits are performed initially
-  only in memory. When the application shuts down, then the updated data store is written
-  back to the disk, for use during the next launch of the application.
+  <P>Upon startup, only the most recent years are read into memory. Older years are read in 
+  when they're needed : when the user scrolls to the end of the list ({@link #loadOlder()}), 
+  or sorts or searches all of it ({@link #loadAll()}). When too many movies are in memory, 
+  the oldest years are dropped again ({@link #unloadColdMovies()}). The methods which list the 
+  movies return only those read in.
+  
+  <P>Edits are performed initially only in memory. When the application shuts down, then the 
+  years changed by the edits are written back to the disk, for use during the next launch of 
+  the application. A JVM shutdown hook also saves any pending edits, in case the application 
+  is ended by some other means (see {@link #saveUponJvmShutdown()}).
+  
+  <P>Edits can be undone and redone without limit. See {@link EditHistory}.
+  
+  <P>Each edit increases the data store's version. Readers can ask for only the movies 
+  changed since the version they last saw. See {@link #changesSince(long)}.
+  
+  <P>If a {@link hirondelle.movies.store.StoreDaemon} is running for the user, then the movies 
+  are read from the daemon instead of the file, and each edit is sent to the daemon as soon 
+  as it's made. Only the daemon writes the file, so several instances of the app can 
+  run at the same time without overwriting each other's edits. If the daemon goes away, 
+  edits are kept in memory, and sent once the daemon is back; the file is never written 
+  by the app itself while it uses a daemon.
+  
+  <P>Without a daemon, several instances of the app can still share the file. Each edit is 
+  appended to a {@link MovieJournal} as soon as it's made, and so is already saved. Other 
+  instances read just the new lines of the journal, and apply them to their own movies 
+  (see {@link #syncWithOtherInstances()}). The files are written only when the last 
+  instance saves, and then include the edits of all instances. Ids are saved with the movies, 
+  and new ids are reserved in the journal, so each id means the same movie to all instances.
+  The files and the journal are read and written by {@link MovieFiles}; this class keeps the 
+  movies in memory, and decides when to read and save them.
  */
 public final class MovieDAO {
 
   /**
-    Save all data to a text file. Must be called explicitly when the
+    Save all edits to the text files. Must be called explicitly when the
     app shuts down, in order to save all edits.
+    
+    <P>Only the files of the years changed by the edits are written. If nothing has been 
+    edited since the files were read in (or last saved), then nothing is written at all.
+    
+    <P>This method may be called from any thread. Calls are serialized, so a second 
+    caller (typically the JVM shutdown hook) waits for an in-flight save to finish, 
+    and then finds nothing left to do. The new contents of each file are first written to a 
+    temporary file, which then replaces the old file in a single step. If the write 
+    is aborted part way through, the old file is left intact.
   */
   public void shutdown() {
-    fLogger.fine("Saving all movie records to file.");
-    String fileContents = buildFileContents();
-    writeStringToFile(fileContents);
+    if ( fUsesStore ) {
+      sendToStoreBeforeExit();
+      return;
+    }
+    synchronized(fSaveLock){
+      if ( fFiles.isShared() ) {
+        saveJournalIfOnlyInstance();
+        return;
+      }
+      SaveEvent event = new SaveEvent();
+      event.begin();
+      synchronized(fEditLock){
+        PersistentMap<Integer, Movie> movies = fTable;
+        if ( movies == fSavedTable ) {
+          fLogger.fine("No edits since the last save. Not writing the movies files.");
+          event.setSkipped(true);
+          event.commit();
+          return;
+        }
+        fLogger.fine("Saving the edited movie records to file.");
+        long characters = saveSegments();
+        if ( characters != MovieFiles.SAVE_FAILED ){
+          fSavedTable = movies;
+        }
+        event.setRows(movies.size());
+        event.setCharacters(Math.max(0, characters));
+      }
+      event.commit();
+    }
   }
 
-  /** Add a new {@link Movie}. */
-  void add(Movie aMovie) {
-    String id = nextId();
-    aMovie.setId(id.toString());
-    fTable.put(id, aMovie);
+  /**
+   Return <tt>true</tt> only if the movies differ from those last read or saved.
+   (Undoing all edits means there is nothing to save.) 
+   
+   <P>While the movies files are shared, each edit is saved to the journal right away, but 
+   the journal still needs to be folded into the files by {@link #shutdown()}, unless another 
+   instance of the app is still running. Until that has been done, this method returns 
+   <tt>true</tt>, so that the exit action makes the save, instead of the shutdown hook.
+  */
+  public boolean hasUnsavedEdits(){
+    return fTable != fSavedTable || fFiles.needsFolding();
   }
 
-  /** Change an existing {@link Movie}. */
-  void change(Movie aMovie) {
-    fTable.put(aMovie.getId(), aMovie);
+  /**
+   Last line of defense, for when the JVM is shut down without passing through 
+   the usual exit action (for example, by the operating system). Adds a JVM shutdown hook 
+   which calls {@link #shutdown()}. If a save is already in progress, the hook waits for 
+   it to complete.
+   
+   <P>Called once at startup, after the movies have been read in, by each launcher which 
+   doesn't otherwise save the movies when the JVM shuts down.
+  */
+  public static void saveUponJvmShutdown() {
+    Runtime.getRuntime().addShutdownHook(new Thread("Save movies upon shutdown"){
+      @Override public void run() {
+        new MovieDAO().shutdown();
+      }
+    });
+  }
+
+  /** Add a new {@link Movie}. Return the movie as stored, with its new id. */
+  public Movie add(Movie aMovie) {
+    return addAll(Collections.singletonList(aMovie)).get(0);
+  }
+  
+  /** 
+   Add many new {@link Movie}s, as a single step in the undo history. 
+   Return the movies as stored, with their new ids, in the same order.
+  */
+  public List<Movie> addAll(List<Movie> aMovies) {
+    List<Movie> result = new ArrayList<>(aMovies.size());
+    if ( aMovies.isEmpty() ) return result;
+    int id = reserveIds(aMovies.size());
+    List<EditHistory.Change> changes = new ArrayList<>();
+    for(Movie movie : aMovies){
+      Movie added = movie.withId(id++);
+      result.add(added);
+      changes.add(new EditHistory.Change(null, added));
+    }
+    commit(changes);
+    return result;
+  }
+
+  /** 
+   Change an existing {@link Movie}. If there is no movie with the given id, then the movie 
+   is added, keeping its id. 
+  */
+  public void change(Movie aMovie) {
+    synchronized(fEditLock){
+      Movie before = fTable.get(key(aMovie));
+      commit(Collections.singletonList(new EditHistory.Change(before, aMovie)));
+    }
+  }
+
+  /** 
+   Change an existing {@link Movie}, only if there is a movie with the given id. 
+   Return <tt>false</tt> if there is none, in which case nothing is changed. The check and 
+   the change are a single step, so a movie deleted meanwhile by another thread is never 
+   added back.
+  */
+  public boolean changeIfPresent(Movie aMovie) {
+    synchronized(fEditLock){
+      Movie before = fTable.get(key(aMovie));
+      if ( before == null ) return false;
+      commit(Collections.singletonList(new EditHistory.Change(before, aMovie)));
+      return true;
+    }
   }
 
   /**
-   * List all {@link Movie}s. Order is the natural order of the {@link Movie} class
+   * List all {@link Movie}s read in. Order is the natural order of the {@link Movie} class
    * (descending date, then title).
    */
-  List<Movie> list() {
-    List<Movie> result = new ArrayList<>(fTable.values());
+  public List<Movie> list() {
+    PersistentMap<Integer, Movie> movies = fTable;
+    List<Movie> result = new ArrayList<>(movies.size());
+    for(Movie movie : movies){
+      result.add(movie);
+    }
     Collections.sort(result);
     return result;
   }
 
+  /**
+   Return all {@link Movie}s read in, in the given order, as an unmodifiable list.
+   
+   <P>The sorted list is kept until the next edit, so repeated calls (for example, when 
+   paging through a long list) do not sort again.
+   @param aOrder possibly-null; null means the natural order of the {@link Movie} class. 
+   For best use of the cache, pass one of the comparators defined by {@link Movie}.
+  */
+  public List<Movie> listSorted(Comparator<Movie> aOrder) {
+    final PersistentMap<Integer, Movie> version = fTable;
+    SortedViews views = fSortedViews;
+    if ( views == null || views.fVersion != version ) {
+      views = new SortedViews(version);
+      fSortedViews = views;
+    }
+    Comparator<Movie> order = aOrder == null ? NATURAL_ORDER : aOrder;
+    return views.fLists.computeIfAbsent(order, new Function<Comparator<Movie>, List<Movie>>(){
+      @Override public List<Movie> apply(Comparator<Movie> aComparator) {
+        List<Movie> result = new ArrayList<>(version.size());
+        for(Movie movie : version){
+          result.add(movie);
+        }
+        Collections.sort(result, aComparator);
+        return Collections.unmodifiableList(result);
+      }
+    });
+  }
+  
+  /**
+   Return the first {@link Movie}s in the given order, such as the 20 highest rated, or the 
+   50 most recently viewed, as an unmodifiable list in that order.
+   
+   <P>Nothing is sorted. If the movies have already been sorted in that order (see 
+   {@link #listSorted(Comparator)}), then the start of that list is returned. Otherwise, 
+   the movies are passed through a bounded heap, in <tt>O(n log k)</tt> time 
+   (see {@link TopMovies}).
+   
+   <P>The newest movies are always read in first, so the most recently viewed need only 
+   enough years to be read in to hold them. Any other order reads in all the movies.
+   @param aCount the most movies to return, 0 or more
+   @param aOrder possibly-null; null means the natural order of the {@link Movie} class, 
+   the most recently viewed first. 
+  */
+  public List<Movie> top(int aCount, Comparator<Movie> aOrder){
+    if ( aCount < 0 ) throw new IllegalArgumentException("Count cannot be negative: " + aCount);
+    if ( aOrder == null ) {
+      boolean hasOlder = true;
+      while ( fTable.size() < aCount && hasOlder ) {
+        hasOlder = loadOlder();
+      }
+    }
+    else {
+      loadAll();
+    }
+    PersistentMap<Integer, Movie> version = fTable;
+    Comparator<Movie> order = aOrder == null ? NATURAL_ORDER : aOrder;
+    SortedViews views = fSortedViews;
+    List<Movie> sorted = views != null && views.fVersion == version ? views.fLists.get(order) : null;
+    if ( sorted != null ) {
+      return sorted.subList(0, Math.min(aCount, sorted.size()));
+    }
+    return Collections.unmodifiableList(TopMovies.of(version, version.size(), aCount, order));
+  }
+  
+  /**
+   Return the {@link Movie}s which match the given query, in the natural order of the 
+   {@link Movie} class, as an unmodifiable list.
+   
+   <P>Reads in the movies not yet read in, first. When the query allows only movies viewed 
+   after a given day, older years are not read in.
+  */
+  public List<Movie> list(MovieQuery aQuery){
+    int earliestDay = aQuery.getEarliestDay();
+    if ( earliestDay == Movie.NO_DATE ) {
+      loadAll();
+    }
+    else {
+      loadDownTo(String.valueOf(LocalDate.ofEpochDay(earliestDay).getYear()));
+    }
+    List<Movie> movies = listSorted(null);
+    MovieQuery.Plan plan = aQuery.plan(movies, null, null, false);
+    List<Movie> result = new ArrayList<>();
+    for(int idx : plan.getRows()){
+      Movie movie = movies.get(idx);
+      if ( plan.accepts(idx, movie) ) {
+        result.add(movie);
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+  
+  /** 
+   Return <tt>true</tt> only if some saved movies have not been read in. They are all older 
+   than the movies which have been, in the natural order of the {@link Movie} class.
+  */
+  public boolean hasOlderMovies(){
+    synchronized(fEditLock){
+      return fFiles.allSegments().higher(fOldestLoaded) != null;
+    }
+  }
+  
+  /** 
+   Read in the next older year of movies, if any. The movies read in always come first in 
+   the natural order of the {@link Movie} class, so this extends the end of that list.
+   Return <tt>false</tt> only if there was nothing left to read in.
+  */
+  public boolean loadOlder(){
+    synchronized(fEditLock){
+      lockJournal(SHARED);
+      try {
+        readEditsByOthers();
+        String older = fFiles.allSegments().higher(fOldestLoaded);
+        if ( older == null ) return false;
+        logChanges(readInDownTo(older));
+        fOldestWanted = older;
+        return true;
+      }
+      finally {
+        unlockJournal();
+      }
+    }
+  }
+  
+  /** 
+   Read in all the movies not yet read in. Needed before sorting or searching all of them, or 
+   before listing them for a client of a server. 
+  */
+  public void loadAll(){
+    synchronized(fEditLock){
+      lockJournal(SHARED);
+      try {
+        readEditsByOthers();
+        logChanges(readInDownTo(MovieSegments.UNDATED));
+      }
+      finally {
+        unlockJournal();
+      }
+    }
+  }
+  
+  /**
+   If more than the maximum number of movies are in memory, drop the oldest years, until 
+   there are no more than the maximum. Return <tt>true</tt> only if any movies were dropped. 
+   
+   <P>Only the years read in by {@link #loadAll()} are ever dropped : the years needed to show 
+   the natural order of the {@link Movie} class (see {@link #loadOlder()}) are always kept. 
+   Unsaved edits are never lost, since they're kept apart until saved. The maximum can be 
+   set with the <tt>movies.maxLoadedMovies</tt> system property.
+   
+   <P>Edits made before the movies are dropped can no longer be undone.
+  */
+  public boolean unloadColdMovies(){
+    synchronized(fEditLock){
+      if ( fTable.size() <= MAX_LOADED_MOVIES ) return false;
+      Map<String, Integer> counts = new HashMap<>();
+      for(Movie movie : fTable){
+        String segment = MovieSegments.segmentOf(movie);
+        Integer count = counts.get(segment);
+        counts.put(segment, count == null ? 1 : count + 1);
+      }
+      NavigableSet<String> loaded = new TreeSet<>(MovieSegments.NEWEST_FIRST);
+      loaded.addAll(counts.keySet());
+      int size = fTable.size();
+      String oldest = fOldestLoaded;
+      for(String segment : loaded.descendingSet()){
+        if ( size <= MAX_LOADED_MOVIES || ! MovieFiles.isOlder(segment, fOldestWanted) ) break;
+        size = size - counts.get(segment);
+        String newer = fFiles.allSegments().lower(segment);
+        oldest = newer == null || ! MovieFiles.isOlder(newer, fOldestWanted) ? fOldestWanted : newer;
+      }
+      if ( oldest.equals(fOldestLoaded) ) return false;
+      List<EditHistory.Change> changes = new ArrayList<>();
+      PersistentMap<Integer, Movie> table = fTable;
+      for(Movie movie : fTable){
+        if ( MovieFiles.isOlder(MovieSegments.segmentOf(movie), oldest) ) {
+          EditHistory.Change change = new EditHistory.Change(movie, null);
+          table = apply(table, change);
+          changes.add(change);
+        }
+      }
+      fOldestLoaded = oldest;
+      replaceTable(table);
+      logChanges(changes);
+      //the steps of the history include the dropped movies
+      fHistory.clear();
+      fLogger.fine(new Supplier<String>(){
+        @Override public String get() {
+          return "Dropped " + changes.size() + " old movies from memory.";
+        }
+      });
+      return true;
+    }
+  }
+  
+  /**
+   Return the first of <tt>aCount</tt> consecutive new ids, which have never been used.
+   Intended for clients which assign ids themselves, such as the store daemon's clients.
+  */
+  public int reserveIds(int aCount){
+    if ( fUsesStore ) {
+      return onStoreThread(new Callable<Integer>(){
+        @Override public Integer call() {
+          return reserveIdsFromStore(aCount);
+        }
+      });
+    }
+    synchronized(fEditLock){
+      lockJournal(EXCLUSIVE);
+      try {
+        //other instances may have used the next ids
+        readEditsByOthers();
+        int result = 0;
+        synchronized(MovieDAO.class){
+          result = fNextId + 1;
+          fNextId = fNextId + aCount;
+        }
+        reserveInJournal(fNextId);
+        return result;
+      }
+      finally {
+        unlockJournal();
+      }
+    }
+  }
+  
+  /** 
+   The current version of the data store. Every edit increases the version.
+   Versions are not saved; a new run of the app starts with a new, higher version. 
+  */
+  public long getVersion(){
+    return fLog.getVersion();
+  }
+  
+  /**
+   Return the movies changed since the given version, or <tt>null</tt> if the changes 
+   are no longer known (the version is too old, or from an earlier run). When <tt>null</tt>
+   is returned, the caller should read all movies again.
+   
+   <P>If nothing has changed, the returned delta is empty, and this method doesn't lock 
+   anything. Otherwise, the time taken is proportional to the number of changes, and 
+   not to the number of movies.
+  */
+  public MovieDelta changesSince(long aVersion){
+    if ( aVersion == fLog.getVersion() ) {
+      return new MovieDelta(aVersion, Collections.<Movie>emptyList(), Collections.<String>emptyList());
+    }
+    synchronized(fEditLock){
+      Set<Integer> ids = fLog.idsChangedSince(aVersion);
+      if ( ids == null ) return null;
+      List<Movie> changed = new ArrayList<>();
+      List<String> deleted = new ArrayList<>();
+      for(Integer id : ids){
+        Movie movie = fTable.get(id);
+        if ( movie == null ) {
+          deleted.add(String.valueOf(id));
+        }
+        else {
+          changed.add(movie);
+        }
+      }
+      return new MovieDelta(fLog.getVersion(), changed, deleted);
+    }
+  }
+  
+  /** 
+   Return <tt>true</tt> only if the movies are owned by a store daemon. Stays <tt>true</tt> 
+   while the daemon is away, since the movies are still owned by it.
+  */
+  public boolean isUsingStore(){
+    return fUsesStore;
+  }
+  
+  /**
+   Bring the movies up to date with the edits other processes have sent to the 
+   store daemon. Return <tt>true</tt> only if there were any such edits. 
+   Does nothing if there is no store daemon.
+   
+   <P>Edits by others cannot be merged into this process's undo history, so the history 
+   is cleared whenever there are any. This process's own edits, as echoed back by the 
+   daemon, are ignored.
+   
+   <P>The daemon is asked on the store thread, without holding any lock, so edits can 
+   go on meanwhile. If the daemon has gone away, this tries to connect to it again. Once 
+   connected, the edits not yet sent are sent first, and then all the movies are read again.
+  */
+  public boolean syncWithStore(){
+    if ( ! fUsesStore ) return false;
+    return onStoreThread(new Callable<Boolean>(){
+      @Override public Boolean call() {
+        return syncNow();
+      }
+    });
+  }
+  
+  /** 
+   The index of the saved movies and their journal, if the movies are shared with other 
+   instances of the app. Otherwise, an empty list. Writing to either file means that another 
+   instance has made an edit. Both are in the same directory.
+  */
+  public List<Path> getSharedFiles(){
+    synchronized(fEditLock){
+      return fFiles.getSharedFiles();
+    }
+  }
+  
+  /** The directory the movies are saved in. Other files kept with the movies may be saved there too. */
+  public Path getDirectory(){
+    return Paths.get(getSegmentsDirectoryName());
+  }
+  
+  /**
+   Bring the movies up to date with the edits made by other instances of the app which 
+   share the movies files. Return the movies they changed, or <tt>null</tt> if all the 
+   movies were read in again (when another instance has saved the files).
+   The returned delta is empty if there were no such edits, or if the file isn't shared.
+   
+   <P>Only the new lines of the journal are read. Edits by others cannot be merged into 
+   this process's undo history, so the history is cleared whenever there are any.
+  */
+  public MovieDelta syncWithOtherInstances(){
+    synchronized(fEditLock){
+      lockJournal(SHARED);
+      try {
+        List<EditHistory.Change> changes = readEditsByOthers();
+        if ( changes == null ) return null;
+        Map<String, Movie> latest = new LinkedHashMap<>();
+        for(EditHistory.Change change : changes){
+          Movie movie = change.fAfter == null ? change.fBefore : change.fAfter;
+          latest.put(movie.getId(), change.fAfter);
+        }
+        List<Movie> changed = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        //a movie moved to a year not read in is deleted, as far as the caller knows
+        for(Map.Entry<String, Movie> entry : latest.entrySet()){
+          if ( entry.getValue() == null ) {
+            deleted.add(entry.getKey());
+          }
+          else {
+            changed.add(entry.getValue());
+          }
+        }
+        return new MovieDelta(fLog.getVersion(), changed, deleted);
+      }
+      finally {
+        unlockJournal();
+      }
+    }
+  }
+  
+  /** Get a {@link Movie}, given its id. Returns null if the movie does not exist. */
+  public Movie get(String aMovieId){
+    return fTable.get(key(aMovieId));
+  }
+
   /** Delete an existing {@link Movie}, given the movie id. */
-  void delete(String aMovieId) {
-    fTable.remove(aMovieId);
+  public void delete(String aMovieId) {
+    deleteAll(Collections.singletonList(aMovieId));
+  }
+  
+  /** Delete many {@link Movie}s, as a single step in the undo history. */
+  public void deleteAll(List<String> aMovieIds) {
+    synchronized(fEditLock){
+      List<EditHistory.Change> changes = new ArrayList<>();
+      for(String id : aMovieIds){
+        Movie before = fTable.get(key(id));
+        if ( before != null ) {
+          changes.add(new EditHistory.Change(before, null));
+        }
+      }
+      commit(changes);
+    }
+  }
+  
+  /** Return <tt>true</tt> only if there is an edit which can be undone. */
+  boolean canUndo(){
+    synchronized(fEditLock){
+      return fHistory.canUndo();
+    }
+  }
+  
+  /** Return <tt>true</tt> only if there is an undone edit which can be redone. */
+  boolean canRedo(){
+    synchronized(fEditLock){
+      return fHistory.canRedo();
+    }
+  }
+  
+  /** 
+   Stop recording the undo history. Intended for long-running processes without a user 
+   interface, where the history would grow without limit. 
+  */
+  public void disableUndoHistory(){
+    synchronized(fEditLock){
+      fHistory.disable();
+    }
+  }
+  
+  /** Undo the most recent edit (or bulk edit), if any. */
+  void undo(){
+    synchronized(fEditLock){
+      lockJournal(EXCLUSIVE);
+      try {
+        //edits by others clear the history
+        readEditsByOthers();
+        undoStep();
+      }
+      finally {
+        unlockJournal();
+      }
+    }
+  }
+  
+  /** Redo the most recently undone edit, if any. */
+  void redo(){
+    synchronized(fEditLock){
+      lockJournal(EXCLUSIVE);
+      try {
+        readEditsByOthers();
+        redoStep();
+      }
+      finally {
+        unlockJournal();
+      }
+    }
   }
 
   // PRIVATE 
-  private static final Map<String, Movie> fTable = new LinkedHashMap<>();
+  
+  /** 
+   The current version of the data store, keyed by id. Each edit replaces it with 
+   a new version. Readers never need to lock.
+  */
+  private static volatile PersistentMap<Integer, Movie> fTable = PersistentMap.empty();
+  /** The version last read from, or written to, the movies files. */
+  private static volatile PersistentMap<Integer, Movie> fSavedTable;
+  private static final EditHistory fHistory = new EditHistory();
+  /** Serializes edits, and guards fHistory. */
+  private static final Object fEditLock = new Object();
   private static int fNextId = 0;
-  private static final String MOVIES_FILE_NAME = "movie_list_for_";
-  private static final String DELIMITER = "|";
+  private static final Object fSaveLock = new Object();
+  /** Set once at startup : true only if a store daemon owns the movies. */
+  private static boolean fUsesStore;
+  /** Non-null only while connected to the store daemon. Changed only on the store thread. */
+  private static volatile StoreClient fStore;
+  /** The daemon's version, when last read from it. Changed only on the store thread. */
+  private static long fStoreVersion;
+  /** Set when connected to the daemon again. Used only on the store thread. */
+  private static boolean fNeedsFullSync;
+  /** Edits not yet sent to the daemon, oldest first. Guarded by fEditLock. */
+  private static final List<EditHistory.Change> fUnsent = new ArrayList<>();
+  /** The version which includes all of fUnsent. Guarded by fEditLock. */
+  private static PersistentMap<Integer, Movie> fUnsentTable;
+  /** Does all the sending to the daemon, in the order the edits were made. */
+  private static final ExecutorService fStoreThread = Executors.newSingleThreadExecutor(
+    new ThreadFactory(){
+      @Override public Thread newThread(Runnable aRunnable) {
+        Thread result = new Thread(aRunnable, "Send edits to the movie store");
+        result.setDaemon(true);
+        return result;
+      }
+    }
+  );
+  /** Enough for readers who poll every few seconds, even during bulk edits. */
+  private static final int CHANGE_LOG_CAPACITY = 100000;
+  /** Guarded by fEditLock, except for reading the version. */
+  private static final ChangeLog fLog = new ChangeLog(CHANGE_LOG_CAPACITY);
+  /* The rest of these are guarded by fEditLock. */
+  /** The movies files, and their journal. Not used while a store daemon owns the movies. */
+  private static final MovieFiles fFiles = new MovieFiles(Paths.get(getSegmentsDirectoryName()));
+  /** 
+   The oldest segment read in. All newer segments are read in too, even those not saved 
+   yet, so the movies in memory always come first in the natural order.
+  */
+  private static String fOldestLoaded = MovieSegments.UNDATED;
+  /** The oldest segment needed to show the natural order. Older segments may be dropped. */
+  private static String fOldestWanted = MovieSegments.UNDATED;
+  private static final int MAX_LOADED_MOVIES = Integer.getInteger("movies.maxLoadedMovies", 200000);
+  private static final boolean SHARED = true;
+  private static final boolean EXCLUSIVE = false;
+  private static final List<EditHistory.Change> NO_CHANGES = Collections.emptyList();
+  
+  /** Sorted lists of a single version of the data store. */
+  private static final class SortedViews {
+    SortedViews(PersistentMap<Integer, Movie> aVersion){
+      fVersion = aVersion;
+    }
+    final PersistentMap<Integer, Movie> fVersion;
+    final ConcurrentMap<Comparator<Movie>, List<Movie>> fLists = new ConcurrentHashMap<>();
+  }
+  private static volatile SortedViews fSortedViews;
+  private static final Comparator<Movie> NATURAL_ORDER = new Comparator<Movie>(){
+    @Override public int compare(Movie aThis, Movie aThat) {
+      return aThis.compareTo(aThat);
+    }
+  };
+  static final String DELIMITER = "|";
   private static final String NULL = "NULL";
+  /** Suffix of the single movies file of earlier versions of the app, once its movies are moved into segments. */
+  static final String MIGRATED = ".migrated";
+  /** The id, title, date viewed, rating and comment. */
+  private static final int FIELDS_PER_ROW = 5;
   private static final Logger fLogger = Util.getLogger(MovieDAO.class);
   private final static Charset ENCODING = StandardCharsets.UTF_8;
   
   static {
-    readInMovieFileUponStartup();
-    fLogger.config("Number of movies read in from file: " + fTable.size());
+    fStore = StoreClient.connect(CurrentUser.get());
+    if ( fStore != null ) {
+      readInMoviesFromStore();
+    }
+    fUsesStore = fStore != null;
+    if ( fStore == null ) {
+      if ( MovieEncryption.isRequiredIn(Paths.get(getSegmentsDirectoryName())) && MovieEncryption.getKey() == null ) {
+        //the encrypted files can't be read, and nothing is saved over them
+        fLogger.severe("The movies are encrypted, but no password was given.");
+      }
+      readInSharedMovieFile();
+    }
+    fSavedTable = fTable;
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Number of movies read in from file: " + fTable.size();
+      }
+    });
   }
 
   private static void readInMovieFileUponStartup() {
     Path moviesPath = Paths.get(getMovieFileName());
-    fLogger.fine("Reading movies from :" + moviesPath);
-    String line = "";
-    try (Scanner scanner = new Scanner(moviesPath, ENCODING.name())){
-      while (scanner.hasNextLine()) {
-        line = scanner.nextLine();
+    fLogger.fine(new Supplier<String>(){
+      @Override public String get() {
+        return "Reading movies from :" + moviesPath;
+      }
+    });
+    LoadEvent event = new LoadEvent();
+    event.begin();
+    event.setSource(moviesPath.toAbsolutePath().toString());
+    try (BufferedReader reader = Files.newBufferedReader(moviesPath, ENCODING)){
+      event.setBytes(Files.size(moviesPath));
+      List<String[]> rows = new ArrayList<>();
+      ParseEvent batch = new ParseEvent();
+      batch.begin();
+      String line = null;
+      while ( (line = reader.readLine()) != null ) {
         if (Util.textHasContent(line)) {
-          parseLine(line);
+          String[] row = rowOf(line, nextId());
+          if ( row != null ) {
+            rows.add(row);
+          }
+          else {
+            logBadLine("Movies file", line);
+          }
+          if ( batch.addLine(line) ) {
+            readInRows(rows);
+            batch.commit();
+            batch = new ParseEvent();
+            batch.begin();
+          }
         }
       }
+      if ( ! batch.isEmpty() ) {
+        readInRows(rows);
+        batch.commit();
+      }
     }
-    catch (FileNotFoundException ex) {
+    catch (NoSuchFileException ex) {
       fLogger.config("Movies file not present. Will be created when the app closes.");
     }
-    catch (InvalidInputException ex) {
-      fLogger.severe("Movies file: date-viewed field not in expected format: " + line);
-    }
-    catch (NoSuchElementException ex) {
-      fLogger.severe("Movies file: Not in expected format: " + line);
-    }
     catch(IOException ex){
       fLogger.severe("Unable to access the movies file.");
     }
+    event.setRows(fTable.size());
+    event.commit();
+  }
+
+  private static void readInMoviesFromStore() {
+    fLogger.fine("Reading movies from the store daemon.");
+    LoadEvent event = new LoadEvent();
+    event.begin();
+    try {
+      MovieDelta all = fStore.list();
+      for(Movie movie : all.getChanged()){
+        fTable = fTable.put(key(movie), movie);
+        addToIndexes(movie);
+      }
+      fStoreVersion = all.getVersion();
+      event.setSource("store daemon");
+      event.setRows(fTable.size());
+      event.commit();
+    }
+    catch (IOException ex) {
+      fLogger.severe("Unable to read the movies from the store daemon. Reading the movies file instead. " + ex);
+      fStore.close();
+      fStore = null;
+    }
   }
 
-  private static void parseLine(String aLine) throws InvalidInputException {
-    Scanner scanner = new Scanner(aLine);
-    // note how the quoting is needed here, since '|' is a special character in
-    // regular expressions :
-    scanner.useDelimiter(Pattern.quote(DELIMITER));
-    scanner.useLocale(Locale.US);
-    if (scanner.hasNext()) {
-      String title = scanner.next();
-      Date viewed = Util.parseDate(maybeNull(scanner.next()), "Date Viewed");
-      BigDecimal rating = Util.parseBigDecimal(maybeNull(scanner.next()), "Rating");
-      String comment = maybeNull(scanner.next());
-      Movie movie = new Movie(nextId().toString(), title, viewed, rating, comment);
-      fTable.put(movie.getId(), movie);
+  /** 
+   Parse a line of the movies file into a new movie, with a new id. 
+   Return null if the line holds no fields. 
+  */
+  static Movie parseLine(String aLine) throws InvalidInputException {
+    return parseLine(aLine, null);
+  }
+  
+  /** 
+   As {@link #parseLine(String)}, but with the given id, if not null. 
+   @throws NoSuchElementException if the line has too few fields
+  */
+  static Movie parseLine(String aLine, String aId) throws InvalidInputException {
+    if ( aLine.isEmpty() ) return null;
+    String[] row = rowOf(aLine, aId == null ? nextId() : aId);
+    if ( row == null ) throw new NoSuchElementException();
+    return Movie.fromSaved(row[0], row[1], row[2], row[3], row[4]);
+  }
+  
+  /**
+   Split a line of the movies file into a row of text fields, with the given id, in the 
+   order expected by {@link Movie#validateAll}. Return null if the line has too few fields.
+   
+   <P>Fields beyond the comment are ignored.
+  */
+  static String[] rowOf(String aLine, String aId){
+    String[] result = new String[FIELDS_PER_ROW];
+    result[0] = aId;
+    int start = 0;
+    for(int field = 1; field < FIELDS_PER_ROW; ++field){
+      if ( start > aLine.length() ) return null;
+      int end = aLine.indexOf(DELIMITER, start);
+      if ( end < 0 ) {
+        end = aLine.length();
+      }
+      String text = aLine.substring(start, end);
+      //a title is never null
+      result[field] = field == 1 ? text : maybeNull(text);
+      start = end + 1;
+    }
+    return result;
+  }
+  
+  /** Log a line of a movies file which can't be read. */
+  static void logBadLine(final String aFile, final String aLine){
+    fLogger.severe(new Supplier<String>(){
+      @Override public String get() {
+        return aFile + ": Not in expected format: " + aLine;
+      }
+    });
+  }
+  
+  /** Log the errors found by {@link Movie#validateAll}, if any. */
+  static void logBadRows(final String aFile, final ValidationResult aErrors){
+    if ( ! aErrors.hasErrors() ) return;
+    fLogger.severe(new Supplier<String>(){
+      @Override public String get() {
+        return aFile + ": Rows skipped : " + aErrors.getErrorMessages();
+      }
+    });
+  }
+  
+  /** Add the movies of a batch of rows of the old movies file, and empty the batch. */
+  private static void readInRows(List<String[]> aRows){
+    ValidationResult errors = new ValidationResult();
+    for(Movie movie : Movie.validateAll(aRows, errors)){
+      fTable = fTable.put(key(movie), movie);
+      addToIndexes(movie);
     }
-    scanner.close();
+    logBadRows("Movies file", errors);
+    aRows.clear();
   }
 
-  private static String nextId() {
+  private static synchronized String nextId() {
     ++fNextId;
     return String.valueOf(fNextId);
   }
 
-  private void appendTo(StringBuilder aText, Object aField, String aAppend) {
+  private static void appendTo(StringBuilder aText, Object aField, String aAppend) {
     if (Util.textHasContent(Util.format(aField))) {
       aText.append(Util.format(aField));
     }
@@ -152,39 +916,749 @@ public final class MovieDAO {
     aText.append(aAppend);
   }
 
+  /** 
+   Apply the changes to the current version of the data store, as a single step in 
+   the undo history. 
+  */
+  private static void commit(List<EditHistory.Change> aChanges){
+    if ( aChanges.isEmpty() ) return;
+    synchronized(fEditLock){
+      lockJournal(EXCLUSIVE);
+      try {
+        List<EditHistory.Change> changes = aChanges;
+        if ( readEditsByOthers() != NO_CHANGES ) {
+          changes = startingFromCurrent(aChanges);
+          if ( changes.isEmpty() ) return;
+        }
+        //the user sees where the edited movies now are
+        logChanges(readInSegmentsOf(changes));
+        PersistentMap<Integer, Movie> before = fTable;
+        PersistentMap<Integer, Movie> after = before;
+        for(EditHistory.Change change : changes){
+          after = apply(after, change);
+        }
+        fHistory.record(new EditHistory.Step(before, after, changes));
+        fTable = after;
+        logChanges(changes);
+        fFiles.recordUnsaved(changes);
+        queueForStore(changes);
+        writeToJournal(changes);
+      }
+      finally {
+        unlockJournal();
+      }
+    }
+  }
+  
+  /** 
+   The same changes, but starting from the movies as they are now, after edits by other 
+   instances. A movie they deleted is not deleted again. 
+  */
+  private static List<EditHistory.Change> startingFromCurrent(List<EditHistory.Change> aChanges){
+    List<EditHistory.Change> result = new ArrayList<>();
+    for(EditHistory.Change change : aChanges){
+      Movie movie = change.fAfter == null ? change.fBefore : change.fAfter;
+      Movie current = fTable.get(key(movie));
+      if ( current != null || change.fAfter != null ) {
+        result.add(new EditHistory.Change(current, change.fAfter));
+      }
+    }
+    return result;
+  }
+  
+  /** 
+   Undo a step of the history. The caller must hold fEditLock. If older movies have been 
+   read in since the step, it's undone one change at a time, keeping them.
+  */
+  private static void undoStep(){
+    if ( ! fHistory.canUndo() ) return;
+    EditHistory.Step step = fHistory.undo();
+    List<EditHistory.Change> changes = step.fChanges;
+    List<EditHistory.Change> undone = new ArrayList<>();
+    for(int idx = changes.size() - 1; idx >= 0; --idx){
+      EditHistory.Change change = changes.get(idx);
+      undone.add(new EditHistory.Change(change.fAfter, change.fBefore));
+    }
+    fTable = step.fAfter == fTable ? restore(step.fBefore, undone) : applyAll(fTable, undone);
+    logChanges(undone);
+    fFiles.recordUnsaved(undone);
+    queueForStore(undone);
+    writeToJournal(undone);
+  }
+  
+  /** Redo a step of the history. The caller must hold fEditLock. */
+  private static void redoStep(){
+    if ( ! fHistory.canRedo() ) return;
+    EditHistory.Step step = fHistory.redo();
+    List<EditHistory.Change> changes = step.fChanges;
+    fTable = step.fBefore == fTable ? restore(step.fAfter, changes) : applyAll(fTable, changes);
+    logChanges(changes);
+    fFiles.recordUnsaved(changes);
+    queueForStore(changes);
+    writeToJournal(changes);
+  }
+  
+  /** Return the given version of the data store, after updating the indexes for the changes which make it. */
+  private static PersistentMap<Integer, Movie> restore(PersistentMap<Integer, Movie> aTable, List<EditHistory.Change> aChanges){
+    for(EditHistory.Change change : aChanges){
+      removeFromIndexes(change.fBefore);
+      addToIndexes(change.fAfter);
+    }
+    return aTable;
+  }
+  
+  private static PersistentMap<Integer, Movie> applyAll(PersistentMap<Integer, Movie> aTable, List<EditHistory.Change> aChanges){
+    PersistentMap<Integer, Movie> result = aTable;
+    for(EditHistory.Change change : aChanges){
+      result = apply(result, change);
+    }
+    return result;
+  }
+  
+  /** Return the given version of the data store with the change applied, and update the indexes. */
+  private static PersistentMap<Integer, Movie> apply(PersistentMap<Integer, Movie> aTable, EditHistory.Change aChange){
+    PersistentMap<Integer, Movie> result = null;
+    if ( aChange.fAfter == null ) {
+      result = aTable.remove(key(aChange.fBefore));
+    }
+    else {
+      result = aTable.put(key(aChange.fAfter), aChange.fAfter);
+    }
+    removeFromIndexes(aChange.fBefore);
+    addToIndexes(aChange.fAfter);
+    return result;
+  }
+  
+  /** Start a new version of the data store, made by the given changes, if any. */
+  private static void logChanges(List<EditHistory.Change> aChanges){
+    if ( aChanges.isEmpty() ) return;
+    fLog.increment();
+    for(EditHistory.Change change : aChanges){
+      Movie movie = change.fAfter == null ? change.fBefore : change.fAfter;
+      fLog.record(key(movie));
+    }
+  }
+  
+  /** 
+   Queue the changes for the store daemon, if there is one. They're sent by the store 
+   thread, so the caller, who holds fEditLock, never waits on the daemon. 
+  */
+  private static void queueForStore(List<EditHistory.Change> aChanges){
+    if ( ! fUsesStore ) return;
+    fUnsent.addAll(aChanges);
+    fUnsentTable = fTable;
+    fStoreThread.execute(new Runnable(){
+      @Override public void run() {
+        sendUnsent();
+      }
+    });
+  }
+  
+  /** 
+   Send all queued changes to the store daemon, as a single batch. Called only on the store 
+   thread. The changes stay queued until the daemon has them; after that, if nothing else 
+   has been queued, there is nothing left for this process to save. If the daemon is away, 
+   they stay queued until it's back.
+  */
+  private static void sendUnsent(){
+    StoreClient store = connectedStore();
+    List<EditHistory.Change> changes = null;
+    synchronized(fEditLock){
+      if ( store == null || fUnsent.isEmpty() ) return;
+      changes = new ArrayList<>(fUnsent);
+    }
+    try {
+      StoreClient.Batch batch = store.newBatch();
+      for(EditHistory.Change change : changes){
+        if ( change.fAfter == null ) {
+          batch.delete(change.fBefore.getId());
+        }
+        else {
+          batch.put(change.fAfter);
+        }
+      }
+      batch.send();
+      synchronized(fEditLock){
+        fUnsent.subList(0, changes.size()).clear();
+        if ( fUnsent.isEmpty() ) {
+          fSavedTable = fUnsentTable;
+        }
+      }
+    }
+    catch (IOException ex) {
+      storeLost(ex);
+    }
+  }
+  
+  /** 
+   Send the queued changes, and then apply the edits others have sent to the daemon. 
+   Called only on the store thread. The daemon is asked without holding fEditLock.
+  */
+  private static boolean syncNow(){
+    sendUnsent();
+    StoreClient store = connectedStore();
+    if ( store == null ) return false;
+    MovieDelta delta = null;
+    boolean isFull = fNeedsFullSync;
+    try {
+      //only this thread changes the version
+      delta = isFull ? null : store.changesSince(fStoreVersion);
+      if ( delta == null ) {
+        //fell too far behind, or reconnected : compare everything
+        delta = store.list();
+        isFull = true;
+      }
+    }
+    catch (IOException ex) {
+      storeLost(ex);
+      return false;
+    }
+    fNeedsFullSync = false;
+    synchronized(fEditLock){
+      List<EditHistory.Change> changes = new ArrayList<>();
+      if ( isFull ) {
+        Set<Integer> deleted = new LinkedHashSet<>();
+        for(Movie movie : fTable){
+          deleted.add(key(movie));
+        }
+        for(Movie movie : delta.getChanged()){
+          deleted.remove(key(movie));
+        }
+        for(Integer id : deleted){
+          changes.add(new EditHistory.Change(fTable.get(id), null));
+        }
+      }
+      for(String id : delta.getDeleted()){
+        Movie before = fTable.get(key(id));
+        if ( before != null ) {
+          changes.add(new EditHistory.Change(before, null));
+        }
+      }
+      for(Movie movie : delta.getChanged()){
+        Movie before = fTable.get(key(movie));
+        if ( ! movie.equals(before) ) {
+          changes.add(new EditHistory.Change(before, movie));
+        }
+      }
+      changes = withoutUnsent(changes);
+      fStoreVersion = delta.getVersion();
+      if ( changes.isEmpty() ) return false;
+      PersistentMap<Integer, Movie> table = fTable;
+      for(EditHistory.Change change : changes){
+        table = apply(table, change);
+      }
+      fTable = table;
+      if ( fUnsent.isEmpty() ) {
+        fSavedTable = table;
+      }
+      else {
+        fUnsentTable = table;
+      }
+      logChanges(changes);
+      fHistory.clear();
+      return true;
+    }
+  }
+  
+  /** 
+   Drop the changes to movies which have edits not yet sent to the daemon. The daemon doesn't 
+   know of those edits yet, so its version of those movies is out of date. The caller must 
+   hold fEditLock.
+  */
+  private static List<EditHistory.Change> withoutUnsent(List<EditHistory.Change> aChanges){
+    if ( fUnsent.isEmpty() ) return aChanges;
+    Set<Integer> unsent = new HashSet<>();
+    for(EditHistory.Change change : fUnsent){
+      unsent.add(key(change.fBefore == null ? change.fAfter : change.fBefore));
+    }
+    List<EditHistory.Change> result = new ArrayList<>();
+    for(EditHistory.Change change : aChanges){
+      if ( ! unsent.contains(key(change.fBefore == null ? change.fAfter : change.fBefore)) ) {
+        result.add(change);
+      }
+    }
+    return result;
+  }
+  
+  /** 
+   Reserve new ids from the store daemon. Called only on the store thread. New ids can't 
+   be made up while the daemon is away, since other instances may be using them.
+  */
+  private static int reserveIdsFromStore(int aCount){
+    StoreClient store = connectedStore();
+    if ( store != null ) {
+      try {
+        return store.reserveIds(aCount);
+      }
+      catch (IOException ex) {
+        storeLost(ex);
+      }
+    }
+    throw new IllegalStateException("Cannot add movies : the movie store daemon is not running.");
+  }
+  
+  /** 
+   Send the queued changes before the app exits. If the daemon is away, the changes 
+   remain unsaved, and {@link #hasUnsavedEdits()} stays <tt>true</tt>. The file is not 
+   written, since the daemon owns it.
+  */
+  private static void sendToStoreBeforeExit(){
+    onStoreThread(new Callable<Void>(){
+      @Override public Void call() {
+        sendUnsent();
+        return null;
+      }
+    });
+    synchronized(fEditLock){
+      if ( fUnsent.isEmpty() ) return;
+      int count = fUnsent.size();
+      fLogger.severe(new Supplier<String>(){
+        @Override public String get() {
+          return "The movie store daemon is not running. " + count + " edits could not be saved.";
+        }
+      });
+    }
+  }
+  
+  /** Run the task on the store thread, and wait for its result. */
+  private static <T> T onStoreThread(Callable<T> aTask){
+    try {
+      return fStoreThread.submit(aTask).get();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+    catch (ExecutionException ex) {
+      if ( ex.getCause() instanceof RuntimeException ) {
+        throw (RuntimeException)ex.getCause();
+      }
+      throw new RuntimeException(ex.getCause());
+    }
+  }
+  
+  /** 
+   Return the connection to the daemon, connecting again if it went away. Return null if 
+   the daemon is still away. Called only on the store thread. After connecting again, all 
+   the movies are read again, since edits may have been missed meanwhile.
+  */
+  private static StoreClient connectedStore(){
+    StoreClient result = fStore;
+    if ( result == null ) {
+      result = StoreClient.connect(CurrentUser.get());
+      if ( result != null ) {
+        fLogger.info("Connected to the movie store daemon again.");
+        fStore = result;
+        fNeedsFullSync = true;
+      }
+    }
+    return result;
+  }
+  
+  /** 
+   Close the connection to the daemon, after it failed. Edits stay queued, and are sent 
+   once the daemon is back. Called only on the store thread.
+  */
+  private static void storeLost(IOException aEx){
+    fLogger.severe(new Supplier<String>(){
+      @Override public String get() {
+        return "Movie store daemon failed. Edits will be sent when it's back. " + aEx;
+      }
+    });
+    StoreClient store = fStore;
+    fStore = null;
+    if ( store != null ) {
+      store.close();
+    }
+  }
+  
+  /** 
+   Read the saved movies, and then the edits in their journal. If the journal can't be used, 
+   the movies are read as if they weren't shared.
+  */
+  private static void readInSharedMovieFile(){
+    try {
+      fFiles.openJournal();
+    }
+    catch (IOException ex) {
+      fLogger.severe(new Supplier<String>(){
+        @Override public String get() {
+          return "Cannot open the journal. The movies files will not be shared. " + ex;
+        }
+      });
+      synchronized(fEditLock){
+        readInSegmentsUponStartup();
+      }
+      return;
+    }
+    synchronized(fEditLock){
+      lockJournal(EXCLUSIVE);
+      try {
+        readInSegmentsUponStartup();
+        readJournalFromStart();
+      }
+      finally {
+        unlockJournal();
+      }
+    }
+  }
+  
+  /** 
+   Read in the most recent segments. If there are none yet, but there is a movies file from 
+   an earlier version of the app, then move its movies into segments. 
+  */
+  private static void readInSegmentsUponStartup(){
+    try {
+      fFiles.readIndex();
+    }
+    catch (IOException ex) {
+      fLogger.severe("Unable to read the index of the movies files.");
+      return;
+    }
+    if ( ! fFiles.hasSavedSegments() && Files.exists(Paths.get(getMovieFileName())) ) {
+      moveMovieFileIntoSegments();
+      return;
+    }
+    reserveUpTo(fFiles.getNextId());
+    fOldestWanted = fFiles.oldestSegmentForStartup();
+    fOldestLoaded = MovieSegments.NEWEST;
+    readInDownTo(fOldestWanted);
+  }
+  
+  /** Read the single movies file of earlier versions of the app, and save it as segments. */
+  private static void moveMovieFileIntoSegments(){
+    readInMovieFileUponStartup();
+    fOldestLoaded = MovieSegments.UNDATED;
+    fFiles.saveAll();
+    if ( saveSegments() != MovieFiles.SAVE_FAILED ) {
+      try {
+        Path movieFile = Paths.get(getMovieFileName());
+        Files.move(movieFile, movieFile.resolveSibling(movieFile.getFileName() + MIGRATED));
+        fLogger.config("Moved the movies file into a file for each year. The old file is kept, renamed.");
+      }
+      catch (IOException ex) {
+        fLogger.severe("Unable to rename the old movies file, after moving its movies.");
+      }
+    }
+    fOldestWanted = fFiles.oldestSegmentForStartup();
+  }
+  
+  /** Read in the segments down to the given year, or the oldest year after it. */
+  private static void loadDownTo(String aYear){
+    synchronized(fEditLock){
+      lockJournal(SHARED);
+      try {
+        readEditsByOthers();
+        NavigableSet<String> newer = fFiles.allSegments().headSet(aYear, true);
+        if ( ! newer.isEmpty() ) {
+          logChanges(readInDownTo(newer.last()));
+        }
+      }
+      finally {
+        unlockJournal();
+      }
+    }
+  }
+  
+  private static boolean isLoaded(String aSegment){
+    return ! MovieFiles.isOlder(aSegment, fOldestLoaded);
+  }
+  
+  /** 
+   Read in every segment older than those already read in, down to the given segment. 
+   Return the movies read in, as changes which add them. The caller must log the changes.
+  */
+  private static List<EditHistory.Change> readInDownTo(String aOldest){
+    List<EditHistory.Change> result = new ArrayList<>();
+    if ( isLoaded(aOldest) ) return result;
+    PersistentMap<Integer, Movie> table = fTable;
+    for(String segment : fFiles.allSegments().subSet(fOldestLoaded, false, aOldest, true)){
+      for(Movie movie : fFiles.readSegment(segment)){
+        EditHistory.Change change = new EditHistory.Change(null, movie);
+        table = apply(table, change);
+        result.add(change);
+      }
+    }
+    fOldestLoaded = aOldest;
+    replaceTable(table);
+    return result;
+  }
+  
+  /** Read in the segments the given changes move movies into, if they haven't been already. */
+  private static List<EditHistory.Change> readInSegmentsOf(List<EditHistory.Change> aChanges){
+    String oldest = fOldestLoaded;
+    for(EditHistory.Change change : aChanges){
+      if ( change.fAfter != null && MovieFiles.isOlder(MovieSegments.segmentOf(change.fAfter), oldest) ) {
+        oldest = MovieSegments.segmentOf(change.fAfter);
+      }
+    }
+    if ( MovieFiles.isOlder(oldest, fOldestWanted) ) {
+      fOldestWanted = oldest;
+    }
+    return readInDownTo(oldest);
+  }
+  
+  /** Replace the movies with a version which has the same edits, but more or fewer segments. */
+  private static void replaceTable(PersistentMap<Integer, Movie> aTable){
+    if ( fSavedTable == fTable ) {
+      fSavedTable = aTable;
+    }
+    if ( fUnsentTable == fTable ) {
+      fUnsentTable = aTable;
+    }
+    fTable = aTable;
+  }
+  
+  /**
+   Write the segments changed since the last save (or all of them), and then the index. 
+   Return the number of characters written, or SAVE_FAILED. The caller must hold fEditLock, 
+   and have locked the journal exclusively, if there is one.
+  */
+  private static long saveSegments(){
+    return fFiles.save(fTable, fOldestLoaded, fNextId);
+  }
+  
+  /** Apply the edits in the journal, or empty it if it's older than the saved movies. */
+  private static void readJournalFromStart(){
+    try {
+      applyJournal(fFiles.readJournalFromStart());
+    }
+    catch (IOException ex) {
+      journalFailed(ex);
+    }
+  }
+  
+  /** 
+   Apply the edits appended to the journal by other instances. Return the changes made, 
+   or <tt>null</tt> if all movies were read in again. The caller must hold fEditLock, and 
+   have locked the journal.
+  */
+  private static List<EditHistory.Change> readEditsByOthers(){
+    if ( ! fFiles.isShared() ) return NO_CHANGES;
+    List<EditHistory.Change> result = NO_CHANGES;
+    try {
+      if ( fFiles.wasReset() ) {
+        readInAgain();
+        result = null;
+      }
+      else {
+        List<MovieFiles.Edit> edits = fFiles.readEditsByOthers();
+        if ( edits.isEmpty() ) return NO_CHANGES;
+        //even edits to segments not read in clear the history
+        result = applyJournal(edits);
+        logChanges(result);
+      }
+    }
+    catch (IOException ex) {
+      journalFailed(ex);
+      return NO_CHANGES;
+    }
+    fSavedTable = fTable;
+    fHistory.clear();
+    fLogger.fine("Applied edits made by other instances of the app.");
+    return result;
+  }
+  
+  /** 
+   Another instance saved the movies, and emptied the journal. Read the same segments and 
+   the journal again, as at startup.
+  */
+  private static void readInAgain(){
+    List<EditHistory.Change> changes = new ArrayList<>();
+    for(Movie movie : fTable){
+      removeFromIndexes(movie);
+      changes.add(new EditHistory.Change(movie, null));
+    }
+    fTable = PersistentMap.empty();
+    String oldest = fOldestLoaded;
+    fOldestLoaded = MovieSegments.NEWEST;
+    try {
+      fFiles.readIndex();
+      reserveUpTo(fFiles.getNextId());
+      readInDownTo(oldest);
+    }
+    catch (IOException ex) {
+      fLogger.severe("Unable to read the index of the movies files.");
+    }
+    readJournalFromStart();
+    for(Movie movie : fTable){
+      changes.add(new EditHistory.Change(null, movie));
+    }
+    logChanges(changes);
+  }
+  
+  /** 
+   Apply edits read from the journal to the current movies, and return the changes. An edit 
+   to a segment not read in is only remembered by the movies files, for when it is. 
+  */
+  private static List<EditHistory.Change> applyJournal(List<MovieFiles.Edit> aEdits){
+    List<EditHistory.Change> result = new ArrayList<>();
+    for(MovieFiles.Edit edit : aEdits){
+      Movie after = edit.fAfter;
+      if ( after != null && ! isLoaded(MovieSegments.segmentOf(after)) ) {
+        after = null;
+      }
+      Movie before = fTable.get(edit.fId);
+      if ( before != null || after != null ) {
+        EditHistory.Change change = new EditHistory.Change(before, after);
+        fTable = apply(fTable, change);
+        result.add(change);
+      }
+    }
+    return result;
+  }
+  
+  /** 
+   Append the changes to the journal. Once there, the edits are saved. The caller must hold 
+   fEditLock, and have locked the journal exclusively.
+  */
+  private static void writeToJournal(List<EditHistory.Change> aChanges){
+    if ( ! fFiles.isShared() || aChanges.isEmpty() ) return;
+    try {
+      fFiles.writeToJournal(aChanges);
+      fSavedTable = fTable;
+    }
+    catch (IOException ex) {
+      journalFailed(ex);
+    }
+  }
+  
+  /** Record in the journal that the ids up to the given id are used. As for writeToJournal. */
+  private static void reserveInJournal(int aId){
+    if ( ! fFiles.isShared() ) return;
+    try {
+      fFiles.reserveInJournal(aId);
+      fSavedTable = fTable;
+    }
+    catch (IOException ex) {
+      journalFailed(ex);
+    }
+  }
+  
+  /**
+   Fold the journal into the segments, if no other instance is using them. 
+   Otherwise there is nothing to do, since every edit is already in the journal, and the 
+   last instance to shut down folds it.
+  */
+  private static void saveJournalIfOnlyInstance(){
+    SaveEvent event = new SaveEvent();
+    event.begin();
+    synchronized(fEditLock){
+      lockJournal(EXCLUSIVE);
+      try {
+        readEditsByOthers();
+        if ( ! fFiles.isShared() || ! fFiles.canFold() ) {
+          fLogger.fine("Not writing the movies files. Their edits are in the journal.");
+          event.setSkipped(true);
+        }
+        else {
+          fLogger.fine("Saving the edited movie records to file, and emptying the journal.");
+          PersistentMap<Integer, Movie> movies = fTable;
+          long characters = saveSegments();
+          if ( characters != MovieFiles.SAVE_FAILED ) {
+            fFiles.emptyJournal();
+            fSavedTable = movies;
+          }
+          event.setRows(movies.size());
+          event.setCharacters(Math.max(0, characters));
+        }
+      }
+      catch (IOException ex) {
+        journalFailed(ex);
+      }
+      finally {
+        unlockJournal();
+      }
+    }
+    event.commit();
+  }
+  
+  /** Called by {@link MovieFiles} too, for the ids it reads. */
+  static synchronized void reserveUpTo(int aId){
+    fNextId = Math.max(fNextId, aId);
+  }
+  
+  private static void lockJournal(boolean aShared){
+    try {
+      fFiles.lock(aShared);
+    }
+    catch (IOException ex) {
+      journalFailed(ex);
+    }
+  }
+  
+  private static void unlockJournal(){
+    try {
+      fFiles.unlock();
+    }
+    catch (IOException ex) {
+      journalFailed(ex);
+    }
+  }
+  
+  /** Stop sharing the file. Edits made from now on are saved to the file at shutdown, as usual. */
+  private static void journalFailed(IOException aEx){
+    fLogger.severe(new Supplier<String>(){
+      @Override public String get() {
+        return "Movies journal failed. The movies files are no longer shared. " + aEx;
+      }
+    });
+    fFiles.closeJournal();
+    //the edits since the last save may be only in memory
+    fSavedTable = null;
+  }
+  
+  /** Ids are assigned in increasing order, so the file keeps the order in which movies were added. */
+  private static Integer key(String aMovieId){
+    return Integer.valueOf(aMovieId);
+  }
+
+  private static Integer key(Movie aMovie){
+    return Integer.valueOf(aMovie.getIdNumber());
+  }
+
+  /** Keep the statistics and the similarity index up to date, without rescanning all movies. */
+  private static void addToIndexes(Movie aMovie){
+    if ( aMovie == null ) return;
+    MovieStats.getInstance().add(aMovie.getDateViewed(), aMovie.getRating());
+    SimilarMovies.getInstance().add(aMovie.getId(), aMovie.getTitle(), aMovie.getComment());
+  }
+  
+  private static void removeFromIndexes(Movie aMovie){
+    if ( aMovie != null ) {
+      MovieStats.getInstance().remove(aMovie.getDateViewed(), aMovie.getRating());
+      SimilarMovies.getInstance().remove(aMovie.getId());
+    }
+  }
+
   private static String maybeNull(String aText) {
     return NULL.equals(aText) ? null : aText;
   }
 
+  /** The single file used by earlier versions of the app. */
   private static String getMovieFileName() {
-    return MOVIES_FILE_NAME + MainWindow.getInstance().getUserName().toLowerCase(Locale.ENGLISH) + ".txt";
+    return getSegmentsDirectoryName() + ".txt";
+  }
+  
+  private static String getSegmentsDirectoryName() {
+    return MovieSegments.directoryNameOf(CurrentUser.get());
   }
 
   /** Create a string, holding all movie records. */
-  private String buildFileContents() {
+  static String buildFileContents(Iterable<Movie> aMovies) {
     String NEW_LINE = System.getProperty("line.separator");
     StringBuilder result = new StringBuilder();
-    for (Movie movie : fTable.values()) {
-      appendTo(result, movie.getTitle(), DELIMITER);
-      appendTo(result, movie.getDateViewed(), DELIMITER);
-      appendTo(result, movie.getRating(), DELIMITER);
-      appendTo(result, movie.getComment(), NEW_LINE);
+    for (Movie movie : aMovies) {
+      appendTo(result, movie, NEW_LINE);
     }
     return result.toString();
   }
 
-  /** Write string containing all movie records to a file - overwrite the whole file. */
-  private void writeStringToFile(String aFileContents) {
-    Path moviesPath = Paths.get(getMovieFileName());
-    fLogger.fine("Writing movies to: " + moviesPath);
-    try (BufferedWriter writer = Files.newBufferedWriter(moviesPath, ENCODING)){
-      writer.write(aFileContents);
-    }    
-    catch (FileNotFoundException ex) {
-      fLogger.severe("Cannot find movies text file.");
-    }
-    catch (IOException ex) {
-      fLogger.severe("Problem while saving movies text file.");
-    }
+  /** Append a movie's fields, in the format of a line of the movies file, without its id. */
+  static void appendTo(StringBuilder aText, Movie aMovie, String aAppend){
+    appendTo(aText, aMovie.getTitle(), DELIMITER);
+    appendTo(aText, aMovie.getDateViewed(), DELIMITER);
+    appendTo(aText, aMovie.getRating(), DELIMITER);
+    appendTo(aText, aMovie.getComment(), aAppend);
   }
 }
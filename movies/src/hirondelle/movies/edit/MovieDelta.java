@@ -0,0 +1,43 @@
+package hirondelle.movies.edit;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ The movies which changed between two versions of the data store.
+
+ <P>See {@link MovieDAO#changesSince(long)}.
+*/
+public final class MovieDelta {
+
+  /**
+   Constructor.
+   @param aVersion the version of the data store described by this delta
+   @param aChanged the movies added or changed, as they are in that version
+   @param aDeleted the ids of the movies deleted
+  */
+  public MovieDelta(long aVersion, List<Movie> aChanged, List<String> aDeleted){
+    fVersion = aVersion;
+    fChanged = Collections.unmodifiableList(aChanged);
+    fDeleted = Collections.unmodifiableList(aDeleted);
+  }
+
+  /** The version this delta brings the reader up to. Pass it to the next request for changes. */
+  public long getVersion(){ return fVersion; }
+
+  /** The movies added or changed. Unmodifiable. */
+  public List<Movie> getChanged(){ return fChanged; }
+
+  /** The ids of the movies deleted. Unmodifiable. */
+  public List<String> getDeleted(){ return fDeleted; }
+
+  /** Return <tt>true</tt> only if nothing has changed. */
+  public boolean isEmpty(){
+    return fChanged.isEmpty() && fDeleted.isEmpty();
+  }
+
+  // PRIVATE
+  private final long fVersion;
+  private final List<Movie> fChanged;
+  private final List<String> fDeleted;
+}
@@ -0,0 +1,173 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.exception.InvalidInputException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ Encrypts the saved movies of a user, with a key derived from their password.
+
+ <P>Launch the app with <tt>-Dmovies.encrypt</tt> to encrypt the movies of new users.
+ A user's movies stay encrypted from then on, with or without the property. Movies saved
+ before encryption was turned on are all encrypted in one go, when the key is first made.
+ From then on, a movies file or a line of the journal which isn't encrypted is refused,
+ and nothing is saved without the key. (The single movies file of earlier versions of the
+ app is the one exception : it's read as it is, and moved into encrypted files.)
+
+ <P>The key is derived from the password with PBKDF2, which is slow on purpose. It's
+ derived only once per session, by {@link #unlock(String, char[])}, which must never be
+ called on the Event Dispatch Thread. The first call for a user picks a random salt, and
+ saves it with a check value in <tt>key.txt</tt>, next to the movies. Later calls use the
+ check value to tell if the password is right. While the movies are being encrypted for the
+ first time, <tt>encrypting.txt</tt> is kept next to them, so that an encryption which is
+ interrupted is finished by the next call.
+
+ <P>The files of each year, and the lines of the journal, are encrypted. The index, which
+ holds only the number of movies in each year, is not. See {@link EncryptedFile} for the format.
+
+ <P>Encrypted movies can't be served by the store daemon, since it has no password.
+
+ <P>This class is thread-safe.
+*/
+public final class MovieEncryption {
+
+  /** The name of the system property which turns on encryption for new users. */
+  public static final String PROPERTY = "movies.encrypt";
+
+  /** Return <tt>true</tt> only if the movies of the given user are, or are to be, encrypted. */
+  public static boolean isOnFor(String aUserName){
+    return System.getProperty(PROPERTY) != null || Files.exists(keyFileOf(aUserName));
+  }
+
+  /**
+   Derive the key of the given user from their password, and use it for the rest of the
+   session. Slow : never call on the Event Dispatch Thread.
+   @param aPassword is cleared before returning
+   @throws InvalidInputException if the password isn't the one the movies were encrypted with
+  */
+  public static void unlock(String aUserName, char[] aPassword) throws InvalidInputException, IOException {
+    Path keyFile = keyFileOf(aUserName);
+    Path encrypting = keyFile.resolveSibling(ENCRYPTING_FILE);
+    try {
+      if ( Files.exists(keyFile) ) {
+        fKey = checkedKey(keyFile, aPassword);
+      }
+      else {
+        Files.createDirectories(keyFile.getParent());
+        Files.write(encrypting, new byte[0]);
+        fKey = newKey(keyFile, aPassword);
+      }
+    }
+    finally {
+      Arrays.fill(aPassword, ' ');
+    }
+    if ( Files.exists(encrypting) ) {
+      encryptPlainText(keyFile.getParent(), fKey);
+      Files.delete(encrypting);
+    }
+  }
+
+  /**
+   Return <tt>true</tt> only if the movies saved in the given directory are encrypted. If so, 
+   they're never read or written as plain text.
+  */
+  static boolean isRequiredIn(Path aDirectory){
+    return Files.exists(aDirectory.resolve(KEY_FILE));
+  }
+
+  /** Return the key passed to {@link #unlock(String, char[])}, or null if there is none. */
+  static SecretKey getKey(){
+    return fKey;
+  }
+
+  // PRIVATE
+  private static volatile SecretKey fKey;
+
+  private static final String KEY_FILE = "key.txt";
+  private static final String ENCRYPTING_FILE = "encrypting.txt";
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+  private static final int ITERATIONS = 600000;
+  private static final int KEY_BITS = 256;
+  private static final int SALT_SIZE = 16;
+  /** Encrypted with the key, and saved. Decrypting it again shows that the password is right. */
+  private static final String CHECK_TEXT = "movies";
+  private static final char DELIMITER = '|';
+
+  private static Path keyFileOf(String aUserName){
+    return Paths.get(MovieSegments.directoryNameOf(aUserName)).resolve(KEY_FILE);
+  }
+
+  /** Encrypt the files of each year, and the lines of the journal, which aren't encrypted yet. */
+  private static void encryptPlainText(Path aDirectory, SecretKey aKey) throws IOException {
+    new MovieSegments(aDirectory).encryptPlainFiles(aKey);
+    MovieJournal.encryptPlainLines(aDirectory, aKey);
+  }
+
+  private static SecretKey newKey(Path aKeyFile, char[] aPassword) throws IOException {
+    byte[] salt = new byte[SALT_SIZE];
+    new SecureRandom().nextBytes(salt);
+    SecretKey result = derive(aPassword, salt, ITERATIONS);
+    String line =
+      String.valueOf(ITERATIONS) + DELIMITER + Base64.getEncoder().encodeToString(salt) + DELIMITER +
+      EncryptedFile.encryptLine(CHECK_TEXT, result)
+    ;
+    Files.createDirectories(aKeyFile.getParent());
+    Files.write(aKeyFile, Arrays.asList(line), StandardCharsets.UTF_8);
+    return result;
+  }
+
+  private static SecretKey checkedKey(Path aKeyFile, char[] aPassword) throws InvalidInputException, IOException {
+    List<String> lines = Files.readAllLines(aKeyFile, StandardCharsets.UTF_8);
+    String[] fields = lines.isEmpty() ? new String[0] : lines.get(0).split("\\|", 3);
+    if ( fields.length < 3 ) throw new IOException("Key file not in expected format: " + aKeyFile);
+    SecretKey result = null;
+    try {
+      result = derive(aPassword, Base64.getDecoder().decode(fields[1]), Integer.parseInt(fields[0]));
+    }
+    catch (IllegalArgumentException ex) {
+      throw new IOException("Key file not in expected format: " + aKeyFile, ex);
+    }
+    try {
+      if ( CHECK_TEXT.equals(EncryptedFile.decryptLine(fields[2], result)) ) return result;
+    }
+    catch (IOException ex) {
+      //the usual sign of a wrong password
+    }
+    InvalidInputException ex = new InvalidInputException();
+    ex.add("The password is not the one the movies were saved with.");
+    throw ex;
+  }
+
+  private static SecretKey derive(char[] aPassword, byte[] aSalt, int aIterations) throws IOException {
+    PBEKeySpec spec = new PBEKeySpec(aPassword, aSalt, aIterations, KEY_BITS);
+    try {
+      byte[] key = SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+      return new SecretKeySpec(key, "AES");
+    }
+    catch (GeneralSecurityException ex) {
+      throw new IOException("Cannot derive a key from the password.", ex);
+    }
+    finally {
+      spec.clearPassword();
+    }
+  }
+
+  /** Prevent object construction. */
+  private MovieEncryption(){
+    throw new AssertionError();
+  }
+}
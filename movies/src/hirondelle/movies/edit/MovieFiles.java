@@ -0,0 +1,438 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.exception.InvalidInputException;
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ The files in which {@link MovieDAO} saves the movies of a user : a file for each year
+ (see {@link MovieSegments}), and, when the files are shared by several instances of the app,
+ the journal of the edits made since they were last saved (see {@link MovieJournal}).
+
+ <P>The movies in memory belong to the DAO. This class keeps track of what the files hold :
+ the edits not yet saved to the file of each year, the years changed by them, and the years
+ which could not be read. It also reads and writes the lines of the journal.
+
+ <P>This class is not thread-safe. The DAO calls it only while holding its edit lock, except
+ for {@link #needsFolding()}.
+*/
+final class MovieFiles {
+
+  /** Returned by {@link #save}, if the movies could not be saved. */
+  static final long SAVE_FAILED = -1;
+
+  /**
+   An edit read from the journal.
+   <P>The movie is null if it was deleted.
+  */
+  static final class Edit {
+    Edit(Integer aId, Movie aAfter){
+      fId = aId;
+      fAfter = aAfter;
+    }
+    final Integer fId;
+    final Movie fAfter;
+  }
+
+  /** Constructor. The files are in the given directory. Nothing is read until asked for. */
+  MovieFiles(Path aDirectory){
+    fDirectory = aDirectory;
+  }
+
+  /** Read the index of the files of each year. The edits not yet saved are forgotten. */
+  void readIndex() throws IOException {
+    fUnsaved.clear();
+    fChangedSegments.clear();
+    fUnreadable.clear();
+    fSegments = null;
+    fSegments = new MovieSegments(fDirectory);
+  }
+
+  /** Return <tt>true</tt> only if the movies have been saved in a file for each year. */
+  boolean hasSavedSegments(){
+    return fSegments != null && fSegments.exists();
+  }
+
+  /** The next id to be assigned, as saved in the index. */
+  int getNextId(){
+    return fSegments.getNextId();
+  }
+
+  /** Save every segment the next time, not just those changed. */
+  void saveAll(){
+    fSaveAll = true;
+  }
+
+  /**
+   All segments, newest first : those saved, and those which exist only in unsaved edits.
+   A segment may be empty, if all its movies have been deleted or moved, but not yet saved.
+  */
+  NavigableSet<String> allSegments(){
+    NavigableSet<String> result = new TreeSet<>(MovieSegments.NEWEST_FIRST);
+    if ( fSegments == null ) return result;
+    result.addAll(fSegments.getSegments());
+    for(Movie movie : fUnsaved.values()){
+      if ( movie != null ) {
+        result.add(MovieSegments.segmentOf(movie));
+      }
+    }
+    return result;
+  }
+
+  /** Return <tt>true</tt> only if the first segment is older than the second. */
+  static boolean isOlder(String aSegment, String aThan){
+    return MovieSegments.NEWEST_FIRST.compare(aSegment, aThan) > 0;
+  }
+
+  /** The oldest segment to read in at startup : enough years to fill the screen, but no more. */
+  String oldestSegmentForStartup(){
+    int years = 0;
+    int movies = 0;
+    for(String segment : allSegments()){
+      if ( MovieSegments.UNDATED.equals(segment) ) break;
+      ++years;
+      movies = movies + fSegments.getCount(segment);
+      if ( years >= MIN_YEARS_AT_STARTUP && movies >= MIN_MOVIES_AT_STARTUP ) return segment;
+    }
+    return MovieSegments.UNDATED;
+  }
+
+  /** The movies in a segment, as saved, but with their unsaved edits. */
+  List<Movie> readSegment(String aSegment){
+    List<Movie> result = new ArrayList<>();
+    try {
+      for(Movie movie : fSegments.read(aSegment)){
+        Integer id = Integer.valueOf(movie.getIdNumber());
+        if ( ! fUnsaved.containsKey(id) ) {
+          result.add(movie);
+          MovieDAO.reserveUpTo(id);
+        }
+      }
+    }
+    catch (IOException ex) {
+      fUnreadable.add(aSegment);
+      fLogger.severe(new Supplier<String>(){
+        @Override public String get() {
+          return "Unable to read the movies of " + aSegment + ". They will not be saved again. " + ex;
+        }
+      });
+    }
+    for(Movie movie : fUnsaved.values()){
+      if ( movie != null && aSegment.equals(MovieSegments.segmentOf(movie)) ) {
+        result.add(movie);
+      }
+    }
+    return result;
+  }
+
+  /** Remember the changes until the segments are saved. */
+  void recordUnsaved(List<EditHistory.Change> aChanges){
+    for(EditHistory.Change change : aChanges){
+      Movie movie = change.fAfter == null ? change.fBefore : change.fAfter;
+      recordUnsaved(Integer.valueOf(movie.getIdNumber()), segmentBefore(change), change.fAfter);
+    }
+  }
+
+  /**
+   Write the segments changed since the last save (or all of them), and then the index.
+   Return the number of characters written, or SAVE_FAILED.
+   @param aMovies all the movies in memory
+   @param aOldestLoaded the oldest segment in memory; older segments are read from their files
+   @param aNextId the next id to be assigned
+  */
+  long save(Iterable<Movie> aMovies, String aOldestLoaded, int aNextId){
+    if ( fSegments == null ) {
+      fLogger.severe("Cannot save the movies, since their files could not be read.");
+      return SAVE_FAILED;
+    }
+    Set<String> segments = new HashSet<>(fChangedSegments);
+    if ( fSaveAll ) {
+      segments.addAll(allSegments());
+      for(Movie movie : aMovies){
+        segments.add(MovieSegments.segmentOf(movie));
+      }
+    }
+    Map<String, List<Movie>> contents = new LinkedHashMap<>();
+    for(String segment : segments){
+      if ( isOlder(segment, aOldestLoaded) ) {
+        contents.put(segment, readSegment(segment));
+      }
+      else {
+        contents.put(segment, new ArrayList<Movie>());
+      }
+    }
+    //a single pass over the movies, in the order of their ids
+    for(Movie movie : aMovies){
+      String segment = MovieSegments.segmentOf(movie);
+      if ( ! isOlder(segment, aOldestLoaded) && contents.containsKey(segment) ) {
+        contents.get(segment).add(movie);
+      }
+    }
+    for(String segment : segments){
+      if ( fUnreadable.contains(segment) ) {
+        fLogger.severe(new Supplier<String>(){
+          @Override public String get() {
+            return "Not saving the movies, since the movies of " + segment + " could not be read.";
+          }
+        });
+        return SAVE_FAILED;
+      }
+    }
+    try {
+      long result = fSegments.write(contents, aNextId);
+      fUnsaved.clear();
+      fChangedSegments.clear();
+      fSaveAll = false;
+      return result;
+    }
+    catch (IOException ex) {
+      fLogger.severe("Problem while saving the movies files.");
+      return SAVE_FAILED;
+    }
+  }
+
+  /** Open the journal, so that the files are shared with other instances of the app. */
+  void openJournal() throws IOException {
+    Path directory = Files.createDirectories(fDirectory);
+    fJournal = MovieJournal.open(directory.resolve(MovieSegments.INDEX));
+    fJournalNeedsFolding = true;
+  }
+
+  /** Return <tt>true</tt> only if the files are shared through a journal. */
+  boolean isShared(){
+    return fJournal != null;
+  }
+
+  /** Stop sharing the files. */
+  void closeJournal(){
+    MovieJournal journal = fJournal;
+    fJournal = null;
+    fJournalNeedsFolding = false;
+    if ( journal != null ) {
+      journal.close();
+    }
+  }
+
+  /** Lock the journal, if the files are shared. See {@link MovieJournal#lock(boolean)}. */
+  void lock(boolean aShared) throws IOException {
+    if ( fJournal != null ) {
+      fJournal.lock(aShared);
+    }
+  }
+
+  void unlock() throws IOException {
+    if ( fJournal != null ) {
+      fJournal.unlock();
+    }
+  }
+
+  /** The index of the saved movies and their journal, or an empty list if they're not shared. */
+  List<Path> getSharedFiles(){
+    if ( fJournal == null ) return Collections.emptyList();
+    return Arrays.asList(fJournal.getSavedFile(), fJournal.getJournalFile());
+  }
+
+  /**
+   Read the whole journal, or empty it, if it's older than the saved movies. The edits are
+   remembered as unsaved, and their ids as used.
+  */
+  List<Edit> readJournalFromStart() throws IOException {
+    if ( fJournal == null ) return Collections.emptyList();
+    if ( fJournal.isStale() ) {
+      //written before the movies were last saved, so already part of them
+      fJournal.reset(Collections.<String>emptyList());
+      return Collections.emptyList();
+    }
+    List<String> lines = fJournal.readAll();
+    if ( ! lines.isEmpty() ) {
+      fJournalNeedsFolding = true;
+    }
+    return toEdits(lines);
+  }
+
+  /**
+   Return <tt>true</tt> only if another instance has saved the movies, and emptied the
+   journal, since it was last read.
+  */
+  boolean wasReset() throws IOException {
+    return fJournal != null && fJournal.wasReset();
+  }
+
+  /** Read the edits appended to the journal by other instances, as {@link #readJournalFromStart()} does. */
+  List<Edit> readEditsByOthers() throws IOException {
+    if ( fJournal == null ) return Collections.emptyList();
+    List<String> lines = fJournal.readNewLines();
+    if ( ! lines.isEmpty() ) {
+      fJournalNeedsFolding = true;
+    }
+    return toEdits(lines);
+  }
+
+  /** Append the changes to the journal, if the files are shared. Once there, they're saved. */
+  void writeToJournal(List<EditHistory.Change> aChanges) throws IOException {
+    if ( fJournal == null || aChanges.isEmpty() ) return;
+    List<String> lines = new ArrayList<>();
+    for(EditHistory.Change change : aChanges){
+      String segmentBefore = change.fBefore == null ? NEW : segmentBefore(change);
+      StringBuilder line = new StringBuilder();
+      if ( change.fAfter == null ) {
+        line.append(DELETE).append(change.fBefore.getId()).append(MovieDAO.DELIMITER).append(segmentBefore);
+      }
+      else {
+        line.append(PUT).append(change.fAfter.getId()).append(MovieDAO.DELIMITER);
+        line.append(segmentBefore).append(MovieDAO.DELIMITER);
+        MovieDAO.appendTo(line, change.fAfter, "");
+      }
+      lines.add(line.toString());
+    }
+    append(lines);
+  }
+
+  /** Record in the journal, if the files are shared, that the ids up to the given id are used. */
+  void reserveInJournal(int aId) throws IOException {
+    if ( fJournal == null ) return;
+    append(Collections.singletonList(RESERVED + aId));
+  }
+
+  /**
+   Return <tt>true</tt> while the journal may hold edits not yet folded into the files of
+   each year. Set when the journal is opened or has new edits, and cleared once it's folded,
+   or once {@link #canFold()} is <tt>false</tt>. May be called from any thread.
+  */
+  boolean needsFolding(){
+    return fJournalNeedsFolding;
+  }
+
+  /**
+   Return <tt>true</tt> only if the journal has edits to fold into the files (or all files are
+   to be saved), and no other instance of the app is using them. Otherwise, there is nothing
+   to do : every edit is already in the journal, and the last instance to shut down folds it.
+   The caller must have locked the journal exclusively.
+  */
+  boolean canFold() throws IOException {
+    boolean result = fJournal != null && (fJournal.hasEdits() || fSaveAll) && fJournal.isOnlyInstance();
+    if ( ! result ) {
+      fJournalNeedsFolding = false;
+    }
+    return result;
+  }
+
+  /** Empty the journal, after its edits have been saved in the files of each year. */
+  void emptyJournal() throws IOException {
+    fJournal.reset(Collections.<String>emptyList());
+    fJournalNeedsFolding = false;
+  }
+
+  // PRIVATE
+  private final Path fDirectory;
+  /** The saved movies. Null if they can't be read. */
+  private MovieSegments fSegments;
+  /** Non-null only while the movies files are shared through a journal. */
+  private MovieJournal fJournal;
+  /** See {@link #needsFolding()}. */
+  private volatile boolean fJournalNeedsFolding;
+  /**
+   Each movie edited since the segments were last saved, in its latest version, or null if
+   deleted. Kept even when its segment is dropped from memory, until it's saved.
+  */
+  private final Map<Integer, Movie> fUnsaved = new HashMap<>();
+  /** The segments changed by the unsaved edits, both those the movies left and joined. */
+  private final Set<String> fChangedSegments = new HashSet<>();
+  /** Every segment is saved, not just those changed. */
+  private boolean fSaveAll;
+  /** Segments which could not be read. They're never written, so as not to lose their movies. */
+  private final Set<String> fUnreadable = new HashSet<>();
+
+  /** At startup, read in at least this many years, and at least this many movies, if there are so many. */
+  private static final int MIN_YEARS_AT_STARTUP = 2;
+  private static final int MIN_MOVIES_AT_STARTUP = 1000;
+  /*
+   The kinds of line in the journal : a movie added or changed, a movie deleted, and ids reserved.
+   The first two give the movie's segment before the edit, or NEW.
+  */
+  private static final String PUT = "P" + MovieDAO.DELIMITER;
+  private static final String DELETE = "D" + MovieDAO.DELIMITER;
+  private static final String RESERVED = "R" + MovieDAO.DELIMITER;
+  private static final String NEW = "-";
+  private static final Logger fLogger = Util.getLogger(MovieFiles.class);
+
+  private void append(List<String> aLines) throws IOException {
+    fJournal.append(aLines);
+    fJournalNeedsFolding = true;
+  }
+
+  /**
+   @param aSegmentBefore possibly-null; null for a new movie
+   @param aAfter possibly-null; null for a deleted movie
+  */
+  private void recordUnsaved(Integer aId, String aSegmentBefore, Movie aAfter){
+    if ( fSegments == null ) return;
+    fUnsaved.put(aId, aAfter);
+    if ( aSegmentBefore != null ) {
+      fChangedSegments.add(aSegmentBefore);
+    }
+    if ( aAfter != null ) {
+      fChangedSegments.add(MovieSegments.segmentOf(aAfter));
+    }
+  }
+
+  private static String segmentBefore(EditHistory.Change aChange){
+    return aChange.fBefore == null ? null : MovieSegments.segmentOf(aChange.fBefore);
+  }
+
+  /**
+   The edits made by lines of the journal. Each is remembered as unsaved, and its id as used.
+   A line which can't be read is skipped.
+  */
+  private List<Edit> toEdits(List<String> aLines){
+    List<Edit> result = new ArrayList<>();
+    for(final String line : aLines){
+      try {
+        if ( line.startsWith(RESERVED) ) {
+          MovieDAO.reserveUpTo(Integer.parseInt(line.substring(RESERVED.length())));
+          continue;
+        }
+        int idStart = line.startsWith(PUT) ? PUT.length() : DELETE.length();
+        int idEnd = line.indexOf(MovieDAO.DELIMITER, idStart);
+        int segmentEnd = line.indexOf(MovieDAO.DELIMITER, idEnd + 1);
+        Integer id = Integer.valueOf(line.substring(idStart, idEnd));
+        String segmentBefore = line.substring(idEnd + 1, segmentEnd < 0 ? line.length() : segmentEnd);
+        Movie after = null;
+        if ( line.startsWith(PUT) ) {
+          after = MovieDAO.parseLine(line.substring(segmentEnd + 1), String.valueOf(id));
+          MovieDAO.reserveUpTo(id);
+        }
+        else if ( ! line.startsWith(DELETE) ) {
+          throw new NoSuchElementException();
+        }
+        recordUnsaved(id, NEW.equals(segmentBefore) ? null : segmentBefore, after);
+        result.add(new Edit(id, after));
+      }
+      catch (InvalidInputException | RuntimeException ex) {
+        fLogger.severe(new Supplier<String>(){
+          @Override public String get() {
+            return "Journal: Not in expected format: " + line;
+          }
+        });
+      }
+    }
+    return result;
+  }
+}
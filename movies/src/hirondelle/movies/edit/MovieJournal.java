@@ -0,0 +1,344 @@
+package hirondelle.movies.edit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+/**
+ Append-only log of the edits made to the saved movies, shared by all instances of the app
+ which have them open.
+
+ <P>Each edit is appended to the journal as soon as it's made, one line per movie. Other
+ instances then read only the lines added since they last looked (they <em>tail</em> the
+ journal), and never need to read the saved movies again. When the last instance
+ saves, the journal is folded into the saved movies, and emptied.
+
+ <P>The saved movies are identified by a single file, which is replaced whenever they're 
+ saved (see {@link MovieSegments}). The first line of the journal identifies the version of 
+ that file it applies to (its size and time of last modification). A journal which doesn't 
+ match the saved file was written before the movies were last saved, and so is already 
+ part of them.
+
+ <P>A lock file, <tt>journal.lck</tt>, next to the saved file, coordinates the instances, using
+ {@link FileChannel} locks. Every instance holds a shared lock on its first byte for as long
+ as it runs, so only an instance which can lock that byte exclusively is running alone.
+ The second byte guards both the journal and the saved movies : shared for reading, and
+ exclusive for writing. (The saved files themselves can't be locked, since saving them 
+ replaces them with new files.)
+
+ <P>When the movies are encrypted (see {@link MovieEncryption}), each line after the first 
+ is encrypted on its own, as it's appended. A line which isn't encrypted is then refused.
+
+ <P>This class is not thread-safe.
+*/
+final class MovieJournal {
+
+  /**
+   Open the journal of the movies saved in the given file, creating it if needed, and 
+   register this instance as one of its users.
+  */
+  static MovieJournal open(Path aSavedFile) throws IOException {
+    Path savedFile = aSavedFile.toAbsolutePath();
+    FileChannel lockFile = FileChannel.open(
+      savedFile.resolveSibling(LOCK_FILE),
+      StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+    );
+    try {
+      FileLock running = lockFile.lock(RUNNING, 1, SHARED);
+      FileChannel journal = FileChannel.open(
+        savedFile.resolveSibling(JOURNAL_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+      );
+      return new MovieJournal(savedFile, lockFile, running, journal);
+    }
+    catch (IOException ex) {
+      lockFile.close();
+      throw ex;
+    }
+  }
+
+  /** The file which identifies the saved movies. */
+  Path getSavedFile(){
+    return fSavedFile;
+  }
+
+  /** The journal file, next to the saved file. */
+  Path getJournalFile(){
+    return fSavedFile.resolveSibling(JOURNAL_FILE);
+  }
+
+  /** 
+   Lock the journal and the saved movies against other instances. Edits are made on the Event 
+   Dispatch Thread, so this never blocks in the operating system : it tries to lock, and 
+   pauses briefly between tries. Another instance holds the lock only while it appends to the 
+   journal, or reads it. If the lock can't be taken within a few seconds, or the thread is 
+   interrupted, then this gives up, and throws an exception.
+  */
+  void lock(boolean aShared) throws IOException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOCK_TIMEOUT_MILLIS);
+    long pause = 1;
+    while ( (fEditing = fLockFile.tryLock(EDITING, 1, aShared)) == null ) {
+      if ( System.nanoTime() > deadline ) {
+        throw new IOException("Another instance of the app has kept the movies files locked for too long.");
+      }
+      try {
+        Thread.sleep(pause);
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting to lock the movies files.", ex);
+      }
+      pause = Math.min(2 * pause, MAX_LOCK_PAUSE_MILLIS);
+    }
+  }
+
+  /** Release the lock taken by {@link #lock(boolean)}, if any. */
+  void unlock() throws IOException {
+    if ( fEditing != null ) {
+      fEditing.release();
+      fEditing = null;
+    }
+  }
+
+  /** Return <tt>true</tt> only if the journal doesn't match the current saved file. */
+  boolean isStale() throws IOException {
+    return ! readHeader().equals(stampOf(fSavedFile));
+  }
+
+  /**
+   Return <tt>true</tt> only if the journal has been emptied by another instance since it
+   was last read. The movies have then been saved, and must be read in again.
+  */
+  boolean wasReset() throws IOException {
+    return fHeader == null || fJournal.size() < fOffset || ! readHeader().equals(fHeader);
+  }
+
+  /** Return <tt>true</tt> only if the journal has any edits. */
+  boolean hasEdits() throws IOException {
+    return fJournal.size() > readHeader().length() + 1;
+  }
+
+  /** Read all the lines of the journal, after its first line. */
+  List<String> readAll() throws IOException {
+    fHeader = readHeader();
+    fOffset = fHeader.length() + 1;
+    return readNewLines();
+  }
+
+  /**
+   Read the lines added since the journal was last read or written. A line still being
+   written is left for the next call.
+  */
+  List<String> readNewLines() throws IOException {
+    long size = fJournal.size();
+    if ( size <= fOffset ) return Collections.emptyList();
+    ByteBuffer buffer = ByteBuffer.allocate((int)(size - fOffset));
+    while ( buffer.hasRemaining() ) {
+      if ( fJournal.read(buffer, fOffset + buffer.position()) < 0 ) break;
+    }
+    byte[] bytes = buffer.array();
+    int end = buffer.position() - 1;
+    while ( end >= 0 && bytes[end] != NEW_LINE ) {
+      --end;
+    }
+    if ( end < 0 ) return Collections.emptyList();
+    fOffset = fOffset + end + 1;
+    return decrypt(splitLines(new String(bytes, 0, end + 1, ENCODING)));
+  }
+
+  /**
+   Add lines to the end of the journal. The caller must hold an exclusive lock, and must
+   first have read all lines written by other instances.
+  */
+  void append(List<String> aLines) throws IOException {
+    long end = fJournal.size();
+    write(join(encrypt(aLines)), end);
+    fOffset = fJournal.size();
+  }
+
+  /**
+   Empty the journal, to match the movies just saved, and then add the given lines.
+   The caller must hold an exclusive lock.
+  */
+  void reset(List<String> aLines) throws IOException {
+    fJournal.truncate(0);
+    fHeader = stampOf(fSavedFile);
+    List<String> lines = new ArrayList<>();
+    lines.add(fHeader);
+    lines.addAll(encrypt(aLines));
+    write(join(lines), 0);
+    fOffset = fJournal.size();
+  }
+
+  /** Return <tt>true</tt> only if no other instance is using the saved movies. */
+  boolean isOnlyInstance() throws IOException {
+    //an exclusive lock would overlap this instance's own shared lock
+    fRunning.release();
+    FileLock alone = null;
+    try {
+      alone = fLockFile.tryLock(RUNNING, 1, ! SHARED);
+    }
+    finally {
+      if ( alone != null ) {
+        alone.release();
+      }
+      fRunning = fLockFile.lock(RUNNING, 1, SHARED);
+    }
+    return alone != null;
+  }
+
+  /**
+   Encrypt the lines of the journal in the given directory which aren't encrypted yet, after 
+   its first line. Used only when the movies are first encrypted, before any instance of 
+   the app has opened the journal. Does nothing if there is no journal.
+  */
+  static void encryptPlainLines(Path aDirectory, SecretKey aKey) throws IOException {
+    Path file = aDirectory.resolve(JOURNAL_FILE);
+    if ( ! Files.exists(file) ) return;
+    List<String> lines = splitLines(new String(Files.readAllBytes(file), ENCODING));
+    for(int idx = 1; idx < lines.size(); ++idx){
+      if ( ! lines.get(idx).startsWith(EncryptedFile.ENCRYPTED_LINE) ) {
+        lines.set(idx, EncryptedFile.encryptLine(lines.get(idx), aKey));
+      }
+    }
+    Files.write(file, join(lines).getBytes(ENCODING));
+  }
+
+  /** Stop using the journal. Releases all locks. */
+  void close(){
+    try {
+      fJournal.close();
+      fLockFile.close();
+    }
+    catch (IOException ex) {
+      //nothing more can be done
+    }
+  }
+
+  // PRIVATE
+  private final Path fSavedFile;
+  private final FileChannel fLockFile;
+  private final FileChannel fJournal;
+  /** True only if the movies are encrypted. */
+  private final boolean fIsEncrypted;
+  private FileLock fRunning;
+  private FileLock fEditing;
+  /** The first line of the journal, when it was last read or written. */
+  private String fHeader;
+  /** The position just after the last line read or written. */
+  private long fOffset;
+
+  private static final String LOCK_FILE = "journal.lck";
+  private static final String JOURNAL_FILE = "journal.txt";
+  /** Positions in the lock file. */
+  private static final long RUNNING = 0;
+  private static final long EDITING = 1;
+  private static final boolean SHARED = true;
+  private static final long LOCK_TIMEOUT_MILLIS = 10000;
+  private static final long MAX_LOCK_PAUSE_MILLIS = 20;
+  private static final byte NEW_LINE = '\n';
+  private static final int MAX_HEADER_BYTES = 128;
+  private static final String NO_SAVED_FILE = "#none";
+  private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+  private MovieJournal(Path aSavedFile, FileChannel aLockFile, FileLock aRunning, FileChannel aJournal){
+    fSavedFile = aSavedFile;
+    fLockFile = aLockFile;
+    fRunning = aRunning;
+    fJournal = aJournal;
+    fIsEncrypted = MovieEncryption.isRequiredIn(aSavedFile.getParent());
+  }
+
+  /** Identifies a version of the saved file. Saving replaces it with a new one. */
+  private static String stampOf(Path aSavedFile) throws IOException {
+    if ( ! Files.exists(aSavedFile) ) return NO_SAVED_FILE;
+    return "#" + Files.size(aSavedFile) + "|" + Files.getLastModifiedTime(aSavedFile).toMillis();
+  }
+
+  /** The first line of the journal, or an empty string if there is none. */
+  private String readHeader() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_BYTES);
+    fJournal.read(buffer, 0);
+    byte[] bytes = buffer.array();
+    for(int idx = 0; idx < buffer.position(); ++idx){
+      if ( bytes[idx] == NEW_LINE ) {
+        return new String(bytes, 0, idx, ENCODING);
+      }
+    }
+    return "";
+  }
+
+  private void write(String aText, long aPosition) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(aText.getBytes(ENCODING));
+    long position = aPosition;
+    while ( buffer.hasRemaining() ) {
+      position = position + fJournal.write(buffer, position);
+    }
+  }
+
+  private static String join(List<String> aLines){
+    StringBuilder result = new StringBuilder();
+    for(String line : aLines){
+      result.append(line).append((char)NEW_LINE);
+    }
+    return result.toString();
+  }
+
+  private List<String> encrypt(List<String> aLines) throws IOException {
+    SecretKey key = MovieEncryption.getKey();
+    if ( key == null && fIsEncrypted ) throw new IOException("The journal is encrypted, but no password was given.");
+    if ( key == null ) return aLines;
+    List<String> result = new ArrayList<>(aLines.size());
+    for(String line : aLines){
+      result.add(EncryptedFile.encryptLine(line, key));
+    }
+    return result;
+  }
+
+  private List<String> decrypt(List<String> aLines) throws IOException {
+    SecretKey key = MovieEncryption.getKey();
+    List<String> result = new ArrayList<>(aLines.size());
+    for(String line : aLines){
+      if ( line.startsWith(EncryptedFile.ENCRYPTED_LINE) ) {
+        if ( key == null ) throw new IOException("The journal is encrypted, but no password was given.");
+        result.add(EncryptedFile.decryptLine(line, key));
+      }
+      else if ( fIsEncrypted ) {
+        throw new IOException("The journal has a line which is not encrypted.");
+      }
+      else {
+        result.add(line);
+      }
+    }
+    return result;
+  }
+
+  private static List<String> splitLines(String aText){
+    List<String> result = new ArrayList<>();
+    int start = 0;
+    int end = 0;
+    while ( (end = aText.indexOf(NEW_LINE, start)) != -1 ) {
+      String line = aText.substring(start, end);
+      if ( line.endsWith("\r") ) {
+        line = line.substring(0, line.length() - 1);
+      }
+      if ( line.length() > 0 ) {
+        result.add(line);
+      }
+      start = end + 1;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,438 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.exception.InvalidInputException;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ A query over the fields of {@link Movie}, such as 
+ <PRE>rating &gt;= 8 and viewed in 2015..2018 and comment ~ "director's cut"</PRE>
+ See {@link QueryParser} for the full syntax.
+
+ <P>The text is parsed once, into a tree of {@link Node}s. The tree is then <em>compiled</em> : 
+ each condition becomes a small {@link Predicate}, specialized for its field and comparison, 
+ which reads the movie's fields directly, as numbers where possible (the day viewed, and the 
+ rating in tenths). Nothing is looked up, converted or allocated per movie, and the tree is 
+ never walked again. The conditions joined by <tt>and</tt> or <tt>or</tt> are tested cheapest 
+ first.
+
+ <P>When many movies are searched, the query is first <em>planned</em> ({@link #plan}). 
+ The movies are kept in their natural order, by date viewed, so a condition on the date 
+ viewed, joined to the rest with <tt>and</tt>, selects a range of them by binary search. 
+ When the rows are sorted by rating, a condition on the rating does the same. Only the 
+ rest of the query is tested for each movie.
+
+ <P>This class is immutable.
+*/
+public final class MovieQuery {
+
+  /** Parse the given text. */
+  public static MovieQuery parse(String aText) throws InvalidInputException {
+    return new MovieQuery(aText, QueryParser.parse(aText));
+  }
+
+  /** Return <tt>true</tt> only if the given movie matches the query. */
+  public boolean matches(Movie aMovie){
+    return fPredicate.test(aMovie);
+  }
+
+  /** The text the query was parsed from. */
+  @Override public String toString(){
+    return fText;
+  }
+
+  /**
+   The first day a matching movie can have been viewed, counted from 1970-01-01, 
+   or {@link Movie#NO_DATE} if there's no such day. 
+  */
+  int getEarliestDay(){
+    return fEarliestDay;
+  }
+
+  /** The parsed query. */
+  Node getRoot(){
+    return fRoot;
+  }
+
+  /*
+   Fields, in the same order as the columns of the table.
+  */
+  static final int TITLE = 0;
+  static final int VIEWED = 1;
+  static final int RATING = 2;
+  static final int COMMENT = 3;
+  static final String[] FIELD_NAMES = {"title", "viewed", "rating", "comment"};
+
+  /** A node of a parsed query. */
+  static final class Node {
+    static final int AND = 0;
+    static final int OR = 1;
+    static final int NOT = 2;
+    /** The day viewed or the rating (in tenths) is between the low and high values, inclusive. */
+    static final int RANGE = 3;
+    /** The title or comment contains the text, ignoring case. */
+    static final int CONTAINS = 4;
+    /** The title or comment is the text, ignoring case. */
+    static final int EQUALS = 5;
+    
+    static Node of(int aKind, List<Node> aChildren){
+      return new Node(aKind, NO_FIELD, 0, 0, null, aChildren);
+    }
+    static Node not(Node aChild){
+      return new Node(NOT, NO_FIELD, 0, 0, null, Collections.singletonList(aChild));
+    }
+    static Node range(int aField, int aLow, int aHigh){
+      return new Node(RANGE, aField, aLow, aHigh, null, Collections.<Node>emptyList());
+    }
+    static Node text(int aKind, int aField, String aText){
+      return new Node(aKind, aField, 0, 0, aText, Collections.<Node>emptyList());
+    }
+    
+    final int fKind;
+    final int fField;
+    final int fLow;
+    final int fHigh;
+    final String fText;
+    final List<Node> fChildren;
+
+    @Override public String toString(){
+      if ( fKind == AND || fKind == OR ) {
+        StringBuilder result = new StringBuilder("(");
+        for(Node child : fChildren){
+          if ( result.length() > 1 ) result.append(fKind == AND ? " and " : " or ");
+          result.append(child);
+        }
+        return result.append(")").toString();
+      }
+      if ( fKind == NOT ) return "not " + fChildren.get(0);
+      String field = FIELD_NAMES[fField];
+      if ( fKind == CONTAINS ) return field + " ~ \"" + fText + "\"";
+      if ( fKind == EQUALS ) return field + " = \"" + fText + "\"";
+      return fField == VIEWED ? 
+        field + " in " + dateOf(fLow) + ".." + dateOf(fHigh) : 
+        field + " in " + fLow / 10.0 + ".." + fHigh / 10.0
+      ;
+    }
+    
+    private Node(int aKind, int aField, int aLow, int aHigh, String aText, List<Node> aChildren){
+      fKind = aKind;
+      fField = aField;
+      fLow = aLow;
+      fHigh = aHigh;
+      fText = aText;
+      fChildren = aChildren;
+    }
+    private static String dateOf(int aDay){
+      if ( aDay <= Movie.NO_DATE + 1 ) return "";
+      if ( aDay == Integer.MAX_VALUE ) return "";
+      return LocalDate.ofEpochDay(aDay).toString();
+    }
+  }
+
+  /** How to find the rows which match a query, among rows in a given order. */
+  static final class Plan {
+    /** The rows to test : all the rows given, or a range of them found by binary search. */
+    int[] getRows(){
+      return fRows;
+    }
+    /** Return <tt>true</tt> only if the movie at the given index in the list of movies matches. */
+    boolean accepts(int aIndex, Movie aMovie){
+      return aIndex >= fFrom && aIndex < fTo && fResidual.test(aMovie);
+    }
+    @Override public String toString(){
+      return "Index: " + fIndex + ". Then test: " + fResidualText + ".";
+    }
+    
+    private Plan(int[] aRows, int aFrom, int aTo, Predicate<Movie> aResidual, String aIndex, String aResidualText){
+      fRows = aRows;
+      fFrom = aFrom;
+      fTo = aTo;
+      fResidual = aResidual;
+      fIndex = aIndex;
+      fResidualText = aResidualText;
+    }
+    private final int[] fRows;
+    /** The range of indexes which can match, in the list of movies. */
+    private final int fFrom;
+    private final int fTo;
+    private final Predicate<Movie> fResidual;
+    private final String fIndex;
+    private final String fResidualText;
+  }
+
+  /**
+   Plan how to find the matching movies.
+   @param aMovies all movies, in their natural order
+   @param aRows possibly-null; indexes into <tt>aMovies</tt>, in the given order. Null means 
+   all of them, in their natural order.
+   @param aOrder possibly-null; the order of the rows, as one of the comparators defined by 
+   {@link Movie}. Null means the natural order.
+   @param aDescending the order is reversed
+  */
+  Plan plan(final List<Movie> aMovies, final int[] aRows, Comparator<Movie> aOrder, boolean aDescending){
+    List<Node> conjuncts = fRoot.fKind == Node.AND ? fRoot.fChildren : Collections.singletonList(fRoot);
+    int[] days = intersect(conjuncts, VIEWED);
+    int[] ratings = intersect(conjuncts, RATING);
+    //the natural order is by day viewed, newest first, so a range of days is a range of indexes
+    int from = 0;
+    int to = aMovies.size();
+    if ( days != null ) {
+      Key dayOf = new Key(){
+        @Override public long at(int aIndex) {
+          return -(long)aMovies.get(aIndex).getDayViewed();
+        }
+      };
+      from = firstAtLeast(0, aMovies.size(), dayOf, -(long)days[1]);
+      to = firstAtLeast(from, aMovies.size(), dayOf, -(long)days[0] + 1);
+    }
+    int[] rows = null;
+    String index = "none";
+    boolean byRating = false;
+    if ( aRows == null ) {
+      rows = new int[to - from];
+      for(int idx = 0; idx < rows.length; ++idx){
+        rows[idx] = from + idx;
+      }
+      if ( days != null ) index = "viewed, by the natural order";
+    }
+    else if ( aOrder == null && days != null ) {
+      rows = slice(aRows, indexKey(aRows, aDescending), from, to - 1, aDescending);
+      index = "viewed, by the natural order";
+    }
+    else if ( aOrder == Movie.RATING_SORT && ratings != null ) {
+      //the rating sort is from the highest rating down
+      rows = slice(aRows, ratingKey(aMovies, aRows, ! aDescending), ratings[0], ratings[1], ! aDescending);
+      index = "rating, by the sort order";
+      byRating = true;
+    }
+    else {
+      rows = aRows;
+    }
+    List<Node> residual = new ArrayList<>();
+    for(Node node : conjuncts){
+      boolean isDone = node.fKind == Node.RANGE && (node.fField == VIEWED || (byRating && node.fField == RATING));
+      if ( ! isDone ) {
+        residual.add(node);
+      }
+    }
+    Predicate<Movie> test = residual.isEmpty() ? ALL : compile(residual.size() == 1 ? residual.get(0) : Node.of(Node.AND, residual));
+    String text = residual.isEmpty() ? "nothing" : (residual.size() == 1 ? residual.get(0) : Node.of(Node.AND, residual)).toString();
+    return new Plan(rows, from, to, test, index + " (" + rows.length + " rows)", text);
+  }
+
+  // PRIVATE
+  private final String fText;
+  private final Node fRoot;
+  private final Predicate<Movie> fPredicate;
+  private final int fEarliestDay;
+
+  private static final int NO_FIELD = -1;
+
+  private static final Predicate<Movie> ALL = new Predicate<Movie>(){
+    @Override public boolean test(Movie aMovie) {
+      return true;
+    }
+  };
+
+  private MovieQuery(String aText, Node aRoot){
+    fText = aText;
+    fRoot = aRoot;
+    fPredicate = compile(aRoot);
+    int[] days = intersect(aRoot.fKind == Node.AND ? aRoot.fChildren : Collections.singletonList(aRoot), VIEWED);
+    fEarliestDay = days == null ? Movie.NO_DATE : days[0];
+  }
+
+  /** The range of values allowed by all the ranges of the given field, or null if there are none. */
+  private static int[] intersect(List<Node> aConjuncts, int aField){
+    int[] result = null;
+    for(Node node : aConjuncts){
+      if ( node.fKind == Node.RANGE && node.fField == aField ) {
+        result = result == null ? 
+          new int[] {node.fLow, node.fHigh} : 
+          new int[] {Math.max(result[0], node.fLow), Math.min(result[1], node.fHigh)}
+        ;
+      }
+    }
+    return result;
+  }
+
+  /** A value which never decreases from one position to the next. */
+  private interface Key {
+    long at(int aPosition);
+  }
+
+  /** The first position from aFrom whose key is at least the given value, or aTo if none. */
+  private static int firstAtLeast(int aFrom, int aTo, Key aKey, long aValue){
+    int low = aFrom;
+    int high = aTo;
+    while ( low < high ) {
+      int middle = (low + high) >>> 1;
+      if ( aKey.at(middle) < aValue ) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /** 
+   The rows whose values are from aLow to aHigh, inclusive. If the rows are in descending 
+   order, then the key is the negated value. 
+  */
+  private static int[] slice(int[] aRows, Key aKey, int aLow, int aHigh, boolean aDescending){
+    long low = aDescending ? -(long)aHigh : aLow;
+    long high = aDescending ? -(long)aLow : aHigh;
+    int from = firstAtLeast(0, aRows.length, aKey, low);
+    int to = firstAtLeast(from, aRows.length, aKey, high + 1);
+    return Arrays.copyOfRange(aRows, from, to);
+  }
+
+  /** The index of each row, negated if descending, so that it never decreases. */
+  private static Key indexKey(final int[] aRows, final boolean aDescending){
+    return new Key(){
+      @Override public long at(int aPosition) {
+        return aDescending ? -(long)aRows[aPosition] : aRows[aPosition];
+      }
+    };
+  }
+
+  /** The rating of each row, negated if descending, so that it never decreases. */
+  private static Key ratingKey(final List<Movie> aMovies, final int[] aRows, final boolean aDescending){
+    return new Key(){
+      @Override public long at(int aPosition) {
+        int rating = aMovies.get(aRows[aPosition]).getRatingTenths();
+        return aDescending ? -rating : rating;
+      }
+    };
+  }
+
+  /** Compile a node into a predicate. */
+  private static Predicate<Movie> compile(Node aNode){
+    if ( aNode.fKind == Node.AND || aNode.fKind == Node.OR ) {
+      List<Node> children = new ArrayList<>(aNode.fChildren);
+      Collections.sort(children, CHEAPEST_FIRST);
+      final Predicate<Movie>[] tests = compileAll(children);
+      if ( aNode.fKind == Node.AND ) {
+        return new Predicate<Movie>(){
+          @Override public boolean test(Movie aMovie) {
+            for(Predicate<Movie> test : tests){
+              if ( ! test.test(aMovie) ) return false;
+            }
+            return true;
+          }
+        };
+      }
+      return new Predicate<Movie>(){
+        @Override public boolean test(Movie aMovie) {
+          for(Predicate<Movie> test : tests){
+            if ( test.test(aMovie) ) return true;
+          }
+          return false;
+        }
+      };
+    }
+    if ( aNode.fKind == Node.NOT ) {
+      final Predicate<Movie> test = compile(aNode.fChildren.get(0));
+      return new Predicate<Movie>(){
+        @Override public boolean test(Movie aMovie) {
+          return ! test.test(aMovie);
+        }
+      };
+    }
+    final int low = aNode.fLow;
+    final int high = aNode.fHigh;
+    final String text = aNode.fText;
+    if ( aNode.fKind == Node.RANGE && aNode.fField == VIEWED ) {
+      return new Predicate<Movie>(){
+        @Override public boolean test(Movie aMovie) {
+          int day = aMovie.getDayViewed();
+          return day >= low && day <= high;
+        }
+      };
+    }
+    if ( aNode.fKind == Node.RANGE ) {
+      return new Predicate<Movie>(){
+        @Override public boolean test(Movie aMovie) {
+          int rating = aMovie.getRatingTenths();
+          return rating >= low && rating <= high;
+        }
+      };
+    }
+    if ( aNode.fKind == Node.CONTAINS && aNode.fField == TITLE ) {
+      return new Predicate<Movie>(){
+        @Override public boolean test(Movie aMovie) {
+          return containsIgnoringCase(aMovie.getTitle(), text);
+        }
+      };
+    }
+    if ( aNode.fKind == Node.CONTAINS ) {
+      return new Predicate<Movie>(){
+        @Override public boolean test(Movie aMovie) {
+          return containsIgnoringCase(aMovie.getComment(), text);
+        }
+      };
+    }
+    if ( aNode.fField == TITLE ) {
+      return new Predicate<Movie>(){
+        @Override public boolean test(Movie aMovie) {
+          return text.equalsIgnoreCase(aMovie.getTitle());
+        }
+      };
+    }
+    return new Predicate<Movie>(){
+      @Override public boolean test(Movie aMovie) {
+        return text.equalsIgnoreCase(aMovie.getComment());
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Predicate<Movie>[] compileAll(List<Node> aNodes){
+    Predicate<Movie>[] result = (Predicate<Movie>[])new Predicate<?>[aNodes.size()];
+    for(int idx = 0; idx < result.length; ++idx){
+      result[idx] = compile(aNodes.get(idx));
+    }
+    return result;
+  }
+
+  /** Comparing numbers is cheaper than comparing text, which is cheaper than searching it. */
+  private static int costOf(Node aNode){
+    if ( aNode.fKind == Node.RANGE ) return 1;
+    if ( aNode.fKind == Node.EQUALS ) return 2;
+    if ( aNode.fKind == Node.CONTAINS ) return 4;
+    int result = 0;
+    for(Node child : aNode.fChildren){
+      result = result + costOf(child);
+    }
+    return result;
+  }
+
+  private static final Comparator<Node> CHEAPEST_FIRST = new Comparator<Node>(){
+    @Override public int compare(Node aThis, Node aThat) {
+      return Integer.compare(costOf(aThis), costOf(aThat));
+    }
+  };
+
+  /** Like <tt>toLowerCase().contains()</tt>, without building new strings. */
+  private static boolean containsIgnoringCase(String aText, String aPart){
+    if ( aText == null ) return false;
+    int length = aPart.length();
+    if ( length == 0 ) return true;
+    char first = aPart.charAt(0);
+    char lower = Character.toLowerCase(first);
+    char upper = Character.toUpperCase(first);
+    for(int idx = 0; idx <= aText.length() - length; ++idx){
+      char c = aText.charAt(idx);
+      if ( (c == lower || c == upper || c == first) && aText.regionMatches(true, idx, aPart, 0, length) ) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,464 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.exception.ValidationResult;
+import hirondelle.movies.recording.LoadEvent;
+import hirondelle.movies.recording.WriteFileEvent;
+import hirondelle.movies.util.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import javax.crypto.SecretKey;
+
+/**
+ The saved movies of a user, split into one file per year.
+
+ <P>The files are kept in a directory named <tt>movie_list_for_&lt;<em>user name</em>&gt;</tt>.
+ Each <em>segment</em> file holds the movies viewed in a given year, as
+ <tt>&lt;year&gt;.txt</tt>. Movies with no date viewed are kept in <tt>undated.txt</tt>.
+ Each line is a single movie, in the same format as the old single movies file, but starting
+ with the movie's id. Ids are saved, so a movie keeps its id when its segment is read in
+ again, and all instances of the app agree on it.
+
+ <P>The file <tt>index.txt</tt> lists the segments, with the number of movies in each,
+ and the next id to be assigned. It's written last when saving, and so the index changes
+ whenever the saved movies do. It lets the app know how many movies there are, without
+ reading them all.
+
+ <P>Saving is all or nothing. Every file is first written in full to a temporary file, and
+ the new index is then renamed to <tt>index.txt.new</tt>. Only after that are the old files
+ replaced, and the index last of all. If the app stops part way through, the next instance
+ to read the index either drops the temporary files (the save never took place), or finishes
+ the save (the new index is there).
+
+ <P>When the movies are encrypted (see {@link MovieEncryption}), the file of each year is
+ encrypted, and streamed to disk as it's written. The index is not encrypted. A file of a
+ year which isn't encrypted is then refused.
+
+ <P>This class is not thread-safe.
+*/
+final class MovieSegments {
+
+  /** The segment of the movies which have no date viewed. Older than any year. */
+  static final String UNDATED = "undated";
+  
+  /** Newer than any year. Not a real segment. */
+  static final String NEWEST = String.valueOf(Integer.MAX_VALUE);
+  
+  /** The name of the index file. Its path identifies the saved movies. */
+  static final String INDEX = "index.txt";
+
+  /** Newest year first, and the undated movies last. The same order as the natural order of {@link Movie}. */
+  static final Comparator<String> NEWEST_FIRST = new Comparator<String>(){
+    @Override public int compare(String aThis, String aThat) {
+      if ( aThis.equals(aThat) ) return 0;
+      if ( UNDATED.equals(aThis) ) return 1;
+      if ( UNDATED.equals(aThat) ) return -1;
+      return Integer.compare(Integer.parseInt(aThat), Integer.parseInt(aThis));
+    }
+  };
+
+  /** Constructor. Finishes any save which was interrupted, and reads the index, if there is one. */
+  MovieSegments(Path aDirectory) throws IOException {
+    fDirectory = aDirectory.toAbsolutePath();
+    fIsEncrypted = MovieEncryption.isRequiredIn(fDirectory);
+    if ( Files.isDirectory(fDirectory) ) {
+      finishInterruptedSave();
+    }
+    try (BufferedReader reader = Files.newBufferedReader(getIndexFile(), ENCODING)){
+      String line = reader.readLine();
+      fNextId = Integer.parseInt(line.substring(NEXT_ID.length()));
+      while ( (line = reader.readLine()) != null ) {
+        int delimiter = line.indexOf(DELIMITER);
+        fCounts.put(line.substring(0, delimiter), Integer.valueOf(line.substring(delimiter + 1)));
+      }
+      fExists = true;
+    }
+    catch (NoSuchFileException ex) {
+      fExists = false;
+    }
+    catch (RuntimeException ex) {
+      throw new IOException("Index of the movies not in expected format: " + getIndexFile(), ex);
+    }
+  }
+
+  /** The name of the directory holding the movies of the given user. */
+  static String directoryNameOf(String aUserName){
+    return DIRECTORY_PREFIX + aUserName.toLowerCase(Locale.ENGLISH);
+  }
+
+  /** Return the segment of the given movie : the year it was viewed, or {@link #UNDATED}. */
+  static String segmentOf(Movie aMovie){
+    Date viewed = aMovie.getDateViewed();
+    if ( viewed == null ) return UNDATED;
+    return String.valueOf(viewed.toInstant().atZone(ZoneId.systemDefault()).getYear());
+  }
+
+  /** Return <tt>true</tt> only if the movies have been saved in segments. */
+  boolean exists(){
+    return fExists;
+  }
+
+  /** The directory holding the segments. */
+  Path getDirectory(){
+    return fDirectory;
+  }
+
+  /** The index file. Changes whenever the saved movies change. */
+  Path getIndexFile(){
+    return fDirectory.resolve(INDEX);
+  }
+
+  /** The saved segments, newest first. */
+  List<String> getSegments(){
+    List<String> result = new ArrayList<>(fCounts.keySet());
+    Collections.sort(result, NEWEST_FIRST);
+    return result;
+  }
+
+  /** The number of movies saved in the given segment. */
+  int getCount(String aSegment){
+    Integer result = fCounts.get(aSegment);
+    return result == null ? 0 : result;
+  }
+
+  /** One more than the highest id ever assigned. */
+  int getNextId(){
+    return fNextId;
+  }
+
+  /** 
+   Read the movies saved in a segment. A line which can't be read is skipped. 
+   
+   <P>The lines are all split first, and then checked together by {@link Movie#validateAll}, 
+   so that a bad line doesn't need an exception.
+  */
+  List<Movie> read(String aSegment) throws IOException {
+    if ( getCount(aSegment) == 0 ) return new ArrayList<>();
+    Path file = fileOf(aSegment);
+    LoadEvent event = new LoadEvent();
+    event.begin();
+    event.setSource(file.toString());
+    event.setBytes(Files.size(file));
+    List<String[]> rows = new ArrayList<>(getCount(aSegment));
+    try (BufferedReader reader = newReader(file)){
+      String line = null;
+      while ( (line = reader.readLine()) != null ) {
+        if ( ! Util.textHasContent(line) ) continue;
+        String[] row = null;
+        int delimiter = line.indexOf(DELIMITER);
+        if ( delimiter > 0 && isId(line, delimiter) ) {
+          row = MovieDAO.rowOf(line.substring(delimiter + 1), line.substring(0, delimiter));
+        }
+        if ( row != null ) {
+          rows.add(row);
+        }
+        else {
+          MovieDAO.logBadLine("Movies file " + file, line);
+        }
+      }
+    }
+    ValidationResult errors = new ValidationResult();
+    List<Movie> result = Movie.validateAll(rows, errors);
+    MovieDAO.logBadRows("Movies file " + file, errors);
+    event.setRows(result.size());
+    event.commit();
+    return result;
+  }
+
+  /**
+   Replace the given segments with the given movies, and then the index. An empty list of
+   movies deletes its segment. Other segments are left as they are. The movies are encrypted 
+   if there is a key. If the save fails part way through, the saved movies are left as they 
+   were, or are completed by the next instance to read them (see the class comment).
+   Return the number of characters written.
+  */
+  long write(Map<String, List<Movie>> aSegments, int aNextId) throws IOException {
+    if ( fIsEncrypted && MovieEncryption.getKey() == null ) {
+      throw new IOException("The movies are encrypted, but no password was given: " + fDirectory);
+    }
+    Files.createDirectories(fDirectory);
+    Map<String, Integer> counts = new LinkedHashMap<>(fCounts);
+    Map<Path, WriteFileEvent> written = new LinkedHashMap<>();
+    List<Path> deleted = new ArrayList<>();
+    long result = 0;
+    for(Map.Entry<String, List<Movie>> segment : aSegments.entrySet()){
+      Path file = fileOf(segment.getKey());
+      if ( segment.getValue().isEmpty() ) {
+        deleted.add(file);
+        counts.remove(segment.getKey());
+        continue;
+      }
+      WriteFileEvent event = new WriteFileEvent();
+      result = result + writeSegment(file, segment.getValue(), event);
+      written.put(file, event);
+      counts.put(segment.getKey(), segment.getValue().size());
+    }
+    List<String> segments = new ArrayList<>(counts.keySet());
+    Collections.sort(segments, NEWEST_FIRST);
+    StringBuilder index = new StringBuilder(NEXT_ID).append(aNextId).append(NEW_LINE);
+    for(String segment : segments){
+      index.append(segment).append(DELIMITER).append(counts.get(segment)).append(NEW_LINE);
+    }
+    WriteFileEvent indexEvent = new WriteFileEvent();
+    writeFile(getIndexFile(), index, indexEvent);
+    //the save takes place here : from now on, an interrupted save is finished, not dropped
+    moveFile(tempFileOf(getIndexFile()), getNewIndexFile());
+    for(Map.Entry<Path, WriteFileEvent> file : written.entrySet()){
+      replaceFile(tempFileOf(file.getKey()), file.getKey(), file.getValue());
+    }
+    for(Path file : deleted){
+      Files.deleteIfExists(file);
+    }
+    replaceFile(getNewIndexFile(), getIndexFile(), indexEvent);
+    fCounts.clear();
+    fCounts.putAll(counts);
+    fNextId = aNextId;
+    fExists = true;
+    return result;
+  }
+
+  /**
+   Encrypt the files of the segments which aren't encrypted yet, as they are. Used only when
+   the movies are first encrypted. The index is left as it is.
+  */
+  void encryptPlainFiles(SecretKey aKey) throws IOException {
+    for(String segment : getSegments()){
+      Path file = fileOf(segment);
+      if ( ! Files.exists(file) || EncryptedFile.isEncrypted(file) ) continue;
+      Path temp = tempFileOf(file);
+      WriteFileEvent event = new WriteFileEvent();
+      event.begin();
+      event.setPath(file.toString());
+      try (OutputStream out = EncryptedFile.encrypt(Files.newOutputStream(temp), aKey)){
+        Files.copy(file, out);
+      }
+      replaceFile(temp, file, event);
+    }
+  }
+
+  // PRIVATE
+  private final Path fDirectory;
+  /** True only if the movies are encrypted. Fixed when the movies are first read. */
+  private final boolean fIsEncrypted;
+  private final Map<String, Integer> fCounts = new LinkedHashMap<>();
+  private int fNextId;
+  private boolean fExists;
+
+  private static final String DIRECTORY_PREFIX = "movie_list_for_";
+  /** The index of a save which has been written in full, but not yet put in place. */
+  private static final String NEW_INDEX = INDEX + ".new";
+  private static final String TEMP_EXTENSION = ".tmp";
+  private static final String NEXT_ID = "next|";
+  private static final char DELIMITER = '|';
+  private static final String EXTENSION = ".txt";
+  private static final String NEW_LINE = System.getProperty("line.separator");
+  private static final Charset ENCODING = StandardCharsets.UTF_8;
+  private static final int MAX_ID_DIGITS = 9;
+  private static final int MAX_YEAR_DIGITS = 4;
+  private static final Logger fLogger = Util.getLogger(MovieSegments.class);
+
+  private Path fileOf(String aSegment){
+    return fDirectory.resolve(aSegment + EXTENSION);
+  }
+
+  private Path getNewIndexFile(){
+    return fDirectory.resolve(NEW_INDEX);
+  }
+
+  /**
+   If the app stopped part way through a save, then finish the save, if it had got as far as 
+   renaming the new index, and otherwise drop it. Either way, the temporary files are removed.
+   Another instance may be doing the same at the same time, so a file already moved is skipped.
+  */
+  private void finishInterruptedSave() throws IOException {
+    List<Path> temps = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(fDirectory, "*" + TEMP_EXTENSION)){
+      for(Path file : files){
+        temps.add(file);
+      }
+    }
+    Path newIndex = getNewIndexFile();
+    if ( ! Files.exists(newIndex) ) {
+      for(Path temp : temps){
+        Files.deleteIfExists(temp);
+      }
+      return;
+    }
+    Set<String> segments = new HashSet<>();
+    try {
+      for(String line : Files.readAllLines(newIndex, ENCODING)){
+        int delimiter = line.indexOf(DELIMITER);
+        if ( ! line.startsWith(NEXT_ID) && delimiter > 0 ) {
+          segments.add(line.substring(0, delimiter));
+        }
+      }
+    }
+    catch (NoSuchFileException ex) {
+      return; //another instance has just finished the save
+    }
+    for(Path temp : temps){
+      String name = temp.getFileName().toString();
+      Path file = temp.resolveSibling(name.substring(0, name.length() - TEMP_EXTENSION.length()));
+      if ( segments.contains(segmentOf(file)) ) {
+        moveIfPresent(temp, file);
+      }
+      else {
+        Files.deleteIfExists(temp);
+      }
+    }
+    //the segments emptied by the save
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(fDirectory, "*" + EXTENSION)){
+      for(Path file : files){
+        String segment = segmentOf(file);
+        if ( segment != null && ! segments.contains(segment) ) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+    moveIfPresent(newIndex, getIndexFile());
+    fLogger.warning(new Supplier<String>(){
+      @Override public String get() {
+        return "Finished saving the movies, after the app stopped part way through: " + fDirectory;
+      }
+    });
+  }
+
+  /** The segment saved in the given file, or null if it's not the file of a segment. */
+  private static String segmentOf(Path aFile){
+    String name = aFile.getFileName().toString();
+    if ( ! name.endsWith(EXTENSION) ) return null;
+    String result = name.substring(0, name.length() - EXTENSION.length());
+    boolean isYear = result.length() > 0 && result.length() <= MAX_YEAR_DIGITS;
+    for(int idx = 0; idx < result.length() && isYear; ++idx){
+      isYear = result.charAt(idx) >= '0' && result.charAt(idx) <= '9';
+    }
+    return isYear || UNDATED.equals(result) ? result : null;
+  }
+
+  /** Return <tt>true</tt> only if the line starts with an id which fits in an int, up to the given end. */
+  private static boolean isId(String aLine, int aEnd){
+    if ( aEnd > MAX_ID_DIGITS ) return false;
+    for(int idx = 0; idx < aEnd; ++idx){
+      if ( aLine.charAt(idx) < '0' || aLine.charAt(idx) > '9' ) return false;
+    }
+    return true;
+  }
+
+  /** An encrypted file is decrypted in full, in parallel, before its lines are read. */
+  private BufferedReader newReader(Path aFile) throws IOException {
+    if ( ! EncryptedFile.isEncrypted(aFile) ) {
+      if ( fIsEncrypted ) throw new IOException("Movies file is not encrypted, but the movies are: " + aFile);
+      return Files.newBufferedReader(aFile, ENCODING);
+    }
+    SecretKey key = MovieEncryption.getKey();
+    if ( key == null ) throw new IOException("Movies file is encrypted, but no password was given: " + aFile);
+    byte[] text = EncryptedFile.decrypt(aFile, key);
+    return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(text), ENCODING));
+  }
+
+  /**
+   Write the movies of a segment one line at a time, encrypting them if there is a key, and 
+   without building the whole text first. As {@link #writeFile(Path, CharSequence, WriteFileEvent)}, 
+   the movies are written to a temporary file, which replaces the real one later. 
+   Return the number of characters written.
+  */
+  private long writeSegment(Path aFile, List<Movie> aMovies, WriteFileEvent aEvent) throws IOException {
+    Path temp = tempFileOf(aFile);
+    aEvent.begin();
+    aEvent.setPath(aFile.toString());
+    long result = 0;
+    StringBuilder line = new StringBuilder();
+    try (Writer writer = newWriter(temp, MovieEncryption.getKey())){
+      for(Movie movie : aMovies){
+        line.setLength(0);
+        line.append(movie.getId()).append(DELIMITER);
+        MovieDAO.appendTo(line, movie, NEW_LINE);
+        writer.append(line);
+        result = result + line.length();
+      }
+    }
+    return result;
+  }
+
+  private static Writer newWriter(Path aFile, SecretKey aKey) throws IOException {
+    if ( aKey == null ) {
+      return Files.newBufferedWriter(aFile, ENCODING);
+    }
+    OutputStream out = EncryptedFile.encrypt(Files.newOutputStream(aFile), aKey);
+    return new BufferedWriter(new OutputStreamWriter(out, ENCODING));
+  }
+
+  /**
+   Write to a temporary file, which later replaces the real one in a single step (see 
+   {@link #replaceFile(Path, Path, WriteFileEvent)}). If the write is aborted part way 
+   through, the old file is left intact.
+  */
+  private void writeFile(Path aFile, CharSequence aText, WriteFileEvent aEvent) throws IOException {
+    Path temp = tempFileOf(aFile);
+    aEvent.begin();
+    aEvent.setPath(aFile.toString());
+    try (BufferedWriter writer = Files.newBufferedWriter(temp, ENCODING)){
+      writer.append(aText);
+    }
+  }
+
+  private static Path tempFileOf(Path aFile){
+    return aFile.resolveSibling(aFile.getFileName() + TEMP_EXTENSION);
+  }
+
+  /** Replace the file with the temporary file, and record the event. */
+  private static void replaceFile(Path aTemp, Path aFile, WriteFileEvent aEvent) throws IOException {
+    aEvent.setBytes(Files.size(aTemp));
+    moveFile(aTemp, aFile);
+    aEvent.setSucceeded(true);
+    aEvent.commit();
+  }
+
+  /** Replace the file with the other one, in a single step if the file system allows it. */
+  private static void moveFile(Path aFrom, Path aTo) throws IOException {
+    try {
+      Files.move(aFrom, aTo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch(AtomicMoveNotSupportedException ex){
+      Files.move(aFrom, aTo, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /** As {@link #moveFile(Path, Path)}, but doing nothing if another instance has already moved it. */
+  private static void moveIfPresent(Path aFrom, Path aTo) throws IOException {
+    try {
+      moveFile(aFrom, aTo);
+    }
+    catch (NoSuchFileException ex) {
+      //already moved
+    }
+  }
+}
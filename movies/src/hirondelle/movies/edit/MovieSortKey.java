@@ -0,0 +1,59 @@
+package hirondelle.movies.edit;
+
+import java.text.Collator;
+
+/**
+ Sort keys for the text fields of a {@link Movie}.
+
+ <P>Sorting compares each movie many times. Instead of comparing the text itself
+ on every call, a field is reduced once to the bytes of a {@link java.text.CollationKey}
+ for the default locale, and the bytes are compared.
+ Those bytes order accented titles the way a reader expects, unlike the raw UTF-16 order
+ of {@link String#compareTo(String)}. (The date viewed and the rating need no key, since
+ {@link Movie} already stores them as numbers.)
+
+ <P>The title and the comment each have a key of their own, built by {@link Movie} the first
+ time a comparison reaches that field, and kept after that. The natural order compares titles
+ only when the dates are the same, and comments only when the titles and ratings are the
+ same too. So the comment keys are built for nearly all movies only when sorting by comment.
+
+ <P>A missing (null) field is encoded as a key which sorts before all others,
+ just as the original field comparisons treated nulls.
+*/
+final class MovieSortKey {
+
+  /** Build the sort key of a text field. */
+  static byte[] of(String aText){
+    return aText == null ? NULL_TEXT : COLLATOR.get().getCollationKey(aText).toByteArray();
+  }
+
+  /** Compare two keys returned by {@link #of(String)}. Unsigned and lexicographic. Null text sorts first. */
+  static int compare(byte[] aThis, byte[] aThat){
+    if ( aThis == aThat ) return 0;
+    if ( aThis == NULL_TEXT ) return -1;
+    if ( aThat == NULL_TEXT ) return 1;
+    int length = Math.min(aThis.length, aThat.length);
+    for (int idx = 0; idx < length; ++idx){
+      int comparison = (aThis[idx] & 0xFF) - (aThat[idx] & 0xFF);
+      if ( comparison != 0 ) return comparison;
+    }
+    return aThis.length - aThat.length;
+  }
+
+  // PRIVATE
+
+  /** The key of a null field. Told apart by identity, from the key of an empty field. */
+  private static final byte[] NULL_TEXT = new byte[0];
+
+  /** Collators are not thread-safe, and sort keys can be built on any thread. */
+  private static final ThreadLocal<Collator> COLLATOR = new ThreadLocal<Collator>(){
+    @Override protected Collator initialValue() {
+      Collator result = Collator.getInstance();
+      result.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+      return result;
+    }
+  };
+
+  /** Only static methods. */
+  private MovieSortKey(){ }
+}
@@ -1,9 +1,26 @@
 package hirondelle.movies.edit;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import hirondelle.movies.recording.RefreshEvent;
+import hirondelle.movies.recording.SortEvent;
 import hirondelle.movies.util.Util;
+import javax.swing.SwingWorker;
 import javax.swing.table.AbstractTableModel;
 
 /** 
@@ -13,13 +30,35 @@ import javax.swing.table.AbstractTableModel;
   {@link #refreshView()}.
   <P>Note this class includes some methods which are unrelated to the needs of the 
   superclass, but are useful in the context of this application. 
+
+  <P>Sorting and filtering a large list take a noticeable amount of time, so they are never
+  done on the Event Dispatch Thread. The movies themselves are never reordered. Instead, a
+  worker thread sorts an array of row indexes (a <em>permutation</em>), and then keeps only
+  the rows matching the current filter. The finished rows replace the old ones in a single
+  step, on the Event Dispatch Thread. Until then, the table simply continues to show
+  the previous rows.
+
+  <P>Only one worker runs at a time. A new request cancels the pending worker, and the new
+  worker takes over any work the cancelled one had not finished.
+
+  <P>Even the first read of the movies is done by a worker. The table starts out empty, and
+  the main window can be shown at once, while the movies are still being read in.
+
+  <P>At first, only the most recent movies are read in (see {@link MovieDAO}). Older movies
+  are read in when the user scrolls to the end of the table ({@link #loadOlderMovies()}),
+  and all of them before the table is sorted in any other order, or filtered. When the table
+  is back in its natural order, any movies beyond the most the DAO keeps in memory are dropped
+  again.
  */
 public final class MovieTableModel extends AbstractTableModel {
   
   /** Constructor. */
   public MovieTableModel(){
-    fDAO = new MovieDAO();
-    fMovies = fDAO.list();
+    fMovies = Collections.emptyList();
+    fIds = new int[0];
+    fSortedRows = identity(0);
+    fRows = fSortedRows;
+    refreshView();
   }
 
   /** 
@@ -27,70 +66,175 @@ public final class MovieTableModel extends AbstractTableModel {
   
    <P>This style seems to be cleaner and simpler than implementing 
    a listener on the DAO.
+
+   <P>The current sort order and filter are preserved.
   */ 
   public void refreshView() {
-    fMovies = fDAO.list();
-    //one might want to preserve the sort order here
-    fireTableDataChanged();
+    fNeedsFetch = true;
+    startRebuild();
+  }
+
+  /**
+   Show the movies changed by someone else, updating only the rows affected.
+
+   <P>Each changed row is updated, inserted or removed in place, keeping the current sort 
+   order and filter, so the table keeps its selection and scroll position. If a rebuild is 
+   already in progress, or many movies have changed, then all rows are rebuilt instead, 
+   as by {@link #refreshView()}.
+   
+   <P>This runs on the Event Dispatch Thread, so its cost doesn't grow with each changed movie 
+   times the number of movies. The changed movies are found in one pass over their ids, the 
+   movies and rows are copied once, and the row of each changed movie is found by a binary 
+   search, in the current sort.
+   @param aDelta possibly-null; null means that all the movies may have changed.
+  */
+  public void applyChanges(MovieDelta aDelta){
+    if ( aDelta == null || fPendingWork != null || isLarge(aDelta) ) {
+      refreshView();
+      return;
+    }
+    if ( aDelta.isEmpty() ) return;
+    Map<String, Integer> indexes = indexesOf(aDelta);
+    boolean[] isRemoved = new boolean[fMovies.size()];
+    List<Integer> removed = new ArrayList<>();
+    List<Movie> added = new ArrayList<>();
+    Map<Integer, Movie> updated = new HashMap<>();
+    for(String id : aDelta.getDeleted()){
+      Integer index = indexes.get(id);
+      if ( index != null && ! isRemoved[index] ) {
+        isRemoved[index] = true;
+        removed.add(index);
+      }
+    }
+    for(Movie movie : aDelta.getChanged()){
+      Integer index = indexes.get(movie.getId());
+      if ( index != null && keepsItsPlace(fMovies.get(index), movie) ) {
+        updated.put(index, movie);
+        continue;
+      }
+      if ( index != null && ! isRemoved[index] ) {
+        isRemoved[index] = true;
+        removed.add(index);
+      }
+      added.add(movie);
+    }
+    //the rows as they are now, removed from the last, so each event is true when it's fired
+    List<Integer> deletedRows = rowsOf(removed);
+    Collections.reverse(deletedRows);
+    Collections.sort(added);
+
+    //never change a list a worker may still be reading
+    int[] newIndexes = new int[fMovies.size()];
+    int[] addedIndexes = new int[added.size()];
+    fMovies = merge(fMovies, isRemoved, added, newIndexes, addedIndexes);
+    fIds = renumberIds(fIds, newIndexes, added, addedIndexes, fMovies.size());
+    for(Map.Entry<Integer, Movie> entry : updated.entrySet()){
+      fMovies.set(newIndexes[entry.getKey()], entry.getValue());
+    }
+    List<Integer> shown = new ArrayList<>();
+    for(int index : addedIndexes){
+      if ( isShown(fMovies.get(index)) ) {
+        shown.add(index);
+      }
+    }
+    fSortedRows = insertRows(renumber(fSortedRows, newIndexes), sortRows(addedIndexes));
+    fRows = insertRows(renumber(fRows, newIndexes), sortRows(toArray(shown)));
+
+    for(int row : deletedRows){
+      fireTableRowsDeleted(row, row);
+    }
+    //then the rows inserted, from the first
+    for(int row : rowsOf(shown)){
+      fireTableRowsInserted(row, row);
+    }
+    for(Integer index : updated.keySet()){
+      int row = rowOf(newIndexes[index]);
+      if ( row != NOT_FOUND ) {
+        fireTableRowsUpdated(row, row);
+      }
+    }
+  }
+  
+  /**
+   Read in and show the next older movies, if some have not been read in yet. Intended for
+   when the user scrolls to the end of the table. Does nothing while the rows are being rebuilt.
+  */
+  public void loadOlderMovies(){
+    if ( ! fHasOlderMovies || fPendingWork != null ) return;
+    fNeedsOlderMovies = true;
+    startRebuild();
   }
   
   /** Returned the selected movie's id. */
   public String getId(int aRow){
-    Movie movie = fMovies.get(aRow);
+    Movie movie = getMovie(aRow);
     return movie.getId(); 
   }
   
   /** Return the selected {@link Movie}. */
   public Movie getMovie(int aRow){
-    return fMovies.get(aRow);
+    return fMovies.get(fRows[aRow]);
   }
   
   /** 
    Sort the movies.
    
-   When called repeatedly, this method will toggle the sort between 
-   ascending and descending.
+   Each column remembers its own sort direction. Clicking on the column which
+   is already sorted toggles its direction between ascending and descending.
+   Clicking on a different column sorts by that column, in the direction it had when
+   last used (ascending, the first time).
+
+   <P>The sort is performed on a worker thread. The table is updated when it completes.
    @param aIdx index of the column by which to sort.  
   */
   public void sortByColumn(int aIdx){
-    fNumClicks++;
-    if( aIdx == 1 ) {
-      //natural sorting of the Movie class
-      Collections.sort(fMovies);
-    }
-    else {
-      Comparator<Movie> comparator = null;
-      if ( aIdx == 0 ){
-        comparator = Movie.TITLE_SORT;
-      }
-      else if ( aIdx == 2 ){
-        comparator = Movie.RATING_SORT;
-      }
-      else if ( aIdx == 3 ){
-        comparator = Movie.COMMENT_SORT;
-      }
-      Collections.sort(fMovies, comparator);
-    }
-    if( (fNumClicks % 2) == 0){
-      Collections.reverse(fMovies);
+    if ( aIdx == fSortColumn ){
+      fDescending[aIdx] = ! fDescending[aIdx];
     }
-    fireTableDataChanged();
+    fSortColumn = aIdx;
+    fNeedsSort = true;
+    startRebuild();
+  }
+
+  /**
+   Show only the movies whose title or comment contains the given text (ignoring case).
+
+   <P>The filter is applied on a worker thread. The table is updated when it completes.
+   When the new text contains the text of the filter already shown, only the rows
+   already shown need to be examined again.
+   @param aText possibly-null; if it has no content, then all movies are shown.
+  */
+  public void filter(String aText){
+    fQuery = Util.textHasContent(aText) ? aText.trim().toLowerCase(Locale.ROOT) : NO_FILTER;
+    startRebuild();
+  }
+
+  /**
+   Show only the movies which match the given query, as well as any filter text.
+
+   <P>The query is applied on a worker thread, together with the filter text. The table is 
+   updated when it completes. 
+   @param aQuery possibly-null; null means no query.
+  */
+  public void query(MovieQuery aQuery){
+    fCondition = aQuery;
+    startRebuild();
   }
   
   /** Return the number of columns in the table. */
   @Override public int getColumnCount() {
-    return 4;
+    return NUM_COLUMNS;
   }
   
   /** Return the number of rows in the table. */
   @Override public int getRowCount() {
-    return fMovies.size();
+    return fRows.length;
   }
   
   /** Return the <tt>Object</tt> in a specific table cell. */
   @Override public Object getValueAt(int aRow, int aCol) {
     Object result = null;
-    Movie movie = fMovies.get(aRow);
+    Movie movie = getMovie(aRow);
     if(aCol == 0) {
       result = movie.getTitle();
     }
@@ -125,7 +269,579 @@ public final class MovieTableModel extends AbstractTableModel {
   }
   
   // PRIVATE //
-  private MovieDAO fDAO;
+
+  /*
+   The following fields are read and replaced only on the Event Dispatch Thread.
+  */
+
+  /** The movies, in their natural order. */
   private List<Movie> fMovies;
-  private int fNumClicks = 0;
+  /** The id of each movie in fMovies. Searched without reading each movie from memory. */
+  private int[] fIds;
+  /** All rows, in sorted order. Each item is an index into fMovies. */
+  private int[] fSortedRows;
+  /** The rows actually shown: the items of fSortedRows which match fShownQuery and fShownCondition. */
+  private int[] fRows;
+  /** The filter text for fRows. */
+  private String fShownQuery = NO_FILTER;
+  /** The query for fRows, possibly null. */
+  private MovieQuery fShownCondition;
+
+  /** The most recently requested filter text. */
+  private String fQuery = NO_FILTER;
+  /** The most recently requested query, possibly null. */
+  private MovieQuery fCondition;
+  private int fSortColumn = NOT_SORTED;
+  private final boolean[] fDescending = new boolean[NUM_COLUMNS];
+
+  /** Work requested, but not yet completed. */
+  private boolean fNeedsFetch;
+  private boolean fNeedsSort;
+  private boolean fNeedsOlderMovies;
+  private RebuildRows fPendingWork;
+  /** Some movies have not been read in, as of the last fetch. */
+  private boolean fHasOlderMovies;
+
+  private static final int NUM_COLUMNS = 4;
+  private static final int NOT_SORTED = -1;
+  private static final String NO_FILTER = "";
+  private static final int NOT_FOUND = -1;
+  /** 
+   Above this, all rows are rebuilt on a worker thread, instead of on the Event Dispatch Thread. 
+   Each changed movie costs a few binary searches, and an event for its row. 
+  */
+  private static final int MAX_ROWS_CHANGED_IN_PLACE = 100;
+  private static final Logger fLogger = Util.getLogger(MovieTableModel.class);
+
+  /** Cancel any work still in progress, and start a worker for all unfinished work. */
+  private void startRebuild(){
+    if ( fPendingWork != null ){
+      fPendingWork.cancel(false);
+    }
+    fPendingWork = new RebuildRows();
+    fPendingWork.execute();
+  }
+
+  /** Returns null for the natural sorting of the Movie class. */
+  private static Comparator<Movie> comparatorFor(int aIdx){
+    Comparator<Movie> result = null;
+    if ( aIdx == 0 ){
+      result = Movie.TITLE_SORT;
+    }
+    else if ( aIdx == 2 ){
+      result = Movie.RATING_SORT;
+    }
+    else if ( aIdx == 3 ){
+      result = Movie.COMMENT_SORT;
+    }
+    return result;
+  }
+
+  private static int[] toArray(List<Integer> aItems){
+    int[] result = new int[aItems.size()];
+    for(int idx = 0; idx < result.length; ++idx){
+      result[idx] = aItems.get(idx);
+    }
+    return result;
+  }
+
+  private static boolean isLarge(MovieDelta aDelta){
+    return aDelta.getChanged().size() + aDelta.getDeleted().size() > MAX_ROWS_CHANGED_IN_PLACE;
+  }
+  
+  /** The index in fMovies of each movie in the delta, if present. */
+  private Map<String, Integer> indexesOf(MovieDelta aDelta){
+    BitSet ids = new BitSet();
+    for(String id : aDelta.getDeleted()){
+      ids.set(Integer.parseInt(id));
+    }
+    for(Movie movie : aDelta.getChanged()){
+      ids.set(movie.getIdNumber());
+    }
+    Map<String, Integer> result = new HashMap<>();
+    for(int idx = 0; idx < fIds.length; ++idx){
+      if ( ids.get(fIds[idx]) ) {
+        result.put(String.valueOf(fIds[idx]), idx);
+      }
+    }
+    return result;
+  }
+  
+  private static int[] idsOf(List<Movie> aMovies){
+    int[] result = new int[aMovies.size()];
+    for(int idx = 0; idx < result.length; ++idx){
+      result[idx] = aMovies.get(idx).getIdNumber();
+    }
+    return result;
+  }
+  
+  /** The changed movie would be in the same row, and would pass the same filter. */
+  private boolean keepsItsPlace(Movie aBefore, Movie aAfter){
+    Comparator<Movie> comparator = comparatorFor(fSortColumn);
+    return 
+      aBefore.compareTo(aAfter) == 0 && 
+      (comparator == null || comparator.compare(aBefore, aAfter) == 0) && 
+      isShown(aBefore) == isShown(aAfter)
+    ;
+  }
+  
+  private boolean isShown(Movie aMovie){
+    return 
+      (fShownQuery.length() == 0 || aMovie.containsText(fShownQuery)) && 
+      (fShownCondition == null || fShownCondition.matches(aMovie))
+    ;
+  }
+  
+  /**
+   A copy of the movies, without those removed, and with the added movies in their natural 
+   places. The added movies must be in their natural order. Fills in the new index of each 
+   movie kept (NOT_FOUND if removed), and of each movie added. 
+  */
+  private static List<Movie> merge(
+    List<Movie> aMovies, boolean[] aIsRemoved, List<Movie> aAdded, int[] aNewIndexes, int[] aAddedIndexes
+  ){
+    int[] places = new int[aAdded.size()];
+    for(int idx = 0; idx < places.length; ++idx){
+      int place = Collections.binarySearch(aMovies, aAdded.get(idx));
+      places[idx] = place < 0 ? -(place + 1) : place;
+    }
+    List<Movie> result = new ArrayList<>(aMovies.size() + aAdded.size());
+    //the movies between two places where a movie is removed or added are copied in one step
+    int from = 0;
+    int next = 0;
+    for(int idx = 0; idx <= aMovies.size(); ++idx){
+      boolean isLast = idx == aMovies.size();
+      boolean isAdded = next < places.length && places[next] == idx;
+      if ( ! isLast && ! isAdded && ! aIsRemoved[idx] ) continue;
+      for(int kept = from; kept < idx; ++kept){
+        aNewIndexes[kept] = result.size() + kept - from;
+      }
+      result.addAll(aMovies.subList(from, idx));
+      for( ; next < places.length && places[next] == idx; ++next){
+        aAddedIndexes[next] = result.size();
+        result.add(aAdded.get(next));
+      }
+      if ( ! isLast && aIsRemoved[idx] ) {
+        aNewIndexes[idx] = NOT_FOUND;
+        from = idx + 1;
+      }
+      else {
+        from = idx;
+      }
+    }
+    return result;
+  }
+  
+  /** The ids of fMovies after a merge, from those before it. */
+  private static int[] renumberIds(int[] aIds, int[] aNewIndexes, List<Movie> aAdded, int[] aAddedIndexes, int aSize){
+    int[] result = new int[aSize];
+    for(int idx = 0; idx < aIds.length; ++idx){
+      if ( aNewIndexes[idx] != NOT_FOUND ) {
+        result[aNewIndexes[idx]] = aIds[idx];
+      }
+    }
+    for(int idx = 0; idx < aAddedIndexes.length; ++idx){
+      result[aAddedIndexes[idx]] = aAdded.get(idx).getIdNumber();
+    }
+    return result;
+  }
+  
+  /** The rows which are kept, renumbered with the new indexes into fMovies. Keeps their order. */
+  private static int[] renumber(int[] aRows, int[] aNewIndexes){
+    int[] result = new int[aRows.length];
+    int size = 0;
+    for(int row : aRows){
+      int index = aNewIndexes[row];
+      if ( index != NOT_FOUND ) {
+        result[size++] = index;
+      }
+    }
+    return Arrays.copyOf(result, size);
+  }
+  
+  /** The given indexes into fMovies, in the order of the current sort. There are only a few. */
+  private int[] sortRows(int[] aIndexes){
+    int[] result = aIndexes.clone();
+    for(int idx = 1; idx < result.length; ++idx){
+      int index = result[idx];
+      int to = idx;
+      while ( to > 0 && compareRows(result[to - 1], index) > 0 ) {
+        result[to] = result[to - 1];
+        --to;
+      }
+      result[to] = index;
+    }
+    return result;
+  }
+  
+  /** A copy with the given rows added in their sorted places. They must be in the order of the current sort. */
+  private int[] insertRows(int[] aRows, int[] aAdded){
+    if ( aAdded.length == 0 ) return aRows;
+    int[] result = new int[aRows.length + aAdded.length];
+    int from = 0;
+    for(int idx = 0; idx < aAdded.length; ++idx){
+      int place = searchRows(aRows, aAdded[idx]);
+      System.arraycopy(aRows, from, result, from + idx, place - from);
+      result[place + idx] = aAdded[idx];
+      from = place;
+    }
+    System.arraycopy(aRows, from, result, from + aAdded.length, aRows.length - from);
+    return result;
+  }
+  
+  /** The rows shown for the given indexes into fMovies, in increasing order. Indexes not shown have no row. */
+  private List<Integer> rowsOf(List<Integer> aIndexes){
+    List<Integer> result = new ArrayList<>();
+    for(int index : aIndexes){
+      int row = rowOf(index);
+      if ( row != NOT_FOUND ) {
+        result.add(row);
+      }
+    }
+    Collections.sort(result);
+    return result;
+  }
+  
+  /** The row shown for the given index into fMovies, or NOT_FOUND. */
+  private int rowOf(int aIndex){
+    int result = searchRows(fRows, aIndex);
+    return result < fRows.length && fRows[result] == aIndex ? result : NOT_FOUND;
+  }
+  
+  /** 
+   The number of the given rows which come before the given index into fMovies, in the order 
+   of the current sort. A binary search, since no two rows are ever equal in that order. 
+  */
+  private int searchRows(int[] aRows, int aIndex){
+    int low = 0;
+    int high = aRows.length;
+    while ( low < high ) {
+      int middle = (low + high) >>> 1;
+      if ( compareRows(aRows[middle], aIndex) < 0 ) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+  
+  /** 
+   Compare two indexes into fMovies, in the order of the current sort. Movies which sort the 
+   same keep their natural order, as in the stable sort of a rebuild. 
+  */
+  private int compareRows(int aThis, int aThat){
+    Comparator<Movie> comparator = comparatorFor(fSortColumn);
+    int result = comparator == null ? 0 : comparator.compare(fMovies.get(aThis), fMovies.get(aThat));
+    if ( result == 0 ) {
+      result = Integer.compare(aThis, aThat);
+    }
+    boolean isDescending = fSortColumn != NOT_SORTED && fDescending[fSortColumn];
+    return isDescending ? -result : result;
+  }
+  
+  private static int[] identity(int aSize){
+    int[] result = new int[aSize];
+    for(int idx = 0; idx < aSize; ++idx){
+      result[idx] = idx;
+    }
+    return result;
+  }
+
+  /**
+   Fetch, sort and filter the rows on a worker thread (skipping any step which isn't needed),
+   and then swap the result into the model on the Event Dispatch Thread.
+  */
+  private final class RebuildRows extends SwingWorker<Void, Void> {
+    /** Called on the Event Dispatch Thread: take a snapshot of the work to be done. */
+    RebuildRows(){
+      fComparator = comparatorFor(fSortColumn);
+      fIsDescending = fSortColumn != NOT_SORTED && fDescending[fSortColumn];
+      fNewQuery = fQuery;
+      fNewCondition = fCondition;
+      fNeedsAll = fNewQuery.length() > 0 || fNewCondition != null || fComparator != null || fIsDescending;
+      fLoadOlder = fNeedsOlderMovies && ! fNeedsAll;
+      fFetch = fNeedsFetch || fLoadOlder || (fNeedsAll && fHasOlderMovies);
+      fSort = fFetch || fNeedsSort;
+      fNewMovies = fMovies;
+      fNewIds = fIds;
+      fNewSortedRows = fSortedRows;
+      boolean narrowsTheShownRows =
+        ! fSort && fShownQuery.length() > 0 && fNewQuery.contains(fShownQuery) && 
+        fNewCondition == fShownCondition
+      ;
+      fFilterFrom = narrowsTheShownRows ? fRows : null;
+      if ( fFetch ) {
+        fRefreshEvent = new RefreshEvent();
+        fRefreshEvent.begin();
+      }
+      else if ( fSort ) {
+        fSortEvent = new SortEvent();
+        fSortEvent.begin();
+        fSortEvent.setColumn(getColumnName(fSortColumn));
+        fSortEvent.setDescending(fIsDescending);
+      }
+    }
+
+    @Override protected Void doInBackground() {
+      if ( fFetch ) {
+        //the first call reads the file, so it mustn't be made on the Event Dispatch Thread
+        MovieDAO dao = new MovieDAO();
+        if ( fNeedsAll ) {
+          dao.loadAll();
+        }
+        else if ( fLoadOlder ) {
+          dao.loadOlder();
+        }
+        else {
+          dao.unloadColdMovies();
+        }
+        //the DAO returns a fresh list, in the natural order
+        fNewMovies = dao.list();
+        fNewIds = idsOf(fNewMovies);
+        fNewHasOlderMovies = dao.hasOlderMovies();
+      }
+      if ( fSort && ! isCancelled() ) {
+        fNewSortedRows = sort(fNewMovies);
+      }
+      if ( ! isCancelled() ) {
+        fNewRows = filter(fFilterFrom == null ? fNewSortedRows : fFilterFrom);
+      }
+      return null;
+    }
+
+    @Override protected void done() {
+      if ( isCancelled() ) {
+        commitEvents(true);
+        return;
+      }
+      try {
+        get(); //rethrows any problem in the worker
+        fMovies = fNewMovies;
+        fIds = fNewIds;
+        fSortedRows = fNewSortedRows;
+        fRows = fNewRows;
+        fShownQuery = fNewQuery;
+        fShownCondition = fNewCondition;
+        if ( fFetch ) {
+          fNeedsFetch = false;
+          fNeedsOlderMovies = false;
+          fHasOlderMovies = fNewHasOlderMovies;
+        }
+        if ( fSort ) fNeedsSort = false;
+        fPendingWork = null;
+        fireTableDataChanged();
+        commitEvents(false);
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException ex) {
+        throw new RuntimeException("Cannot sort or filter the movies.", ex.getCause());
+      }
+    }
+
+    private int[] sort(final List<Movie> aMovies){
+      int[] result = null;
+      if ( fComparator == null ) {
+        //the list is already in its natural order
+        result = identity(aMovies.size());
+      }
+      else {
+        result = identity(aMovies.size());
+        //sorts in parallel only when the array is large enough to benefit
+        ForkJoinPool.commonPool().invoke(
+          new SortRows(result, new int[result.length], 0, result.length, aMovies, fComparator)
+        );
+      }
+      if ( fIsDescending ) {
+        reverse(result);
+      }
+      return result;
+    }
+
+    /** Keeps the order of aRows. Gives up early (quietly) if this worker is cancelled. */
+    private int[] filter(int[] aRows){
+      if ( fNewCondition != null ) return filterByQuery(aRows);
+      if ( fNewQuery.length() == 0 ) return aRows;
+      final List<Movie> movies = fNewMovies;
+      return IntStream.of(aRows).parallel().filter(new IntPredicate(){
+        @Override public boolean test(int aRow) {
+          return ! isCancelled() && movies.get(aRow).containsText(fNewQuery);
+        }
+      }).toArray();
+    }
+
+    /** The query's plan may skip most rows, by a binary search on the date or rating. */
+    private int[] filterByQuery(int[] aRows){
+      final List<Movie> movies = fNewMovies;
+      final MovieQuery.Plan plan = fNewCondition.plan(movies, aRows, fComparator, fIsDescending);
+      fLogger.fine(new Supplier<String>(){
+        @Override public String get() {
+          return "Query " + fNewCondition + ". " + plan;
+        }
+      });
+      final boolean hasText = fNewQuery.length() > 0;
+      return IntStream.of(plan.getRows()).parallel().filter(new IntPredicate(){
+        @Override public boolean test(int aRow) {
+          Movie movie = movies.get(aRow);
+          return 
+            ! isCancelled() && plan.accepts(aRow, movie) && 
+            (! hasText || movie.containsText(fNewQuery))
+          ;
+        }
+      }).toArray();
+    }
+
+    private void commitEvents(boolean aSuperseded){
+      int rows = fNewMovies.size();
+      if ( fRefreshEvent != null ) {
+        fRefreshEvent.setRows(rows);
+        fRefreshEvent.setShownRows(aSuperseded ? 0 : fNewRows.length);
+        fRefreshEvent.setSuperseded(aSuperseded);
+        fRefreshEvent.commit();
+      }
+      if ( fSortEvent != null ) {
+        fSortEvent.setRows(rows);
+        fSortEvent.setSuperseded(aSuperseded);
+        fSortEvent.commit();
+      }
+    }
+
+    private void reverse(int[] aRows){
+      for(int left = 0, right = aRows.length - 1; left < right; ++left, --right){
+        int temp = aRows[left];
+        aRows[left] = aRows[right];
+        aRows[right] = temp;
+      }
+    }
+
+    private final boolean fFetch;
+    /** All movies must be read in, since the order or the filter may show any of them. */
+    private final boolean fNeedsAll;
+    private final boolean fLoadOlder;
+    private final boolean fSort;
+    private final Comparator<Movie> fComparator;
+    private final boolean fIsDescending;
+    private final String fNewQuery;
+    private final MovieQuery fNewCondition;
+    private final int[] fFilterFrom;
+    private List<Movie> fNewMovies;
+    private int[] fNewIds;
+    private boolean fNewHasOlderMovies;
+    private int[] fNewSortedRows;
+    private int[] fNewRows;
+    /** Null unless this worker fetches the movies. */
+    private RefreshEvent fRefreshEvent;
+    /** Null unless this worker sorts, without fetching. */
+    private SortEvent fSortEvent;
+  }
+
+  /**
+   Stable merge sort of a range of row indexes, by the movies at those rows. The indexes 
+   stay in an <tt>int[]</tt>, so nothing is boxed. The halves of a large range are sorted 
+   in parallel. 
+  */
+  private static final class SortRows extends RecursiveAction {
+    SortRows(int[] aRows, int[] aBuffer, int aFrom, int aTo, List<Movie> aMovies, Comparator<Movie> aOrder){
+      fRows = aRows;
+      fBuffer = aBuffer;
+      fFrom = aFrom;
+      fTo = aTo;
+      fMovies = aMovies;
+      fOrder = aOrder;
+    }
+    @Override protected void compute() {
+      if ( fTo - fFrom <= PARALLEL_THRESHOLD ) {
+        sort(fFrom, fTo);
+      }
+      else {
+        int middle = (fFrom + fTo) >>> 1;
+        invokeAll(
+          new SortRows(fRows, fBuffer, fFrom, middle, fMovies, fOrder), 
+          new SortRows(fRows, fBuffer, middle, fTo, fMovies, fOrder)
+        );
+        merge(fFrom, middle, fTo);
+      }
+    }
+    private void sort(int aFrom, int aTo){
+      if ( aTo - aFrom <= INSERTION_THRESHOLD ) {
+        insertionSort(aFrom, aTo);
+        return;
+      }
+      int middle = (aFrom + aTo) >>> 1;
+      sort(aFrom, middle);
+      sort(middle, aTo);
+      merge(aFrom, middle, aTo);
+    }
+    private void insertionSort(int aFrom, int aTo){
+      for(int idx = aFrom + 1; idx < aTo; ++idx){
+        int row = fRows[idx];
+        Movie movie = fMovies.get(row);
+        int to = idx;
+        while ( to > aFrom && fOrder.compare(fMovies.get(fRows[to - 1]), movie) > 0 ) {
+          fRows[to] = fRows[to - 1];
+          --to;
+        }
+        fRows[to] = row;
+      }
+    }
+    /** 
+     Merge the sorted ranges [aFrom, aMiddle) and [aMiddle, aTo). Ties keep the left row first.
+     Rows already in their final place, at either end, are found by binary search, and not moved.
+    */
+    private void merge(int aFrom, int aMiddle, int aTo){
+      if ( compareRows(aMiddle - 1, aMiddle) <= 0 ) return; //already in order
+      int from = firstAfter(fRows[aMiddle], aFrom, aMiddle, false);
+      int to = firstAfter(fRows[aMiddle - 1], aMiddle, aTo, true);
+      System.arraycopy(fRows, from, fBuffer, from, to - from);
+      int left = from;
+      int right = aMiddle;
+      for(int idx = from; idx < to; ++idx){
+        if ( right == to || (left < aMiddle && compareBuffered(left, right) <= 0) ) {
+          fRows[idx] = fBuffer[left++];
+        }
+        else {
+          fRows[idx] = fBuffer[right++];
+        }
+      }
+    }
+    /** 
+     The first index in the sorted range whose movie comes after the movie of the given row 
+     (or, if aTiesFirst, doesn't come before it). 
+    */
+    private int firstAfter(int aRow, int aFrom, int aTo, boolean aTiesFirst){
+      Movie movie = fMovies.get(aRow);
+      int low = aFrom;
+      int high = aTo;
+      while ( low < high ) {
+        int middle = (low + high) >>> 1;
+        int comparison = fOrder.compare(fMovies.get(fRows[middle]), movie);
+        if ( comparison < 0 || (comparison == 0 && ! aTiesFirst) ) {
+          low = middle + 1;
+        }
+        else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+    private int compareRows(int aThis, int aThat){
+      return fOrder.compare(fMovies.get(fRows[aThis]), fMovies.get(fRows[aThat]));
+    }
+    private int compareBuffered(int aThis, int aThat){
+      return fOrder.compare(fMovies.get(fBuffer[aThis]), fMovies.get(fBuffer[aThat]));
+    }
+    private final int[] fRows;
+    /** Scratch space for merging, the same size as fRows. */
+    private final int[] fBuffer;
+    private final int fFrom;
+    private final int fTo;
+    private final List<Movie> fMovies;
+    private final Comparator<Movie> fOrder;
+    /** The same granularity as Arrays.parallelSort. */
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    private static final int INSERTION_THRESHOLD = 32;
+  }
 }
@@ -1,11 +1,13 @@
 package hirondelle.movies.edit;
 
+import hirondelle.movies.catalog.TitleSuggestions;
 import hirondelle.movies.util.ui.OnClose;
 import hirondelle.movies.util.Edit;
 import hirondelle.movies.util.Util;
 import hirondelle.movies.util.ui.UiUtil;
 import hirondelle.movies.util.ui.StandardDialog;
 
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.*;
 import java.awt.event.ActionEvent;
@@ -22,29 +24,45 @@ import javax.swing.*;
 final class MovieView {
 
   /**
-   Constructor.
-    
-   <P>Called when adding a new {@link Movie}.
+   Constructor. Builds the dialog, but doesn't show it.
+   
+   <P>Building a dialog takes a noticeable amount of time, so each view is built only once, 
+   and then shown again each time it's needed.
+   @param aEdit either {@link Edit#ADD} or {@link Edit#CHANGE}
   */
-  MovieView(JFrame aParent) {
-    fEdit = Edit.ADD;
-    buildGui(aParent, "Add Movie");
-    fStandardDialog.display();
+  MovieView(JFrame aParent, Edit aEdit) {
+    fEdit = aEdit;
+    buildGui(aParent, Edit.ADD == aEdit ? "Add Movie" : "Edit Movie");
+  }
+
+  /** Show the dialog, with empty fields, for adding a new {@link Movie}. */
+  void showAdd() {
+    fId = null;
+    fTitle.setText("");
+    fDateViewed.setText("");
+    fRating.setText("");
+    fComment.setText("");
+    display();
   }
 
   /**
-    Constructor.
-    
-    <P>Called when editing an existing {@link Movie}. The text fields are simply
+    Show the dialog for editing an existing {@link Movie}. The text fields are simply
     prepopulated with the text taken from the currently selected row of the table.
   */
-  MovieView(JFrame aParent, Movie aSelectedMovie) {
-    fLogger.fine("Editing selected movie:" + aSelectedMovie);
-    fEdit = Edit.CHANGE;
+  void showChange(final Movie aSelectedMovie) {
+    fLogger.fine(new Supplier<String>(){
+      @Override public String get() {
+        return "Editing selected movie:" + aSelectedMovie;
+      }
+    });
     fId = aSelectedMovie.getId();
-    buildGui(aParent, "Edit Movie");
     populateFields(aSelectedMovie);
-    fStandardDialog.display();
+    display();
+  }
+
+  /** Create the dialog's native window ahead of time, so that it opens quickly. */
+  void prepare() {
+    fStandardDialog.getDialog().pack();
   }
 
   /**
@@ -77,9 +95,9 @@ final class MovieView {
     return fComment.getText();
   }
 
-  /** Close the view. */
+  /** Close the view. It's hidden, and kept for its next use. */
   void closeDialog() {
-    fStandardDialog.dispose();
+    fStandardDialog.hide();
   }
 
   /** Return the underlying dialog. */
@@ -108,16 +126,27 @@ final class MovieView {
 
   private void buildGui(JFrame aParent, String aDialogTitle) {
     fStandardDialog = new StandardDialog(
-      aParent, aDialogTitle, true, OnClose.DISPOSE, getUserInputArea(), getButtons()
+      aParent, aDialogTitle, true, OnClose.HIDE, getUserInputArea(), getButtons()
     );
     fStandardDialog.setDefaultButton(fEditButton);
   }
 
+  private void display() {
+    //otherwise, a reused dialog gives the focus to whatever had it last time
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override public void run() {
+        fTitle.requestFocusInWindow();
+      }
+    });
+    fStandardDialog.display();
+  }
+
   private JPanel getUserInputArea() {
     JPanel result = new JPanel();
     result.setLayout(new BoxLayout(result, BoxLayout.Y_AXIS));
 
     addTextField(fTitle, "Title", result);
+    TitleSuggestions.attachTo(fTitle);
     addTextField(fDateViewed, "Date Viewed", result);
     addTextField(fRating, "Rating", result);
     addTextField(fComment, "Comment", result);
@@ -0,0 +1,262 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.exception.InvalidInputException;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ Parses the text of a {@link MovieQuery} into a tree of {@link MovieQuery.Node}s.
+
+ <P>The grammar, where keywords and field names ignore case :
+ <PRE>
+ query      := and ( 'or' and )*
+ and        := not ( 'and' not )*
+ not        := 'not' not | '(' query ')' | condition
+ condition  := ('title' | 'comment') ('~' | '!~' | '=' | '!=') text
+             | ('viewed' | 'rating') ('=' | '!=' | '&lt;' | '&lt;=' | '&gt;' | '&gt;=') value
+             | ('viewed' | 'rating') 'in' value '..' value
+ text       := a word, or any text in double quotes, with \" for a quote
+ </PRE>
+ A rating is a number from 0 to 10, with at most one decimal place. A date viewed is a year, 
+ a month (<tt>2015-06</tt>), or a day (<tt>2015-06-21</tt>); a year or month stands for all 
+ its days, so <tt>viewed &lt;= 2015</tt> includes all of 2015.
+
+ <P>Each comparison of a date or rating becomes a range of days or tenths. Movies with no 
+ date or rating are outside every range.
+*/
+final class QueryParser {
+
+  /** Parse the given text. */
+  static MovieQuery.Node parse(String aText) throws InvalidInputException {
+    QueryParser parser = new QueryParser(aText);
+    MovieQuery.Node result = parser.parseOr();
+    if ( parser.fToken != null ) throw parser.error("Unexpected '" + parser.fToken + "'");
+    return result;
+  }
+
+  // PRIVATE
+  private final String fText;
+  private int fPosition;
+  /** The current token, or null at the end of the text. */
+  private String fToken;
+  /** The current token was in quotes. */
+  private boolean fIsQuoted;
+
+  private static final String RANGE = "..";
+  private static final int NO_DATE_MIN = Movie.NO_DATE + 1;
+  private static final int MIN_RATING = 0;
+  private static final int MAX_RATING = 100;
+
+  private QueryParser(String aText){
+    fText = aText;
+    next();
+  }
+
+  private MovieQuery.Node parseOr() throws InvalidInputException {
+    List<MovieQuery.Node> children = new ArrayList<>();
+    children.add(parseAnd());
+    while ( isKeyword("or") ) {
+      next();
+      children.add(parseAnd());
+    }
+    return children.size() == 1 ? children.get(0) : MovieQuery.Node.of(MovieQuery.Node.OR, children);
+  }
+
+  private MovieQuery.Node parseAnd() throws InvalidInputException {
+    List<MovieQuery.Node> children = new ArrayList<>();
+    children.add(parseNot());
+    while ( isKeyword("and") ) {
+      next();
+      children.add(parseNot());
+    }
+    return children.size() == 1 ? children.get(0) : MovieQuery.Node.of(MovieQuery.Node.AND, children);
+  }
+
+  private MovieQuery.Node parseNot() throws InvalidInputException {
+    if ( isKeyword("not") ) {
+      next();
+      return MovieQuery.Node.not(parseNot());
+    }
+    if ( isSymbol("(") ) {
+      next();
+      MovieQuery.Node result = parseOr();
+      if ( ! isSymbol(")") ) throw error("Expected ')'");
+      next();
+      return result;
+    }
+    return parseCondition();
+  }
+
+  private MovieQuery.Node parseCondition() throws InvalidInputException {
+    if ( fToken == null ) throw error("Expected a condition, such as rating >= 8");
+    int field = fieldOf(fToken);
+    next();
+    if ( fToken == null || fIsQuoted ) throw error("Expected a comparison after " + MovieQuery.FIELD_NAMES[field]);
+    String operator = fToken.toLowerCase(Locale.ROOT);
+    next();
+    if ( field == MovieQuery.TITLE || field == MovieQuery.COMMENT ) {
+      String text = value();
+      if ( "~".equals(operator) ) return MovieQuery.Node.text(MovieQuery.Node.CONTAINS, field, text);
+      if ( "!~".equals(operator) ) return MovieQuery.Node.not(MovieQuery.Node.text(MovieQuery.Node.CONTAINS, field, text));
+      if ( "=".equals(operator) ) return MovieQuery.Node.text(MovieQuery.Node.EQUALS, field, text);
+      if ( "!=".equals(operator) ) return MovieQuery.Node.not(MovieQuery.Node.text(MovieQuery.Node.EQUALS, field, text));
+      throw error("Text can only be compared with ~, !~, = or !=, not " + operator);
+    }
+    int min = field == MovieQuery.RATING ? MIN_RATING : NO_DATE_MIN;
+    int max = field == MovieQuery.RATING ? MAX_RATING : Integer.MAX_VALUE;
+    int[] range = rangeOf(field, value());
+    if ( "in".equals(operator) ) {
+      if ( ! isSymbol(RANGE) ) throw error("Expected '..' in a range, as in 2015..2018");
+      next();
+      return MovieQuery.Node.range(field, range[0], rangeOf(field, value())[1]);
+    }
+    if ( "=".equals(operator) ) return MovieQuery.Node.range(field, range[0], range[1]);
+    if ( "!=".equals(operator) ) return MovieQuery.Node.not(MovieQuery.Node.range(field, range[0], range[1]));
+    if ( "<".equals(operator) ) return MovieQuery.Node.range(field, min, range[0] - 1);
+    if ( "<=".equals(operator) ) return MovieQuery.Node.range(field, min, range[1]);
+    if ( ">".equals(operator) ) return MovieQuery.Node.range(field, range[1] + 1, max);
+    if ( ">=".equals(operator) ) return MovieQuery.Node.range(field, range[0], max);
+    throw error("Unknown comparison: " + operator);
+  }
+
+  private int fieldOf(String aToken) throws InvalidInputException {
+    String name = aToken.toLowerCase(Locale.ROOT);
+    for(int field = 0; field < MovieQuery.FIELD_NAMES.length; ++field){
+      if ( ! fIsQuoted && MovieQuery.FIELD_NAMES[field].equals(name) ) return field;
+    }
+    throw error("Expected title, viewed, rating or comment, not '" + aToken + "'");
+  }
+
+  /** The current token, as a value, and move past it. */
+  private String value() throws InvalidInputException {
+    if ( fToken == null ) throw error("Expected a value at the end");
+    String result = fToken;
+    next();
+    return result;
+  }
+
+  /** The first and last day of a date, or the rating in tenths (twice). */
+  private int[] rangeOf(int aField, String aValue) throws InvalidInputException {
+    if ( aField == MovieQuery.RATING ) {
+      int tenths = ratingOf(aValue);
+      return new int[] {tenths, tenths};
+    }
+    try {
+      if ( aValue.matches("\\d{4}") ) {
+        int year = Integer.parseInt(aValue);
+        return new int[] {day(LocalDate.of(year, 1, 1)), day(LocalDate.of(year, 12, 31))};
+      }
+      if ( aValue.matches("\\d{4}-\\d{1,2}") ) {
+        YearMonth month = YearMonth.of(Integer.parseInt(aValue.substring(0, 4)), Integer.parseInt(aValue.substring(5)));
+        return new int[] {day(month.atDay(1)), day(month.atEndOfMonth())};
+      }
+      if ( aValue.matches("\\d{4}-\\d{1,2}-\\d{1,2}") ) {
+        String[] parts = aValue.split("-");
+        int day = day(LocalDate.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2])));
+        return new int[] {day, day};
+      }
+    }
+    catch (DateTimeException ex) {
+      //falls through
+    }
+    throw error("Expected a year, month or day, such as 2015, 2015-06 or 2015-06-21, not '" + aValue + "'");
+  }
+
+  private int ratingOf(String aValue) throws InvalidInputException {
+    if ( aValue.matches("\\d{1,2}(\\.\\d)?") ) {
+      int dot = aValue.indexOf('.');
+      int tenths = dot < 0 ? 10 * Integer.parseInt(aValue) : 
+        10 * Integer.parseInt(aValue.substring(0, dot)) + Integer.parseInt(aValue.substring(dot + 1))
+      ;
+      if ( tenths <= MAX_RATING ) return tenths;
+    }
+    throw error("Expected a rating from 0 to 10, with at most one decimal place, not '" + aValue + "'");
+  }
+
+  private static int day(LocalDate aDate){
+    return (int)aDate.toEpochDay();
+  }
+
+  private boolean isKeyword(String aKeyword){
+    return fToken != null && ! fIsQuoted && aKeyword.equalsIgnoreCase(fToken);
+  }
+
+  private boolean isSymbol(String aSymbol){
+    return fToken != null && ! fIsQuoted && aSymbol.equals(fToken);
+  }
+
+  /** Move to the next token. */
+  private void next(){
+    while ( fPosition < fText.length() && Character.isWhitespace(fText.charAt(fPosition)) ) {
+      ++fPosition;
+    }
+    fIsQuoted = false;
+    if ( fPosition == fText.length() ) {
+      fToken = null;
+      return;
+    }
+    int start = fPosition;
+    char c = fText.charAt(fPosition);
+    if ( c == '"' ) {
+      fToken = quoted();
+      fIsQuoted = true;
+    }
+    else if ( fText.startsWith(RANGE, fPosition) || c == '(' || c == ')' ) {
+      fPosition = fPosition + (c == '.' ? RANGE.length() : 1);
+      fToken = fText.substring(start, fPosition);
+    }
+    else if ( "<>=!~".indexOf(c) >= 0 ) {
+      ++fPosition;
+      if ( fPosition < fText.length() && "=~".indexOf(fText.charAt(fPosition)) >= 0 && c != '=' && c != '~' ) {
+        ++fPosition;
+      }
+      fToken = fText.substring(start, fPosition);
+    }
+    else {
+      while ( fPosition < fText.length() && isWordChar(fPosition) ) {
+        ++fPosition;
+      }
+      if ( fPosition == start ) {
+        ++fPosition;
+      }
+      fToken = fText.substring(start, fPosition);
+    }
+  }
+
+  /** A word ends at white space, a symbol, or '..'. */
+  private boolean isWordChar(int aPosition){
+    char c = fText.charAt(aPosition);
+    return ! Character.isWhitespace(c) && "()<>=!~\"".indexOf(c) < 0 && ! fText.startsWith(RANGE, aPosition);
+  }
+
+  /** The text in quotes starting at the current position, without the quotes. */
+  private String quoted(){
+    StringBuilder result = new StringBuilder();
+    ++fPosition;
+    while ( fPosition < fText.length() && fText.charAt(fPosition) != '"' ) {
+      char c = fText.charAt(fPosition);
+      if ( c == '\\' && fPosition + 1 < fText.length() ) {
+        ++fPosition;
+        c = fText.charAt(fPosition);
+      }
+      result.append(c);
+      ++fPosition;
+    }
+    //a missing closing quote is forgiven
+    if ( fPosition < fText.length() ) {
+      ++fPosition;
+    }
+    return result.toString();
+  }
+
+  private InvalidInputException error(String aMessage){
+    InvalidInputException result = new InvalidInputException();
+    result.add("Query: " + aMessage + ".");
+    return result;
+  }
+}
@@ -0,0 +1,112 @@
+package hirondelle.movies.edit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ Find the first few movies in a given order, without sorting all of them.
+
+ <P>A bounded heap holds the best movies seen so far, with the worst of them on top. Each 
+ movie is compared with the top of the heap, and replaces it only if it's better. Most 
+ movies are rejected by that single comparison, so finding the first <tt>k</tt> of 
+ <tt>n</tt> movies takes <tt>O(n log k)</tt> time, and <tt>O(k)</tt> extra space.
+
+ <P>A long list is split into parts, and each part gets its own heap, on the common 
+ fork-join pool. The first <tt>k</tt> of each part are then merged with another heap.
+*/
+final class TopMovies {
+
+  /**
+   Return the first movies in the given order, in that order.
+   @param aMovies in any order
+   @param aSize the number of movies
+   @param aCount the most movies to return
+   @param aOrder the order of the result
+  */
+  static List<Movie> of(Iterable<Movie> aMovies, int aSize, int aCount, Comparator<Movie> aOrder){
+    if ( aCount <= 0 ) return Collections.emptyList();
+    if ( aSize < MIN_SIZE_FOR_PARALLEL || Runtime.getRuntime().availableProcessors() == 1 ) {
+      return sorted(topOf(aMovies, aSize, aCount, aOrder), aOrder);
+    }
+    Movie[] movies = new Movie[aSize];
+    int size = 0;
+    for(Movie movie : aMovies){
+      movies[size++] = movie;
+    }
+    List<Movie> tops = partialTops(movies, size, aCount, aOrder);
+    return sorted(topOf(tops, tops.size(), aCount, aOrder), aOrder);
+  }
+
+  // PRIVATE
+
+  /** Below this, splitting the work costs more than it saves. */
+  private static final int MIN_SIZE_FOR_PARALLEL = 100000;
+  /** More parts than threads, so a slow thread doesn't hold up the others. */
+  private static final int PARTS_PER_THREAD = 4;
+
+  /** 
+   A heap of the first aCount movies, with the last of them on top. The heap is never 
+   bigger than the number of movies, however large aCount is.
+  */
+  private static PriorityQueue<Movie> topOf(Iterable<Movie> aMovies, int aSize, int aCount, Comparator<Movie> aOrder){
+    int capacity = Math.max(1, Math.min(aCount, aSize));
+    PriorityQueue<Movie> result = new PriorityQueue<>(capacity, Collections.reverseOrder(aOrder));
+    for(Movie movie : aMovies){
+      if ( result.size() < aCount ) {
+        result.add(movie);
+      }
+      else if ( aOrder.compare(movie, result.peek()) < 0 ) {
+        result.poll();
+        result.add(movie);
+      }
+    }
+    return result;
+  }
+
+  /** Drain the heap, from the last movie to the first. */
+  private static List<Movie> sorted(PriorityQueue<Movie> aHeap, Comparator<Movie> aOrder){
+    Movie[] result = new Movie[aHeap.size()];
+    for(int idx = result.length - 1; idx >= 0; --idx){
+      result[idx] = aHeap.poll();
+    }
+    return Arrays.asList(result);
+  }
+
+  /** The first aCount movies of each part of the array, all together, in no particular order. */
+  private static List<Movie> partialTops(final Movie[] aMovies, int aSize, final int aCount, final Comparator<Movie> aOrder){
+    int numParts = Runtime.getRuntime().availableProcessors() * PARTS_PER_THREAD;
+    int partSize = (aSize + numParts - 1) / numParts;
+    List<Callable<PriorityQueue<Movie>>> parts = new ArrayList<>();
+    for(int start = 0; start < aSize; start = start + partSize){
+      final int from = start;
+      final int to = Math.min(aSize, start + partSize);
+      parts.add(new Callable<PriorityQueue<Movie>>(){
+        @Override public PriorityQueue<Movie> call() {
+          return topOf(Arrays.asList(aMovies).subList(from, to), to - from, aCount, aOrder);
+        }
+      });
+    }
+    List<Movie> result = new ArrayList<>();
+    try {
+      for(Future<PriorityQueue<Movie>> part : ForkJoinPool.commonPool().invokeAll(parts)){
+        result.addAll(part.get());
+      }
+    }
+    catch (ExecutionException ex) {
+      throw new RuntimeException("Cannot find the top movies.", ex.getCause());
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while finding the top movies.", ex);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,71 @@
+package hirondelle.movies.edit;
+
+import hirondelle.movies.main.MainWindow;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingWorker;
+
+/**
+ Undo or redo an edit on a worker thread, and then refresh the main window.
+
+ <P>Undoing an edit locks the journal, which may wait for another instance of the app, and
+ appends to it. None of that file I/O is done on the Event Dispatch Thread. The workers run
+ one at a time, in the order the user asked for them, so that quick presses of Undo and Redo
+ take effect in that order.
+*/
+final class UndoRedoWorker extends SwingWorker<Void, Void> {
+
+  /** Undo the most recent edit, or redo the most recently undone one. */
+  static void start(boolean aUndo){
+    fThread.execute(new UndoRedoWorker(aUndo));
+  }
+
+  static final boolean UNDO = true;
+  static final boolean REDO = false;
+
+  @Override protected Void doInBackground() {
+    MovieDAO dao = new MovieDAO();
+    if ( fUndo ) {
+      dao.undo();
+    }
+    else {
+      dao.redo();
+    }
+    return null;
+  }
+
+  /** Runs on the Event Dispatch Thread. */
+  @Override protected void done() {
+    try {
+      get(); //rethrows any problem in the worker
+      MainWindow.getInstance().refreshView();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException ex) {
+      throw new RuntimeException(fUndo ? "Cannot undo the edit." : "Cannot redo the edit.", ex.getCause());
+    }
+  }
+
+  // PRIVATE
+  private final boolean fUndo;
+
+  private static final ExecutorService fThread = Executors.newSingleThreadExecutor(
+    new ThreadFactory(){
+      @Override public Thread newThread(Runnable aRunnable) {
+        Thread result = new Thread(aRunnable, "Undo and redo edits");
+        result.setDaemon(true);
+        return result;
+      }
+    }
+  );
+
+  private UndoRedoWorker(boolean aUndo){
+    fUndo = aUndo;
+  }
+}
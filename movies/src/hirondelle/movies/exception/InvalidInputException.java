@@ -7,9 +7,25 @@ import hirondelle.movies.util.Args;
  
   <P>Most applications need to handle erroneous user input in a controlled way. 
   When user input is found to be invalid, objects of this class are created and thrown, 
-  and appropriate error messages are displayed to the user. */
+  and appropriate error messages are displayed to the user. 
+  
+  <P>Objects of this class don't capture a stack trace. They're created in response to 
+  the user, not to a bug, and so the stack trace would tell nothing useful, while costing 
+  more than the rest of the validation. See {@link ValidationResult} for validating without 
+  creating an exception at all, when there are no errors. */
 public final class InvalidInputException extends Exception {
   
+  /** Constructor. Add the error messages with {@link #add(String)}. */
+  public InvalidInputException(){
+    super(null, null, false, false);
+  }
+  
+  /** Constructor taking the error messages found by a {@link ValidationResult}. */
+  InvalidInputException(List<String> aErrorMessages){
+    this();
+    fErrorMessages.addAll(aErrorMessages);
+  }
+  
   /**  Add a new error message to this exception. */
   public void add(String aErrorMessage){
     Args.checkForContent(aErrorMessage);
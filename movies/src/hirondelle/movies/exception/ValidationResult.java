@@ -0,0 +1,47 @@
+package hirondelle.movies.exception;
+
+import java.util.*;
+import hirondelle.movies.util.Args;
+
+/**
+ Collects the error messages found when validating user input, without throwing.
+
+ <P>Unlike {@link InvalidInputException}, an object of this class can be reused, by calling 
+ {@link #clear()}. Validating input which has no errors then allocates nothing at all. 
+ An exception is created only when there is an error to report, by {@link #throwIfErrors()}.
+
+ <P>This class is not thread-safe.
+*/
+public final class ValidationResult {
+
+  /** Add a new error message. */
+  public void add(String aErrorMessage){
+    Args.checkForContent(aErrorMessage);
+    fErrorMessages.add(aErrorMessage);
+  }
+
+  /** Return an unmodifiable list of the error messages. */
+  public List<String> getErrorMessages(){
+    return Collections.unmodifiableList(fErrorMessages);
+  }
+
+  /** Return <tt>true</tt> only if {@link #add(String)} has been called since the last {@link #clear()}. */
+  public boolean hasErrors(){
+    return ! fErrorMessages.isEmpty();
+  }
+
+  /** Remove all error messages, so that this object can be reused. */
+  public void clear(){
+    fErrorMessages.clear();
+  }
+
+  /** Throw an {@link InvalidInputException} holding the error messages, if there are any. */
+  public void throwIfErrors() throws InvalidInputException {
+    if ( hasErrors() ) {
+      throw new InvalidInputException(fErrorMessages);
+    }
+  }
+
+  // PRIVATE
+  private final List<String> fErrorMessages = new ArrayList<>();
+}
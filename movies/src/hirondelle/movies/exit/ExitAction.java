@@ -2,19 +2,41 @@ package hirondelle.movies.exit;
 
 import hirondelle.movies.edit.MovieDAO;
 import hirondelle.movies.util.Util;
+import hirondelle.movies.util.ui.OnClose;
+import hirondelle.movies.util.ui.StandardDialog;
+import hirondelle.movies.util.ui.UiUtil;
 
+import java.awt.Frame;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.AbstractAction;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.KeyStroke;
+import javax.swing.SwingWorker;
 
 /** 
   Save changes and close the application.
   
   <ul>   <li>persist the changes the user has made during this session   <li>close the main window
    <li>shut down the JVM   </ul>
+
+  <P>Saving a large list can take a while. The save is performed on a worker thread,
+  not on the Event Dispatch Thread, while a small dialog tells the user what is happening.
+  If nothing has been edited, then there is nothing to save, and the app exits immediately.
+  While the movies files are shared with other instances, the edits in their journal are 
+  folded into the files here too, unless another instance is still running.
+  If the save fails, then the user is told, and the app keeps running, so that no edits are lost.
 */
 public final class ExitAction extends AbstractAction {
   
@@ -29,12 +51,88 @@ public final class ExitAction extends AbstractAction {
   
   /** Save all edits and exit the app. */
   @Override public void actionPerformed(ActionEvent aActionEvent) {
-    fLogger.config("Persisting data.");
     MovieDAO dao = new MovieDAO();
-    dao.shutdown();
+    if ( dao.hasUnsavedEdits() ) {
+      fLogger.config("Persisting data.");
+      setEnabled(false); //prevent a second save from being started
+      new SaveThenExit(dao).execute();
+    }
+    else {
+      fLogger.config("No unsaved edits.");
+      exit();
+    }
+  }
+
+  // PRIVATE
+  private static final Logger fLogger = Util.getLogger(ExitAction.class);
+
+  /** Save the data on a worker thread, then exit when done. */
+  private final class SaveThenExit extends SwingWorker<Void, Void> {
+    SaveThenExit(MovieDAO aDAO){
+      fDAO = aDAO;
+      fOwner = UiUtil.getActiveFrame();
+      if ( fOwner != null ){
+        fOwner.setEnabled(false);
+      }
+      fProgress = buildProgressDialog(fOwner);
+      fProgress.display();
+    }
+    @Override protected Void doInBackground() {
+      fDAO.shutdown();
+      return null;
+    }
+    /** Runs on the Event Dispatch Thread. */
+    @Override protected void done() {
+      fProgress.dispose();
+      try {
+        get(); //rethrows any problem in the worker
+        if ( fDAO.hasUnsavedEdits() ) {
+          saveFailed("The movies could not be saved. See the log for details.");
+        }
+        else {
+          exit();
+        }
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException ex) {
+        fLogger.log(Level.SEVERE, "Cannot save the movies.", ex.getCause());
+        saveFailed("The movies could not be saved: " + ex.getCause());
+      }
+    }
+    /** Keep the app running, so the user can try again. */
+    private void saveFailed(String aMessage){
+      if ( fOwner != null ){
+        fOwner.setEnabled(true);
+      }
+      setEnabled(true);
+      JOptionPane.showMessageDialog(
+        fOwner, aMessage, "Movies not saved", JOptionPane.ERROR_MESSAGE
+      );
+    }
+    private final MovieDAO fDAO;
+    private final Frame fOwner;
+    private final StandardDialog fProgress;
+  }
+
+  private StandardDialog buildProgressDialog(Frame aOwner){
+    JPanel body = new JPanel();
+    body.setLayout(new BoxLayout(body, BoxLayout.Y_AXIS));
+    body.add(new JLabel("Saving your movies..."));
+    JProgressBar progressBar = new JProgressBar();
+    progressBar.setIndeterminate(true);
+    body.add(progressBar);
+    UiUtil.alignAllX(body, UiUtil.AlignX.LEFT);
+    JFrame owner = (aOwner instanceof JFrame) ? (JFrame)aOwner : null;
+    boolean NOT_MODAL = false;
+    return new StandardDialog(
+      owner, "Saving", NOT_MODAL, OnClose.DO_NOTHING, body, new ArrayList<JButton>()
+    );
+  }
+
+  private void exit(){
     fLogger.config("Exiting the application.");
     System.exit(0);
   }
-  
-  private static final Logger fLogger = Util.getLogger(ExitAction.class);
 }
@@ -1,10 +1,15 @@
 package hirondelle.movies.login;
 
+import hirondelle.movies.edit.MovieEncryption;
+import hirondelle.movies.exception.InvalidInputException;
 import hirondelle.movies.main.MainWindow;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
+import hirondelle.movies.util.StartupTrace;
 import hirondelle.movies.util.Util;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import javax.swing.SwingWorker;
 
 /**  Allow only authenticated users to log in to the application. 
   
@@ -41,24 +46,25 @@ public final class LoginController implements ActionListener {
    <P>If the validation succeeds, close the login screen and display the {@link MainWindow}.
    If the validation fails, allow the user to make a few more attempts at login.
    If the validation fails repeatedly, close the application.
+   
+   <P>If the user's movies are encrypted, the password must also be the one they were 
+   saved with. See {@link MovieEncryption}.
   */
   void validateUserCredentials(){
     fNumAttempts++;
     String userName = fView.getUserName();
-    String password = fView.getPassword();
+    char[] password = fView.getPassword();
     if (isValid(userName, password)){
-      fView.close();
-      showMainWindow(userName);
-    }
-    else {
-      if(fNumAttempts < MAX_NUM_ATTEMPTS) {
-        fView.tryAgain();
+      if ( MovieEncryption.isOnFor(userName) ) {
+        unlockInBackground(userName, password);
       }
       else {
-        fLogger.config("Shutting down. User credentials not valid for more than the max number of tries.");
-        shutDownApplication();
+        logIn(userName);
       }
     }
+    else {
+      failedAttempt();
+    }
   }
   
   /** Action command string. */
@@ -78,10 +84,58 @@ public final class LoginController implements ActionListener {
    Login is always valid, <em>except</em> the user name is <tt>'failme'</tt>. This is 
    to allow testing of the failure branch. 
   */
-  private boolean isValid(String aUserName, String aPassword){
+  private boolean isValid(String aUserName, char[] aPassword){
     return Util.textHasContent(aUserName) && ! "failme".equals(aUserName);
   }
   
+  /** 
+   Derive the key of the user's movies from their password, on a worker thread, since it's 
+   slow on purpose. The login screen stays responsive in the meantime. 
+  */
+  private void unlockInBackground(final String aUserName, final char[] aPassword){
+    StartupTrace.phase("derive the key from the password");
+    fView.setBusy(true);
+    SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+      @Override protected Void doInBackground() throws Exception {
+        MovieEncryption.unlock(aUserName, aPassword);
+        return null;
+      }
+      @Override protected void done() {
+        fView.setBusy(false);
+        try {
+          get();
+          logIn(aUserName);
+        }
+        catch (ExecutionException ex) {
+          if ( ! (ex.getCause() instanceof InvalidInputException) ) {
+            fLogger.severe("Cannot open the encrypted movies. " + ex.getCause());
+          }
+          failedAttempt();
+        }
+        catch (InterruptedException ex) {
+          failedAttempt();
+        }
+      }
+    };
+    worker.execute();
+  }
+  
+  private void logIn(String aUserName){
+    StartupTrace.phase("close the login screen");
+    fView.close();
+    showMainWindow(aUserName);
+  }
+  
+  private void failedAttempt(){
+    if(fNumAttempts < MAX_NUM_ATTEMPTS) {
+      fView.tryAgain();
+    }
+    else {
+      fLogger.config("Shutting down. User credentials not valid for more than the max number of tries.");
+      shutDownApplication();
+    }
+  }
+  
   /** Display the app's main window to the user.  */
   private void showMainWindow(String aUserName){
     fLogger.config("Showing the main window.");
@@ -1,10 +1,13 @@
 package hirondelle.movies.login;
 
+import hirondelle.movies.util.StartupTrace;
 import hirondelle.movies.util.ui.OnClose;
 import hirondelle.movies.util.ui.StandardDialog;
 import java.util.*;
 import hirondelle.movies.util.ui.UiUtil;
 import javax.swing.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 /**
   Show a screen asking the user for their user name and password.
@@ -36,6 +39,11 @@ final class LoginView {
       true, OnClose.DISPOSE, getBody(), getButtons()
     );
     fStandardDialog.setDefaultButton(fLogin);
+    fStandardDialog.getDialog().addWindowListener(new WindowAdapter() {
+      @Override public void windowOpened(WindowEvent aEvent) {
+        StartupTrace.waitForUser("waiting for the user to log in");
+      }
+    });
     fStandardDialog.display();
   }
   
@@ -49,9 +57,17 @@ final class LoginView {
     return fUserName.getText();
   }
   
-  /** Return the password entered by the user. */
-  String getPassword(){
-    return fPassword.getPassword().toString();
+  /** Return the password entered by the user. The caller should clear it after use. */
+  char[] getPassword(){
+    return fPassword.getPassword();
+  }
+  
+  /** Show that the login is in progress, and stop the user from starting another. */
+  void setBusy(boolean aIsBusy){
+    fLogin.setEnabled(! aIsBusy);
+    if ( aIsBusy ) {
+      fMessage.setText("Opening your movies...");
+    }
   }
   
   /** Remove the login screen. */
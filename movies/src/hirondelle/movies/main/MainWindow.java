@@ -5,30 +5,53 @@ import hirondelle.movies.about.AboutAction;
 import hirondelle.movies.edit.MovieActionAdd;
 import hirondelle.movies.edit.MovieActionChange;
 import hirondelle.movies.edit.MovieActionDelete;
+import hirondelle.movies.edit.MovieActionRedo;
+import hirondelle.movies.edit.MovieActionUndo;
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.edit.MovieDelta;
 import hirondelle.movies.edit.MovieTableModel;
 import hirondelle.movies.exit.ExitAction;
+import hirondelle.movies.similar.SimilarMoviesView;
+import hirondelle.movies.stats.StatsAction;
+import hirondelle.movies.top.TopMoviesAction;
+import hirondelle.movies.util.CurrentUser;
+import hirondelle.movies.util.StartupTrace;
 import hirondelle.movies.util.Util;
 import hirondelle.movies.util.ui.UiUtil;
 
+import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.Locale;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import javax.swing.Action;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
 import javax.swing.JTable;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 
 /** Main window for the application.
  
@@ -57,13 +80,64 @@ public final class MainWindow {
   */
   public void buildAndShow(String aUserName){
     fUserName = aUserName;
-    fLogger.fine("Building GUI for user : " + aUserName);
+    CurrentUser.set(aUserName);
+    fLogger.fine(new Supplier<String>(){
+      @Override public String get() {
+        return "Building GUI for user : " + aUserName;
+      }
+    });
     buildGui();
   }
   
+  /**
+   Do some of the slow parts of building the main window ahead of time, on a background 
+   thread, while the user is still logging in.
+   
+   <P>Reads the application icon, and loads the classes of the main window's components.
+   The classes are loaded, but not initialized : their static initializers still run when 
+   they're first used. (The movies can't be read in before the user has logged in.)
+   This is only an optimization : if the user is quicker, {@link #buildAndShow(String)} 
+   simply does the same work itself.
+  */
+  public static void prepareInBackground(){
+    Thread thread = new Thread("Prepare main window"){
+      @Override public void run() {
+        UiUtil.createImageIcon(APP_ICON, APP_ICON_DESCRIPTION, MainWindow.class);
+        ClassLoader loader = MainWindow.class.getClassLoader();
+        for(final String className : CLASSES_TO_LOAD){
+          try {
+            Class.forName(className, false, loader);
+          }
+          catch (ClassNotFoundException ex) {
+            fLogger.fine(new Supplier<String>(){
+              @Override public String get() {
+                return "Cannot load class ahead of time: " + className;
+              }
+            });
+          }
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+  
   /** Refresh the display in response to changing database content. */
   public void refreshView(){
     fMovieTableModel.refreshView();
+    fUndoAction.refreshEnabled();
+    fRedoAction.refreshEnabled();
+  }
+  
+  /** 
+   Show the movies changed by another instance of the app, refreshing only the rows affected.
+   @param aDelta possibly-null; null means that all the movies may have changed.
+  */
+  public void showChanges(MovieDelta aDelta){
+    fMovieTableModel.applyChanges(aDelta);
+    fUndoAction.refreshEnabled();
+    fRedoAction.refreshEnabled();
   }
   
   /** 
@@ -86,28 +160,78 @@ public final class MainWindow {
   
   private MovieTableModel fMovieTableModel;
   private JTable fMovieTable;
-  private Action fChangeMovieAction;
+  private MovieActionAdd fAddMovieAction;
+  private MovieActionChange fChangeMovieAction;
   private Action fDeleteMovieAction;
+  private Action fExitAction;
+  private MovieActionUndo fUndoAction;
+  private MovieActionRedo fRedoAction;
+  private SimilarMoviesView fSimilarMoviesView;
   private String fUserName;
   private static final Logger fLogger = Util.getLogger(MainWindow.class);
   
+  private static final String APP_ICON = "app_icon.png";
+  private static final String APP_ICON_DESCRIPTION = "Application icon";
+  
+  /** The classes which are slowest to load when the main window is first built. */
+  private static final String[] CLASSES_TO_LOAD = {
+    "javax.swing.JTable", "javax.swing.table.JTableHeader", "javax.swing.JScrollPane", 
+    "javax.swing.JSplitPane", "javax.swing.JMenuBar", "javax.swing.JMenu", 
+    "javax.swing.JMenuItem", "javax.swing.JList", "javax.swing.SwingWorker", 
+    "hirondelle.movies.edit.MovieTableModel", "hirondelle.movies.edit.MovieDAO", 
+    "hirondelle.movies.similar.SimilarMoviesView", "hirondelle.movies.main.QuickFilter"
+  };
+  
   /** Build the user interface. */
   private void buildGui(){
+    StartupTrace.phase("main window frame");
     JFrame frame = new JFrame(
       LaunchApplication.APP_NAME + 
       " - " + fUserName.toUpperCase(Locale.ENGLISH)
     ); 
     
+    StartupTrace.phase("table model");
     fMovieTableModel = new MovieTableModel();
     fMovieTable = new JTable(fMovieTableModel);
+    fSimilarMoviesView = new SimilarMoviesView();
     
+    StartupTrace.phase("actions and menus");
     buildActionsAndMenu(frame);
+    StartupTrace.phase("content");
     buildContent(frame);
     
-    frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    closingTheFrameExitsTheApp(frame);
     placeInMiddlePartOfTheScreen(frame);
     addApplicationIcon(frame);
+    StartupTrace.phase("show the main window");
     UiUtil.centerAndShow(frame);
+    StartupTrace.phase("reading the movies");
+    firstMoviesShownFinishesStartup();
+  }
+  
+  /** 
+   When the table first shows the movies, the app can be used. The edit dialogs are then 
+   built, when the user is unlikely to notice. The movies have been read in by then, so 
+   the JVM shutdown hook which saves them is added as well, and the edits of other 
+   instances are watched for. (Creating a MovieDAO any earlier would read in the movies 
+   on the Event Dispatch Thread, which would then freeze until they're all read.)
+  */
+  private void firstMoviesShownFinishesStartup() {
+    fMovieTableModel.addTableModelListener(new TableModelListener() {
+      @Override public void tableChanged(TableModelEvent aEvent) {
+        fMovieTableModel.removeTableModelListener(this);
+        StartupTrace.finish();
+        MovieDAO.saveUponJvmShutdown();
+        new StorePoller().start();
+        new PeerWatcher().start();
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override public void run() {
+            fAddMovieAction.prepareDialog();
+            fChangeMovieAction.prepareDialog();
+          }
+        });
+      }
+    });
   }
 
   /** Sort the table.  Listens for clicks on the JTableHeader. */
@@ -132,11 +256,12 @@ public final class MainWindow {
   
   /** Enable edit and delete actions only when something is selected in the table. */
   private final class EnableEditActions implements ListSelectionListener {
-    @Override public void valueChanged(ListSelectionEvent aEvent) {
-      fLogger.fine(
-        "List selection changed. First:" + aEvent.getFirstIndex() 
-        + " Last " + aEvent.getLastIndex()
-      );
+    @Override public void valueChanged(final ListSelectionEvent aEvent) {
+      fLogger.fine(new Supplier<String>(){
+        @Override public String get() {
+          return "List selection changed. First:" + aEvent.getFirstIndex() + " Last " + aEvent.getLastIndex();
+        }
+      });
       if( aEvent.getFirstIndex() != -1) {
         fDeleteMovieAction.setEnabled(true);
         fChangeMovieAction.setEnabled(true);
@@ -148,23 +273,47 @@ public final class MainWindow {
     }
   }
   
+  /** Show the movies most similar to the selected movie. */
+  private final class ShowSimilarMovies implements ListSelectionListener {
+    @Override public void valueChanged(ListSelectionEvent aEvent) {
+      if ( aEvent.getValueIsAdjusting() ) return;
+      int row = fMovieTable.getSelectedRow();
+      fSimilarMoviesView.showSimilarTo(row == -1 ? null : fMovieTableModel.getId(row));
+    }
+  }
+  
   /** Build the menu bar. */
   private void buildActionsAndMenu(JFrame aFrame) {
     JMenuBar menuBar = new JMenuBar();
 
     JMenu fileMenu = new JMenu("File");
     fileMenu.setMnemonic('F'); 
-    Action addMovieAction = new MovieActionAdd(aFrame);
-    fileMenu.add(new JMenuItem(addMovieAction));
+    fAddMovieAction = new MovieActionAdd(aFrame);
+    fileMenu.add(new JMenuItem(fAddMovieAction));
     fChangeMovieAction = new MovieActionChange(aFrame, fMovieTable, fMovieTableModel);
     fileMenu.add(new JMenuItem(fChangeMovieAction));
     fDeleteMovieAction = new MovieActionDelete(fMovieTable, fMovieTableModel);
     fileMenu.add(new JMenuItem(fDeleteMovieAction));
     
-    Action exitAction = new ExitAction();
-    fileMenu.add(new JMenuItem(exitAction));
+    fExitAction = new ExitAction();
+    fileMenu.add(new JMenuItem(fExitAction));
     menuBar.add(fileMenu);
     
+    JMenu editMenu = new JMenu("Edit");
+    editMenu.setMnemonic('E');
+    fUndoAction = new MovieActionUndo();
+    editMenu.add(new JMenuItem(fUndoAction));
+    fRedoAction = new MovieActionRedo();
+    editMenu.add(new JMenuItem(fRedoAction));
+    menuBar.add(editMenu);
+    
+    JMenu viewMenu = new JMenu("View");
+    viewMenu.setMnemonic('V');
+    viewMenu.add(new JMenuItem(new StatsAction(aFrame)));
+    viewMenu.add(new JMenuItem(TopMoviesAction.topRated(aFrame)));
+    viewMenu.add(new JMenuItem(TopMoviesAction.recentlyWatched(aFrame)));
+    menuBar.add(viewMenu);
+    
     JMenu helpMenu = new JMenu("Help");
     helpMenu.setMnemonic('H');
     helpMenu.add(new JMenuItem(new AboutAction(aFrame)));
@@ -173,6 +322,21 @@ public final class MainWindow {
     aFrame.setJMenuBar(menuBar);
   }
   
+  /** 
+   Closing the frame has the same effect as the Exit menu item. 
+   (Using <tt>EXIT_ON_CLOSE</tt> would exit without saving the user's edits.) 
+  */
+  private void closingTheFrameExitsTheApp(JFrame aFrame) {
+    aFrame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+    aFrame.addWindowListener(new WindowAdapter() {
+      @Override public void windowClosing(WindowEvent aEvent) {
+        if ( fExitAction.isEnabled() ) {
+          fExitAction.actionPerformed(new ActionEvent(aEvent.getSource(), 0, ""));
+        }
+      }
+    });
+  }
+  
   /** Expand the frame to fill the middle part of the screen. */
   private void placeInMiddlePartOfTheScreen(JFrame aFrame) {
     Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
@@ -185,7 +349,7 @@ public final class MainWindow {
     Not that a path relative to this class is used. 
    */
   private void addApplicationIcon(JFrame aFrame) {
-    ImageIcon icon =  UiUtil.createImageIcon("app_icon.png", "Application icon", this.getClass());
+    ImageIcon icon =  UiUtil.createImageIcon(APP_ICON, APP_ICON_DESCRIPTION, this.getClass());
     aFrame.setIconImage(icon.getImage());
   }
 
@@ -208,9 +372,34 @@ public final class MainWindow {
     clickOnHeaderSortsTable();
     doubleClickShowsEditDialog();
     rowSelectionEnablesActions();
+    rowSelectionShowsSimilarMovies();
     
     JScrollPane panel = new JScrollPane(fMovieTable);
-    aFrame.getContentPane().add(panel);  
+    scrollingToTheEndLoadsOlderMovies(panel);
+    JSplitPane split = new JSplitPane(
+      JSplitPane.HORIZONTAL_SPLIT, panel, fSimilarMoviesView.getComponent()
+    );
+    split.setResizeWeight(0.8);
+    aFrame.getContentPane().add(split, BorderLayout.CENTER);
+    aFrame.getContentPane().add(buildFilterBar(), BorderLayout.NORTH);
+  }
+  
+  /** Typing in the filter bar narrows the table, as the user types. So does a query. */
+  private JPanel buildFilterBar() {
+    JPanel result = new JPanel(new FlowLayout(FlowLayout.LEADING));
+    QuickFilter quickFilter = new QuickFilter(fMovieTableModel);
+    JLabel label = new JLabel("Filter:");
+    label.setDisplayedMnemonic('i');
+    label.setLabelFor(quickFilter.getTextField());
+    result.add(label);
+    result.add(quickFilter.getTextField());
+    QueryField queryField = new QueryField(fMovieTableModel);
+    JLabel queryLabel = new JLabel("Query:");
+    queryLabel.setDisplayedMnemonic('q');
+    queryLabel.setLabelFor(queryField.getTextField());
+    result.add(queryLabel);
+    result.add(queryField.getTextField());
+    return result;
   }
 
   private void clickOnHeaderSortsTable() {
@@ -226,5 +415,24 @@ public final class MainWindow {
   private void rowSelectionEnablesActions() {
     fMovieTable.getSelectionModel().addListSelectionListener(new EnableEditActions());
   }
+  
+  private void rowSelectionShowsSimilarMovies() {
+    fMovieTable.getSelectionModel().addListSelectionListener(new ShowSimilarMovies());
+  }
+  
+  /** 
+   Only the most recent movies are read in at first. Reaching the end of the table reads in 
+   older ones. (So does a table too short to need scrolling.)
+  */
+  private void scrollingToTheEndLoadsOlderMovies(JScrollPane aPanel) {
+    final JScrollBar scrollBar = aPanel.getVerticalScrollBar();
+    scrollBar.addAdjustmentListener(new AdjustmentListener() {
+      @Override public void adjustmentValueChanged(AdjustmentEvent aEvent) {
+        if ( scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum() ) {
+          fMovieTableModel.loadOlderMovies();
+        }
+      }
+    });
+  }
 }
       
\ No newline at end of file
@@ -0,0 +1,121 @@
+package hirondelle.movies.main;
+
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.edit.MovieDelta;
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+/**
+ Show the edits made by other instances of the app which share the movies files, when no
+ store daemon is running.
+
+ <P>A {@link WatchService} tells a background thread when the index of the movies files, or
+ their journal, is written. A worker thread then reads only the new lines of the journal (see
+ {@link MovieDAO#syncWithOtherInstances()}), and only the rows of the table showing the
+ changed movies are refreshed. Nothing is polled : while no other instance is editing,
+ this class does nothing at all.
+*/
+final class PeerWatcher {
+
+  /** Start watching. Does nothing if the movies files aren't shared. */
+  void start(){
+    final List<Path> files = fDAO.getSharedFiles();
+    if ( files.isEmpty() ) return;
+    final WatchService watcher;
+    try {
+      watcher = FileSystems.getDefault().newWatchService();
+      files.get(0).getParent().register(
+        watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY
+      );
+    }
+    catch (IOException ex) {
+      fLogger.severe(new Supplier<String>(){
+        @Override public String get() {
+          return "Cannot watch the movies files for edits by other instances: " + ex;
+        }
+      });
+      return;
+    }
+    Thread thread = new Thread("Movies file watcher"){
+      @Override public void run() {
+        watch(watcher, files);
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // PRIVATE
+  private final MovieDAO fDAO = new MovieDAO();
+  /** Only one sync at a time. A sync started after the last write always sees it. */
+  private final AtomicBoolean fIsSyncPending = new AtomicBoolean();
+  private static final Logger fLogger = Util.getLogger(PeerWatcher.class);
+
+  private void watch(WatchService aWatcher, List<Path> aFiles){
+    try {
+      while ( true ) {
+        WatchKey key = aWatcher.take();
+        boolean isShared = false;
+        for(WatchEvent<?> event : key.pollEvents()){
+          Object file = event.context();
+          for(Path shared : aFiles){
+            isShared = isShared || shared.getFileName().equals(file);
+          }
+          //too many events to report : assume the worst
+          isShared = isShared || event.kind() == StandardWatchEventKinds.OVERFLOW;
+        }
+        key.reset();
+        if ( isShared && fIsSyncPending.compareAndSet(false, true) ) {
+          SwingUtilities.invokeLater(new Runnable(){
+            @Override public void run() {
+              new Sync().execute();
+            }
+          });
+        }
+      }
+    }
+    catch (InterruptedException | ClosedWatchServiceException ex) {
+      //stop watching
+    }
+  }
+
+  private final class Sync extends SwingWorker<MovieDelta, Void> {
+    @Override protected MovieDelta doInBackground() {
+      //any write from now on starts another sync
+      fIsSyncPending.set(false);
+      return fDAO.syncWithOtherInstances();
+    }
+    @Override protected void done() {
+      try {
+        MovieDelta delta = get();
+        if ( delta == null || ! delta.isEmpty() ) {
+          fLogger.fine("Showing edits made by other instances of the app.");
+          MainWindow.getInstance().showChanges(delta);
+        }
+      }
+      catch (InterruptedException | ExecutionException ex) {
+        fLogger.severe(new Supplier<String>(){
+          @Override public String get() {
+            return "Cannot read edits made by other instances of the app: " + ex;
+          }
+        });
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package hirondelle.movies.main;
+
+import hirondelle.movies.edit.MovieQuery;
+import hirondelle.movies.edit.MovieTableModel;
+import hirondelle.movies.exception.InvalidInputException;
+import hirondelle.movies.util.Util;
+
+import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ Show only the movies which match a query, such as <tt>rating &gt;= 8 and viewed in 2015..2018</tt>.
+
+ <P>As with {@link QuickFilter}, the query is applied only after the user pauses briefly.
+ While the text is not a valid query, the field is shown in a warning color, with the problem 
+ as its tool tip, and the table is left as it is. The querying itself is done off the Event 
+ Dispatch Thread, by {@link MovieTableModel#query(MovieQuery)}.
+*/
+final class QueryField {
+
+  /** Constructor. */
+  QueryField(MovieTableModel aMovieTableModel){
+    fMovieTableModel = aMovieTableModel;
+    fTextField.setColumns(30);
+    fTextField.setToolTipText(HELP);
+    fNormalColor = fTextField.getBackground();
+    fDelay = new Timer(DEBOUNCE_MILLIS, new ActionListener() {
+      @Override public void actionPerformed(ActionEvent aEvent) {
+        applyQuery();
+      }
+    });
+    fDelay.setRepeats(false);
+    fTextField.getDocument().addDocumentListener(new RestartDelay());
+    fTextField.addActionListener(new ActionListener() {
+      @Override public void actionPerformed(ActionEvent aEvent) {
+        fDelay.stop();
+        applyQuery();
+      }
+    });
+  }
+
+  /** The text field into which the user types the query. */
+  JTextField getTextField(){
+    return fTextField;
+  }
+
+  // PRIVATE
+  private final MovieTableModel fMovieTableModel;
+  private final JTextField fTextField = new JTextField();
+  private final Timer fDelay;
+  private final Color fNormalColor;
+
+  /** Longer than for the quick filter, since a query is often invalid until it's finished. */
+  private static final int DEBOUNCE_MILLIS = 300;
+  private static final Color INVALID_COLOR = new Color(255, 220, 220);
+  private static final String HELP = 
+    "Show only movies matching a query, such as: rating >= 8 and viewed in 2015..2018 and comment ~ \"director's cut\""
+  ;
+
+  private void applyQuery(){
+    String text = fTextField.getText();
+    if ( ! Util.textHasContent(text) ) {
+      showValid();
+      fMovieTableModel.query(null);
+      return;
+    }
+    try {
+      MovieQuery query = MovieQuery.parse(text);
+      showValid();
+      fMovieTableModel.query(query);
+    }
+    catch (InvalidInputException ex){
+      fTextField.setBackground(INVALID_COLOR);
+      fTextField.setToolTipText(ex.getErrorMessages().get(0));
+    }
+  }
+
+  private void showValid(){
+    fTextField.setBackground(fNormalColor);
+    fTextField.setToolTipText(HELP);
+  }
+
+  private final class RestartDelay implements DocumentListener {
+    @Override public void insertUpdate(DocumentEvent aEvent) {
+      fDelay.restart();
+    }
+    @Override public void removeUpdate(DocumentEvent aEvent) {
+      fDelay.restart();
+    }
+    @Override public void changedUpdate(DocumentEvent aEvent) {
+      //attribute changes only - the text is the same
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package hirondelle.movies.main;
+
+import hirondelle.movies.edit.MovieTableModel;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ Narrow the table of movies as the user types.
+
+ <P>The filter is not applied on every keystroke. Instead, it's applied only after the user
+ pauses very briefly. This coalesces bursts of keystrokes (and pastes) into a single request.
+ The filtering itself is done off the Event Dispatch Thread, by {@link MovieTableModel#filter(String)}.
+*/
+final class QuickFilter {
+
+  /** Constructor. */
+  QuickFilter(MovieTableModel aMovieTableModel){
+    fMovieTableModel = aMovieTableModel;
+    fTextField.setColumns(20);
+    fTextField.setToolTipText("Show only movies whose title or comment contains this text");
+    fDelay = new Timer(DEBOUNCE_MILLIS, new ActionListener() {
+      @Override public void actionPerformed(ActionEvent aEvent) {
+        fMovieTableModel.filter(fTextField.getText());
+      }
+    });
+    fDelay.setRepeats(false);
+    fTextField.getDocument().addDocumentListener(new RestartDelay());
+  }
+
+  /** The text field into which the user types the filter text. */
+  JTextField getTextField(){
+    return fTextField;
+  }
+
+  // PRIVATE
+  private final MovieTableModel fMovieTableModel;
+  private final JTextField fTextField = new JTextField();
+  private final Timer fDelay;
+
+  /** Short enough that the delay isn't noticeable to the user. */
+  private static final int DEBOUNCE_MILLIS = 30;
+
+  private final class RestartDelay implements DocumentListener {
+    @Override public void insertUpdate(DocumentEvent aEvent) {
+      fDelay.restart();
+    }
+    @Override public void removeUpdate(DocumentEvent aEvent) {
+      fDelay.restart();
+    }
+    @Override public void changedUpdate(DocumentEvent aEvent) {
+      //attribute changes only - the text is the same
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package hirondelle.movies.main;
+
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.util.Util;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+/**
+ Show the edits made by other instances of the app, when a store daemon is running.
+
+ <P>Every few seconds, a worker thread asks the daemon what has changed since it was
+ last asked (see {@link MovieDAO#syncWithStore()}). When nothing has, the answer is a
+ single byte, so polling costs almost nothing. The view is refreshed only when something
+ has changed.
+*/
+final class StorePoller {
+
+  /** Start polling. Does nothing if there is no store daemon. */
+  void start(){
+    if ( ! fDAO.isUsingStore() ) return;
+    Timer timer = new Timer(POLL_MILLIS, new ActionListener() {
+      @Override public void actionPerformed(ActionEvent aEvent) {
+        if ( fIsPolling || ! fDAO.isUsingStore() ) return;
+        fIsPolling = true;
+        new Poll().execute();
+      }
+    });
+    timer.start();
+  }
+
+  // PRIVATE
+  private final MovieDAO fDAO = new MovieDAO();
+  /** Only one poll at a time. Accessed only on the Event Dispatch Thread. */
+  private boolean fIsPolling;
+  private static final int POLL_MILLIS = 2000;
+  private static final Logger fLogger = Util.getLogger(StorePoller.class);
+
+  private final class Poll extends SwingWorker<Boolean, Void> {
+    @Override protected Boolean doInBackground() {
+      return fDAO.syncWithStore();
+    }
+    @Override protected void done() {
+      fIsPolling = false;
+      try {
+        if ( get() ) {
+          fLogger.fine("Showing edits made by other instances of the app.");
+          MainWindow.getInstance().refreshView();
+        }
+      }
+      catch (InterruptedException | ExecutionException ex) {
+        fLogger.severe(new Supplier<String>(){
+          @Override public String get() {
+            return "Cannot read edits from the store daemon: " + ex;
+          }
+        });
+      }
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package hirondelle.movies.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** A dialog, from the request to show it until it's closed. */
+@Name("hirondelle.movies.Dialog")
+@Label("Dialog")
+@Category(FlightRecording.CATEGORY)
+@Description("A dialog, from the request to show it until it's closed")
+public final class DialogEvent extends jdk.jfr.Event {
+
+  /** Record the dialog's title. */
+  public void setTitle(String aTitle){ fTitle = aTitle; }
+
+  /** Record whether the dialog is modal. */
+  public void setModal(boolean aModal){ fModal = aModal; }
+
+  /** Record the time taken to open the dialog, from the request until the dialog appeared. */
+  public void setOpening(long aNanos){ fOpening = aNanos; }
+
+  // PRIVATE
+  @Name("title") @Label("Title")
+  private String fTitle;
+
+  @Name("modal") @Label("Modal")
+  private boolean fModal;
+
+  @Name("opening") @Label("Opening") @Timespan(Timespan.NANOSECONDS)
+  private long fOpening;
+}
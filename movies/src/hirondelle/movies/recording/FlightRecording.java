@@ -0,0 +1,77 @@
+package hirondelle.movies.recording;
+
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ Record the app's events with the Java Flight Recorder, when asked on the command line.
+
+ <P>Launching the app with <tt>-record</tt> starts a recording at once, using the JDK's
+ <tt>profile</tt> settings, which include all events of this package. The recording is
+ written to <tt>movies.jfr</tt> in the application's home directory when the app exits,
+ however it exits. Use <tt>-record=</tt><em>file name</em> to choose another file. The
+ file can be opened in JDK Mission Control, or printed with <tt>jfr print</tt>, and
+ attached to a problem report.
+
+ <P>Without the switch, the events cost almost nothing. (The Flight Recorder needs
+ JDK 11, or JDK 8 update 262 or later.)
+*/
+public final class FlightRecording {
+
+  /** The category of all the app's events. */
+  public static final String CATEGORY = "My Movies";
+
+  /** Start a recording, if one of the command line arguments asks for it. */
+  public static void startIfRequested(String... aArgs){
+    for(String arg : aArgs){
+      if ( SWITCH.equals(arg) ) {
+        start(Paths.get(DEFAULT_FILE));
+      }
+      else if ( arg.startsWith(SWITCH + "=") ) {
+        start(Paths.get(arg.substring(SWITCH.length() + 1)));
+      }
+    }
+  }
+
+  // PRIVATE
+  private static final String SWITCH = "-record";
+  private static final String DEFAULT_FILE = "movies.jfr";
+  private static final String SETTINGS = "profile";
+  private static final Logger fLogger = Util.getLogger(FlightRecording.class);
+
+  private static void start(Path aFile){
+    try {
+      Recording recording = new Recording(Configuration.getConfiguration(SETTINGS));
+      recording.setName(CATEGORY);
+      recording.setDestination(aFile);
+      recording.setDumpOnExit(true);
+      recording.start();
+      fLogger.config(new Supplier<String>(){
+        @Override public String get() {
+          return "Flight recording started. Will be written to " + aFile.toAbsolutePath() + " upon exit.";
+        }
+      });
+    }
+    catch (IOException | ParseException ex) {
+      fLogger.severe(new Supplier<String>(){
+        @Override public String get() {
+          return "Cannot start the flight recording: " + ex;
+        }
+      });
+    }
+  }
+
+  /** Prevent object construction. */
+  private FlightRecording(){
+    throw new AssertionError();
+  }
+}
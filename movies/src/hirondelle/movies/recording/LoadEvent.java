@@ -0,0 +1,34 @@
+package hirondelle.movies.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Reading in movies, from a movies file or from the store daemon. */
+@Name("hirondelle.movies.Load")
+@Label("Load Movies")
+@Category(FlightRecording.CATEGORY)
+@Description("Reading in movies, upon startup or when older movies are needed")
+public final class LoadEvent extends jdk.jfr.Event {
+
+  /** Record where the movies are read from: a file path, or the store daemon. */
+  public void setSource(String aSource){ fSource = aSource; }
+
+  /** Record the number of movies read. */
+  public void setRows(int aRows){ fRows = aRows; }
+
+  /** Record the size of the file, in bytes. Not known for the store daemon. */
+  public void setBytes(long aBytes){ fBytes = aBytes; }
+
+  // PRIVATE
+  @Name("source") @Label("Source")
+  private String fSource;
+
+  @Name("rows") @Label("Rows")
+  private int fRows;
+
+  @Name("bytes") @Label("Bytes") @DataAmount
+  private long fBytes;
+}
@@ -0,0 +1,42 @@
+package hirondelle.movies.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ Parsing a batch of lines of the movies file.
+
+ <P>An event for every line would cost more than the parsing itself, so lines are
+ grouped into batches of {@link #BATCH_SIZE}.
+*/
+@Name("hirondelle.movies.Parse")
+@Label("Parse Lines")
+@Category(FlightRecording.CATEGORY)
+@Description("Parsing a batch of lines of the movies file")
+public final class ParseEvent extends jdk.jfr.Event {
+
+  /** The number of lines in a full batch. */
+  public static final int BATCH_SIZE = 10000;
+
+  /** Add a line to the batch. Return <tt>true</tt> only if the batch is now full. */
+  public boolean addLine(String aLine){
+    ++fRows;
+    fCharacters = fCharacters + aLine.length();
+    return fRows == BATCH_SIZE;
+  }
+
+  /** Return <tt>true</tt> only if no lines have been added. */
+  public boolean isEmpty(){
+    return fRows == 0;
+  }
+
+  // PRIVATE
+  @Name("rows") @Label("Rows")
+  private int fRows;
+
+  @Name("characters") @Label("Characters") @DataAmount
+  private long fCharacters;
+}
@@ -0,0 +1,36 @@
+package hirondelle.movies.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ Refreshing the table of movies after an edit, from the request until the new rows are
+ shown. The movies are fetched, sorted and filtered on a worker thread.
+*/
+@Name("hirondelle.movies.Refresh")
+@Label("Refresh Table")
+@Category(FlightRecording.CATEGORY)
+@Description("Refreshing the table, from the request until the rows are shown")
+public final class RefreshEvent extends jdk.jfr.Event {
+
+  /** Record the number of movies fetched. */
+  public void setRows(int aRows){ fRows = aRows; }
+
+  /** Record the number of rows shown, after filtering. */
+  public void setShownRows(int aShownRows){ fShownRows = aShownRows; }
+
+  /** Record that a newer request replaced this one before it finished. */
+  public void setSuperseded(boolean aSuperseded){ fSuperseded = aSuperseded; }
+
+  // PRIVATE
+  @Name("rows") @Label("Rows")
+  private int fRows;
+
+  @Name("shownRows") @Label("Shown Rows")
+  private int fShownRows;
+
+  @Name("superseded") @Label("Superseded")
+  private boolean fSuperseded;
+}
@@ -0,0 +1,34 @@
+package hirondelle.movies.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Saving all movies, when the app shuts down. Includes any {@link WriteFileEvent}. */
+@Name("hirondelle.movies.Save")
+@Label("Save Movies")
+@Category(FlightRecording.CATEGORY)
+@Description("Saving all movies, when the app shuts down")
+public final class SaveEvent extends jdk.jfr.Event {
+
+  /** Record the number of movies saved. */
+  public void setRows(int aRows){ fRows = aRows; }
+
+  /** Record the number of characters in the file's contents. */
+  public void setCharacters(long aCharacters){ fCharacters = aCharacters; }
+
+  /** Record that there were no edits, so nothing was written. */
+  public void setSkipped(boolean aSkipped){ fSkipped = aSkipped; }
+
+  // PRIVATE
+  @Name("rows") @Label("Rows")
+  private int fRows;
+
+  @Name("characters") @Label("Characters") @DataAmount
+  private long fCharacters;
+
+  @Name("skipped") @Label("Skipped") @Description("Nothing had been edited since the last save")
+  private boolean fSkipped;
+}
@@ -0,0 +1,42 @@
+package hirondelle.movies.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ Sorting the table of movies, from the user's click until the sorted rows are shown.
+ The sort itself runs on a worker thread.
+*/
+@Name("hirondelle.movies.Sort")
+@Label("Sort Table")
+@Category(FlightRecording.CATEGORY)
+@Description("Sorting the table, from the click until the rows are shown")
+public final class SortEvent extends jdk.jfr.Event {
+
+  /** Record the column sorted on. */
+  public void setColumn(String aColumn){ fColumn = aColumn; }
+
+  /** Record the direction of the sort. */
+  public void setDescending(boolean aDescending){ fDescending = aDescending; }
+
+  /** Record the number of movies sorted. */
+  public void setRows(int aRows){ fRows = aRows; }
+
+  /** Record that a newer request replaced this one before it finished. */
+  public void setSuperseded(boolean aSuperseded){ fSuperseded = aSuperseded; }
+
+  // PRIVATE
+  @Name("column") @Label("Column")
+  private String fColumn;
+
+  @Name("descending") @Label("Descending")
+  private boolean fDescending;
+
+  @Name("rows") @Label("Rows")
+  private int fRows;
+
+  @Name("superseded") @Label("Superseded")
+  private boolean fSuperseded;
+}
@@ -0,0 +1,34 @@
+package hirondelle.movies.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Writing the movies file, and moving it into place. */
+@Name("hirondelle.movies.WriteFile")
+@Label("Write Movies File")
+@Category(FlightRecording.CATEGORY)
+@Description("Writing the movies file, and moving it into place")
+public final class WriteFileEvent extends jdk.jfr.Event {
+
+  /** Record the path of the movies file. */
+  public void setPath(String aPath){ fPath = aPath; }
+
+  /** Record the number of bytes written. */
+  public void setBytes(long aBytes){ fBytes = aBytes; }
+
+  /** Record whether the file was written. */
+  public void setSucceeded(boolean aSucceeded){ fSucceeded = aSucceeded; }
+
+  // PRIVATE
+  @Name("path") @Label("Path")
+  private String fPath;
+
+  @Name("bytes") @Label("Bytes") @DataAmount
+  private long fBytes;
+
+  @Name("succeeded") @Label("Succeeded")
+  private boolean fSucceeded;
+}
@@ -0,0 +1,6 @@
+/** 
+ Java Flight Recorder events for the app's slow operations, and a switch to record them.
+ 
+ <P>See {@link hirondelle.movies.recording.FlightRecording}.
+*/
+package hirondelle.movies.recording;
@@ -0,0 +1,184 @@
+package hirondelle.movies.service;
+
+import hirondelle.movies.edit.Movie;
+import hirondelle.movies.util.Util;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ Just enough JSON for the movie service.
+
+ <P>Writes movies as JSON objects, and reads the flat JSON objects sent by clients for adds
+ and changes. A flat object has only string, number, boolean, or null values - no nested
+ objects or arrays. No external library is needed for that.
+*/
+final class Json {
+
+  /** Append a movie as a JSON object. */
+  static void appendMovie(StringBuilder aJson, Movie aMovie){
+    aJson.append("{\"id\":");
+    appendString(aJson, aMovie.getId());
+    aJson.append(",\"title\":");
+    appendString(aJson, aMovie.getTitle());
+    aJson.append(",\"dateViewed\":");
+    appendString(aJson, aMovie.getDateViewed() == null ? null : Util.format(aMovie.getDateViewed()));
+    aJson.append(",\"rating\":");
+    aJson.append(aMovie.getRating() == null ? "null" : aMovie.getRating().toPlainString());
+    aJson.append(",\"comment\":");
+    appendString(aJson, aMovie.getComment());
+    aJson.append('}');
+  }
+
+  /** Return a JSON object holding a list of error messages. */
+  static String errors(List<String> aMessages){
+    StringBuilder result = new StringBuilder("{\"errors\":[");
+    for(int idx = 0; idx < aMessages.size(); ++idx){
+      if ( idx > 0 ) result.append(',');
+      appendString(result, aMessages.get(idx));
+    }
+    result.append("]}");
+    return result.toString();
+  }
+
+  /** Append a JSON string, or <tt>null</tt>. */
+  static void appendString(StringBuilder aJson, String aText){
+    if ( aText == null ) {
+      aJson.append("null");
+      return;
+    }
+    aJson.append('"');
+    for(int idx = 0; idx < aText.length(); ++idx){
+      char c = aText.charAt(idx);
+      if ( c == '"' || c == '\\' ) {
+        aJson.append('\\').append(c);
+      }
+      else if ( c < 0x20 ) {
+        aJson.append(String.format("\\u%04x", (int)c));
+      }
+      else {
+        aJson.append(c);
+      }
+    }
+    aJson.append('"');
+  }
+
+  /**
+   Parse a flat JSON object. Every value is returned as text (numbers and booleans
+   just as they appear); a JSON <tt>null</tt> is returned as <tt>null</tt>.
+   @throws IllegalArgumentException if the text is not a flat JSON object.
+  */
+  static Map<String, String> parseFlatObject(String aJson){
+    return new Parser(aJson).parseObject();
+  }
+
+  // PRIVATE
+
+  /** Prevent object construction. */
+  private Json(){
+    throw new AssertionError();
+  }
+
+  private static final class Parser {
+    Parser(String aText){
+      fText = aText;
+    }
+    Map<String, String> parseObject(){
+      Map<String, String> result = new LinkedHashMap<>();
+      expect('{');
+      skipSpace();
+      if ( peek() == '}' ) {
+        ++fPos;
+      }
+      else {
+        while ( true ) {
+          skipSpace();
+          String name = parseString();
+          skipSpace();
+          expect(':');
+          skipSpace();
+          result.put(name, parseValue());
+          skipSpace();
+          char c = next();
+          if ( c == '}' ) break;
+          if ( c != ',' ) fail("Expected ',' or '}'");
+        }
+      }
+      skipSpace();
+      if ( fPos != fText.length() ) fail("Unexpected text after the object");
+      return result;
+    }
+    private final String fText;
+    private int fPos;
+
+    private String parseValue(){
+      char c = peek();
+      String result = null;
+      if ( c == '"' ) {
+        result = parseString();
+      }
+      else if ( c == '{' || c == '[' ) {
+        fail("Nested values are not supported");
+      }
+      else {
+        int start = fPos;
+        while ( fPos < fText.length() && ",} \t\r\n".indexOf(fText.charAt(fPos)) == -1 ) {
+          ++fPos;
+        }
+        String literal = fText.substring(start, fPos);
+        if ( literal.isEmpty() ) fail("Missing value");
+        result = "null".equals(literal) ? null : literal;
+      }
+      return result;
+    }
+    private String parseString(){
+      expect('"');
+      StringBuilder result = new StringBuilder();
+      while ( true ) {
+        char c = next();
+        if ( c == '"' ) break;
+        if ( c == '\\' ) {
+          char escaped = next();
+          switch ( escaped ) {
+            case 'n': result.append('\n'); break;
+            case 't': result.append('\t'); break;
+            case 'r': result.append('\r'); break;
+            case 'b': result.append('\b'); break;
+            case 'f': result.append('\f'); break;
+            case 'u':
+              if ( fPos + 4 > fText.length() ) fail("Bad unicode escape");
+              result.append((char)Integer.parseInt(fText.substring(fPos, fPos + 4), 16));
+              fPos = fPos + 4;
+              break;
+            default: result.append(escaped);
+          }
+        }
+        else {
+          result.append(c);
+        }
+      }
+      return result.toString();
+    }
+    private void skipSpace(){
+      while ( fPos < fText.length() && Character.isWhitespace(fText.charAt(fPos)) ) {
+        ++fPos;
+      }
+    }
+    private char peek(){
+      if ( fPos >= fText.length() ) fail("Unexpected end of text");
+      return fText.charAt(fPos);
+    }
+    private char next(){
+      char result = peek();
+      ++fPos;
+      return result;
+    }
+    private void expect(char aChar){
+      if ( next() != aChar ) fail("Expected '" + aChar + "'");
+    }
+    private void fail(String aMessage){
+      throw new IllegalArgumentException(aMessage + " at position " + fPos);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package hirondelle.movies.service;
+
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ HTTP server for the {@link MovieService}, using the server built into the JDK.
+
+ <P>Each request is handled by its own thread. When running on a JDK which has virtual
+ threads (JDK 21 and later), each request gets a new virtual thread, so many thousands of
+ concurrent clients cost very little. On older JDKs, a fixed pool of platform threads
+ is used instead. (The app itself is compiled for an older JDK, so the virtual thread
+ executor is looked up at runtime.)
+*/
+public final class MovieServer {
+
+  /**
+   Constructor.
+   @param aPort the port to listen on; 0 means any free port.
+  */
+  public MovieServer(int aPort) throws IOException {
+    fServer = HttpServer.create(new InetSocketAddress(aPort), BACKLOG);
+    fServer.createContext(MovieService.PATH, new MovieService());
+    fExecutor = newExecutor();
+    fServer.setExecutor(fExecutor);
+  }
+
+  /** Start serving requests. */
+  public void start(){
+    //edits by clients can't be undone, so there's no need to keep the history
+    new MovieDAO().disableUndoHistory();
+    //clients page through all the movies, not just the most recent
+    new MovieDAO().loadAll();
+    fServer.start();
+    fLogger.config(new Supplier<String>(){
+      @Override public String get() {
+        return "Serving movies on port " + getPort() + " using " + fExecutorDescription;
+      }
+    });
+  }
+
+  /** Stop serving requests, waiting at most the given number of seconds for requests in progress. */
+  public void stop(int aMaxWaitSeconds){
+    fServer.stop(aMaxWaitSeconds);
+    fExecutor.shutdown();
+  }
+
+  /** The port actually in use. */
+  public int getPort(){
+    return fServer.getAddress().getPort();
+  }
+
+  // PRIVATE
+  private final HttpServer fServer;
+  private final ExecutorService fExecutor;
+  private String fExecutorDescription;
+  private static final Logger fLogger = Util.getLogger(MovieServer.class);
+
+  /** Connections waiting to be accepted. Large, since many clients can connect at once. */
+  private static final int BACKLOG = 10000;
+  private static final int THREADS_PER_CPU = 8;
+
+  private ExecutorService newExecutor(){
+    ExecutorService result = null;
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      result = (ExecutorService)factory.invoke(null);
+      fExecutorDescription = "a virtual thread per request.";
+    }
+    catch (ReflectiveOperationException ex) {
+      int numThreads = THREADS_PER_CPU * Runtime.getRuntime().availableProcessors();
+      result = Executors.newFixedThreadPool(numThreads);
+      fExecutorDescription = "a pool of " + numThreads + " threads (virtual threads need JDK 21).";
+    }
+    return result;
+  }
+}
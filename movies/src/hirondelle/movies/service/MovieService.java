@@ -0,0 +1,370 @@
+package hirondelle.movies.service;
+
+import hirondelle.movies.edit.Movie;
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.edit.MovieDelta;
+import hirondelle.movies.exception.InvalidInputException;
+import hirondelle.movies.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ Serve the movie list over HTTP, as JSON.
+
+ <P>The same {@link Movie} validation and {@link MovieDAO} logic used by the Swing app
+ are used here. The resources are :
+ <table border='1' cellpadding='3' cellspacing='0'>
+  <tr><th>Request</th><th>Response</th></tr>
+  <tr><td><tt>GET /movies?offset=0&amp;limit=50&amp;sort=viewed&amp;order=asc</tt></td>
+   <td>a page of movies, with the total number of movies. The <tt>sort</tt> is one of
+   <tt>title, viewed, rating, comment</tt> (the same orders as the table columns), and
+   <tt>order</tt> is <tt>asc</tt> or <tt>desc</tt>. All are optional.</td></tr>
+  <tr><td><tt>GET /movies/changes?since=V</tt></td><td>the version, the movies added or
+   changed since version <tt>V</tt>, and the ids of the movies deleted since then</td></tr>
+  <tr><td><tt>GET /movies/{id}</tt></td><td>a single movie</td></tr>
+  <tr><td><tt>POST /movies</tt></td><td>add a movie, given as a JSON object with items
+   <tt>title, dateViewed, rating, comment</tt>; returns the new movie, with its id</td></tr>
+  <tr><td><tt>PUT /movies/{id}</tt></td><td>change a movie, given as for <tt>POST</tt></td></tr>
+  <tr><td><tt>DELETE /movies/{id}</tt></td><td>delete a movie</td></tr>
+ </table>
+
+ <P>Invalid input is answered with status 400, and a JSON object holding the same error
+ messages the Swing app would show.
+
+ <P>Clients can poll cheaply. A page of movies has an <tt>ETag</tt> holding the version of
+ the data store; if the client sends it back in <tt>If-None-Match</tt>, and nothing has
+ changed, the answer is status 304 (not modified), with no body. The same status answers
+ a request for changes when there are none. If the changes since a version are no longer
+ known, the answer is status 410 (gone), and the client must read all movies again.
+
+ <P>Paging through a sorted list does not sort it again for each page; see
+ {@link MovieDAO#listSorted(Comparator)}. Descending pages are read from the end of the
+ ascending list.
+*/
+final class MovieService implements HttpHandler {
+
+  /** The path under which all movie resources are served. */
+  static final String PATH = "/movies";
+
+  /** Handle a single request. Called concurrently, by many threads. */
+  @Override public void handle(HttpExchange aExchange) throws IOException {
+    try {
+      route(aExchange);
+    }
+    catch (IllegalArgumentException ex) {
+      send(aExchange, BAD_REQUEST, Json.errors(Collections.singletonList(String.valueOf(ex.getMessage()))));
+    }
+    catch (RuntimeException ex) {
+      fLogger.log(Level.SEVERE, ex, new Supplier<String>(){
+        @Override public String get() {
+          return "Cannot serve request " + aExchange.getRequestURI();
+        }
+      });
+      send(aExchange, SERVER_ERROR, Json.errors(Collections.singletonList("Internal error.")));
+    }
+    finally {
+      aExchange.close();
+    }
+  }
+
+  // PRIVATE
+  private final MovieDAO fDAO = new MovieDAO();
+  private static final Logger fLogger = Util.getLogger(MovieService.class);
+  private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+  private static final int OK = 200;
+  private static final int CREATED = 201;
+  private static final int NO_CONTENT = 204;
+  private static final int NOT_MODIFIED = 304;
+  private static final int BAD_REQUEST = 400;
+  private static final int NOT_FOUND = 404;
+  private static final int METHOD_NOT_ALLOWED = 405;
+  private static final int GONE = 410;
+  private static final int SERVER_ERROR = 500;
+
+  private static final String CHANGES_PATH = PATH + "/changes";
+  private static final int DEFAULT_PAGE_SIZE = 50;
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  private void route(HttpExchange aExchange) throws IOException {
+    String method = aExchange.getRequestMethod();
+    String path = aExchange.getRequestURI().getPath();
+    if ( CHANGES_PATH.equals(path) ) {
+      if ( "GET".equals(method) ) {
+        changes(aExchange);
+      }
+      else {
+        send(aExchange, METHOD_NOT_ALLOWED, Json.errors(Collections.singletonList("Method not allowed.")));
+      }
+      return;
+    }
+    String id = idFrom(path);
+    if ( id == null ) {
+      if ( "GET".equals(method) ) {
+        list(aExchange);
+      }
+      else if ( "POST".equals(method) ) {
+        add(aExchange);
+      }
+      else {
+        send(aExchange, METHOD_NOT_ALLOWED, Json.errors(Collections.singletonList("Method not allowed.")));
+      }
+    }
+    else {
+      if ( "GET".equals(method) ) {
+        get(aExchange, id);
+      }
+      else if ( "PUT".equals(method) ) {
+        change(aExchange, id);
+      }
+      else if ( "DELETE".equals(method) ) {
+        delete(aExchange, id);
+      }
+      else {
+        send(aExchange, METHOD_NOT_ALLOWED, Json.errors(Collections.singletonList("Method not allowed.")));
+      }
+    }
+  }
+
+  /** Return null for the path of the whole list. Ids are always integers. */
+  private String idFrom(String aPath){
+    String result = null;
+    if ( aPath.length() > PATH.length() + 1 ) {
+      result = aPath.substring(PATH.length() + 1);
+      if ( ! result.matches("\\d{1,9}") ) {
+        throw new IllegalArgumentException("Not a valid movie id: " + result);
+      }
+    }
+    return result;
+  }
+
+  private void list(HttpExchange aExchange) throws IOException {
+    Map<String, String> params = queryParams(aExchange.getRequestURI().getRawQuery());
+    int offset = intParam(params, "offset", 0);
+    int limit = Math.min(intParam(params, "limit", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+    boolean descending = "desc".equals(params.get("order"));
+    //read the version first: if the list is newer, the client will only poll once too often
+    String etag = "\"" + fDAO.getVersion() + "\"";
+    if ( etag.equals(aExchange.getRequestHeaders().getFirst("If-None-Match")) ) {
+      sendNotModified(aExchange, etag);
+      return;
+    }
+    List<Movie> movies = fDAO.listSorted(orderFor(params.get("sort")));
+
+    int total = movies.size();
+    int end = Math.min(total, offset + limit);
+    StringBuilder json = new StringBuilder();
+    json.append("{\"total\":").append(total).append(",\"offset\":").append(offset).append(",\"movies\":[");
+    for(int idx = offset; idx < end; ++idx){
+      if ( idx > offset ) json.append(',');
+      Json.appendMovie(json, movies.get(descending ? total - 1 - idx : idx));
+    }
+    json.append("]}");
+    aExchange.getResponseHeaders().set("ETag", etag);
+    send(aExchange, OK, json.toString());
+  }
+
+  private void changes(HttpExchange aExchange) throws IOException {
+    Map<String, String> params = queryParams(aExchange.getRequestURI().getRawQuery());
+    String since = params.get("since");
+    if ( since == null ) {
+      throw new IllegalArgumentException("since is required.");
+    }
+    long version = 0;
+    try {
+      version = Long.parseLong(since);
+    }
+    catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("since is not a valid version.");
+    }
+    MovieDelta delta = fDAO.changesSince(version);
+    if ( delta == null ) {
+      String message = "Changes since version " + since + " are no longer known.";
+      send(aExchange, GONE, Json.errors(Collections.singletonList(message)));
+    }
+    else if ( delta.isEmpty() ) {
+      sendNotModified(aExchange, "\"" + delta.getVersion() + "\"");
+    }
+    else {
+      StringBuilder json = new StringBuilder();
+      json.append("{\"version\":").append(delta.getVersion()).append(",\"changed\":[");
+      for(int idx = 0; idx < delta.getChanged().size(); ++idx){
+        if ( idx > 0 ) json.append(',');
+        Json.appendMovie(json, delta.getChanged().get(idx));
+      }
+      json.append("],\"deleted\":[");
+      for(int idx = 0; idx < delta.getDeleted().size(); ++idx){
+        if ( idx > 0 ) json.append(',');
+        Json.appendString(json, delta.getDeleted().get(idx));
+      }
+      json.append("]}");
+      send(aExchange, OK, json.toString());
+    }
+  }
+
+  private Comparator<Movie> orderFor(String aSort){
+    Comparator<Movie> result = null;
+    if ( aSort == null || "viewed".equals(aSort) ) {
+      result = null; //natural order
+    }
+    else if ( "title".equals(aSort) ) {
+      result = Movie.TITLE_SORT;
+    }
+    else if ( "rating".equals(aSort) ) {
+      result = Movie.RATING_SORT;
+    }
+    else if ( "comment".equals(aSort) ) {
+      result = Movie.COMMENT_SORT;
+    }
+    else {
+      throw new IllegalArgumentException("Unknown sort: " + aSort);
+    }
+    return result;
+  }
+
+  private void get(HttpExchange aExchange, String aId) throws IOException {
+    Movie movie = fDAO.get(aId);
+    if ( movie == null ) {
+      notFound(aExchange, aId);
+    }
+    else {
+      sendMovie(aExchange, OK, movie);
+    }
+  }
+
+  private void add(HttpExchange aExchange) throws IOException {
+    Movie movie = movieFromBody(aExchange, null);
+    if ( movie != null ) {
+      movie = fDAO.add(movie);
+      aExchange.getResponseHeaders().set("Location", PATH + "/" + movie.getId());
+      sendMovie(aExchange, CREATED, movie);
+    }
+  }
+
+  private void change(HttpExchange aExchange, String aId) throws IOException {
+    if ( fDAO.get(aId) == null ) {
+      notFound(aExchange, aId);
+      return;
+    }
+    Movie movie = movieFromBody(aExchange, aId);
+    if ( movie == null ) return;
+    //the movie may have been deleted since it was looked up
+    if ( fDAO.changeIfPresent(movie) ) {
+      sendMovie(aExchange, OK, movie);
+    }
+    else {
+      notFound(aExchange, aId);
+    }
+  }
+
+  private void delete(HttpExchange aExchange, String aId) throws IOException {
+    if ( fDAO.get(aId) == null ) {
+      notFound(aExchange, aId);
+    }
+    else {
+      fDAO.delete(aId);
+      aExchange.sendResponseHeaders(NO_CONTENT, -1);
+    }
+  }
+
+  /** Returns null if the input is invalid, after sending the error messages. */
+  private Movie movieFromBody(HttpExchange aExchange, String aId) throws IOException {
+    Map<String, String> fields = Json.parseFlatObject(readBody(aExchange));
+    Movie result = null;
+    try {
+      result = new Movie(
+        aId, fields.get("title"), fields.get("dateViewed"), fields.get("rating"), fields.get("comment")
+      );
+    }
+    catch (InvalidInputException ex) {
+      send(aExchange, BAD_REQUEST, Json.errors(ex.getErrorMessages()));
+    }
+    return result;
+  }
+
+  private void sendMovie(HttpExchange aExchange, int aStatus, Movie aMovie) throws IOException {
+    StringBuilder json = new StringBuilder();
+    Json.appendMovie(json, aMovie);
+    send(aExchange, aStatus, json.toString());
+  }
+
+  private void sendNotModified(HttpExchange aExchange, String aETag) throws IOException {
+    aExchange.getResponseHeaders().set("ETag", aETag);
+    aExchange.sendResponseHeaders(NOT_MODIFIED, -1);
+  }
+
+  private void notFound(HttpExchange aExchange, String aId) throws IOException {
+    send(aExchange, NOT_FOUND, Json.errors(Collections.singletonList("No movie with id " + aId)));
+  }
+
+  private void send(HttpExchange aExchange, int aStatus, String aJson) throws IOException {
+    byte[] body = aJson.getBytes(ENCODING);
+    aExchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    aExchange.sendResponseHeaders(aStatus, body.length);
+    try (OutputStream out = aExchange.getResponseBody()){
+      out.write(body);
+    }
+  }
+
+  private String readBody(HttpExchange aExchange) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    try (InputStream in = aExchange.getRequestBody()){
+      int count = 0;
+      while ( (count = in.read(buffer)) != -1 ) {
+        result.write(buffer, 0, count);
+      }
+    }
+    return new String(result.toByteArray(), ENCODING);
+  }
+
+  private Map<String, String> queryParams(String aRawQuery) throws IOException {
+    Map<String, String> result = new HashMap<>();
+    if ( aRawQuery != null ) {
+      for(String pair : aRawQuery.split("&")){
+        int equals = pair.indexOf('=');
+        if ( equals > 0 ) {
+          result.put(
+            URLDecoder.decode(pair.substring(0, equals), ENCODING.name()),
+            URLDecoder.decode(pair.substring(equals + 1), ENCODING.name())
+          );
+        }
+      }
+    }
+    return result;
+  }
+
+  private int intParam(Map<String, String> aParams, String aName, int aDefault){
+    String value = aParams.get(aName);
+    int result = aDefault;
+    if ( value != null ) {
+      try {
+        result = Integer.parseInt(value);
+      }
+      catch (NumberFormatException ex) {
+        throw new IllegalArgumentException(aName + " is not a valid number.");
+      }
+      if ( result < 0 ) {
+        throw new IllegalArgumentException(aName + " cannot be negative.");
+      }
+    }
+    return result;
+  }
+}
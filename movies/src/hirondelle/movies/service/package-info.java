@@ -0,0 +1,6 @@
+/** 
+ Serve the user's movie list over HTTP, as JSON, without the Swing user interface.
+ 
+ <P>See {@link hirondelle.movies.LaunchService}.
+*/
+package hirondelle.movies.service;
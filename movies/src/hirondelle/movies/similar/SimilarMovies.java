@@ -0,0 +1,368 @@
+package hirondelle.movies.similar;
+
+import hirondelle.movies.util.Args;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ Find the movies most similar to a given movie, by the words in their titles and comments.
+
+ <P>Each movie is represented by a sparse TF-IDF vector over the words in its title
+ and comment. Similarity is the cosine between two such vectors.
+
+ <P>The vectors are kept up to date incrementally: the data access object reports each
+ movie as it's added to or removed from the data store (a change is a removal followed
+ by an add). Only the movies read into memory are indexed, so a caller wanting matches from
+ all years reads them all in first (see {@link SimilarMoviesView}).
+
+ <P>Queries do not compare the movie with every other movie. Instead, an inverted index
+ maps each word to the movies which use it (its <em>postings</em>), and only movies sharing
+ at least one word with the query movie are ever examined. In addition :
+ <ul>
+  <li>words used by a large fraction of all movies say almost nothing about similarity,
+  and are ignored (their postings would be the longest of all)
+  <li>the query's words are processed from rarest to most common. Once the number of
+  candidate movies reaches a fixed limit, the query stops (the 'quit' strategy of
+  Moffat and Zobel). The most common words, with the longest postings, are the ones skipped.
+ </ul>
+
+ <P>The document frequencies change as movies are added and removed, and with them the
+ weight (idf) of every word, and the length (norm) of every movie's vector. So the weights
+ and norms are calculated only when a query needs them, and are kept only until the next
+ movie is added or removed. Between edits, repeated queries reuse them.
+
+ <P>This class is thread-safe.
+*/
+public final class SimilarMovies {
+
+  /** Return the single instance of this class. */
+  public static SimilarMovies getInstance(){
+    return INSTANCE;
+  }
+
+  /** A movie similar to the query movie. */
+  public static final class Match {
+    Match(String aId, String aTitle, float aScore){
+      fId = aId;
+      fTitle = aTitle;
+      fScore = aScore;
+    }
+    /** The database identifier of the movie. */
+    public String getId(){ return fId; }
+    /** The title of the movie. */
+    public String getTitle(){ return fTitle; }
+    /** The cosine similarity, in range 0..1. */
+    public float getScore(){ return fScore; }
+    @Override public String toString(){ return fTitle; }
+    private final String fId;
+    private final String fTitle;
+    private final float fScore;
+  }
+
+  /**
+   Index a movie which has been added to the data store.
+   @param aId the movie's database identifier
+   @param aTitle has content
+   @param aComment possibly-null
+  */
+  public synchronized void add(String aId, String aTitle, String aComment){
+    Args.checkForContent(aId);
+    Map<String, Integer> termCounts = countTerms(aTitle, aComment);
+    int doc = allocateDoc();
+    int[] terms = new int[termCounts.size()];
+    float[] weights = new float[termCounts.size()];
+    int[] positions = new int[termCounts.size()];
+    int idx = 0;
+    for(Map.Entry<String, Integer> entry : termCounts.entrySet()){
+      int term = termFor(entry.getKey());
+      float weight = (float)(1 + Math.log(entry.getValue()));
+      terms[idx] = term;
+      weights[idx] = weight;
+      positions[idx] = fPostings.get(term).add(doc, weight);
+      ++idx;
+    }
+    fDocs.set(doc, new Document(aId, aTitle, terms, weights, positions));
+    fDocFor.put(aId, doc);
+    ++fNumDocs;
+    ++fVersion;
+  }
+
+  /** Stop indexing a movie which has been removed from the data store. */
+  public synchronized void remove(String aId){
+    Integer doc = fDocFor.remove(aId);
+    if ( doc == null ) return;
+    Document document = fDocs.get(doc);
+    for(int idx = 0; idx < document.fTerms.length; ++idx){
+      removePosting(document.fTerms[idx], document.fPositions[idx]);
+    }
+    fDocs.set(doc, null);
+    fFreeDocs.add(doc);
+    --fNumDocs;
+    ++fVersion;
+  }
+
+  /**
+   Return up to <tt>aMax</tt> movies most similar to the given movie, most similar first.
+   The given movie itself is never included. Movies with no words in common with the
+   given movie are never included.
+  */
+  public synchronized List<Match> mostSimilarTo(String aId, int aMax){
+    Integer queryDoc = fDocFor.get(aId);
+    if ( queryDoc == null || aMax <= 0 ) return Collections.emptyList();
+    Document query = fDocs.get(queryDoc);
+
+    Integer[] order = rarestTermsFirst(query);
+    float[] scores = scratchScores();
+    growIdfs();
+    int[] candidates = new int[MAX_CANDIDATES];
+    int numCandidates = 0;
+    for(Integer termIdx : order){
+      int term = query.fTerms[termIdx];
+      Postings postings = fPostings.get(term);
+      if ( postings.fSize > MAX_DOC_FRACTION * fNumDocs && fNumDocs > MIN_DOCS_FOR_COMMON_WORDS ) break;
+      if ( numCandidates + postings.fSize > MAX_CANDIDATES ) break;
+      float idf = idf(term);
+      float queryWeight = query.fWeights[termIdx] * idf;
+      for(int idx = 0; idx < postings.fSize; ++idx){
+        int doc = postings.fDocs[idx];
+        if ( doc == queryDoc ) continue;
+        if ( scores[doc] == 0f ) {
+          candidates[numCandidates++] = doc;
+        }
+        scores[doc] = scores[doc] + queryWeight * postings.fWeights[idx] * idf;
+      }
+    }
+    return topMatches(query, scores, candidates, numCandidates, aMax);
+  }
+
+  // PRIVATE
+
+  private static final SimilarMovies INSTANCE = new SimilarMovies();
+
+  /** Words used by more than this fraction of all movies are ignored. */
+  private static final float MAX_DOC_FRACTION = 0.05f;
+  /** For small lists, even common words are useful. */
+  private static final int MIN_DOCS_FOR_COMMON_WORDS = 1000;
+  /** Stop examining further words once this many candidate movies have been found. */
+  private static final int MAX_CANDIDATES = 50000;
+  private static final int MIN_WORD_LENGTH = 2;
+
+  private static final class Document {
+    Document(String aId, String aTitle, int[] aTerms, float[] aWeights, int[] aPositions){
+      fId = aId;
+      fTitle = aTitle;
+      fTerms = aTerms;
+      fWeights = aWeights;
+      fPositions = aPositions;
+    }
+    final String fId;
+    final String fTitle;
+    final int[] fTerms;
+    /** Term frequency weights, <tt>1 + log(tf)</tt>. */
+    final float[] fWeights;
+    /** Where this document appears in the postings of each of its terms. */
+    final int[] fPositions;
+    /** The length of the vector, valid only if fNormVersion is the current version. */
+    float fNorm;
+    long fNormVersion;
+    int indexOf(int aTerm){
+      int result = 0;
+      while ( fTerms[result] != aTerm ) {
+        ++result;
+      }
+      return result;
+    }
+  }
+
+  /** The movies using a given word, with the word's weight in each movie. Unordered. */
+  private static final class Postings {
+    /** Return the position of the new item. */
+    int add(int aDoc, float aWeight){
+      if ( fSize == fDocs.length ){
+        int newLength = Math.max(4, fSize * 2);
+        fDocs = Arrays.copyOf(fDocs, newLength);
+        fWeights = Arrays.copyOf(fWeights, newLength);
+      }
+      fDocs[fSize] = aDoc;
+      fWeights[fSize] = aWeight;
+      return fSize++;
+    }
+    int[] fDocs = new int[0];
+    float[] fWeights = new float[0];
+    int fSize;
+  }
+
+  private final Map<String, Integer> fTermIds = new HashMap<>();
+  private final List<Postings> fPostings = new ArrayList<>();
+  private final List<Document> fDocs = new ArrayList<>();
+  private final List<Integer> fFreeDocs = new ArrayList<>();
+  private final Map<String, Integer> fDocFor = new HashMap<>();
+  private int fNumDocs;
+  /** Reused between queries. All items are zero between queries. */
+  private float[] fScores = new float[0];
+  /** Counts the movies added and removed. Any change makes all idf values and norms stale. */
+  private long fVersion;
+  /** The idf of each term, valid only if its item in fIdfVersions is the current version. */
+  private float[] fIdfs = new float[0];
+  private long[] fIdfVersions = new long[0];
+
+  /** Only one instance is needed. */
+  private SimilarMovies(){ }
+
+  private static Map<String, Integer> countTerms(String aTitle, String aComment){
+    Map<String, Integer> result = new HashMap<>();
+    addTerms(aTitle, result);
+    addTerms(aComment, result);
+    return result;
+  }
+
+  private static void addTerms(String aText, Map<String, Integer> aCounts){
+    if ( aText == null ) return;
+    String text = aText.toLowerCase(Locale.ROOT);
+    int start = -1;
+    for(int idx = 0; idx <= text.length(); ++idx){
+      boolean isWordChar = idx < text.length() && Character.isLetterOrDigit(text.charAt(idx));
+      if ( isWordChar && start == -1 ){
+        start = idx;
+      }
+      else if ( ! isWordChar && start != -1 ){
+        if ( idx - start >= MIN_WORD_LENGTH ){
+          String word = text.substring(start, idx);
+          Integer count = aCounts.get(word);
+          aCounts.put(word, count == null ? 1 : count + 1);
+        }
+        start = -1;
+      }
+    }
+  }
+
+  private int termFor(String aWord){
+    Integer result = fTermIds.get(aWord);
+    if ( result == null ){
+      result = fPostings.size();
+      fTermIds.put(aWord, result);
+      fPostings.add(new Postings());
+    }
+    return result;
+  }
+
+  /** 
+   Remove an item from a term's postings in constant time, by moving the last item 
+   into its place. 
+  */
+  private void removePosting(int aTerm, int aPosition){
+    Postings postings = fPostings.get(aTerm);
+    --postings.fSize;
+    int last = postings.fSize;
+    if ( aPosition < last ){
+      int movedDoc = postings.fDocs[last];
+      postings.fDocs[aPosition] = movedDoc;
+      postings.fWeights[aPosition] = postings.fWeights[last];
+      Document moved = fDocs.get(movedDoc);
+      moved.fPositions[moved.indexOf(aTerm)] = aPosition;
+    }
+  }
+
+  private int allocateDoc(){
+    int result;
+    if ( fFreeDocs.isEmpty() ){
+      result = fDocs.size();
+      fDocs.add(null);
+    }
+    else {
+      result = fFreeDocs.remove(fFreeDocs.size() - 1);
+    }
+    return result;
+  }
+
+  /** Make room for the idf values of any new terms. */
+  private void growIdfs(){
+    if ( fIdfs.length < fPostings.size() ){
+      fIdfs = Arrays.copyOf(fIdfs, fPostings.size());
+      fIdfVersions = Arrays.copyOf(fIdfVersions, fPostings.size());
+    }
+  }
+
+  /** The idf of a term, calculated at most once between edits. */
+  private float idf(int aTerm){
+    if ( fIdfVersions[aTerm] != fVersion ){
+      fIdfs[aTerm] = (float)Math.log((1.0 + fNumDocs) / (1.0 + fPostings.get(aTerm).fSize)) + 1f;
+      fIdfVersions[aTerm] = fVersion;
+    }
+    return fIdfs[aTerm];
+  }
+
+  /** The length of the document's vector, with the current idf values. */
+  private float norm(Document aDocument){
+    if ( aDocument.fNormVersion != fVersion ){
+      double sum = 0;
+      for(int idx = 0; idx < aDocument.fTerms.length; ++idx){
+        float weight = aDocument.fWeights[idx] * idf(aDocument.fTerms[idx]);
+        sum = sum + weight * weight;
+      }
+      aDocument.fNorm = (float)Math.sqrt(sum);
+      aDocument.fNormVersion = fVersion;
+    }
+    return aDocument.fNorm;
+  }
+
+  /** Indexes into the document's terms, ordered by increasing document frequency. */
+  private Integer[] rarestTermsFirst(Document aDocument){
+    Integer[] result = new Integer[aDocument.fTerms.length];
+    for(int idx = 0; idx < result.length; ++idx){
+      result[idx] = idx;
+    }
+    final Document document = aDocument;
+    Arrays.sort(result, new Comparator<Integer>(){
+      @Override public int compare(Integer aThis, Integer aThat) {
+        int thisSize = fPostings.get(document.fTerms[aThis]).fSize;
+        int thatSize = fPostings.get(document.fTerms[aThat]).fSize;
+        return Integer.compare(thisSize, thatSize);
+      }
+    });
+    return result;
+  }
+
+  private float[] scratchScores(){
+    if ( fScores.length < fDocs.size() ){
+      fScores = new float[fDocs.size()];
+    }
+    return fScores;
+  }
+
+  /** Pick the best matches with a bounded heap, and reset the scratch scores to zero. */
+  private List<Match> topMatches(Document aQuery, float[] aScores, int[] aCandidates, int aNumCandidates, int aMax){
+    PriorityQueue<Match> best = new PriorityQueue<>(aMax + 1, LEAST_SIMILAR_FIRST);
+    float queryNorm = norm(aQuery);
+    for(int idx = 0; idx < aNumCandidates; ++idx){
+      int doc = aCandidates[idx];
+      Document document = fDocs.get(doc);
+      float score = aScores[doc] / (queryNorm * norm(document));
+      aScores[doc] = 0f;
+      if ( best.size() < aMax || score > best.peek().getScore() ){
+        //only rounding can take the score above 1
+        best.add(new Match(document.fId, document.fTitle, Math.min(1f, score)));
+        if ( best.size() > aMax ){
+          best.poll();
+        }
+      }
+    }
+    List<Match> result = new ArrayList<>(best);
+    Collections.sort(result, Collections.reverseOrder(LEAST_SIMILAR_FIRST));
+    return result;
+  }
+
+  private static final Comparator<Match> LEAST_SIMILAR_FIRST = new Comparator<Match>(){
+    @Override public int compare(Match aThis, Match aThat) {
+      return Float.compare(aThis.getScore(), aThat.getScore());
+    }
+  };
+}
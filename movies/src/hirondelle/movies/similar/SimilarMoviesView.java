@@ -0,0 +1,88 @@
+package hirondelle.movies.similar;
+
+import hirondelle.movies.edit.MovieDAO;
+
+import java.awt.BorderLayout;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.SwingWorker;
+
+/**
+ Side list showing the movies most similar to the movie selected in the main window.
+ See {@link SimilarMovies}.
+
+ <P>{@link SimilarMovies} indexes only the movies in memory. So that the matches come from
+ all years, any movies not yet read in (or dropped from memory again) are read in first,
+ on a worker thread, as for the statistics.
+*/
+public final class SimilarMoviesView {
+
+  /** Constructor. */
+  public SimilarMoviesView(){
+    fPanel.setBorder(BorderFactory.createEmptyBorder(0, 5, 0, 0));
+    fPanel.add(new JLabel("Similar movies"), BorderLayout.NORTH);
+    fPanel.add(new JScrollPane(fList), BorderLayout.CENTER);
+  }
+
+  /** The component to be placed in the main window. */
+  public JComponent getComponent(){
+    return fPanel;
+  }
+
+  /**
+   Show the movies most similar to the given movie.
+   @param aMovieId possibly-null; if null, then the list is simply cleared.
+  */
+  public void showSimilarTo(final String aMovieId){
+    fModel.clear();
+    final int request = ++fRequest;
+    if ( aMovieId == null ) return;
+    if ( ! new MovieDAO().hasOlderMovies() ) {
+      show(SimilarMovies.getInstance().mostSimilarTo(aMovieId, MAX_MATCHES));
+      return;
+    }
+    new SwingWorker<List<SimilarMovies.Match>, Void>(){
+      @Override protected List<SimilarMovies.Match> doInBackground() {
+        new MovieDAO().loadAll();
+        return SimilarMovies.getInstance().mostSimilarTo(aMovieId, MAX_MATCHES);
+      }
+      @Override protected void done() {
+        try {
+          List<SimilarMovies.Match> matches = get(); //rethrows any problem in the worker
+          //the user may have selected another movie in the meantime
+          if ( request == fRequest ) {
+            show(matches);
+          }
+        }
+        catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ex) {
+          throw new RuntimeException("Cannot read in all the movies.", ex.getCause());
+        }
+      }
+    }.execute();
+  }
+
+  // PRIVATE
+  private final DefaultListModel<SimilarMovies.Match> fModel = new DefaultListModel<>();
+  private final JList<SimilarMovies.Match> fList = new JList<>(fModel);
+  private final JPanel fPanel = new JPanel(new BorderLayout());
+  private static final int MAX_MATCHES = 10;
+  /** Counts the calls to {@link #showSimilarTo(String)}. Only the latest one shows its matches. */
+  private int fRequest;
+
+  private void show(List<SimilarMovies.Match> aMatches){
+    for(SimilarMovies.Match match : aMatches){
+      fModel.addElement(match);
+    }
+  }
+}
@@ -0,0 +1,4 @@
+/** 
+ Find movies similar to the selected movie, by the words in their titles and comments.
+*/
+package hirondelle.movies.similar;
@@ -0,0 +1,244 @@
+package hirondelle.movies.stats;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ Statistics on the user's movies, kept up to date incrementally.
+
+ <P>Rescanning every movie after each edit would be wasteful. Instead, the data access
+ object reports each movie as it's added to or removed from the data store (a change
+ is a removal followed by an add), and the counters are simply adjusted:
+ <ul>
+  <li>counts per year and per month - <tt>O(log n)</tt>
+  <li>average rating - a running sum and count, <tt>O(1)</tt>
+  <li>rating histogram, and median rating - a histogram with one bucket per tenth of a point,
+  <tt>O(1)</tt> to update. The median is read from the histogram, so it's exact to the nearest 0.1.
+  <li>longest streak of consecutive days with a viewing - the runs of consecutive days
+  are kept in a sorted map, <tt>O(log n)</tt>
+ </ul>
+ Reading the statistics never touches the movies themselves, so it's fast no matter
+ how many movies there are.
+
+ <P>This class is thread-safe.
+*/
+public final class MovieStats {
+
+  /** Return the single instance of this class. */
+  public static MovieStats getInstance(){
+    return INSTANCE;
+  }
+
+  /**
+   Count a movie which has been added to the data store.
+   @param aDateViewed possibly-null
+   @param aRating possibly-null, in range 0..10
+  */
+  public synchronized void add(Date aDateViewed, BigDecimal aRating){
+    ++fNumMovies;
+    if ( aDateViewed != null ){
+      LocalDate day = toLocalDate(aDateViewed);
+      increment(fByYear, day.getYear(), 1);
+      increment(fByMonth, monthKey(day), 1);
+      addDay(day.toEpochDay());
+    }
+    if ( aRating != null ){
+      fRatingSum = fRatingSum.add(aRating);
+      ++fNumRatings;
+      ++fTenths[bucketFor(aRating)];
+    }
+  }
+
+  /**
+   Stop counting a movie which has been removed from the data store.
+   The arguments must be the same as those passed earlier to {@link #add(Date, BigDecimal)}.
+  */
+  public synchronized void remove(Date aDateViewed, BigDecimal aRating){
+    --fNumMovies;
+    if ( aDateViewed != null ){
+      LocalDate day = toLocalDate(aDateViewed);
+      increment(fByYear, day.getYear(), -1);
+      increment(fByMonth, monthKey(day), -1);
+      removeDay(day.toEpochDay());
+    }
+    if ( aRating != null ){
+      fRatingSum = fRatingSum.subtract(aRating);
+      --fNumRatings;
+      --fTenths[bucketFor(aRating)];
+    }
+  }
+
+  /** The total number of movies. */
+  public synchronized int getNumMovies(){
+    return fNumMovies;
+  }
+
+  /** The number of movies viewed in each year. Movies with no date viewed are not counted. */
+  public synchronized SortedMap<Integer, Integer> getCountsByYear(){
+    return Collections.unmodifiableSortedMap(new TreeMap<>(fByYear));
+  }
+
+  /**
+   The number of movies viewed in each month, keyed by <tt>year*100 + month</tt>
+   (for example, <tt>201507</tt> for July 2015).
+  */
+  public synchronized SortedMap<Integer, Integer> getCountsByMonth(){
+    return Collections.unmodifiableSortedMap(new TreeMap<>(fByMonth));
+  }
+
+  /** The average rating, to 2 decimals. Null if no movie has a rating. */
+  public synchronized BigDecimal getAverageRating(){
+    BigDecimal result = null;
+    if ( fNumRatings > 0 ){
+      result = fRatingSum.divide(BigDecimal.valueOf(fNumRatings), 2, RoundingMode.HALF_EVEN);
+    }
+    return result;
+  }
+
+  /** The median rating, to the nearest tenth. Null if no movie has a rating. */
+  public synchronized BigDecimal getMedianRating(){
+    BigDecimal result = null;
+    if ( fNumRatings > 0 ){
+      //for an even count, the lower median is used
+      int target = (fNumRatings + 1) / 2;
+      int seen = 0;
+      int bucket = 0;
+      while ( seen + fTenths[bucket] < target ) {
+        seen = seen + fTenths[bucket];
+        ++bucket;
+      }
+      result = BigDecimal.valueOf(bucket, 1);
+    }
+    return result;
+  }
+
+  /**
+   The number of ratings in each whole point. Item <tt>N</tt> counts the ratings
+   from <tt>N</tt> up to (but not including) <tt>N+1</tt>. The last item counts ratings of
+   exactly 10.
+  */
+  public synchronized int[] getRatingHistogram(){
+    int[] result = new int[11];
+    for(int bucket = 0; bucket < fTenths.length; ++bucket){
+      result[bucket / 10] = result[bucket / 10] + fTenths[bucket];
+    }
+    return result;
+  }
+
+  /** The length (in days) of the longest run of consecutive days on which a movie was viewed. */
+  public synchronized int getLongestStreak(){
+    return fRunLengths.isEmpty() ? 0 : fRunLengths.lastKey().intValue();
+  }
+
+  /** The first day of the longest streak. Null if no movie has a date viewed. */
+  public synchronized LocalDate getLongestStreakStart(){
+    LocalDate result = null;
+    int longest = getLongestStreak();
+    for(Map.Entry<Long, Long> run : fRuns.entrySet()){
+      if ( run.getValue() - run.getKey() + 1 == longest ){
+        result = LocalDate.ofEpochDay(run.getKey());
+        break;
+      }
+    }
+    return result;
+  }
+
+  // PRIVATE
+
+  private static final MovieStats INSTANCE = new MovieStats();
+
+  private int fNumMovies;
+  private final Map<Integer, Integer> fByYear = new TreeMap<>();
+  private final Map<Integer, Integer> fByMonth = new TreeMap<>();
+  private BigDecimal fRatingSum = BigDecimal.ZERO;
+  private int fNumRatings;
+  /** One bucket for each tenth of a point, from 0.0 to 10.0. */
+  private final int[] fTenths = new int[101];
+
+  /** The number of movies viewed on each day (as epoch day). */
+  private final Map<Long, Integer> fMoviesPerDay = new TreeMap<>();
+  /** The runs of consecutive viewing days: first day to last day (inclusive). */
+  private final TreeMap<Long, Long> fRuns = new TreeMap<>();
+  /** How many runs have each length. */
+  private final TreeMap<Integer, Integer> fRunLengths = new TreeMap<>();
+
+  /** Only one instance is needed. */
+  private MovieStats(){ }
+
+  private static LocalDate toLocalDate(Date aDate){
+    return Instant.ofEpochMilli(aDate.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+  }
+
+  private static int monthKey(LocalDate aDay){
+    return aDay.getYear() * 100 + aDay.getMonthValue();
+  }
+
+  private static int bucketFor(BigDecimal aRating){
+    int result = aRating.movePointRight(1).setScale(0, RoundingMode.HALF_EVEN).intValue();
+    return Math.max(0, Math.min(100, result));
+  }
+
+  private static <K> void increment(Map<K, Integer> aCounts, K aKey, int aDelta){
+    Integer count = aCounts.get(aKey);
+    int newCount = (count == null ? 0 : count) + aDelta;
+    if ( newCount == 0 ) {
+      aCounts.remove(aKey);
+    }
+    else {
+      aCounts.put(aKey, newCount);
+    }
+  }
+
+  /** The first movie on a given day can extend or join runs. */
+  private void addDay(long aDay){
+    increment(fMoviesPerDay, aDay, 1);
+    if ( fMoviesPerDay.get(aDay) > 1 ) return;
+
+    long start = aDay;
+    long end = aDay;
+    Map.Entry<Long, Long> before = fRuns.floorEntry(aDay - 1);
+    if ( before != null && before.getValue() == aDay - 1 ){
+      start = before.getKey();
+      removeRun(before.getKey(), before.getValue());
+    }
+    Long after = fRuns.get(aDay + 1);
+    if ( after != null ){
+      end = after;
+      removeRun(aDay + 1, after);
+    }
+    addRun(start, end);
+  }
+
+  /** The last movie on a given day can shorten or split a run. */
+  private void removeDay(long aDay){
+    increment(fMoviesPerDay, aDay, -1);
+    if ( fMoviesPerDay.containsKey(aDay) ) return;
+
+    Map.Entry<Long, Long> run = fRuns.floorEntry(aDay);
+    removeRun(run.getKey(), run.getValue());
+    if ( run.getKey() < aDay ){
+      addRun(run.getKey(), aDay - 1);
+    }
+    if ( aDay < run.getValue() ){
+      addRun(aDay + 1, run.getValue());
+    }
+  }
+
+  private void addRun(long aStart, long aEnd){
+    fRuns.put(aStart, aEnd);
+    increment(fRunLengths, (int)(aEnd - aStart + 1), 1);
+  }
+
+  private void removeRun(long aStart, long aEnd){
+    fRuns.remove(aStart);
+    increment(fRunLengths, (int)(aEnd - aStart + 1), -1);
+  }
+}
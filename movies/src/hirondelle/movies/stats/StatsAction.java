@@ -0,0 +1,61 @@
+package hirondelle.movies.stats;
+
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.util.Util;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+import javax.swing.AbstractAction;
+import javax.swing.JFrame;
+import javax.swing.SwingWorker;
+
+/** Show statistics on the user's movies. See {@link StatsView}. */
+public final class StatsAction extends AbstractAction {
+
+  /** Constructor. */
+  public StatsAction(JFrame aFrame) {
+    super("Statistics...", null);
+    fFrame = aFrame;
+    putValue(SHORT_DESCRIPTION, "Show statistics on your movies");
+    putValue(MNEMONIC_KEY, new Integer(KeyEvent.VK_S));
+  }
+
+  /** 
+   Show the statistics. The statistics cover all movies, so any not yet read in are read in 
+   first, on a worker thread.
+  */
+  @Override public void actionPerformed(ActionEvent aActionEvent) {
+    fLogger.config("Showing statistics.");
+    if ( ! new MovieDAO().hasOlderMovies() ) {
+      new StatsView(fFrame, MovieStats.getInstance());
+      return;
+    }
+    setEnabled(false);
+    new SwingWorker<Void, Void>(){
+      @Override protected Void doInBackground() {
+        new MovieDAO().loadAll();
+        return null;
+      }
+      @Override protected void done() {
+        setEnabled(true);
+        try {
+          get(); //rethrows any problem in the worker
+          new StatsView(fFrame, MovieStats.getInstance());
+        }
+        catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ex) {
+          throw new RuntimeException("Cannot read in all the movies.", ex.getCause());
+        }
+      }
+    }.execute();
+  }
+
+  // PRIVATE
+  private final JFrame fFrame;
+  private static final Logger fLogger = Util.getLogger(StatsAction.class);
+}
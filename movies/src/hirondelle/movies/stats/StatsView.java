@@ -0,0 +1,107 @@
+package hirondelle.movies.stats;
+
+import hirondelle.movies.util.Util;
+import hirondelle.movies.util.ui.OnClose;
+import hirondelle.movies.util.ui.StandardDialog;
+import static hirondelle.movies.util.Consts.NEW_LINE;
+
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+
+/**
+ Dialog showing statistics on the user's movies.
+
+ <P>All numbers are read from {@link MovieStats}, which keeps them up to date as movies are
+ edited. Nothing is recomputed here, so the dialog opens just as quickly for a long list
+ as for a short one.
+*/
+final class StatsView {
+
+  /** Constructor. Builds and shows the dialog. */
+  StatsView(JFrame aParent, MovieStats aStats){
+    fStats = aStats;
+    fStandardDialog = new StandardDialog(
+      aParent, "Statistics", true, OnClose.DISPOSE, getBody(), getButtons()
+    );
+    fStandardDialog.display();
+  }
+
+  // PRIVATE
+  private final MovieStats fStats;
+  private StandardDialog fStandardDialog;
+  private static final String INDENT = "  ";
+
+  private JPanel getBody(){
+    JTextArea report = new JTextArea(buildReport(), 20, 40);
+    report.setEditable(false);
+    report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+    report.setCaretPosition(0);
+    JPanel result = new JPanel();
+    result.add(new JScrollPane(report));
+    return result;
+  }
+
+  private String buildReport(){
+    StringBuilder result = new StringBuilder();
+    line(result, "Movies: " + fStats.getNumMovies());
+    line(result, "Average rating: " + Util.format(fStats.getAverageRating()));
+    line(result, "Median rating: " + Util.format(fStats.getMedianRating()));
+    line(result, "Longest streak: " + fStats.getLongestStreak() + " day(s)" + streakStart());
+    line(result, "");
+
+    line(result, "Ratings:");
+    int[] histogram = fStats.getRatingHistogram();
+    for(int point = 0; point < histogram.length; ++point){
+      line(result, INDENT + String.format("%2d  %d", point, histogram[point]));
+    }
+    line(result, "");
+
+    line(result, "Viewed per year:");
+    for(Map.Entry<Integer, Integer> year : fStats.getCountsByYear().entrySet()){
+      line(result, INDENT + year.getKey() + "  " + year.getValue());
+    }
+    line(result, "");
+
+    line(result, "Viewed per month:");
+    for(Map.Entry<Integer, Integer> month : fStats.getCountsByMonth().entrySet()){
+      int key = month.getKey();
+      line(result, INDENT + String.format("%d-%02d  %d", key / 100, key % 100, month.getValue()));
+    }
+    return result.toString();
+  }
+
+  private String streakStart(){
+    String result = "";
+    if ( fStats.getLongestStreakStart() != null ){
+      result = ", starting " + fStats.getLongestStreakStart();
+    }
+    return result;
+  }
+
+  private void line(StringBuilder aText, String aLine){
+    aText.append(aLine);
+    aText.append(NEW_LINE);
+  }
+
+  private List<JButton> getButtons(){
+    List<JButton> result = new ArrayList<>();
+    JButton close = new JButton("Close");
+    close.addActionListener(new ActionListener() {
+      @Override public void actionPerformed(ActionEvent aEvent) {
+        fStandardDialog.dispose();
+      }
+    });
+    result.add(close);
+    return result;
+  }
+}
@@ -0,0 +1,7 @@
+/** 
+ Statistics on the user's movies: counts per year and month, ratings, and viewing streaks.
+ 
+ <P>The statistics are maintained incrementally by {@link hirondelle.movies.stats.MovieStats}, 
+ as the data access object adds, changes, and deletes movies.
+*/
+package hirondelle.movies.stats;
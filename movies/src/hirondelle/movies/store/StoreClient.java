@@ -0,0 +1,249 @@
+package hirondelle.movies.store;
+
+import hirondelle.movies.edit.Movie;
+import hirondelle.movies.edit.MovieDelta;
+import hirondelle.movies.exception.InvalidInputException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ Connection to a user's {@link StoreDaemon}.
+
+ <P>Edits are sent in a {@link Batch}. All the requests in a batch are written at once, and
+ only then are the responses read, so a batch of any size costs a single round trip.
+
+ <P>This class is thread-safe. Calls are serialized, since they share a single connection.
+*/
+public final class StoreClient {
+
+  /**
+   Connect to the given user's daemon.
+   Return <tt>null</tt> if no daemon is running for that user.
+  */
+  public static StoreClient connect(String aUserName){
+    StoreClient result = null;
+    SocketChannel channel = StoreSockets.connect(aUserName);
+    if ( channel != null ) {
+      try {
+        result = new StoreClient(channel);
+        result.hello();
+      }
+      catch (IOException ex) {
+        //not a movie store, or not the same version
+        close(channel);
+        result = null;
+      }
+    }
+    return result;
+  }
+
+  /** 
+   Return all movies, in no particular order, as a delta in which every movie has changed. 
+   The delta's version is the version of the daemon's data store.
+  */
+  public synchronized MovieDelta list() throws IOException {
+    startFrame().writeByte(StoreProtocol.LIST);
+    endFrame();
+    fOut.flush();
+    readStatus();
+    long version = fIn.readLong();
+    return new MovieDelta(version, readMovies(), Collections.<String>emptyList());
+  }
+
+  /**
+   Return the movies changed since the given version of the daemon's data store. 
+   Return <tt>null</tt> if the daemon no longer knows; the caller must then {@link #list()}
+   all movies again. If nothing has changed, the response is a single byte. 
+  */
+  public synchronized MovieDelta changesSince(long aVersion) throws IOException {
+    DataOutputStream frame = startFrame();
+    frame.writeByte(StoreProtocol.CHANGES_SINCE);
+    frame.writeLong(aVersion);
+    endFrame();
+    fOut.flush();
+    MovieDelta result = null;
+    byte status = readStatus(StoreProtocol.NOT_MODIFIED, StoreProtocol.TOO_OLD);
+    if ( status == StoreProtocol.NOT_MODIFIED ) {
+      result = new MovieDelta(aVersion, Collections.<Movie>emptyList(), Collections.<String>emptyList());
+    }
+    else if ( status == StoreProtocol.OK ) {
+      long version = fIn.readLong();
+      List<Movie> changed = readMovies();
+      int numDeleted = fIn.readInt();
+      List<String> deleted = new ArrayList<>(numDeleted);
+      for(int idx = 0; idx < numDeleted; ++idx){
+        deleted.add(String.valueOf(fIn.readInt()));
+      }
+      result = new MovieDelta(version, changed, deleted);
+    }
+    return result;
+  }
+
+  /** Return the first of <tt>aCount</tt> new ids, never used before. */
+  public synchronized int reserveIds(int aCount) throws IOException {
+    DataOutputStream frame = startFrame();
+    frame.writeByte(StoreProtocol.RESERVE_IDS);
+    frame.writeInt(aCount);
+    endFrame();
+    fOut.flush();
+    readStatus();
+    return fIn.readInt();
+  }
+
+  /** Start a new, empty batch of edits. */
+  public Batch newBatch(){
+    return new Batch();
+  }
+
+  /** Edits to be sent to the daemon in a single round trip. Not thread-safe. */
+  public final class Batch {
+    /** Add or change a movie, which already has an id. */
+    public void put(Movie aMovie) throws IOException {
+      fRequests.writeByte(StoreProtocol.PUT);
+      StoreProtocol.writeMovie(fRequests, aMovie);
+      endRequest();
+    }
+    /** Delete a movie. Does nothing if there is no such movie. */
+    public void delete(String aMovieId) throws IOException {
+      fRequests.writeByte(StoreProtocol.DELETE);
+      fRequests.writeInt(Integer.parseInt(aMovieId));
+      endRequest();
+    }
+    /** Send all edits, and wait for all to be applied. */
+    public void send() throws IOException {
+      sendBatch(fLengths, fBytes.toByteArray());
+    }
+    private final ByteArrayOutputStream fBytes = new ByteArrayOutputStream();
+    private final DataOutputStream fRequests = new DataOutputStream(fBytes);
+    private final List<Integer> fLengths = new ArrayList<>();
+    private int fEnd;
+    private void endRequest(){
+      fLengths.add(fBytes.size() - fEnd);
+      fEnd = fBytes.size();
+    }
+  }
+
+  /** Close the connection. */
+  public synchronized void close(){
+    close(fChannel);
+  }
+
+  // PRIVATE
+  private final SocketChannel fChannel;
+  private final DataOutputStream fOut;
+  private final DataInputStream fIn;
+  private final ByteArrayOutputStream fFrame = new ByteArrayOutputStream();
+  private final DataOutputStream fFrameOut = new DataOutputStream(fFrame);
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private StoreClient(SocketChannel aChannel){
+    fChannel = aChannel;
+    fOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(aChannel), BUFFER_SIZE));
+    fIn = new DataInputStream(new BufferedInputStream(Channels.newInputStream(aChannel), BUFFER_SIZE));
+  }
+
+  private synchronized void hello() throws IOException {
+    DataOutputStream frame = startFrame();
+    frame.writeByte(StoreProtocol.HELLO);
+    frame.writeInt(StoreProtocol.MAGIC);
+    frame.writeInt(StoreProtocol.VERSION);
+    endFrame();
+    fOut.flush();
+    readStatus();
+  }
+
+  private DataOutputStream startFrame(){
+    fFrame.reset();
+    return fFrameOut;
+  }
+
+  private void endFrame() throws IOException {
+    fOut.writeInt(fFrame.size());
+    fFrame.writeTo(fOut);
+  }
+
+  /** Write all requests, then read all responses. */
+  private synchronized void sendBatch(List<Integer> aLengths, byte[] aRequests) throws IOException {
+    int start = 0;
+    for(Integer length : aLengths){
+      fOut.writeInt(length);
+      fOut.write(aRequests, start, length);
+      start = start + length;
+    }
+    fOut.flush();
+    IOException firstError = null;
+    for(int idx = 0; idx < aLengths.size(); ++idx){
+      try {
+        readStatus();
+      }
+      catch (IOException ex) {
+        if ( firstError == null ) firstError = ex;
+      }
+    }
+    if ( firstError != null ) throw firstError;
+  }
+
+  /** 
+   Read the length and status of a response, and return the status. Throw an exception 
+   if the status is neither OK nor one of the given statuses.
+  */
+  private byte readStatus(byte... aAlsoExpected) throws IOException {
+    fIn.readInt(); //the length is needed only by the daemon
+    byte status = fIn.readByte();
+    for(byte expected : aAlsoExpected){
+      if ( status == expected ) return status;
+    }
+    if ( status == StoreProtocol.INVALID ) {
+      int count = fIn.readInt();
+      StringBuilder messages = new StringBuilder("Invalid movie:");
+      for(int idx = 0; idx < count; ++idx){
+        messages.append(' ').append(StoreProtocol.readText(fIn));
+      }
+      throw new IOException(messages.toString());
+    }
+    else if ( status == StoreProtocol.ERROR ) {
+      throw new IOException("Movie store: " + StoreProtocol.readText(fIn));
+    }
+    else if ( status != StoreProtocol.OK ) {
+      throw new IOException("Unknown status from the movie store: " + status);
+    }
+    return status;
+  }
+
+  private List<Movie> readMovies() throws IOException {
+    int count = fIn.readInt();
+    List<Movie> result = new ArrayList<>(count);
+    for(int idx = 0; idx < count; ++idx){
+      result.add(readMovie());
+    }
+    return result;
+  }
+
+  private Movie readMovie() throws IOException {
+    try {
+      return StoreProtocol.readMovie(fIn);
+    }
+    catch (InvalidInputException ex) {
+      throw new IOException("Invalid movie from the movie store: " + ex.getErrorMessages());
+    }
+  }
+
+  private static void close(SocketChannel aChannel){
+    try {
+      aChannel.close();
+    }
+    catch (IOException ex) {
+      //nothing useful can be done
+    }
+  }
+}
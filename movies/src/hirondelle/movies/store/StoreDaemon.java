@@ -0,0 +1,292 @@
+package hirondelle.movies.store;
+
+import hirondelle.movies.edit.Movie;
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.edit.MovieDelta;
+import hirondelle.movies.exception.InvalidInputException;
+import hirondelle.movies.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ Own a user's movies on behalf of all the app instances running for that user.
+
+ <P>Without the daemon, each instance of the app reads its own copy of the movies file,
+ and writes it back when it exits, overwriting the edits of any other instance. When the
+ daemon is running, each instance sends its edits to the daemon instead (see
+ {@link MovieDAO}), and only the daemon writes the file.
+
+ <P>A single thread serves all clients, using non-blocking I/O. All the complete requests
+ read from a client are handled together, and their responses are written together. The
+ edits themselves are in memory only, so they are fast. The file is saved periodically,
+ on another thread, and when the daemon shuts down.
+
+ <P>See {@link StoreProtocol} for the protocol, and {@link StoreSockets} for the address.
+*/
+public final class StoreDaemon {
+
+  /**
+   Constructor. Reads in the user's movies, and starts listening for clients.
+   @param aUserName the user whose movies are served.
+  */
+  public StoreDaemon(String aUserName) throws IOException {
+    fUserName = aUserName;
+    //edits by clients are undone by the clients themselves
+    fDAO.disableUndoHistory();
+    //clients are sent all the movies, not just the most recent
+    fDAO.loadAll();
+    fSelector = Selector.open();
+    fServer = StoreSockets.bind(aUserName);
+    fServer.configureBlocking(false);
+    fServer.register(fSelector, SelectionKey.OP_ACCEPT);
+  }
+
+  /** Serve clients until {@link #stop()} is called. */
+  public void run() throws IOException {
+    fSaver.scheduleWithFixedDelay(new Runnable(){
+      @Override public void run() {
+        fDAO.shutdown();
+      }
+    }, SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    try {
+      while ( fIsRunning ) {
+        fSelector.select();
+        Iterator<SelectionKey> keys = fSelector.selectedKeys().iterator();
+        while ( keys.hasNext() ) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if ( key.isValid() && key.isAcceptable() ) accept();
+            if ( key.isValid() && key.isReadable() ) read(key);
+            if ( key.isValid() && key.isWritable() ) write(key);
+          }
+          catch (IOException ex) {
+            fLogger.fine(new Supplier<String>(){
+              @Override public String get() {
+                return "Closing client connection: " + ex;
+              }
+            });
+            closeClient(key);
+          }
+        }
+      }
+    }
+    finally {
+      for(SelectionKey key : fSelector.keys()){
+        key.channel().close();
+      }
+      fSelector.close();
+      StoreSockets.unbind(fUserName);
+      fSaver.shutdown();
+      fDAO.shutdown();
+    }
+  }
+
+  /** Stop serving clients, and save any edits. May be called from any thread. */
+  public void stop(){
+    fIsRunning = false;
+    fSelector.wakeup();
+  }
+
+  // PRIVATE
+  private final String fUserName;
+  private final MovieDAO fDAO = new MovieDAO();
+  private final Selector fSelector;
+  private final ServerSocketChannel fServer;
+  private volatile boolean fIsRunning = true;
+  private final ScheduledExecutorService fSaver = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactory(){
+      @Override public Thread newThread(Runnable aRunnable) {
+        Thread result = new Thread(aRunnable, "Save movies periodically");
+        result.setDaemon(true);
+        return result;
+      }
+    }
+  );
+  private static final Logger fLogger = Util.getLogger(StoreDaemon.class);
+
+  private static final int SAVE_INTERVAL_SECONDS = 30;
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  /** What's been read from a client, but not yet handled, and what's waiting to be written. */
+  private static final class Client {
+    ByteBuffer fIn = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    final Deque<ByteBuffer> fOut = new ArrayDeque<>();
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = fServer.accept();
+    if ( channel == null ) return;
+    channel.configureBlocking(false);
+    channel.register(fSelector, SelectionKey.OP_READ, new Client());
+  }
+
+  private void read(SelectionKey aKey) throws IOException {
+    SocketChannel channel = (SocketChannel)aKey.channel();
+    Client client = (Client)aKey.attachment();
+    if ( channel.read(client.fIn) == -1 ) {
+      closeClient(aKey);
+      return;
+    }
+    ByteBuffer in = client.fIn;
+    in.flip();
+    ByteArrayOutputStream responses = new ByteArrayOutputStream();
+    while ( in.remaining() >= 4 ) {
+      int length = in.getInt(in.position());
+      if ( length < 1 || length > StoreProtocol.MAX_REQUEST_LENGTH ) {
+        throw new IOException("Not a valid request length: " + length);
+      }
+      if ( in.remaining() < 4 + length ) break;
+      handle(new ByteArrayInputStream(in.array(), in.position() + 4, length), responses);
+      in.position(in.position() + 4 + length);
+    }
+    in.compact();
+    if ( in.position() == in.capacity() ) {
+      //a single request larger than the buffer
+      ByteBuffer bigger = ByteBuffer.allocate(2 * in.capacity());
+      in.flip();
+      bigger.put(in);
+      client.fIn = bigger;
+    }
+    if ( responses.size() > 0 ) {
+      client.fOut.add(ByteBuffer.wrap(responses.toByteArray()));
+      write(aKey);
+    }
+  }
+
+  /** Write as much as the client will take now, and wait to write the rest. */
+  private void write(SelectionKey aKey) throws IOException {
+    SocketChannel channel = (SocketChannel)aKey.channel();
+    Deque<ByteBuffer> out = ((Client)aKey.attachment()).fOut;
+    while ( ! out.isEmpty() ) {
+      ByteBuffer next = out.peek();
+      channel.write(next);
+      if ( next.hasRemaining() ) break;
+      out.remove();
+    }
+    aKey.interestOps(out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+  }
+
+  private void closeClient(SelectionKey aKey){
+    aKey.cancel();
+    try {
+      aKey.channel().close();
+    }
+    catch (IOException ex) {
+      //nothing useful can be done
+    }
+  }
+
+  /** Handle a single request, and append its response. */
+  private void handle(ByteArrayInputStream aRequest, ByteArrayOutputStream aResponses) throws IOException {
+    DataInputStream request = new DataInputStream(aRequest);
+    ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+    DataOutputStream response = new DataOutputStream(responseBytes);
+    byte operation = request.readByte();
+    try {
+      if ( operation == StoreProtocol.HELLO ) {
+        if ( request.readInt() != StoreProtocol.MAGIC || request.readInt() != StoreProtocol.VERSION ) {
+          throw new IOException("Client does not speak this version of the protocol.");
+        }
+        response.writeByte(StoreProtocol.OK);
+      }
+      else if ( operation == StoreProtocol.LIST ) {
+        long version = fDAO.getVersion();
+        List<Movie> movies = fDAO.listSorted(null);
+        response.writeByte(StoreProtocol.OK);
+        response.writeLong(version);
+        response.writeInt(movies.size());
+        for(Movie movie : movies){
+          StoreProtocol.writeMovie(response, movie);
+        }
+      }
+      else if ( operation == StoreProtocol.CHANGES_SINCE ) {
+        changesSince(request.readLong(), response);
+      }
+      else if ( operation == StoreProtocol.PUT ) {
+        put(request, response);
+      }
+      else if ( operation == StoreProtocol.DELETE ) {
+        fDAO.delete(String.valueOf(request.readInt()));
+        response.writeByte(StoreProtocol.OK);
+      }
+      else if ( operation == StoreProtocol.RESERVE_IDS ) {
+        int first = fDAO.reserveIds(request.readInt());
+        response.writeByte(StoreProtocol.OK);
+        response.writeInt(first);
+      }
+      else {
+        throw new IOException("Unknown operation: " + operation);
+      }
+    }
+    catch (RuntimeException ex) {
+      fLogger.log(Level.SEVERE, ex, new Supplier<String>(){
+        @Override public String get() {
+          return "Cannot handle request " + operation;
+        }
+      });
+      responseBytes.reset();
+      response.writeByte(StoreProtocol.ERROR);
+      StoreProtocol.writeText(response, String.valueOf(ex.getMessage()));
+    }
+    DataOutputStream out = new DataOutputStream(aResponses);
+    out.writeInt(responseBytes.size());
+    responseBytes.writeTo(out);
+  }
+
+  private void changesSince(long aVersion, DataOutputStream aResponse) throws IOException {
+    MovieDelta delta = fDAO.changesSince(aVersion);
+    if ( delta == null ) {
+      aResponse.writeByte(StoreProtocol.TOO_OLD);
+    }
+    else if ( delta.isEmpty() ) {
+      aResponse.writeByte(StoreProtocol.NOT_MODIFIED);
+    }
+    else {
+      aResponse.writeByte(StoreProtocol.OK);
+      aResponse.writeLong(delta.getVersion());
+      aResponse.writeInt(delta.getChanged().size());
+      for(Movie movie : delta.getChanged()){
+        StoreProtocol.writeMovie(aResponse, movie);
+      }
+      aResponse.writeInt(delta.getDeleted().size());
+      for(String id : delta.getDeleted()){
+        aResponse.writeInt(Integer.parseInt(id));
+      }
+    }
+  }
+
+  private void put(DataInputStream aRequest, DataOutputStream aResponse) throws IOException {
+    try {
+      fDAO.change(StoreProtocol.readMovie(aRequest));
+      aResponse.writeByte(StoreProtocol.OK);
+    }
+    catch (InvalidInputException ex) {
+      aResponse.writeByte(StoreProtocol.INVALID);
+      aResponse.writeInt(ex.getErrorMessages().size());
+      for(String message : ex.getErrorMessages()){
+        StoreProtocol.writeText(aResponse, message);
+      }
+    }
+  }
+}
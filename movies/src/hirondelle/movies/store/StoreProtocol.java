@@ -0,0 +1,105 @@
+package hirondelle.movies.store;
+
+import hirondelle.movies.edit.Movie;
+import hirondelle.movies.exception.InvalidInputException;
+import hirondelle.movies.util.Util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ The binary protocol spoken between the {@link StoreDaemon} and its {@link StoreClient}s.
+
+ <P>Every request and every response is a <em>frame</em> : a 4-byte length, followed by
+ that many bytes. A request frame starts with a 1-byte operation code; a response frame
+ starts with a 1-byte status. Responses are sent in the same order as the requests, so a
+ client can send many requests before reading any of the responses (<em>pipelining</em>).
+
+ <P>The operations, and the items which follow the operation code :
+ <table border='1' cellpadding='3' cellspacing='0'>
+  <tr><th>Operation</th><th>Request</th><th>Response, if OK</th></tr>
+  <tr><td>HELLO</td><td>magic number, version</td><td>-</td></tr>
+  <tr><td>LIST</td><td>-</td><td>version, count, then that many movies</td></tr>
+  <tr><td>CHANGES_SINCE</td><td>version</td><td>version, count, then that many
+   changed movies, count, then that many deleted ids</td></tr>
+  <tr><td>PUT</td><td>movie, with its id</td><td>-</td></tr>
+  <tr><td>DELETE</td><td>id</td><td>-</td></tr>
+  <tr><td>RESERVE_IDS</td><td>count</td><td>the first of that many new ids</td></tr>
+ </table>
+
+ <P>CHANGES_SINCE is answered with status NOT_MODIFIED, and nothing else, if nothing has
+ changed since the given version. If the daemon no longer knows what changed since that
+ version, the status is TOO_OLD, and the client must LIST all movies again.
+
+ <P>A PUT of invalid data is answered with status INVALID, followed by a count of
+ error messages and the messages themselves. Any other failure is answered with status
+ ERROR, followed by a single message.
+
+ <P>Versions are 8-byte integers, and ids are 4-byte integers. Text is a 4-byte length
+ in bytes (-1 for null), followed by UTF-8. A movie is its id, title, date viewed, rating,
+ and comment, with the date and rating as text, in the same format as in the movies file.
+*/
+final class StoreProtocol {
+
+  static final int MAGIC = 0x4D4F5653; //'MOVS'
+  static final int VERSION = 2;
+
+  static final byte HELLO = 1;
+  static final byte LIST = 2;
+  static final byte PUT = 3;
+  static final byte DELETE = 4;
+  static final byte RESERVE_IDS = 5;
+  static final byte CHANGES_SINCE = 6;
+
+  static final byte OK = 0;
+  static final byte INVALID = 1;
+  static final byte ERROR = 2;
+  static final byte NOT_MODIFIED = 3;
+  static final byte TOO_OLD = 4;
+
+  /** Requests are small. A larger length means a client is not speaking this protocol. */
+  static final int MAX_REQUEST_LENGTH = 1024 * 1024;
+
+  static void writeText(DataOutput aOut, String aText) throws IOException {
+    if ( aText == null ) {
+      aOut.writeInt(-1);
+    }
+    else {
+      byte[] bytes = aText.getBytes(ENCODING);
+      aOut.writeInt(bytes.length);
+      aOut.write(bytes);
+    }
+  }
+
+  static String readText(DataInput aIn) throws IOException {
+    int length = aIn.readInt();
+    if ( length < 0 ) return null;
+    byte[] bytes = new byte[length];
+    aIn.readFully(bytes);
+    return new String(bytes, ENCODING);
+  }
+
+  static void writeMovie(DataOutput aOut, Movie aMovie) throws IOException {
+    aOut.writeInt(Integer.parseInt(aMovie.getId()));
+    writeText(aOut, aMovie.getTitle());
+    writeText(aOut, aMovie.getDateViewed() == null ? null : Util.format(aMovie.getDateViewed()));
+    writeText(aOut, aMovie.getRating() == null ? null : aMovie.getRating().toPlainString());
+    writeText(aOut, aMovie.getComment());
+  }
+
+  static Movie readMovie(DataInput aIn) throws IOException, InvalidInputException {
+    String id = String.valueOf(aIn.readInt());
+    return Movie.fromSaved(id, readText(aIn), readText(aIn), readText(aIn), readText(aIn));
+  }
+
+  // PRIVATE
+  private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+  /** Prevent object construction. */
+  private StoreProtocol(){
+    throw new AssertionError();
+  }
+}
@@ -0,0 +1,146 @@
+package hirondelle.movies.store;
+
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ Where a user's {@link StoreDaemon} listens, and how clients find it.
+
+ <P>When running on a JDK which has Unix domain sockets (JDK 16 and later), the daemon
+ listens on a socket file named <tt>movie_store_for_&lt;<em>user name</em>&gt;.sock</tt>,
+ next to the movies file. Only local processes can connect, and the file system's
+ permissions apply. The app is compiled for an older JDK, so those classes are looked
+ up at runtime.
+
+ <P>On older JDKs, the daemon listens on any free TCP port of the loopback address
+ instead, and writes the port number to a file named
+ <tt>movie_store_for_&lt;<em>user name</em>&gt;.port</tt>.
+*/
+final class StoreSockets {
+
+  /** Listen for clients of the given user's daemon. */
+  static ServerSocketChannel bind(String aUserName) throws IOException {
+    ServerSocketChannel result = null;
+    Path socketFile = fileFor(aUserName, SOCKET_FILE_EXTENSION);
+    SocketAddress unixAddress = unixAddress(socketFile);
+    if ( unixAddress != null ) {
+      //left behind by a daemon which was killed
+      Files.deleteIfExists(socketFile);
+      result = openUnixServer();
+      result.bind(unixAddress);
+      fLogger.config(new Supplier<String>(){
+        @Override public String get() {
+          return "Store listening on " + socketFile;
+        }
+      });
+    }
+    else {
+      result = ServerSocketChannel.open();
+      result.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      int port = ((InetSocketAddress)result.getLocalAddress()).getPort();
+      Files.write(fileFor(aUserName, PORT_FILE_EXTENSION), String.valueOf(port).getBytes(StandardCharsets.US_ASCII));
+      fLogger.config(new Supplier<String>(){
+        @Override public String get() {
+          return "Store listening on port " + port;
+        }
+      });
+    }
+    return result;
+  }
+
+  /** Remove the file which lets clients find the daemon. */
+  static void unbind(String aUserName){
+    try {
+      Files.deleteIfExists(fileFor(aUserName, SOCKET_FILE_EXTENSION));
+      Files.deleteIfExists(fileFor(aUserName, PORT_FILE_EXTENSION));
+    }
+    catch (IOException ex) {
+      fLogger.warning("Cannot delete the store's socket or port file.");
+    }
+  }
+
+  /**
+   Connect to the given user's daemon. Return <tt>null</tt> if no daemon is listening.
+   The returned channel is in blocking mode.
+  */
+  static SocketChannel connect(String aUserName){
+    SocketChannel result = null;
+    try {
+      SocketAddress address = null;
+      Path socketFile = fileFor(aUserName, SOCKET_FILE_EXTENSION);
+      Path portFile = fileFor(aUserName, PORT_FILE_EXTENSION);
+      if ( Files.exists(socketFile) ) {
+        address = unixAddress(socketFile);
+      }
+      else if ( Files.exists(portFile) ) {
+        String port = new String(Files.readAllBytes(portFile), StandardCharsets.US_ASCII).trim();
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port));
+      }
+      if ( address != null ) {
+        result = SocketChannel.open(address);
+      }
+    }
+    catch (IOException | NumberFormatException ex) {
+      fLogger.fine(new Supplier<String>(){
+        @Override public String get() {
+          return "No movie store daemon is listening: " + ex;
+        }
+      });
+    }
+    return result;
+  }
+
+  // PRIVATE
+  private static final String FILE_NAME = "movie_store_for_";
+  private static final String SOCKET_FILE_EXTENSION = ".sock";
+  private static final String PORT_FILE_EXTENSION = ".port";
+  private static final Logger fLogger = Util.getLogger(StoreSockets.class);
+
+  private static Path fileFor(String aUserName, String aExtension){
+    return Paths.get(FILE_NAME + aUserName.toLowerCase(Locale.ENGLISH) + aExtension).toAbsolutePath();
+  }
+
+  /** Return null if Unix domain sockets are not available. */
+  private static SocketAddress unixAddress(Path aSocketFile){
+    SocketAddress result = null;
+    try {
+      Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+      result = (SocketAddress)addressClass.getMethod("of", Path.class).invoke(null, aSocketFile);
+    }
+    catch (ReflectiveOperationException ex) {
+      result = null;
+    }
+    return result;
+  }
+
+  private static ServerSocketChannel openUnixServer() throws IOException {
+    try {
+      Method open = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+      return (ServerSocketChannel)open.invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+    }
+    catch (ReflectiveOperationException ex) {
+      throw new IOException("Cannot open a Unix domain socket.", ex);
+    }
+  }
+
+  /** Prevent object construction. */
+  private StoreSockets(){
+    throw new AssertionError();
+  }
+}
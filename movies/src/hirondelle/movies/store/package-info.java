@@ -0,0 +1,6 @@
+/** 
+ A daemon which owns a user's movies, shared by all instances of the app run by that user.
+ 
+ <P>See {@link hirondelle.movies.LaunchStore}.
+*/
+package hirondelle.movies.store;
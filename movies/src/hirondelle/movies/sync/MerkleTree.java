@@ -0,0 +1,109 @@
+package hirondelle.movies.sync;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ A hash tree over the {@link SyncRecord}s of a list, used to find where two lists differ.
+
+ <P>Records are put into <em>buckets</em> (the leaves of the tree) by their sync id. The hash 
+ of a bucket is the sum of the hashes of its records; the hash of any other node is the sum 
+ of the hashes of its {@link #FANOUT} children. Two lists compare their trees from the root 
+ down, following only the nodes whose hashes differ, so finding a few different records 
+ among <em>n</em> takes about <em>log<sub>16</sub>(n)</em> steps. 
+
+ <P>Since the hashes are sums, the order of records doesn't matter, and the tree is built 
+ in a single pass. Both lists must build trees of the same depth; see {@link #depthFor(int)}.
+
+ <P>This class is not thread-safe.
+*/
+final class MerkleTree {
+
+  /** The number of children of each node. */
+  static final int FANOUT = 16;
+
+  /** The depth of the tree for lists of up to the given size : about this many records per bucket. */
+  static int depthFor(int aNumRecords){
+    int result = 1;
+    long numBuckets = FANOUT;
+    while ( numBuckets * RECORDS_PER_BUCKET < aNumRecords && result < MAX_DEPTH ) {
+      numBuckets = numBuckets * FANOUT;
+      ++result;
+    }
+    return result;
+  }
+
+  /** Build the tree of the given depth over the given records. */
+  MerkleTree(Collection<SyncRecord> aRecords, int aDepth){
+    fDepth = aDepth;
+    fLevels = new long[aDepth + 1][];
+    int numBuckets = numNodes(aDepth);
+    long[] buckets = new long[numBuckets];
+    //sort the records by bucket, with a counting sort
+    fBucketStarts = new int[numBuckets + 1];
+    int[] bucketOf = new int[aRecords.size()];
+    int idx = 0;
+    for(SyncRecord record : aRecords){
+      int bucket = bucketOf(record.getSyncId());
+      bucketOf[idx++] = bucket;
+      buckets[bucket] += record.getHash();
+      fBucketStarts[bucket + 1]++;
+    }
+    for(int bucket = 0; bucket < numBuckets; ++bucket){
+      fBucketStarts[bucket + 1] += fBucketStarts[bucket];
+    }
+    fRecords = new SyncRecord[aRecords.size()];
+    int[] next = Arrays.copyOf(fBucketStarts, numBuckets);
+    idx = 0;
+    for(SyncRecord record : aRecords){
+      fRecords[next[bucketOf[idx++]]++] = record;
+    }
+    fLevels[aDepth] = buckets;
+    for(int level = aDepth - 1; level >= 0; --level){
+      long[] children = fLevels[level + 1];
+      long[] nodes = new long[numNodes(level)];
+      for(int child = 0; child < children.length; ++child){
+        nodes[child / FANOUT] += children[child];
+      }
+      fLevels[level] = nodes;
+    }
+  }
+
+  int getDepth(){
+    return fDepth;
+  }
+
+  /** The hash of the given node. The root is the only node at level 0; the buckets are at the last level. */
+  long hashOf(int aLevel, int aNode){
+    return fLevels[aLevel][aNode];
+  }
+
+  /** The bucket of the given sync id. */
+  int bucketOf(long aSyncId){
+    return (int)(SyncRecord.mix(aSyncId) >>> (64 - BITS_PER_LEVEL * fDepth));
+  }
+
+  /** The records in the given bucket. */
+  List<SyncRecord> recordsIn(int aBucket){
+    return Arrays.asList(fRecords).subList(fBucketStarts[aBucket], fBucketStarts[aBucket + 1]);
+  }
+
+  // PRIVATE
+  private final int fDepth;
+  /** The hashes of the nodes at each level. */
+  private final long[][] fLevels;
+  /** All records, in order of bucket. */
+  private final SyncRecord[] fRecords;
+  /** Where the records of each bucket start in fRecords. */
+  private final int[] fBucketStarts;
+
+  private static final int BITS_PER_LEVEL = 4;
+  private static final int RECORDS_PER_BUCKET = 16;
+  /** 16^6 buckets : enough for lists of 268 million movies. */
+  private static final int MAX_DEPTH = 6;
+
+  private static int numNodes(int aLevel){
+    return 1 << (BITS_PER_LEVEL * aLevel);
+  }
+}
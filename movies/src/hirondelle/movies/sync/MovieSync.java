@@ -0,0 +1,496 @@
+package hirondelle.movies.sync;
+
+import hirondelle.movies.edit.Movie;
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.exception.InvalidInputException;
+import hirondelle.movies.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ Two-way sync of a user's movies with another copy of the same list, such as one kept 
+ on another computer.
+
+ <P>Each side first finds its own edits since the last sync, by comparing its movies with 
+ what it saved about them then, in <tt>sync.dat</tt>, next to the movies. See {@link SyncRecord}.
+ The two sides then compare {@link MerkleTree}s over their movies, to find where they differ, 
+ in a few round trips, and send each other only the movies which differ. A movie edited on 
+ both sides is merged field by field : the latest edit to each field wins. Both sides end 
+ up with the same movies. See {@link SyncProtocol}.
+
+ <P>Only the movies changed by a sync are saved to <tt>sync.dat</tt>, at its end. Once it holds 
+ more old versions of movies than current ones, it's saved again from scratch.
+
+ <P>Edits made since the last sync are given the time the movies were last edited (the time 
+ their files were last written). The clocks of the two computers should roughly agree.
+
+ <P>One side listens on a local port, and the other connects to it. Only connections from the 
+ same computer are accepted, since the protocol has no password : to sync with another 
+ computer, forward the port over an encrypted connection (for example, with <tt>ssh -L</tt>).
+ 
+ <P>This class is not thread-safe.
+*/
+public final class MovieSync {
+
+  /** Find the edits made to the given movies since they were last synced. All years must be loaded. */
+  public MovieSync(MovieDAO aDAO) throws IOException {
+    fDAO = aDAO;
+    fStateFile = aDAO.getDirectory().resolve(STATE_FILE);
+    fRecords = readState();
+    findLocalEdits();
+    fTree = new MerkleTree(fRecords.values(), MerkleTree.depthFor(fRecords.size()));
+  }
+
+  /** Wait for the other side to connect to the given port, then sync. Returns the number of movies changed here. */
+  public int listen(int aPort) throws IOException {
+    try (
+      ServerSocket server = new ServerSocket(aPort, 1, InetAddress.getLoopbackAddress());
+      Socket socket = server.accept()
+    ) {
+      return sync(socket, ! CLIENT);
+    }
+  }
+
+  /** Connect to the other side, listening on the given port, then sync. Returns the number of movies changed here. */
+  public int connect(int aPort) throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), aPort)) {
+      return sync(socket, CLIENT);
+    }
+  }
+
+  // PRIVATE
+  private final MovieDAO fDAO;
+  private final Path fStateFile;
+  /** What sync knows about each movie, by sync id, in the order saved. */
+  private final Map<Long, SyncRecord> fRecords;
+  /** The records changed since the sync file was read, and not yet saved to it. */
+  private final Map<Long, SyncRecord> fChanged = new LinkedHashMap<>();
+  /** The number of records in the sync file, including old versions. */
+  private int fNumSaved;
+  /** Built ahead of time, so that a sync which finds few changes takes little time. Null once stale. */
+  private MerkleTree fTree;
+  private int fNumSent;
+  private int fNumReceived;
+  private int fNumChangedThere;
+
+  private static final String STATE_FILE = "sync.dat";
+  private static final int STATE_MAGIC = 0x4D4F5354; //'MOST'
+  private static final int STATE_VERSION = 1;
+  private static final boolean CLIENT = true;
+  private static final boolean WITH_VALUES = true;
+  private static final int NO_LOCAL_ID = 0;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final Logger fLogger = Util.getLogger(MovieSync.class);
+
+  /** 
+   Read the sync file : a header, then records, to the end of the file. A later record for 
+   the same movie replaces an earlier one.
+  */
+  private Map<Long, SyncRecord> readState() throws IOException {
+    Map<Long, SyncRecord> result = new LinkedHashMap<>();
+    if ( ! Files.exists(fStateFile) ) return result;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fStateFile), BUFFER_SIZE))) {
+      if ( in.readInt() != STATE_MAGIC || in.readInt() != STATE_VERSION ) {
+        throw new IOException("Sync file not in expected format: " + fStateFile);
+      }
+      SyncRecord record = null;
+      while ( (record = readSaved(in)) != null ) {
+        result.put(record.getSyncId(), record);
+        ++fNumSaved;
+      }
+    }
+    return result;
+  }
+
+  /** Return the next record in the sync file, or null at its end. */
+  private static SyncRecord readSaved(DataInputStream aIn) throws IOException {
+    try {
+      return SyncRecord.read(aIn, ! WITH_VALUES);
+    }
+    catch (EOFException ex) {
+      //the end of the file, or a record only partly saved, which the next sync finds again
+      return null;
+    }
+  }
+
+  private void put(SyncRecord aRecord){
+    fRecords.put(aRecord.getSyncId(), aRecord);
+    fChanged.put(aRecord.getSyncId(), aRecord);
+    fTree = null;
+  }
+
+  /** Save the changed records to the end of the sync file, or save all records, if most in the file are old. */
+  private void writeState() throws IOException {
+    if ( fChanged.isEmpty() ) return;
+    if ( fNumSaved > 0 && fNumSaved + fChanged.size() <= 2 * fRecords.size() ) {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(fStateFile, StandardOpenOption.APPEND), BUFFER_SIZE))) {
+        writeRecords(out, fChanged.values());
+      }
+      fNumSaved = fNumSaved + fChanged.size();
+    }
+    else {
+      Path temp = fStateFile.resolveSibling(STATE_FILE + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE))) {
+        out.writeInt(STATE_MAGIC);
+        out.writeInt(STATE_VERSION);
+        writeRecords(out, fRecords.values());
+      }
+      Files.move(temp, fStateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      fNumSaved = fRecords.size();
+    }
+    fChanged.clear();
+  }
+
+  private static void writeRecords(DataOutputStream aOut, Collection<SyncRecord> aRecords) throws IOException {
+    for(SyncRecord record : aRecords){
+      record.write(aOut, ! WITH_VALUES);
+    }
+  }
+
+  /** Compare the movies with what was saved at the last sync. */
+  private void findLocalEdits() throws IOException {
+    long time = lastEditTime();
+    Map<Integer, SyncRecord> byLocalId = new HashMap<>();
+    for(SyncRecord record : fRecords.values()){
+      if ( ! record.isDeleted() ) {
+        byLocalId.put(record.getLocalId(), record);
+      }
+    }
+    for(Movie movie : fDAO.list()){
+      int localId = Integer.parseInt(movie.getId());
+      SyncRecord record = byLocalId.remove(localId);
+      if ( record == null ) {
+        long syncId = SyncRecord.syncIdOf(movie);
+        //the same title and day as another movie, or as one deleted
+        while ( fRecords.containsKey(syncId) ) {
+          syncId = SyncRecord.mix(syncId);
+        }
+        put(new SyncRecord(syncId, localId, movie, time));
+      }
+      else {
+        SyncRecord updated = record.withLocal(movie, time);
+        if ( updated != record ) {
+          put(updated);
+        }
+      }
+    }
+    for(SyncRecord record : byLocalId.values()){
+      put(record.deleted(time));
+    }
+  }
+
+  /** The time the movies' files were last written. */
+  private long lastEditTime() throws IOException {
+    long result = 0;
+    Path directory = fDAO.getDirectory();
+    if ( Files.isDirectory(directory) ) {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+        for(Path file : files){
+          if ( ! file.getFileName().toString().startsWith(STATE_FILE) ) {
+            result = Math.max(result, Files.getLastModifiedTime(file).toMillis());
+          }
+        }
+      }
+    }
+    return result == 0 ? System.currentTimeMillis() : result;
+  }
+
+  private int sync(Socket aSocket, boolean aIsClient) throws IOException {
+    long start = System.nanoTime();
+    aSocket.setTcpNoDelay(true);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(aSocket.getInputStream(), BUFFER_SIZE));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(aSocket.getOutputStream(), BUFFER_SIZE));
+    int result = aIsClient ? runClient(in, out) : runServer(in, out);
+    logSync(result, start);
+    writeState();
+    return result;
+  }
+
+  private int runClient(DataInputStream aIn, DataOutputStream aOut) throws IOException {
+    aOut.writeInt(SyncProtocol.MAGIC);
+    aOut.writeInt(SyncProtocol.VERSION);
+    aOut.writeInt(treeOfDepth(0).getDepth());
+    aOut.flush();
+    readStatus(aIn);
+    MerkleTree tree = treeOfDepth(aIn.readInt());
+    List<Integer> buckets = differingBuckets(tree, aIn, aOut, CLIENT);
+    if ( buckets.isEmpty() ) return 0;
+    for(Integer bucket : buckets){
+      List<SyncRecord> records = tree.recordsIn(bucket);
+      aOut.writeInt(records.size());
+      for(SyncRecord record : records){
+        aOut.writeLong(record.getSyncId());
+        aOut.writeLong(record.getHash());
+      }
+    }
+    aOut.flush();
+    List<SyncRecord> theirs = readRecords(aIn);
+    int numWanted = aIn.readInt();
+    List<SyncRecord> wanted = new ArrayList<>();
+    for(int idx = 0; idx < numWanted; ++idx){
+      SyncRecord record = fRecords.get(aIn.readLong());
+      if ( record == null ) throw new IOException("Asked for a movie not sent.");
+      wanted.add(record);
+    }
+    writeRecords(aOut, wanted);
+    aOut.flush();
+    int result = mergeAll(theirs);
+    readStatus(aIn);
+    fNumChangedThere = aIn.readInt();
+    return result;
+  }
+
+  private int runServer(DataInputStream aIn, DataOutputStream aOut) throws IOException {
+    if ( aIn.readInt() != SyncProtocol.MAGIC || aIn.readInt() != SyncProtocol.VERSION ) {
+      aOut.writeByte(SyncProtocol.ERROR);
+      SyncProtocol.writeText(aOut, "Not the same version of the sync protocol.");
+      aOut.flush();
+      throw new IOException("The other side doesn't speak the same version of the sync protocol.");
+    }
+    int theirDepth = aIn.readInt();
+    aOut.writeByte(SyncProtocol.OK);
+    aOut.writeInt(treeOfDepth(0).getDepth());
+    aOut.flush();
+    MerkleTree tree = treeOfDepth(theirDepth);
+    List<Integer> buckets = differingBuckets(tree, aIn, aOut, ! CLIENT);
+    if ( buckets.isEmpty() ) return 0;
+    List<SyncRecord> send = new ArrayList<>();
+    List<Long> wanted = new ArrayList<>();
+    for(Integer bucket : buckets){
+      Map<Long, SyncRecord> mine = new LinkedHashMap<>();
+      for(SyncRecord record : tree.recordsIn(bucket)){
+        mine.put(record.getSyncId(), record);
+      }
+      int count = aIn.readInt();
+      for(int idx = 0; idx < count; ++idx){
+        long syncId = aIn.readLong();
+        long hash = aIn.readLong();
+        SyncRecord record = mine.remove(syncId);
+        if ( record == null || record.getHash() != hash ) {
+          wanted.add(syncId);
+        }
+        if ( record != null && record.getHash() != hash ) {
+          send.add(record);
+        }
+      }
+      //the other side lacks these
+      send.addAll(mine.values());
+    }
+    writeRecords(aOut, send);
+    aOut.writeInt(wanted.size());
+    for(Long syncId : wanted){
+      aOut.writeLong(syncId);
+    }
+    aOut.flush();
+    int result = mergeAll(readRecords(aIn));
+    aOut.writeByte(SyncProtocol.OK);
+    aOut.writeInt(result);
+    aOut.flush();
+    return result;
+  }
+
+  /**
+   Return the tree of this side, at least as deep as the given depth, and as deep as suits 
+   this side's size. Both sides use the deeper of their two trees.
+  */
+  private MerkleTree treeOfDepth(int aDepth){
+    int depth = Math.max(aDepth, MerkleTree.depthFor(fRecords.size()));
+    if ( fTree == null || fTree.getDepth() != depth ) {
+      fTree = new MerkleTree(fRecords.values(), depth);
+    }
+    return fTree;
+  }
+
+  /**
+   Compare the trees of both sides, level by level, from the root down. Return the 
+   buckets which differ.
+  */
+  private List<Integer> differingBuckets(MerkleTree aTree, DataInputStream aIn, DataOutputStream aOut, boolean aIsClient) throws IOException {
+    List<Integer> nodes = new ArrayList<>();
+    nodes.add(0);
+    for(int level = 0; level <= aTree.getDepth(); ++level){
+      List<Integer> differing = new ArrayList<>();
+      if ( aIsClient ) {
+        aOut.writeInt(nodes.size());
+        for(Integer node : nodes){
+          aOut.writeLong(aTree.hashOf(level, node));
+        }
+        aOut.flush();
+        int count = aIn.readInt();
+        for(int idx = 0; idx < count; ++idx){
+          int position = aIn.readInt();
+          if ( position < 0 || position >= nodes.size() ) throw new IOException("Unexpected node position: " + position);
+          differing.add(nodes.get(position));
+        }
+      }
+      else {
+        if ( aIn.readInt() != nodes.size() ) throw new IOException("The other side compared different nodes.");
+        List<Integer> positions = new ArrayList<>();
+        for(int idx = 0; idx < nodes.size(); ++idx){
+          if ( aIn.readLong() != aTree.hashOf(level, nodes.get(idx)) ) {
+            positions.add(idx);
+            differing.add(nodes.get(idx));
+          }
+        }
+        aOut.writeInt(positions.size());
+        for(Integer position : positions){
+          aOut.writeInt(position);
+        }
+        aOut.flush();
+      }
+      if ( level == aTree.getDepth() || differing.isEmpty() ) return differing;
+      nodes = new ArrayList<>();
+      for(Integer node : differing){
+        for(int child = 0; child < MerkleTree.FANOUT; ++child){
+          nodes.add(node * MerkleTree.FANOUT + child);
+        }
+      }
+    }
+    throw new AssertionError();
+  }
+
+  private void writeRecords(DataOutputStream aOut, List<SyncRecord> aRecords) throws IOException {
+    aOut.writeInt(aRecords.size());
+    for(SyncRecord record : aRecords){
+      withValues(record).write(aOut, WITH_VALUES);
+    }
+    fNumSent += aRecords.size();
+  }
+
+  private List<SyncRecord> readRecords(DataInputStream aIn) throws IOException {
+    int count = aIn.readInt();
+    List<SyncRecord> result = new ArrayList<>();
+    for(int idx = 0; idx < count; ++idx){
+      result.add(SyncRecord.read(aIn, WITH_VALUES));
+    }
+    fNumReceived += count;
+    return result;
+  }
+
+  /** The given record, with the text of the movie it stands for, unless deleted. */
+  private SyncRecord withValues(SyncRecord aRecord){
+    if ( aRecord.isDeleted() ) return aRecord;
+    Movie movie = fDAO.get(String.valueOf(aRecord.getLocalId()));
+    return movie == null ? aRecord : aRecord.withValues(movie);
+  }
+
+  /** Merge the other side's versions of movies into this side's. Return the number of movies changed. */
+  private int mergeAll(List<SyncRecord> aTheirs){
+    List<SyncRecord> merged = new ArrayList<>();
+    for(SyncRecord theirs : aTheirs){
+      SyncRecord mine = fRecords.get(theirs.getSyncId());
+      if ( mine == null ) {
+        merged.add(theirs.withLocalId(NO_LOCAL_ID));
+      }
+      else if ( mine.getHash() != theirs.getHash() ) {
+        merged.add(withValues(mine).merge(theirs));
+      }
+    }
+    return apply(merged);
+  }
+
+  /** Make the given merged movies this side's movies. Return the number of movies changed. */
+  private int apply(List<SyncRecord> aMerged){
+    int result = 0;
+    List<String> deleted = new ArrayList<>();
+    List<Movie> added = new ArrayList<>();
+    List<SyncRecord> addedRecords = new ArrayList<>();
+    for(SyncRecord record : aMerged){
+      SyncRecord mine = fRecords.get(record.getSyncId());
+      boolean isChanged = mine == null ? ! record.isDeleted() : mine.getHash() != record.getHash();
+      if ( ! isChanged ) {
+        put(record);
+      }
+      else if ( record.isDeleted() ) {
+        deleted.add(String.valueOf(record.getLocalId()));
+        put(record.withLocalId(NO_LOCAL_ID));
+        ++result;
+      }
+      else {
+        Movie movie = movieOf(record);
+        if ( movie == null ) continue;
+        if ( record.getLocalId() == NO_LOCAL_ID ) {
+          added.add(movie);
+          addedRecords.add(record);
+        }
+        else {
+          fDAO.change(movie);
+          put(record);
+        }
+        ++result;
+      }
+    }
+    if ( ! deleted.isEmpty() ) {
+      fDAO.deleteAll(deleted);
+    }
+    if ( ! added.isEmpty() ) {
+      List<Movie> stored = fDAO.addAll(added);
+      for(int idx = 0; idx < stored.size(); ++idx){
+        SyncRecord record = addedRecords.get(idx);
+        put(record.withLocalId(Integer.parseInt(stored.get(idx).getId())));
+      }
+    }
+    return result;
+  }
+
+  /** The movie of a merged record, or null if its data is invalid. */
+  private Movie movieOf(final SyncRecord aRecord){
+    String id = aRecord.getLocalId() == NO_LOCAL_ID ? null : String.valueOf(aRecord.getLocalId());
+    try {
+      return Movie.fromSaved(
+        id, 
+        aRecord.getValue(SyncRecord.TITLE), 
+        aRecord.getValue(SyncRecord.DATE_VIEWED), 
+        aRecord.getValue(SyncRecord.RATING), 
+        aRecord.getValue(SyncRecord.COMMENT)
+      );
+    }
+    catch (final InvalidInputException ex) {
+      fLogger.warning(new Supplier<String>(){
+        @Override public String get() {
+          return "Skipping an invalid movie from the other side: " + aRecord.getValue(SyncRecord.TITLE) + " " + ex.getErrorMessages();
+        }
+      });
+      return null;
+    }
+  }
+
+  private static void readStatus(DataInputStream aIn) throws IOException {
+    if ( aIn.readByte() != SyncProtocol.OK ) {
+      throw new IOException("The other side failed to sync: " + SyncProtocol.readText(aIn));
+    }
+  }
+
+  private void logSync(final int aNumChanged, final long aStart){
+    fLogger.info(new Supplier<String>(){
+      @Override public String get() {
+        return 
+          "Synced " + fRecords.size() + " movies in " + (System.nanoTime() - aStart) / 1000000 + " ms. Sent " + 
+          fNumSent + ", received " + fNumReceived + ", changed " + aNumChanged + " here" + 
+          (fNumChangedThere > 0 ? ", and " + fNumChangedThere + " there." : ".")
+        ;
+      }
+    });
+  }
+}
@@ -0,0 +1,70 @@
+package hirondelle.movies.sync;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ The binary protocol spoken between two lists being synced.
+
+ <P>One side connects (the <em>client</em>), and the other accepts (the <em>server</em>).
+ Each side sends one message, then reads the other's, in turn :
+ <table border='1' cellpadding='3' cellspacing='0'>
+  <tr><th>Step</th><th>Client sends</th><th>Server answers</th></tr>
+  <tr><td>hello</td><td>magic number, version, depth of its tree</td>
+   <td>status, depth of its tree</td></tr>
+  <tr><td>one per level of the {@link MerkleTree}, from the root down</td>
+   <td>count, then the hash of each node to compare</td>
+   <td>count, then the position of each node which differs</td></tr>
+  <tr><td>buckets</td><td>for each bucket which differs : count, then the sync id 
+   and hash of each record</td><td>count, then the records which differ or which the 
+   client lacks; count, then the sync ids of the records the server lacks, or which differ</td></tr>
+  <tr><td>records</td><td>count, then the records asked for</td><td>status, and the number 
+   of movies the server changed</td></tr>
+ </table>
+
+ <P>Both sides use a tree of the greater of the two depths. The nodes compared at the first level are the root; at each next level, the children of 
+ the nodes which differ. Both sides know which nodes those are, so only hashes and positions 
+ are sent. If no node differs at some level, the lists are the same, and the sync ends there.
+
+ <P>Numbers are sent big-endian. A record is as written by {@link SyncRecord#write}, with 
+ the text of its fields. Text is a 4-byte length in bytes (-1 for null), followed by UTF-8.
+ A status is a single byte; an ERROR status is followed by a message.
+*/
+final class SyncProtocol {
+
+  static final int MAGIC = 0x4D4F5359; //'MOSY'
+  static final int VERSION = 1;
+
+  static final byte OK = 0;
+  static final byte ERROR = 1;
+
+  static void writeText(DataOutput aOut, String aText) throws IOException {
+    if ( aText == null ) {
+      aOut.writeInt(-1);
+    }
+    else {
+      byte[] bytes = aText.getBytes(ENCODING);
+      aOut.writeInt(bytes.length);
+      aOut.write(bytes);
+    }
+  }
+
+  static String readText(DataInput aIn) throws IOException {
+    int length = aIn.readInt();
+    if ( length < 0 ) return null;
+    byte[] bytes = new byte[length];
+    aIn.readFully(bytes);
+    return new String(bytes, ENCODING);
+  }
+
+  // PRIVATE
+  private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+  /** Prevent object construction. */
+  private SyncProtocol(){
+    throw new AssertionError();
+  }
+}
@@ -0,0 +1,224 @@
+package hirondelle.movies.sync;
+
+import hirondelle.movies.edit.Movie;
+import hirondelle.movies.util.Util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ What sync knows about a movie : its stable id, and a hash and a time of last change for 
+ each of its fields.
+
+ <P>The <em>sync id</em> identifies the same movie in both lists, while the movie's own id 
+ is different in each. It's assigned when sync first sees the movie, and never changes. 
+ It's derived from the title and date viewed, so a movie added to both lists before their 
+ first sync is seen as one movie.
+
+ <P>Each field has its own time of last change, so that edits to different fields of the 
+ same movie in each list are both kept (<em>last writer wins</em>, per field). A deleted 
+ movie is kept as a <em>tombstone</em>, with the time it was deleted.
+
+ <P>The text of each field is held only while being sent to the other list. 
+
+ <P>This class is immutable.
+*/
+final class SyncRecord {
+
+  static final int TITLE = 0;
+  static final int DATE_VIEWED = 1;
+  static final int RATING = 2;
+  static final int COMMENT = 3;
+  static final int NUM_FIELDS = 4;
+
+  /** A movie seen by sync for the first time. Each field is given the same time. */
+  SyncRecord(long aSyncId, int aLocalId, Movie aMovie, long aTime){
+    this(aSyncId, aLocalId, hashesOf(aMovie), timesOf(aTime), NOT_DELETED, null);
+  }
+
+  SyncRecord(long aSyncId, int aLocalId, int[] aHashes, long[] aTimes, long aDeletedTime, String[] aValues){
+    fSyncId = aSyncId;
+    fLocalId = aLocalId;
+    fHashes = aHashes;
+    fTimes = aTimes;
+    fDeletedTime = aDeletedTime;
+    fValues = aValues;
+    fHash = hashOf(aSyncId, aHashes, aDeletedTime != NOT_DELETED);
+  }
+
+  long getSyncId() { return fSyncId; }
+
+  /** The id of the movie in this list, or 0 if it has none. */
+  int getLocalId() { return fLocalId; }
+
+  boolean isDeleted() { return fDeletedTime != NOT_DELETED; }
+
+  /** Changes whenever any field changes, or the movie is deleted. Used by {@link MerkleTree}. */
+  long getHash() { return fHash; }
+
+  /** The text of the given field, if held, else null. */
+  String getValue(int aField) { return fValues == null ? null : fValues[aField]; }
+
+  /**
+   Return this record, updated with the given movie, as it is now in this list. Fields which
+   differ from what sync last saw are given the time <tt>aTime</tt>.
+  */
+  SyncRecord withLocal(Movie aMovie, long aTime){
+    int[] hashes = hashesOf(aMovie);
+    if ( Arrays.equals(hashes, fHashes) && ! isDeleted() ) return this;
+    long[] times = fTimes.clone();
+    for(int field = 0; field < NUM_FIELDS; ++field){
+      if ( hashes[field] != fHashes[field] ) {
+        times[field] = aTime;
+      }
+    }
+    return new SyncRecord(fSyncId, fLocalId, hashes, times, NOT_DELETED, null);
+  }
+
+  /** Return this record, deleted at the given time. */
+  SyncRecord deleted(long aTime){
+    if ( isDeleted() ) return this;
+    return new SyncRecord(fSyncId, NO_LOCAL_ID, fHashes, fTimes, aTime, null);
+  }
+
+  /** Return this record, with the given local id. */
+  SyncRecord withLocalId(int aLocalId){
+    return new SyncRecord(fSyncId, aLocalId, fHashes, fTimes, fDeletedTime, fValues);
+  }
+
+  /** Return this record, with the text of its fields taken from the given movie. */
+  SyncRecord withValues(Movie aMovie){
+    return new SyncRecord(fSyncId, fLocalId, fHashes, fTimes, fDeletedTime, valuesOf(aMovie));
+  }
+
+  /**
+   Merge the other list's version of this movie into this one. For each field, the value 
+   changed last wins. The result is the same in both lists, whichever one merges.
+   The text of each field is taken from the winning version, so both must hold their text,
+   unless deleted.
+  */
+  SyncRecord merge(SyncRecord aOther){
+    int[] hashes = new int[NUM_FIELDS];
+    long[] times = new long[NUM_FIELDS];
+    String[] values = new String[NUM_FIELDS];
+    for(int field = 0; field < NUM_FIELDS; ++field){
+      boolean other = 
+        aOther.fTimes[field] > fTimes[field] || 
+        (aOther.fTimes[field] == fTimes[field] && aOther.fHashes[field] > fHashes[field])
+      ;
+      SyncRecord winner = other ? aOther : this;
+      hashes[field] = winner.fHashes[field];
+      times[field] = winner.fTimes[field];
+      values[field] = winner.getValue(field);
+    }
+    return new SyncRecord(fSyncId, fLocalId, hashes, times, Math.max(fDeletedTime, aOther.fDeletedTime), values);
+  }
+
+  /** Write the record, with the text of its fields only if <tt>aWithValues</tt>. */
+  void write(DataOutput aOut, boolean aWithValues) throws IOException {
+    aOut.writeLong(fSyncId);
+    aOut.writeInt(fLocalId);
+    aOut.writeLong(fDeletedTime);
+    for(int field = 0; field < NUM_FIELDS; ++field){
+      aOut.writeInt(fHashes[field]);
+      aOut.writeLong(fTimes[field]);
+      if ( aWithValues ) {
+        SyncProtocol.writeText(aOut, getValue(field));
+      }
+    }
+  }
+
+  static SyncRecord read(DataInput aIn, boolean aWithValues) throws IOException {
+    long syncId = aIn.readLong();
+    int localId = aIn.readInt();
+    long deletedTime = aIn.readLong();
+    int[] hashes = new int[NUM_FIELDS];
+    long[] times = new long[NUM_FIELDS];
+    String[] values = aWithValues ? new String[NUM_FIELDS] : null;
+    for(int field = 0; field < NUM_FIELDS; ++field){
+      hashes[field] = aIn.readInt();
+      times[field] = aIn.readLong();
+      if ( aWithValues ) {
+        values[field] = SyncProtocol.readText(aIn);
+      }
+    }
+    return new SyncRecord(syncId, localId, hashes, times, deletedTime, values);
+  }
+
+  /** The text of each field, in the same format as in the movies file. */
+  static String[] valuesOf(Movie aMovie){
+    return new String[]{
+      aMovie.getTitle(),
+      aMovie.getDateViewed() == null ? null : Util.format(aMovie.getDateViewed()),
+      aMovie.getRating() == null ? null : aMovie.getRating().toPlainString(),
+      aMovie.getComment()
+    };
+  }
+
+  /**
+   The sync id first given to a movie : a hash of its title and the day it was viewed.
+   The same in every list, and in every time zone.
+  */
+  static long syncIdOf(Movie aMovie){
+    return mix(((long)hashOf(aMovie.getTitle()) << 32) ^ dayOf(aMovie.getDateViewed()));
+  }
+
+  /** Scrambles the bits of a 64-bit value (the SplitMix64 finalizer). */
+  static long mix(long aValue){
+    long result = aValue + 0x9E3779B97F4A7C15L;
+    result = (result ^ (result >>> 30)) * 0xBF58476D1CE4E5B9L;
+    result = (result ^ (result >>> 27)) * 0x94D049BB133111EBL;
+    return result ^ (result >>> 31);
+  }
+
+  // PRIVATE
+  private final long fSyncId;
+  private final int fLocalId;
+  private final int[] fHashes;
+  private final long[] fTimes;
+  private final long fDeletedTime;
+  private final String[] fValues;
+  private final long fHash;
+
+  private static final long NOT_DELETED = 0;
+  private static final int NO_LOCAL_ID = 0;
+  private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+  private static int[] hashesOf(Movie aMovie){
+    return new int[]{
+      hashOf(aMovie.getTitle()),
+      dayOf(aMovie.getDateViewed()),
+      aMovie.getRating() == null ? -1 : aMovie.getRating().movePointRight(1).intValue(),
+      hashOf(aMovie.getComment())
+    };
+  }
+
+  private static long[] timesOf(long aTime){
+    long[] result = new long[NUM_FIELDS];
+    Arrays.fill(result, aTime);
+    return result;
+  }
+
+  private static int hashOf(String aText){
+    return aText == null ? 0 : aText.hashCode();
+  }
+
+  /** The day viewed, counted from 1970-01-01 in the local time zone, as are the dates of movies. */
+  private static int dayOf(Date aDate){
+    if ( aDate == null ) return Integer.MIN_VALUE;
+    long time = aDate.getTime();
+    return (int)Math.floorDiv(time + TimeZone.getDefault().getOffset(time), MILLIS_PER_DAY);
+  }
+
+  private static long hashOf(long aSyncId, int[] aHashes, boolean aIsDeleted){
+    long result = mix(aSyncId);
+    for(int hash : aHashes){
+      result = mix(result ^ (hash & 0xFFFFFFFFL));
+    }
+    return aIsDeleted ? mix(result) : result;
+  }
+}
@@ -0,0 +1,6 @@
+/** 
+ Two-way sync between copies of a user's movies, such as on a laptop and a desktop.
+ 
+ <P>See {@link hirondelle.movies.LaunchSync}.
+*/
+package hirondelle.movies.sync;
@@ -0,0 +1,55 @@
+package hirondelle.movies.top;
+
+import hirondelle.movies.edit.Movie;
+import hirondelle.movies.util.Util;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.Comparator;
+import java.util.logging.Logger;
+
+import javax.swing.AbstractAction;
+import javax.swing.JFrame;
+
+/** Show the first few movies in some order. See {@link TopMoviesView}. */
+public final class TopMoviesAction extends AbstractAction {
+
+  /** Show the highest rated movies. */
+  public static TopMoviesAction topRated(JFrame aFrame){
+    TopMoviesAction result = new TopMoviesAction(aFrame, "Top Rated", Movie.RATING_SORT, TOP_RATED);
+    result.putValue(SHORT_DESCRIPTION, "Show your highest rated movies");
+    result.putValue(MNEMONIC_KEY, new Integer(KeyEvent.VK_T));
+    return result;
+  }
+
+  /** Show the most recently viewed movies. */
+  public static TopMoviesAction recentlyWatched(JFrame aFrame){
+    TopMoviesAction result = new TopMoviesAction(aFrame, "Recently Watched", null, RECENTLY_WATCHED);
+    result.putValue(SHORT_DESCRIPTION, "Show the movies you watched most recently");
+    result.putValue(MNEMONIC_KEY, new Integer(KeyEvent.VK_R));
+    return result;
+  }
+
+  /** Show the movies. They are found on a worker thread, by the view itself. */
+  @Override public void actionPerformed(ActionEvent aActionEvent) {
+    fLogger.config("Showing " + fTitle + ".");
+    new TopMoviesView(fFrame, fTitle, fOrder, fCount);
+  }
+
+  // PRIVATE
+  private final JFrame fFrame;
+  private final String fTitle;
+  private final Comparator<Movie> fOrder;
+  private final int fCount;
+  private static final int TOP_RATED = 20;
+  private static final int RECENTLY_WATCHED = 50;
+  private static final Logger fLogger = Util.getLogger(TopMoviesAction.class);
+
+  private TopMoviesAction(JFrame aFrame, String aTitle, Comparator<Movie> aOrder, int aCount) {
+    super(aTitle + "...", null);
+    fFrame = aFrame;
+    fTitle = aTitle;
+    fOrder = aOrder;
+    fCount = aCount;
+  }
+}
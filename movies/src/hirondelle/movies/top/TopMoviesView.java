@@ -0,0 +1,132 @@
+package hirondelle.movies.top;
+
+import hirondelle.movies.edit.Movie;
+import hirondelle.movies.edit.MovieDAO;
+import hirondelle.movies.util.Util;
+import hirondelle.movies.util.ui.OnClose;
+import hirondelle.movies.util.ui.StandardDialog;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
+import javax.swing.JTable;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingWorker;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ Dialog showing the first few movies in some order, in a table.
+
+ <P>The user can change how many movies are shown. The movies are found by 
+ {@link MovieDAO#top(int, Comparator)} on a worker thread, since it may need to read in 
+ movies, and the table is filled in when it completes.
+*/
+final class TopMoviesView {
+
+  /** Constructor. Builds and shows the dialog. */
+  TopMoviesView(JFrame aParent, String aTitle, Comparator<Movie> aOrder, int aCount){
+    fOrder = aOrder;
+    fCount = new JSpinner(new SpinnerNumberModel(aCount, 1, MAX_COUNT, STEP));
+    fCount.addChangeListener(new ChangeListener() {
+      @Override public void stateChanged(ChangeEvent aEvent) {
+        fetch();
+      }
+    });
+    fetch();
+    fStandardDialog = new StandardDialog(
+      aParent, aTitle, true, OnClose.DISPOSE, getBody(), getButtons()
+    );
+    fStandardDialog.display();
+  }
+
+  // PRIVATE
+  private final Comparator<Movie> fOrder;
+  private final JSpinner fCount;
+  private final DefaultTableModel fModel = new DefaultTableModel(COLUMNS, 0){
+    @Override public boolean isCellEditable(int aRow, int aColumn) {
+      return false;
+    }
+  };
+  private StandardDialog fStandardDialog;
+  private SwingWorker<List<Movie>, Void> fPendingWork;
+  private static final Object[] COLUMNS = {"Title", "Viewed", "Rating", "Comment"};
+  private static final int MAX_COUNT = 1000;
+  private static final int STEP = 10;
+
+  private JPanel getBody(){
+    JPanel count = new JPanel(new FlowLayout(FlowLayout.LEADING));
+    JLabel label = new JLabel("Show:");
+    label.setDisplayedMnemonic('s');
+    label.setLabelFor(fCount);
+    count.add(label);
+    count.add(fCount);
+    JTable table = new JTable(fModel);
+    table.setPreferredScrollableViewportSize(new Dimension(600, 300));
+    JPanel result = new JPanel(new BorderLayout());
+    result.add(count, BorderLayout.NORTH);
+    result.add(new JScrollPane(table), BorderLayout.CENTER);
+    return result;
+  }
+
+  /** Find the movies on a worker thread, cancelling any search still in progress. */
+  private void fetch(){
+    if ( fPendingWork != null ) {
+      fPendingWork.cancel(false);
+    }
+    final int count = (Integer)fCount.getValue();
+    fPendingWork = new SwingWorker<List<Movie>, Void>(){
+      @Override protected List<Movie> doInBackground() {
+        return new MovieDAO().top(count, fOrder);
+      }
+      @Override protected void done() {
+        if ( isCancelled() ) return;
+        try {
+          show(get());
+        }
+        catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ex) {
+          throw new RuntimeException("Cannot find the movies.", ex.getCause());
+        }
+      }
+    };
+    fPendingWork.execute();
+  }
+
+  private void show(List<Movie> aMovies){
+    fModel.setRowCount(0);
+    for(Movie movie : aMovies){
+      fModel.addRow(new Object[] {
+        movie.getTitle(), Util.format(movie.getDateViewed()), movie.getRating(), movie.getComment()
+      });
+    }
+  }
+
+  private List<JButton> getButtons(){
+    List<JButton> result = new ArrayList<>();
+    JButton close = new JButton("Close");
+    close.addActionListener(new ActionListener() {
+      @Override public void actionPerformed(ActionEvent aEvent) {
+        fStandardDialog.dispose();
+      }
+    });
+    result.add(close);
+    return result;
+  }
+}
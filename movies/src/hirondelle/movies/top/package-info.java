@@ -0,0 +1,6 @@
+/** 
+ Views of the first few movies in some order : the highest rated, and the most recently viewed.
+ 
+ <P>The movies are found by {@link hirondelle.movies.edit.MovieDAO#top}, without sorting all of them.
+*/
+package hirondelle.movies.top;
@@ -0,0 +1,338 @@
+package hirondelle.movies.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ Log {@link java.util.logging.Handler} which writes to a file on a background thread.
+
+ <P>The thread which logs (often the Event Dispatch Thread) only adds the record to a
+ bounded ring buffer, and returns at once. It never waits for the disk. A single writer
+ thread formats the records, and writes them in batches. If the buffer is full, new records
+ are dropped, and the writer notes how many were lost.
+
+ <P>The log file is <em>rotated</em> when it grows beyond a maximum size, when it gets older
+ than a maximum age, and when the app starts, if it isn't empty. The old file is
+ compressed to <tt>&lt;name&gt;-&lt;date and time&gt;.&lt;extension&gt;.gz</tt>, in the same
+ directory. Only the most recent of these old files are kept, so the logs take a bounded
+ amount of disk space.
+
+ <P>If a second instance of the app is running in the same directory, it writes to
+ <tt>&lt;name&gt;.1.&lt;extension&gt;</tt> instead (and so on), so the two never write to, or
+ rotate, each other's file. As with {@link java.util.logging.FileHandler}, a <tt>.lck</tt>
+ file marks a log file as in use.
+*/
+public final class AsyncLogHandler extends Handler {
+
+  /**
+   Constructor. Opens the log file, and starts the writer thread.
+   @param aFile the log file
+   @param aCapacity the number of records the buffer can hold
+   @param aMaxBytes the size of the log file which triggers a rotation
+   @param aMaxAgeMillis the age of the log file which triggers a rotation
+   @param aMaxOldFiles the number of compressed old files to keep
+  */
+  public AsyncLogHandler(
+    Path aFile, int aCapacity, long aMaxBytes, long aMaxAgeMillis, int aMaxOldFiles
+  ) throws IOException {
+    fBuffer = new LogRecord[aCapacity];
+    fMaxBytes = aMaxBytes;
+    fMaxAgeMillis = aMaxAgeMillis;
+    fMaxOldFiles = aMaxOldFiles;
+    fFile = lockUnusedFile(aFile.toAbsolutePath());
+    if ( Files.exists(fFile) && Files.size(fFile) > 0 ) {
+      rotate();
+    }
+    open();
+    fWriter = new Thread("Log writer"){
+      @Override public void run() {
+        writeUntilClosed();
+      }
+    };
+    fWriter.setDaemon(true);
+    fWriter.start();
+  }
+
+  /** Add the record to the buffer, and return at once. If the buffer is full, drop the record. */
+  @Override public void publish(LogRecord aRecord) {
+    if ( ! isLoggable(aRecord) ) return;
+    //otherwise inferred later, from the writer thread's stack
+    aRecord.getSourceClassName();
+    synchronized(fLock){
+      if ( fIsClosed || fCount == fBuffer.length ) {
+        ++fDropped;
+        return;
+      }
+      fBuffer[(fHead + fCount) % fBuffer.length] = aRecord;
+      ++fCount;
+      if ( fCount == 1 ) {
+        fLock.notify();
+      }
+    }
+  }
+
+  /** Does nothing. The writer flushes the file after each batch of records. */
+  @Override public void flush() {
+    //nothing to do
+  }
+
+  /**
+   Write the records already in the buffer, and close the file. Records published later
+   are dropped. Waits a short time at most.
+  */
+  @Override public void close() {
+    synchronized(fLock){
+      if ( fIsClosed ) return;
+      fIsClosed = true;
+      fLock.notify();
+    }
+    try {
+      fWriter.join(CLOSE_TIMEOUT_MILLIS);
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // PRIVATE
+  private final LogRecord[] fBuffer;
+  private final Object fLock = new Object();
+  /* These four are guarded by fLock. */
+  private int fHead;
+  private int fCount;
+  private int fDropped;
+  private boolean fIsClosed;
+
+  private final Path fFile;
+  private final long fMaxBytes;
+  private final long fMaxAgeMillis;
+  private final int fMaxOldFiles;
+  private final Thread fWriter;
+  private FileChannel fLockChannel;
+  private FileLock fFileLock;
+  /* These three are used only by the writer thread, once it has started. */
+  private OutputStream fOut;
+  private long fBytesWritten;
+  private long fOpenedAt;
+
+  private static final Charset ENCODING = StandardCharsets.UTF_8;
+  private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+  private static final int MAX_UNIQUE_SUFFIX = 100;
+  private static final String ROTATED_DATE_FORMAT = "yyyyMMdd-HHmmss-SSS";
+  private static final String COMPRESSED = ".gz";
+
+  private void writeUntilClosed(){
+    List<LogRecord> batch = new ArrayList<>();
+    while ( true ) {
+      int dropped = 0;
+      boolean isClosed = false;
+      synchronized(fLock){
+        try {
+          while ( fCount == 0 && ! fIsClosed ) {
+            fLock.wait(millisUntilTooOld());
+            if ( fCount == 0 && isTooOld() ) break;
+          }
+        }
+        catch (InterruptedException ex) {
+          fIsClosed = true;
+        }
+        for( ; fCount > 0; --fCount){
+          batch.add(fBuffer[fHead]);
+          fBuffer[fHead] = null;
+          fHead = (fHead + 1) % fBuffer.length;
+        }
+        dropped = fDropped;
+        fDropped = 0;
+        isClosed = fIsClosed;
+      }
+      try {
+        write(batch, dropped);
+      }
+      catch (IOException ex) {
+        reportError("Cannot write to the log file.", ex, ErrorManager.WRITE_FAILURE);
+      }
+      batch.clear();
+      if ( isClosed ) break;
+    }
+    closeFile();
+    releaseLock();
+  }
+
+  private void write(List<LogRecord> aBatch, int aDropped) throws IOException {
+    if ( fOut == null ) {
+      //an earlier rotation failed part way
+      open();
+    }
+    if ( isTooOld() ) {
+      if ( fBytesWritten > 0 ) {
+        closeFile();
+        rotate();
+        open();
+      }
+      else {
+        //nothing worth keeping
+        fOpenedAt = System.currentTimeMillis();
+      }
+    }
+    if ( aDropped > 0 ) {
+      write(aDropped + " log records were dropped, since the log buffer was full." + System.lineSeparator());
+    }
+    for(LogRecord record : aBatch){
+      String text = null;
+      try {
+        text = getFormatter().format(record);
+      }
+      catch (RuntimeException ex) {
+        reportError("Cannot format a log record.", ex, ErrorManager.FORMAT_FAILURE);
+        continue;
+      }
+      write(text);
+      if ( fBytesWritten >= fMaxBytes ) {
+        closeFile();
+        rotate();
+        open();
+      }
+    }
+    fOut.flush();
+  }
+
+  private void write(String aText) throws IOException {
+    byte[] bytes = aText.getBytes(ENCODING);
+    fOut.write(bytes);
+    fBytesWritten = fBytesWritten + bytes.length;
+  }
+
+  private boolean isTooOld(){
+    return millisUntilTooOld() <= 1;
+  }
+
+  /** Never 0, since 0 means forever to Object.wait. */
+  private long millisUntilTooOld(){
+    return Math.max(1, fOpenedAt + fMaxAgeMillis - System.currentTimeMillis());
+  }
+
+  private void open() throws IOException {
+    fOut = new BufferedOutputStream(Files.newOutputStream(
+      fFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND
+    ));
+    fBytesWritten = Files.size(fFile);
+    fOpenedAt = System.currentTimeMillis();
+  }
+
+  private void closeFile(){
+    try {
+      if ( fOut != null ) {
+        fOut.close();
+      }
+    }
+    catch (IOException ex) {
+      reportError("Cannot close the log file.", ex, ErrorManager.CLOSE_FAILURE);
+    }
+    fOut = null;
+  }
+
+  private void releaseLock(){
+    try {
+      fFileLock.release();
+      fLockChannel.close();
+      Files.deleteIfExists(fFile.resolveSibling(fFile.getFileName() + ".lck"));
+    }
+    catch (IOException ex) {
+      reportError("Cannot release the log file's lock.", ex, ErrorManager.CLOSE_FAILURE);
+    }
+  }
+
+  /** Compress the current file into a new old file, and delete the oldest old files. */
+  private void rotate() throws IOException {
+    String stamp = new SimpleDateFormat(ROTATED_DATE_FORMAT).format(new Date());
+    Path target = fFile.resolveSibling(stem() + "-" + stamp + extension() + COMPRESSED);
+    try (
+      InputStream in = Files.newInputStream(fFile);
+      OutputStream out = new GZIPOutputStream(Files.newOutputStream(target))
+    ){
+      byte[] bytes = new byte[64 * 1024];
+      int count = 0;
+      while ( (count = in.read(bytes)) != -1 ) {
+        out.write(bytes, 0, count);
+      }
+    }
+    Files.delete(fFile);
+    deleteOldestFiles();
+  }
+
+  private void deleteOldestFiles() throws IOException {
+    List<Path> oldFiles = new ArrayList<>();
+    String glob = stem() + "-*" + extension() + COMPRESSED;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(fFile.getParent(), glob)){
+      for(Path file : files){
+        oldFiles.add(file);
+      }
+    }
+    //the date and time sort as text
+    Collections.sort(oldFiles);
+    for(int idx = 0; idx < oldFiles.size() - fMaxOldFiles; ++idx){
+      Files.deleteIfExists(oldFiles.get(idx));
+    }
+  }
+
+  /** Lock the given file, or, if another process is using it, the first unused variation. */
+  private Path lockUnusedFile(Path aFile) throws IOException {
+    String name = aFile.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    String stem = dot < 0 ? name : name.substring(0, dot);
+    String extension = dot < 0 ? "" : name.substring(dot);
+    for(int suffix = 0; suffix < MAX_UNIQUE_SUFFIX; ++suffix){
+      Path result = suffix == 0 ? aFile : aFile.resolveSibling(stem + "." + suffix + extension);
+      FileChannel channel = FileChannel.open(
+        result.resolveSibling(result.getFileName() + ".lck"),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE
+      );
+      FileLock lock = null;
+      try {
+        lock = channel.tryLock();
+      }
+      catch (OverlappingFileLockException ex) {
+        //locked by another handler in this JVM
+      }
+      if ( lock != null ) {
+        fLockChannel = channel;
+        fFileLock = lock;
+        return result;
+      }
+      channel.close();
+    }
+    throw new IOException("All variations of the log file name are in use: " + aFile);
+  }
+
+  private String stem(){
+    String name = fFile.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? name : name.substring(0, dot);
+  }
+
+  private String extension(){
+    String name = fFile.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot);
+  }
+}
@@ -0,0 +1,36 @@
+package hirondelle.movies.util;
+
+/**
+ The name of the user whose movies are being shown or served.
+
+ <P>The user name is needed by the persistence layer (it's part of a file name), which
+ must work both with and without a user interface. In the Swing app, the name is set
+ after login, by {@link hirondelle.movies.main.MainWindow}. In headless mode, it's set
+ by the launcher.
+
+ <P>The name must be set before the persistence layer is first used.
+*/
+public final class CurrentUser {
+
+  /** Set the user name. */
+  public static void set(String aUserName){
+    Args.checkForContent(aUserName);
+    fUserName = aUserName;
+  }
+
+  /** Return the user name passed to {@link #set(String)}. */
+  public static String get(){
+    if ( fUserName == null ) {
+      throw new IllegalStateException("User name has not been set.");
+    }
+    return fUserName;
+  }
+
+  // PRIVATE
+  private static volatile String fUserName;
+
+  /** Prevent object construction.  */
+  private CurrentUser(){
+    throw new AssertionError();
+  }
+}
@@ -0,0 +1,212 @@
+package hirondelle.movies.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ Immutable sorted map, whose 'edit' operations return a new map, and leave the old one unchanged.
+
+ <P>The map is a balanced (AVL) binary tree. An edit copies only the nodes on the path from the
+ root to the edited key - <tt>O(log n)</tt> new nodes. All other nodes are shared between the old
+ map and the new one. This makes it cheap to keep many versions of a large map at the same
+ time; for example, to undo edits.
+
+ <P>Keys and values cannot be null. This class is thread-safe, since it's immutable.
+*/
+public final class PersistentMap<K extends Comparable<K>, V> implements Iterable<V> {
+
+  /** Return an empty map. */
+  @SuppressWarnings("unchecked")
+  public static <K extends Comparable<K>, V> PersistentMap<K, V> empty(){
+    return (PersistentMap<K, V>)EMPTY;
+  }
+
+  /** Return the value for the given key, or <tt>null</tt> if the key is not present. */
+  public V get(K aKey){
+    Node<K, V> node = fRoot;
+    while ( node != null ) {
+      int comparison = aKey.compareTo(node.fKey);
+      if ( comparison == 0 ) return node.fValue;
+      node = comparison < 0 ? node.fLeft : node.fRight;
+    }
+    return null;
+  }
+
+  /** Return a map having the given key mapped to the given value. */
+  public PersistentMap<K, V> put(K aKey, V aValue){
+    Args.checkForNull(aKey);
+    Args.checkForNull(aValue);
+    return new PersistentMap<>(put(fRoot, aKey, aValue));
+  }
+
+  /** Return a map without the given key. If the key is not present, return this map. */
+  public PersistentMap<K, V> remove(K aKey){
+    Node<K, V> root = remove(fRoot, aKey);
+    return root == fRoot ? this : new PersistentMap<>(root);
+  }
+
+  /** The number of keys in the map. */
+  public int size(){
+    return size(fRoot);
+  }
+
+  /** Return <tt>true</tt> only if the map has no keys. */
+  public boolean isEmpty(){
+    return fRoot == null;
+  }
+
+  /** Iterate over the values, in the order of their keys. */
+  @Override public Iterator<V> iterator(){
+    return new InOrder<>(fRoot);
+  }
+
+  // PRIVATE
+
+  private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(null);
+
+  private final Node<K, V> fRoot;
+
+  private PersistentMap(Node<K, V> aRoot){
+    fRoot = aRoot;
+  }
+
+  /** Nodes are never changed after construction. */
+  private static final class Node<K, V> {
+    Node(K aKey, V aValue, Node<K, V> aLeft, Node<K, V> aRight){
+      fKey = aKey;
+      fValue = aValue;
+      fLeft = aLeft;
+      fRight = aRight;
+      fHeight = 1 + Math.max(height(aLeft), height(aRight));
+      fSize = 1 + size(aLeft) + size(aRight);
+    }
+    final K fKey;
+    final V fValue;
+    final Node<K, V> fLeft;
+    final Node<K, V> fRight;
+    final int fHeight;
+    final int fSize;
+  }
+
+  private static int height(Node<?, ?> aNode){
+    return aNode == null ? 0 : aNode.fHeight;
+  }
+
+  private static int size(Node<?, ?> aNode){
+    return aNode == null ? 0 : aNode.fSize;
+  }
+
+  private static <K extends Comparable<K>, V> Node<K, V> put(Node<K, V> aNode, K aKey, V aValue){
+    if ( aNode == null ) return new Node<>(aKey, aValue, null, null);
+    int comparison = aKey.compareTo(aNode.fKey);
+    Node<K, V> result = null;
+    if ( comparison < 0 ) {
+      result = balance(aNode.fKey, aNode.fValue, put(aNode.fLeft, aKey, aValue), aNode.fRight);
+    }
+    else if ( comparison > 0 ) {
+      result = balance(aNode.fKey, aNode.fValue, aNode.fLeft, put(aNode.fRight, aKey, aValue));
+    }
+    else {
+      result = aValue == aNode.fValue ? aNode : new Node<>(aKey, aValue, aNode.fLeft, aNode.fRight);
+    }
+    return result;
+  }
+
+  private static <K extends Comparable<K>, V> Node<K, V> remove(Node<K, V> aNode, K aKey){
+    if ( aNode == null ) return null;
+    int comparison = aKey.compareTo(aNode.fKey);
+    Node<K, V> result = null;
+    if ( comparison < 0 ) {
+      Node<K, V> left = remove(aNode.fLeft, aKey);
+      result = left == aNode.fLeft ? aNode : balance(aNode.fKey, aNode.fValue, left, aNode.fRight);
+    }
+    else if ( comparison > 0 ) {
+      Node<K, V> right = remove(aNode.fRight, aKey);
+      result = right == aNode.fRight ? aNode : balance(aNode.fKey, aNode.fValue, aNode.fLeft, right);
+    }
+    else if ( aNode.fLeft == null ) {
+      result = aNode.fRight;
+    }
+    else if ( aNode.fRight == null ) {
+      result = aNode.fLeft;
+    }
+    else {
+      //replace with the smallest item on the right
+      Node<K, V> successor = aNode.fRight;
+      while ( successor.fLeft != null ) {
+        successor = successor.fLeft;
+      }
+      result = balance(successor.fKey, successor.fValue, aNode.fLeft, remove(aNode.fRight, successor.fKey));
+    }
+    return result;
+  }
+
+  /** Build a node, rotating if the heights of its children differ by more than 1. */
+  private static <K, V> Node<K, V> balance(K aKey, V aValue, Node<K, V> aLeft, Node<K, V> aRight){
+    int difference = height(aLeft) - height(aRight);
+    Node<K, V> result = null;
+    if ( difference > 1 ) {
+      if ( height(aLeft.fLeft) >= height(aLeft.fRight) ) {
+        result = new Node<>(
+          aLeft.fKey, aLeft.fValue, aLeft.fLeft, new Node<>(aKey, aValue, aLeft.fRight, aRight)
+        );
+      }
+      else {
+        Node<K, V> pivot = aLeft.fRight;
+        result = new Node<>(
+          pivot.fKey, pivot.fValue,
+          new Node<>(aLeft.fKey, aLeft.fValue, aLeft.fLeft, pivot.fLeft),
+          new Node<>(aKey, aValue, pivot.fRight, aRight)
+        );
+      }
+    }
+    else if ( difference < -1 ) {
+      if ( height(aRight.fRight) >= height(aRight.fLeft) ) {
+        result = new Node<>(
+          aRight.fKey, aRight.fValue, new Node<>(aKey, aValue, aLeft, aRight.fLeft), aRight.fRight
+        );
+      }
+      else {
+        Node<K, V> pivot = aRight.fLeft;
+        result = new Node<>(
+          pivot.fKey, pivot.fValue,
+          new Node<>(aKey, aValue, aLeft, pivot.fLeft),
+          new Node<>(aRight.fKey, aRight.fValue, pivot.fRight, aRight.fRight)
+        );
+      }
+    }
+    else {
+      result = new Node<>(aKey, aValue, aLeft, aRight);
+    }
+    return result;
+  }
+
+  /** In-order traversal, using an explicit stack. */
+  private static final class InOrder<K, V> implements Iterator<V> {
+    InOrder(Node<K, V> aRoot){
+      pushLeftEdge(aRoot);
+    }
+    @Override public boolean hasNext() {
+      return ! fStack.isEmpty();
+    }
+    @Override public V next() {
+      if ( fStack.isEmpty() ) throw new NoSuchElementException();
+      Node<K, V> node = fStack.pop();
+      pushLeftEdge(node.fRight);
+      return node.fValue;
+    }
+    @Override public void remove() {
+      throw new UnsupportedOperationException();
+    }
+    private final Deque<Node<K, V>> fStack = new ArrayDeque<>();
+    private void pushLeftEdge(Node<K, V> aNode){
+      Node<K, V> node = aNode;
+      while ( node != null ) {
+        fStack.push(node);
+        node = node.fLeft;
+      }
+    }
+  }
+}
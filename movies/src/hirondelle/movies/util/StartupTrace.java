@@ -0,0 +1,108 @@
+package hirondelle.movies.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ Timeline of the phases of startup, from the launch of the JVM until the main window
+ can be used.
+
+ <P>Launch the app with <tt>-Dmovies.startupTrace</tt> to print the timeline to the
+ console. For example :
+ <PRE>
+Startup trace (ms)
+  JVM startup                                 142
+  logging                                      18
+  look and feel                               211
+  ...
+  waiting for the user (not counted)         2950
+  ...
+  Time to interactive                         904
+ </PRE>
+ Time spent waiting for the user, such as at the login screen, is shown, but not counted.
+
+ <P>When the property isn't set, the methods of this class return at once, and record
+ nothing.
+
+ <P>This class is thread-safe. Phases usually start on the launch thread, and end on the
+ Event Dispatch Thread.
+*/
+public final class StartupTrace {
+
+  /** The name of the system property which turns on the trace. */
+  public static final String PROPERTY = "movies.startupTrace";
+
+  /** End the current phase, if any, and start a new one. */
+  public static void phase(String aName){
+    if ( IS_ENABLED ) start(aName, true);
+  }
+
+  /** End the current phase, if any, and start waiting for the user. Not counted in the total. */
+  public static void waitForUser(String aName){
+    if ( IS_ENABLED ) start(aName + " (not counted)", false);
+  }
+
+  /** End the current phase, and print the timeline. Later calls to this class do nothing. */
+  public static void finish(){
+    if ( IS_ENABLED ) print();
+  }
+
+  // PRIVATE
+  private static final boolean IS_ENABLED = System.getProperty(PROPERTY) != null;
+
+  private static final List<String> fNames = new ArrayList<>();
+  private static final List<Long> fMillis = new ArrayList<>();
+  private static final List<Boolean> fIsCounted = new ArrayList<>();
+  private static String fCurrent;
+  private static boolean fIsCurrentCounted;
+  private static long fCurrentStart;
+  private static boolean fIsFinished;
+
+  private static synchronized void start(String aName, boolean aIsCounted){
+    if ( fIsFinished ) return;
+    if ( fCurrent == null ) {
+      //the first phase : the time taken before main was called
+      record("JVM startup", ManagementFactory.getRuntimeMXBean().getUptime(), true);
+    }
+    else {
+      endCurrent();
+    }
+    fCurrent = aName;
+    fIsCurrentCounted = aIsCounted;
+    fCurrentStart = System.nanoTime();
+  }
+
+  private static synchronized void print(){
+    if ( fIsFinished || fCurrent == null ) return;
+    endCurrent();
+    fIsFinished = true;
+    long total = 0;
+    StringBuilder text = new StringBuilder("Startup trace (ms)");
+    text.append(Consts.NEW_LINE);
+    for(int idx = 0; idx < fNames.size(); ++idx){
+      text.append(String.format("  %-45s %8d", fNames.get(idx), fMillis.get(idx)));
+      text.append(Consts.NEW_LINE);
+      if ( fIsCounted.get(idx) ) {
+        total = total + fMillis.get(idx);
+      }
+    }
+    text.append(String.format("  %-45s %8d", "Time to interactive", total));
+    System.err.println(text);
+  }
+
+  private static void endCurrent(){
+    record(fCurrent, (System.nanoTime() - fCurrentStart) / 1000000, fIsCurrentCounted);
+  }
+
+  private static void record(String aName, long aMillis, boolean aIsCounted){
+    fNames.add(aName);
+    fMillis.add(aMillis);
+    fIsCounted.add(aIsCounted);
+  }
+
+  /** Prevent object construction. */
+  private StartupTrace(){
+    throw new AssertionError();
+  }
+}
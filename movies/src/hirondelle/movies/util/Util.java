@@ -5,10 +5,11 @@ import java.util.logging.Logger;
 import java.math.BigDecimal;
 
 import hirondelle.movies.exception.InvalidInputException;
+import hirondelle.movies.exception.ValidationResult;
 
 import java.text.SimpleDateFormat;
 import java.text.DateFormat;
-import java.text.ParseException;
+import java.text.ParsePosition;
 
 /**
  Static convenience methods for common tasks, which eliminate code duplication.
@@ -84,15 +85,23 @@ public final class Util {
   Parse text into a {@link Date}. If the text has no content, then return <tt>null</tt>.
   */
   public static Date parseDate(String aDate, String aName) throws InvalidInputException {
+    ValidationResult errors = new ValidationResult();
+    Date result = parseDate(aDate, aName, errors);
+    errors.throwIfErrors();
+    return result;
+  }
+  
+  /**
+   As {@link #parseDate(String, String)}, but without throwing. If the text isn't a valid 
+   date, then add an error to <tt>aErrors</tt>, and return <tt>null</tt>.
+  */
+  public static Date parseDate(String aDate, String aName, ValidationResult aErrors) {
     Date result = null;
     if( textHasContent(aDate) ) {
-      DateFormat FORMAT = new SimpleDateFormat(DATE_FORMAT);
-      FORMAT.setLenient(false);
-      try {
-        result = FORMAT.parse(aDate);
-      }
-      catch (ParseException ex){
-        throwEx(aName + " is not a valid date: " + aDate);
+      //as DateFormat.parse(String), which throws only when nothing at all is parsed
+      result = fDateFormat.get().parse(aDate, new ParsePosition(0));
+      if ( result == null ) {
+        aErrors.add(aName + " is not a valid date: " + aDate);
       }
     }
     return result;
@@ -104,9 +113,7 @@ public final class Util {
     if( aObject != null ){
       if( aObject instanceof Date ){
         Date date = (Date)aObject;
-        DateFormat FORMAT = new SimpleDateFormat(DATE_FORMAT);
-        FORMAT.setLenient(false);
-        result = FORMAT.format(date);
+        result = fDateFormat.get().format(date);
       }
       else {
         result = String.valueOf(aObject);
@@ -118,13 +125,29 @@ public final class Util {
   
   /**   Parse text into a {@link BigDecimal}. If the text has no content, then return <tt>null</tt>. */
   public static BigDecimal parseBigDecimal(String aBigDecimal, String aName) throws InvalidInputException {
+    ValidationResult errors = new ValidationResult();
+    BigDecimal result = parseBigDecimal(aBigDecimal, aName, errors);
+    errors.throwIfErrors();
+    return result;
+  }
+  
+  /**
+   As {@link #parseBigDecimal(String, String)}, but without throwing. If the text isn't a 
+   valid number, then add an error to <tt>aErrors</tt>, and return <tt>null</tt>.
+  */
+  public static BigDecimal parseBigDecimal(String aBigDecimal, String aName, ValidationResult aErrors) {
     BigDecimal result = null;
     if ( textHasContent(aBigDecimal) ) {
-      try {
-        result = new BigDecimal(aBigDecimal);
+      if ( isDecimal(aBigDecimal) ) {
+        try {
+          result = new BigDecimal(aBigDecimal);
+        }
+        catch (NumberFormatException exception){
+          //only for an exponent out of range
+        }
       }
-      catch (NumberFormatException exception){
-        throwEx(aName + " is not a valid number.");
+      if ( result == null ) {
+        aErrors.add(aName + " is not a valid number.");
       }
     }
     return result;
@@ -135,9 +158,42 @@ public final class Util {
   /** The application's date format. */
   private static final String DATE_FORMAT = "yyyy-MM-dd";
   
-  private static void throwEx(String aMessage) throws InvalidInputException {
-    InvalidInputException ex = new InvalidInputException();
-    ex.add(aMessage);
-    throw ex;
+  /** Formats aren't thread-safe, and are costly to create, so each thread keeps its own. */
+  private static final ThreadLocal<DateFormat> fDateFormat = new ThreadLocal<DateFormat>(){
+    @Override protected DateFormat initialValue() {
+      DateFormat result = new SimpleDateFormat(DATE_FORMAT);
+      result.setLenient(false);
+      return result;
+    }
+  };
+  
+  /**
+   Return <tt>true</tt> only if the text has the syntax accepted by 
+   {@link BigDecimal#BigDecimal(String)} : an optional sign, digits with an optional 
+   decimal point, and an optional exponent. Checking first means that bad input doesn't 
+   need an exception.
+  */
+  private static boolean isDecimal(String aText){
+    int length = aText.length();
+    int idx = skipSign(aText, 0);
+    int digits = 0;
+    while ( idx < length && Character.isDigit(aText.charAt(idx)) ) { ++idx; ++digits; }
+    if ( idx < length && aText.charAt(idx) == '.' ) {
+      ++idx;
+      while ( idx < length && Character.isDigit(aText.charAt(idx)) ) { ++idx; ++digits; }
+    }
+    if ( digits == 0 ) return false;
+    if ( idx < length && (aText.charAt(idx) == 'e' || aText.charAt(idx) == 'E') ) {
+      idx = skipSign(aText, idx + 1);
+      int exponentDigits = 0;
+      while ( idx < length && Character.isDigit(aText.charAt(idx)) ) { ++idx; ++exponentDigits; }
+      if ( exponentDigits == 0 ) return false;
+    }
+    return idx == length;
+  }
+  
+  private static int skipSign(String aText, int aIdx){
+    boolean hasSign = aIdx < aText.length() && (aText.charAt(aIdx) == '+' || aText.charAt(aIdx) == '-');
+    return hasSign ? aIdx + 1 : aIdx;
   }
 }
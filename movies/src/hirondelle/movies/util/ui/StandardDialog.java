@@ -1,9 +1,15 @@
 package hirondelle.movies.util.ui;
 
+import hirondelle.movies.recording.DialogEvent;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 /**
   <b>Standard dialog</b>, centralizing various display policies.
@@ -37,6 +43,9 @@ import java.awt.event.KeyEvent;
   {@link JDialog#setDefaultCloseOperation(int)} does not allow for that behavior, while 
   this class does.
   
+  <P>Each time the dialog is displayed, a {@link DialogEvent} is recorded, from the request
+  to display it until it's closed.
+  
   <P><em>This class does not extend {@link JDialog}, since it 
     doesn't need to</em>. As a pleasant side-effect of this choice, the javadoc for this 
     class is <em>greatly</em> simplified.
@@ -73,6 +82,7 @@ public final class StandardDialog {
     fDialog.setResizable(false);
     fDialog.setDefaultCloseOperation(aOnClose.getIntValue());
     addCancelByEscapeKey(aOnClose);
+    recordEvents();
   }
 
   /**
@@ -84,6 +94,11 @@ public final class StandardDialog {
    application.)
    */
   public void display() {
+    fEvent = new DialogEvent();
+    fEvent.begin();
+    fDisplayStart = System.nanoTime();
+    fEvent.setTitle(fDialog.getTitle());
+    fEvent.setModal(fDialog.isModal());
     UiUtil.centerAndShow(fDialog);
   }
 
@@ -97,6 +112,11 @@ public final class StandardDialog {
     fDialog.dispose();
   }
 
+  /** Hide the dialog, keeping it for display again later. */
+  public void hide() {
+    fDialog.setVisible(false);
+  }
+
   /** Return the underlying dialog object.   */
   public JDialog getDialog() {
     return fDialog;
@@ -104,6 +124,43 @@ public final class StandardDialog {
 
   // PRIVATE
   private JDialog fDialog;
+  /** The event for the current display of the dialog. Null when the dialog isn't shown. */
+  private DialogEvent fEvent;
+  private long fDisplayStart;
+
+  /** The dialog is closed either by disposing of it, or by hiding it. */
+  private void recordEvents(){
+    fDialog.addWindowListener(new WindowAdapter() {
+      @Override public void windowOpened(WindowEvent aEvent) {
+        recordOpened();
+      }
+      @Override public void windowClosed(WindowEvent aEvent) {
+        recordClosed();
+      }
+    });
+    fDialog.addComponentListener(new ComponentAdapter() {
+      @Override public void componentShown(ComponentEvent aEvent) {
+        recordOpened();
+      }
+      @Override public void componentHidden(ComponentEvent aEvent) {
+        recordClosed();
+      }
+    });
+  }
+
+  private void recordOpened(){
+    if ( fEvent != null && fDisplayStart != 0 ) {
+      fEvent.setOpening(System.nanoTime() - fDisplayStart);
+      fDisplayStart = 0;
+    }
+  }
+
+  private void recordClosed(){
+    if ( fEvent != null ) {
+      fEvent.commit();
+      fEvent = null;
+    }
+  }
 
   /**
     Force the escape key to call the same action as the default {@link OnClose} operation
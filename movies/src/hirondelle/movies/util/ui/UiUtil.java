@@ -3,6 +3,11 @@ package hirondelle.movies.util.ui;
 import hirondelle.movies.LaunchApplication;
 import hirondelle.movies.util.Args;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.net.URL;
 import javax.swing.*;
 import javax.swing.border.Border;
@@ -336,6 +341,10 @@ public final class UiUtil {
   /**
   Create an icon for use by a given class.
   
+  <P>Each icon is read only once, and then shared by all callers. So an icon can be read 
+  ahead of time, on a background thread, simply by calling this method. A caller asking for 
+  an icon which is still being read waits for it to finish.
+  
   Returns <tt>null</tt> if the icon cannot be found.
   
   @param aPath path to the file, relative to the calling class, as in '../images/blah.png'
@@ -346,13 +355,43 @@ public final class UiUtil {
     ImageIcon result = null;
     URL imageURL = aClass.getResource(aPath); //resolves to an absolute path
     if (imageURL != null) {
-      result = new ImageIcon(imageURL, aDescription);
+      result = getOrReadIcon(imageURL, aDescription);
     } 
     return result;
   }
 
   // PRIVATE
   
+  /** Keyed by the text of the URL, since URL.equals can look up host names. */
+  private static final ConcurrentMap<String, FutureTask<ImageIcon>> fIcons = 
+    new ConcurrentHashMap<>()
+  ;
+  
+  private static ImageIcon getOrReadIcon(final URL aURL, final String aDescription){
+    FutureTask<ImageIcon> read = new FutureTask<>(new Callable<ImageIcon>(){
+      @Override public ImageIcon call() {
+        return new ImageIcon(aURL, aDescription);
+      }
+    });
+    FutureTask<ImageIcon> earlierRead = fIcons.putIfAbsent(aURL.toString(), read);
+    if ( earlierRead == null ) {
+      read.run();
+    }
+    else {
+      read = earlierRead;
+    }
+    try {
+      return read.get();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    catch (ExecutionException ex) {
+      throw new RuntimeException("Cannot read icon " + aURL, ex.getCause());
+    }
+  }
+  
   private static void setSizes(java.util.List aComponents, Dimension aDimension){
     Iterator compsIter = aComponents.iterator();      
     while ( compsIter.hasNext() ) {
@@ -0,0 +1,214 @@
+package hirondelle.movies.edit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hirondelle.movies.util.CurrentUser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ Tests of {@link MovieJournal}, shared by several instances of the app at once.
+
+ <P>File locks are held on behalf of a whole JVM, so each instance of the app is played
+ by a JVM of its own : {@link Appender} and {@link Holder} are run as separate processes.
+*/
+public final class MovieJournalTest {
+
+  @Rule public final TemporaryFolder fFolder = new TemporaryFolder();
+
+  /** An empty journal, as the first instance to open it leaves it. */
+  @Before public void setUp() throws IOException {
+    fSavedFile = fFolder.getRoot().toPath().resolve(MovieSegments.INDEX);
+    MovieJournal journal = MovieJournal.open(fSavedFile);
+    try {
+      journal.lock(! SHARED);
+      journal.reset(Collections.<String>emptyList());
+      journal.unlock();
+    }
+    finally {
+      journal.close();
+    }
+  }
+
+  /** Every line appended by every instance is read back whole, and in the order appended. */
+  @Test public void concurrentAppendsAreNeitherLostNorMixed() throws Exception {
+    List<Process> appenders = new ArrayList<>();
+    for(int idx = 0; idx < NUM_APPENDERS; ++idx){
+      appenders.add(start(Appender.class, fSavedFile.toString(), "appender" + idx));
+    }
+    for(Process appender : appenders){
+      assertTrue("Appender took too long", appender.waitFor(PROCESS_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      assertEquals(0, appender.exitValue());
+    }
+    List<String> lines = readAll();
+    assertEquals(NUM_APPENDERS * NUM_LINES, lines.size());
+    Map<String, Integer> nextLines = new HashMap<>();
+    for(String line : lines){
+      String[] fields = line.split("\\|");
+      assertEquals(line, 3, fields.length);
+      assertEquals(line, PADDING, fields[2]);
+      Integer expected = nextLines.containsKey(fields[0]) ? nextLines.get(fields[0]) : 0;
+      assertEquals(line, expected.intValue(), Integer.parseInt(fields[1]));
+      nextLines.put(fields[0], expected + 1);
+    }
+    assertEquals(NUM_APPENDERS, nextLines.size());
+  }
+
+  /** An instance waits for another instance to release its lock, instead of failing. */
+  @Test public void lockWaitsForAnotherInstance() throws Exception {
+    Path locked = fFolder.getRoot().toPath().resolve("locked");
+    Process holder = start(Holder.class, fSavedFile.toString(), locked.toString());
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(PROCESS_TIMEOUT_SECONDS);
+    while ( ! Files.exists(locked) && System.nanoTime() < deadline ) {
+      Thread.sleep(POLL_MILLIS);
+    }
+    assertTrue("Holder never took the lock", Files.exists(locked));
+    MovieJournal journal = MovieJournal.open(fSavedFile);
+    try {
+      long start = System.nanoTime();
+      journal.lock(! SHARED);
+      long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      journal.unlock();
+      assertTrue("Took the lock after only " + waited + " ms", waited >= HOLD_MILLIS / 2);
+    }
+    finally {
+      journal.close();
+    }
+    assertTrue(holder.waitFor(PROCESS_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(0, holder.exitValue());
+  }
+
+  /** The edits in the journal are folded into the movies files by the exit action, not left to the shutdown hook. */
+  @Test public void editsInTheJournalAreUnsavedUntilFolded() throws Exception {
+    Process exiter = start(fFolder.newFolder("home").toPath(), Exiter.class);
+    assertTrue(exiter.waitFor(PROCESS_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(0, exiter.exitValue());
+  }
+
+  /**
+   An instance of the app which appends numbered lines, one edit at a time, as the DAO does.
+   Arguments : the saved file, and the name to start each line with.
+  */
+  public static final class Appender {
+    public static void main(String... aArgs) throws IOException {
+      MovieJournal journal = MovieJournal.open(Paths.get(aArgs[0]));
+      try {
+        for(int idx = 0; idx < NUM_LINES; ++idx){
+          journal.lock(! SHARED);
+          if ( idx == 0 ) {
+            journal.readAll();
+          }
+          else {
+            journal.readNewLines();
+          }
+          journal.append(Collections.singletonList(aArgs[1] + "|" + idx + "|" + PADDING));
+          journal.unlock();
+        }
+      }
+      finally {
+        journal.close();
+      }
+    }
+  }
+
+  /**
+   An instance of the app which holds the lock for a while. Arguments : the saved file, and
+   a file to create once the lock is held.
+  */
+  public static final class Holder {
+    public static void main(String... aArgs) throws Exception {
+      MovieJournal journal = MovieJournal.open(Paths.get(aArgs[0]));
+      try {
+        journal.lock(! SHARED);
+        Files.createFile(Paths.get(aArgs[1]));
+        Thread.sleep(HOLD_MILLIS);
+        journal.unlock();
+      }
+      finally {
+        journal.close();
+      }
+    }
+  }
+
+  /**
+   An instance of the app which adds a movie, and then saves it as the exit action does.
+   Fails if the DAO reports no unsaved edits before the save, or any after it.
+  */
+  public static final class Exiter {
+    public static void main(String... aArgs) throws Exception {
+      CurrentUser.set("journal tests");
+      MovieDAO dao = new MovieDAO();
+      dao.add(new Movie(null, "Title", "2020-01-01", "5", ""));
+      if ( ! dao.hasUnsavedEdits() ) {
+        throw new IllegalStateException("The edit is only in the journal, but is reported as saved.");
+      }
+      dao.shutdown();
+      if ( dao.hasUnsavedEdits() ) {
+        throw new IllegalStateException("The journal was folded, but edits are reported as unsaved.");
+      }
+      if ( ! Files.exists(dao.getDirectory().resolve("2020.txt")) ) {
+        throw new IllegalStateException("The edit was not saved in the file for its year.");
+      }
+    }
+  }
+
+  // PRIVATE
+  private Path fSavedFile;
+
+  private static final boolean SHARED = true;
+  private static final int NUM_APPENDERS = 3;
+  private static final int NUM_LINES = 300;
+  /** Long enough that a line is written in more than one piece, if ever. */
+  private static final String PADDING = String.join("", Collections.nCopies(200, "x"));
+  private static final long HOLD_MILLIS = 1000;
+  private static final long POLL_MILLIS = 10;
+  private static final long PROCESS_TIMEOUT_SECONDS = 120;
+
+  private List<String> readAll() throws IOException {
+    MovieJournal journal = MovieJournal.open(fSavedFile);
+    try {
+      journal.lock(SHARED);
+      List<String> result = journal.readAll();
+      journal.unlock();
+      return result;
+    }
+    finally {
+      journal.close();
+    }
+  }
+
+  /** Run the main method of the given class in a new JVM, with the same class path. */
+  private static Process start(Class<?> aMain, String... aArgs) throws IOException {
+    return start(null, aMain, aArgs);
+  }
+
+  /** As above, in the given working directory. If null, in the same working directory. */
+  private static Process start(Path aDirectory, Class<?> aMain, String... aArgs) throws IOException {
+    List<String> command = new ArrayList<>(Arrays.asList(
+      Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+      "-cp", System.getProperty("java.class.path"), aMain.getName()
+    ));
+    command.addAll(Arrays.asList(aArgs));
+    ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+    if ( aDirectory != null ) {
+      builder.directory(aDirectory.toFile());
+    }
+    return builder.start();
+  }
+}
@@ -0,0 +1,104 @@
+package hirondelle.movies.edit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import hirondelle.movies.util.CurrentUser;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ Tests of saving {@link MovieSegments} when the app stops part way through a save.
+
+ <P>An interrupted save is played by copying the files of a finished save into place under
+ the names of the temporary files.
+*/
+public final class MovieSegmentsTest {
+
+  @Rule public final TemporaryFolder fFolder = new TemporaryFolder();
+
+  /** The movies are written with the help of {@link MovieDAO}, which reads in the movies of the current user. */
+  @BeforeClass public static void setUser() {
+    CurrentUser.set(USER_NAME);
+  }
+
+  /** Save two years, and then save again elsewhere, with one year changed and one emptied. */
+  @Before public void setUp() throws Exception {
+    fSaved = fFolder.newFolder("saved").toPath();
+    Map<String, List<Movie>> segments = new LinkedHashMap<>();
+    segments.put("2020", Arrays.asList(movie("1", "Alpha", "2020-01-01"), movie("2", "Beta", "2020-02-01")));
+    segments.put("2019", Arrays.asList(movie("3", "Gamma", "2019-01-01")));
+    new MovieSegments(fSaved).write(segments, 4);
+
+    fNext = fFolder.newFolder("next").toPath();
+    segments.put("2020", Arrays.asList(movie("1", "Alpha changed", "2020-01-01")));
+    segments.put("2019", Collections.<Movie>emptyList());
+    new MovieSegments(fNext).write(segments, 5);
+  }
+
+  @Test public void saveIsDroppedIfTheNewIndexIsMissing() throws Exception {
+    copy("2020.txt", "2020.txt.tmp");
+    MovieSegments segments = new MovieSegments(fSaved);
+    assertEquals(Arrays.asList("2020", "2019"), segments.getSegments());
+    assertEquals(2, segments.getCount("2020"));
+    assertEquals(4, segments.getNextId());
+    assertTrue(Files.exists(fSaved.resolve("2019.txt")));
+    assertFalse(Files.exists(fSaved.resolve("2020.txt.tmp")));
+  }
+
+  @Test public void saveIsFinishedIfTheNewIndexIsThere() throws Exception {
+    copy("2020.txt", "2020.txt.tmp");
+    copy(MovieSegments.INDEX, MovieSegments.INDEX + ".new");
+    MovieSegments segments = new MovieSegments(fSaved);
+    assertEquals(Collections.singletonList("2020"), segments.getSegments());
+    assertEquals(1, segments.getCount("2020"));
+    assertEquals(5, segments.getNextId());
+    assertEquals(read(fNext, "2020.txt"), read(fSaved, "2020.txt"));
+    assertFalse(Files.exists(fSaved.resolve("2019.txt")));
+    assertFalse(Files.exists(fSaved.resolve("2020.txt.tmp")));
+    assertFalse(Files.exists(fSaved.resolve(MovieSegments.INDEX + ".new")));
+  }
+
+  /** Some files may already have been moved into place when the app stopped. */
+  @Test public void saveIsFinishedIfSomeFilesWereMoved() throws Exception {
+    copy("2020.txt", "2020.txt");
+    copy(MovieSegments.INDEX, MovieSegments.INDEX + ".new");
+    MovieSegments segments = new MovieSegments(fSaved);
+    assertEquals(Collections.singletonList("2020"), segments.getSegments());
+    assertEquals(read(fNext, "2020.txt"), read(fSaved, "2020.txt"));
+    assertFalse(Files.exists(fSaved.resolve("2019.txt")));
+  }
+
+  // PRIVATE
+  private Path fSaved;
+  private Path fNext;
+
+  private static final String USER_NAME = "segment tests";
+
+  private static Movie movie(String aId, String aTitle, String aDateViewed) throws Exception {
+    return new Movie(aId, aTitle, aDateViewed, "5", "");
+  }
+
+  /** Copy a file of the second save into the first, under the given name. */
+  private void copy(String aFrom, String aTo) throws Exception {
+    Files.copy(fNext.resolve(aFrom), fSaved.resolve(aTo), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static List<String> read(Path aDirectory, String aFile) throws Exception {
+    return Files.readAllLines(aDirectory.resolve(aFile));
+  }
+}
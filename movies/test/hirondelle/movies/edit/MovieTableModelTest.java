@@ -0,0 +1,218 @@
+package hirondelle.movies.edit;
+
+import static org.junit.Assert.assertEquals;
+
+import hirondelle.movies.util.CurrentUser;
+import hirondelle.movies.util.Util;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ Tests of {@link MovieTableModel#applyChanges(MovieDelta)}. After the changes are applied in
+ place, the rows must be the same as those of a full rebuild, in any sort order and filter.
+
+ <P>The movies are those of a user of the tests' own, in the working directory.
+*/
+public final class MovieTableModelTest {
+
+  /** Add the movies, for a user with no movies saved. */
+  @BeforeClass public static void addMovies() throws Exception {
+    CurrentUser.set(USER_NAME);
+    deleteMovies();
+    List<Movie> movies = new ArrayList<>();
+    for(int idx = 0; idx < NUM_MOVIES; ++idx){
+      movies.add(newMovie(idx));
+    }
+    new MovieDAO().addAll(movies);
+  }
+
+  @AfterClass public static void deleteMovies() throws IOException {
+    Path directory = Paths.get(MovieSegments.directoryNameOf(USER_NAME));
+    if ( ! Files.exists(directory) ) return;
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>(){
+      @Override public FileVisitResult visitFile(Path aFile, BasicFileAttributes aAttrs) throws IOException {
+        Files.delete(aFile);
+        return FileVisitResult.CONTINUE;
+      }
+      @Override public FileVisitResult postVisitDirectory(Path aDir, IOException aEx) throws IOException {
+        Files.delete(aDir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /** A new model, with all its rows shown. */
+  @Before public void setUp() throws Exception {
+    SwingUtilities.invokeAndWait(new Runnable(){
+      @Override public void run() {
+        fModel = new MovieTableModel();
+        fModel.addTableModelListener(new TableModelListener(){
+          @Override public void tableChanged(TableModelEvent aEvent) {
+            if ( aEvent.getLastRow() == Integer.MAX_VALUE ) {
+              fRebuilt.release();
+            }
+          }
+        });
+      }
+    });
+    waitForRebuild();
+  }
+
+  @Test public void naturalOrder() throws Exception {
+    assertChangesMatchRebuild();
+  }
+
+  @Test public void sortedByTitle() throws Exception {
+    onEventThread(new Runnable(){
+      @Override public void run() {
+        fModel.sortByColumn(TITLE_COLUMN);
+      }
+    });
+    waitForRebuild();
+    assertChangesMatchRebuild();
+  }
+
+  @Test public void sortedByTitleDescending() throws Exception {
+    for(int idx = 0; idx < 2; ++idx){
+      onEventThread(new Runnable(){
+        @Override public void run() {
+          fModel.sortByColumn(TITLE_COLUMN);
+        }
+      });
+      waitForRebuild();
+    }
+    assertChangesMatchRebuild();
+  }
+
+  @Test public void sortedByRatingAndFiltered() throws Exception {
+    onEventThread(new Runnable(){
+      @Override public void run() {
+        fModel.sortByColumn(RATING_COLUMN);
+      }
+    });
+    waitForRebuild();
+    onEventThread(new Runnable(){
+      @Override public void run() {
+        fModel.filter(FILTER);
+      }
+    });
+    waitForRebuild();
+    assertChangesMatchRebuild();
+  }
+
+  // PRIVATE
+  private MovieTableModel fModel;
+  /** Released each time the model has rebuilt all of its rows. */
+  private final Semaphore fRebuilt = new Semaphore(0);
+
+  private static final String USER_NAME = "tests";
+  private static final int NUM_MOVIES = 200;
+  private static final String[] WORDS = {"The Night", "Rain", "Other Days", "North", "Theory"};
+  private static final String FILTER = "the";
+  private static final int TITLE_COLUMN = 0;
+  private static final int RATING_COLUMN = 2;
+  private static final long REBUILD_TIMEOUT_SECONDS = 60;
+
+  /** Varied titles, dates, ratings and comments, with some of each field left empty. */
+  private static Movie newMovie(int aIdx) throws Exception {
+    String title = WORDS[aIdx % WORDS.length] + " " + aIdx;
+    String date = aIdx % 11 == 0 ? "" : String.format("%d-%02d-%02d", 2010 + aIdx % 7, 1 + aIdx % 12, 1 + aIdx % 28);
+    String rating = aIdx % 13 == 0 ? "" : String.valueOf((aIdx * 7 % 101) / 10.0);
+    String comment = aIdx % 3 == 0 ? "" : WORDS[aIdx * 3 % WORDS.length];
+    return new Movie(null, title, date, rating, comment);
+  }
+
+  /**
+   Edit a few movies, some of which move, appear or disappear in the current sort order and
+   filter, apply the changes to the model, and compare its rows with those of a rebuild.
+   The events fired, applied one by one to the rows shown before, must also give the same rows.
+  */
+  private void assertChangesMatchRebuild() throws Exception {
+    MovieDAO dao = new MovieDAO();
+    long version = dao.getVersion();
+    List<Movie> movies = dao.list();
+    Movie comment = movies.get(10);
+    dao.change(new Movie(comment.getId(), comment.getTitle(), Util.format(comment.getDateViewed()), "", "The comment changed"));
+    Movie date = movies.get(20);
+    dao.change(new Movie(date.getId(), date.getTitle(), "2009-06-15", "9.5", null));
+    Movie title = movies.get(30);
+    dao.change(new Movie(title.getId(), "A new title", Util.format(title.getDateViewed()), "1", title.getComment()));
+    dao.delete(movies.get(40).getId());
+    dao.delete(movies.get(50).getId());
+    dao.add(new Movie(null, "The Newest", "2017-01-01", "7.5", "Added"));
+    dao.add(new Movie(null, "Undated", "", "", ""));
+    final MovieDelta delta = dao.changesSince(version);
+    final List<Movie> replayed = rows();
+    onEventThread(new Runnable(){
+      @Override public void run() {
+        TableModelListener replay = new TableModelListener(){
+          @Override public void tableChanged(TableModelEvent aEvent) {
+            int row = aEvent.getFirstRow();
+            if ( aEvent.getType() == TableModelEvent.DELETE ) {
+              replayed.remove(row);
+            }
+            else if ( aEvent.getType() == TableModelEvent.INSERT ) {
+              replayed.add(row, fModel.getMovie(row));
+            }
+            else {
+              replayed.set(row, fModel.getMovie(row));
+            }
+          }
+        };
+        fModel.addTableModelListener(replay);
+        fModel.applyChanges(delta);
+        fModel.removeTableModelListener(replay);
+      }
+    });
+    List<Movie> applied = rows();
+    assertEquals(applied, replayed);
+    onEventThread(new Runnable(){
+      @Override public void run() {
+        fModel.refreshView();
+      }
+    });
+    waitForRebuild();
+    assertEquals(rows(), applied);
+  }
+
+  /** The movies shown in the table, from the first row to the last. */
+  private List<Movie> rows() throws Exception {
+    final List<Movie> result = new ArrayList<>();
+    onEventThread(new Runnable(){
+      @Override public void run() {
+        for(int row = 0; row < fModel.getRowCount(); ++row){
+          result.add(fModel.getMovie(row));
+        }
+      }
+    });
+    return result;
+  }
+
+  private void waitForRebuild() throws InterruptedException {
+    if ( ! fRebuilt.tryAcquire(REBUILD_TIMEOUT_SECONDS, TimeUnit.SECONDS) ) {
+      throw new AssertionError("The rows were not rebuilt.");
+    }
+  }
+
+  private static void onEventThread(Runnable aTask) throws Exception {
+    SwingUtilities.invokeAndWait(aTask);
+  }
+}
@@ -0,0 +1,55 @@
+package hirondelle.movies.edit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import hirondelle.movies.exception.InvalidInputException;
+import hirondelle.movies.exception.ValidationResult;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/** Tests of the ratings of {@link Movie}, new and saved. */
+public final class MovieTest {
+
+  @Test(expected = InvalidInputException.class)
+  public void newRatingWithTwoDecimalPlacesIsRefused() throws Exception {
+    new Movie(null, "Title", "", "7.25", "");
+  }
+
+  @Test public void newRatingKeepsItsDecimalPlaces() throws Exception {
+    assertEquals("8", new Movie(null, "Title", "", "8", "").getRating().toPlainString());
+    assertEquals("8.0", new Movie(null, "Title", "", "8.0", "").getRating().toPlainString());
+  }
+
+  @Test public void savedRatingWithTwoDecimalPlacesIsRounded() throws Exception {
+    assertEquals(new BigDecimal("7.3"), Movie.fromSaved("1", "Title", "", "7.25", "").getRating());
+    assertEquals(new BigDecimal("10.0"), Movie.fromSaved("1", "Title", "", "9.96", "").getRating());
+  }
+
+  @Test public void savedRowsWithTwoDecimalPlacesAreKept() {
+    List<String[]> rows = Arrays.asList(
+      new String[] {"1", "First", "2020-01-01", "7.25", null},
+      new String[] {"2", "Second", "", "6.5", "Comment"}
+    );
+    ValidationResult errors = new ValidationResult();
+    List<Movie> movies = Movie.validateAll(rows, errors);
+    assertFalse(errors.hasErrors());
+    assertEquals(2, movies.size());
+    assertEquals(new BigDecimal("7.3"), movies.get(0).getRating());
+    assertEquals(new BigDecimal("6.5"), movies.get(1).getRating());
+  }
+
+  @Test public void savedRatingOutOfRangeIsStillRefused() {
+    ValidationResult errors = new ValidationResult();
+    List<Movie> movies = Movie.validateAll(
+      Arrays.<String[]>asList(new String[] {"1", "Title", "", "11.25", null}), errors
+    );
+    assertTrue(movies.isEmpty());
+    assertTrue(errors.hasErrors());
+  }
+}